@@ -0,0 +1,65 @@
+package com.njackson.test.application;
+
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.application.MainThreadBus;
+import com.squareup.otto.Bus;
+import com.squareup.otto.Subscribe;
+import com.squareup.otto.ThreadEnforcer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class MainThreadBusTest extends AndroidTestCase {
+
+    private static final int NB_EVENTS = 1000;
+
+    private MainThreadBus _bus;
+    private final List<Integer> _received = new ArrayList<Integer>();
+    private boolean _onMainThread = true;
+    private CountDownLatch _done;
+
+    @Subscribe
+    public void onInteger(Integer value) {
+        _onMainThread &= Looper.myLooper() == Looper.getMainLooper();
+        _received.add(value);
+        if (_received.size() == NB_EVENTS) {
+            _done.countDown();
+        }
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _bus = new MainThreadBus(new Bus(ThreadEnforcer.ANY));
+        _bus.register(this);
+        _done = new CountDownLatch(1);
+    }
+
+    @SmallTest
+    public void testPostsFromAnotherThreadAreDeliveredInOrderOnMainThread() throws Exception {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < NB_EVENTS; i++) {
+                    _bus.post(i);
+                }
+            }
+        });
+        thread.start();
+
+        assertTrue(_done.await(5, TimeUnit.SECONDS));
+        assertTrue(_onMainThread);
+        for (int i = 0; i < NB_EVENTS; i++) {
+            assertEquals(i, (int) _received.get(i));
+        }
+    }
+}
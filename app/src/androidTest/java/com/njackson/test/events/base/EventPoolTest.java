@@ -0,0 +1,66 @@
+package com.njackson.test.events.base;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.events.GPSServiceCommand.NewLocation;
+import com.njackson.events.base.EventPool;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class EventPoolTest extends AndroidTestCase {
+
+    private EventPool<NewLocation> _pool;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _pool = new EventPool<NewLocation>(2, new EventPool.Factory<NewLocation>() {
+            @Override
+            public NewLocation create() {
+                return new NewLocation();
+            }
+        });
+    }
+
+    @SmallTest
+    public void testObtainCreatesEventWhenPoolIsEmpty() {
+        assertNotNull(_pool.obtain());
+        assertEquals(0, _pool.getNbFree());
+    }
+
+    @SmallTest
+    public void testReleasedEventIsReused() {
+        NewLocation event = _pool.obtain();
+        _pool.release(event);
+
+        assertEquals(1, _pool.getNbFree());
+        assertSame(event, _pool.obtain());
+    }
+
+    @SmallTest
+    public void testReleaseIgnoresEventsAboveCapacity() {
+        _pool.release(new NewLocation());
+        _pool.release(new NewLocation());
+        _pool.release(new NewLocation());
+
+        assertEquals(2, _pool.getNbFree());
+    }
+
+    @SmallTest
+    public void testReleaseAfterDispatchReturnsEventOnMainLooper() throws Exception {
+        NewLocation event = _pool.obtain();
+        _pool.releaseAfterDispatch(event);
+
+        int timer = 0;
+        while (_pool.getNbFree() == 0 && timer < 2000) {
+            Thread.sleep(10);
+            timer += 10;
+        }
+
+        assertEquals(1, _pool.getNbFree());
+        assertSame(event, _pool.obtain());
+    }
+}
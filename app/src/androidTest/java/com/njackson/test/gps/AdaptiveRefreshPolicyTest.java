@@ -0,0 +1,114 @@
+package com.njackson.test.gps;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.android.gms.location.DetectedActivity;
+import com.njackson.events.GPSServiceCommand.ChangeRefreshInterval;
+import com.njackson.gps.AdaptiveRefreshPolicy;
+import com.squareup.otto.Bus;
+
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class AdaptiveRefreshPolicyTest extends AndroidTestCase {
+
+    private Bus _mockBus;
+    private AdaptiveRefreshPolicy _policy;
+    private long _time = 1000000;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        _mockBus = mock(Bus.class);
+        _policy = new AdaptiveRefreshPolicy(_mockBus);
+        _policy.setBounds(1000, 10000);
+    }
+
+    // one fix per second during seconds
+    private void ride(float speed, float accuracy, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            Location location = new Location("test");
+            location.setSpeed(speed);
+            location.setAccuracy(accuracy);
+            location.setTime(_time);
+            _policy.onLocationChanged(location);
+            _time += 1000;
+        }
+    }
+
+    private ChangeRefreshInterval lastEvent() {
+        ArgumentCaptor<ChangeRefreshInterval> captor = ArgumentCaptor.forClass(ChangeRefreshInterval.class);
+        verify(_mockBus, org.mockito.Mockito.atLeastOnce()).post(captor.capture());
+        return captor.getValue();
+    }
+
+    @SmallTest
+    public void testFastRideKeepsFullRate() {
+        ride(15, 3, 120);
+
+        verify(_mockBus, never()).post(any());
+        assertEquals(AdaptiveRefreshPolicy.MODE_FULL, _policy.getMode());
+    }
+
+    @SmallTest
+    public void testStationarySlowsDownAfterHoldTime() {
+        ride(0, 3, 10);
+        verify(_mockBus, never()).post(any());
+
+        ride(0, 3, 30);
+        ChangeRefreshInterval event = lastEvent();
+        assertTrue(event.isAdaptive());
+        assertEquals(10000, event.getRefreshInterval());
+        assertTrue(event.getMinDistance() > ChangeRefreshInterval.DEFAULT_MIN_DISTANCE);
+    }
+
+    @SmallTest
+    public void testSteadyCruiseUsesIntermediateRate() {
+        ride(8, 3, 60);
+
+        ChangeRefreshInterval event = lastEvent();
+        assertEquals(AdaptiveRefreshPolicy.MODE_CRUISE, _policy.getMode());
+        assertEquals(5000, event.getRefreshInterval());
+        assertEquals(ChangeRefreshInterval.DEFAULT_MIN_DISTANCE, event.getMinDistance());
+    }
+
+    @SmallTest
+    public void testSpeedingUpReturnsToFullRateImmediately() {
+        ride(0, 3, 60);
+        ride(15, 3, 1);
+
+        assertEquals(AdaptiveRefreshPolicy.MODE_FULL, _policy.getMode());
+        assertEquals(1000, lastEvent().getRefreshInterval());
+    }
+
+    @SmallTest
+    public void testPoorAccuracyKeepsFullRate() {
+        ride(0, 30, 60);
+
+        verify(_mockBus, never()).post(any());
+    }
+
+    @SmallTest
+    public void testActivityLeavingStillReturnsToFullRate() {
+        _policy.onActivityChanged(DetectedActivity.STILL);
+        ride(0, 3, 60);
+        assertEquals(AdaptiveRefreshPolicy.MODE_STATIONARY, _policy.getMode());
+
+        _policy.onActivityChanged(DetectedActivity.ON_BICYCLE);
+
+        assertEquals(AdaptiveRefreshPolicy.MODE_FULL, _policy.getMode());
+        verify(_mockBus, times(2)).post(any(ChangeRefreshInterval.class));
+    }
+}
@@ -0,0 +1,95 @@
+package com.njackson.test.gps;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.gps.FusionScheduler;
+import com.njackson.utils.time.ITime;
+
+import java.util.concurrent.Callable;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class FusionSchedulerTest extends AndroidTestCase {
+
+    private ITime _mockTime;
+    private Callable _mockCallback;
+    private FusionScheduler _scheduler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        _mockTime = mock(ITime.class);
+        _mockCallback = mock(Callable.class);
+        _scheduler = new FusionScheduler(_mockTime, new Handler(Looper.getMainLooper()), _mockCallback);
+        _scheduler.setInterval(500);
+    }
+
+    @SmallTest
+    public void testEmitsImmediatelyWhenIntervalElapsed() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(10000l);
+
+        _scheduler.onNewData(false);
+
+        verify(_mockCallback, times(1)).call();
+    }
+
+    @SmallTest
+    public void testCoalescesDataWithinInterval() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(10000l);
+        _scheduler.onEmitted();
+
+        _scheduler.onNewData(false);
+        _scheduler.onNewData(false);
+        _scheduler.onNewData(false);
+
+        verify(_mockCallback, never()).call();
+        verify(_mockCallback, timeout(2000).times(1)).call();
+    }
+
+    @SmallTest
+    public void testSignificantChangeEmitsImmediately() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(10000l);
+        _scheduler.onEmitted();
+
+        _scheduler.onNewData(true);
+
+        verify(_mockCallback, times(1)).call();
+    }
+
+    @SmallTest
+    public void testNewFixCancelsPendingTick() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(10000l);
+        _scheduler.onEmitted();
+
+        _scheduler.onNewData(false);
+        _scheduler.onEmitted();
+
+        Thread.sleep(1000);
+        verify(_mockCallback, never()).call();
+    }
+
+    @SmallTest
+    public void testStopCancelsPendingTick() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(10000l);
+        _scheduler.onEmitted();
+
+        _scheduler.onNewData(false);
+        _scheduler.stop();
+
+        Thread.sleep(1000);
+        verify(_mockCallback, never()).call();
+    }
+}
@@ -3,6 +3,8 @@ package com.njackson.test.gps;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -18,6 +20,7 @@ import fr.jayps.android.AdvancedLocation;
 import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,6 +32,7 @@ public class GPSSensorEventListenerTest extends AndroidTestCase {
     private AdvancedLocation _mockAdvancedLocation;
     private GPSSensorEventListener _listener;
     private CountDownLatch _latch;
+    private int _nbCallbacks;
     private SensorManager _sensorManager;
 
     @Override
@@ -45,6 +49,7 @@ public class GPSSensorEventListenerTest extends AndroidTestCase {
         _listener = new GPSSensorEventListener(_mockAdvancedLocation,_sensorManager, new Callable() {
             @Override
             public Object call() throws Exception {
+                _nbCallbacks++;
                 _latch.countDown();
                 return null;
             }
@@ -85,4 +90,52 @@ public class GPSSensorEventListenerTest extends AndroidTestCase {
         assertEquals(1,_latch.getCount());
     }
 
+    @SmallTest
+    public void testSoftwareBatchingUpdatesAltitudeOncePerBatch() {
+        _listener.enableSoftwareBatching(5);
+
+        for (int i = 0; i < 4; i++) {
+            _listener.sensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f + i});
+        }
+        verify(_mockAdvancedLocation, never()).onAltitudeChanged(anyFloat());
+
+        _listener.sensorChanged(Sensor.TYPE_PRESSURE, new float[] {1004f});
+        verify(_mockAdvancedLocation, times(1)).onAltitudeChanged(anyFloat());
+        assertEquals(1, _nbCallbacks);
+    }
+
+    @SmallTest
+    public void testFlushProcessesThePendingSamples() {
+        _listener.enableSoftwareBatching(5);
+        _listener.sensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+        _listener.sensorChanged(Sensor.TYPE_PRESSURE, new float[] {1001f});
+
+        _listener.flush();
+        _listener.flush();
+
+        verify(_mockAdvancedLocation, times(1)).onAltitudeChanged(anyFloat());
+    }
+
+    @SmallTest
+    public void testHardwareBatchingProcessesTheBurstInOnePass() throws InterruptedException {
+        HandlerThread thread = new HandlerThread("test");
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        _listener.enableHardwareBatching(handler);
+
+        // a FIFO burst: all the samples are delivered before the handler runs anything else
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 30; i++) {
+                    _listener.sensorChanged(Sensor.TYPE_PRESSURE, new float[] {i == 10 ? 900f : 1000f});
+                }
+            }
+        });
+
+        _latch.await(2000, TimeUnit.MILLISECONDS);
+        thread.quit();
+        verify(_mockAdvancedLocation, times(1)).onAltitudeChanged(anyFloat());
+        assertEquals(1, _nbCallbacks);
+    }
 }
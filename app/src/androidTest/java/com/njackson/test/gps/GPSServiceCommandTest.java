@@ -8,6 +8,8 @@ import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -23,9 +25,13 @@ import com.njackson.events.base.BaseStatus;
 import com.njackson.gps.GPSSensorEventListener;
 import com.njackson.gps.GPSServiceCommand;
 import com.njackson.gps.IForegroundServiceStarter;
+import com.njackson.rides.IRideRepository;
 import com.njackson.state.GPSDataStore;
 import com.njackson.state.IGPSDataStore;
+import com.njackson.state.IRideJournal;
 import com.njackson.test.application.TestApplication;
+import com.njackson.utils.geo.IElevationModel;
+import com.njackson.utils.geo.IGeoidModel;
 import com.njackson.utils.time.ITime;
 import com.squareup.otto.Bus;
 
@@ -41,11 +47,14 @@ import dagger.ObjectGraph;
 import dagger.Provides;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -66,6 +75,10 @@ public class GPSServiceCommandTest extends AndroidTestCase {
     @Inject LocationManager _mockLocationManager;
     @Inject SensorManager _mockSensorManager;
     @Inject IGPSDataStore _mockDataStore;
+    @Inject IRideJournal _mockRideJournal;
+    @Inject IRideRepository _mockRideRepository;
+    @Inject IElevationModel _mockElevationModel;
+    @Inject IGeoidModel _mockGeoidModel;
 
     private static IForegroundServiceStarter _mockServiceStarter;
     private static ITime _mockTime;
@@ -102,6 +115,30 @@ public class GPSServiceCommandTest extends AndroidTestCase {
             return mock(GPSDataStore.class);
         }
 
+        @Provides
+        @Singleton
+        IRideJournal provideRideJournal() {
+            return mock(IRideJournal.class);
+        }
+
+        @Provides
+        @Singleton
+        IRideRepository provideRideRepository() {
+            return mock(IRideRepository.class);
+        }
+
+        @Provides
+        @Singleton
+        IElevationModel provideElevationModel() {
+            return mock(IElevationModel.class);
+        }
+
+        @Provides
+        @Singleton
+        IGeoidModel provideGeoidModel() {
+            return mock(IGeoidModel.class);
+        }
+
         @Provides
         IForegroundServiceStarter providesForegroundServiceStarter() { return _mockServiceStarter; }
 
@@ -131,6 +168,13 @@ public class GPSServiceCommandTest extends AndroidTestCase {
         _serviceCommand = new GPSServiceCommand();
     }
 
+    @Override
+    public void tearDown() throws Exception {
+        // stops the processing thread
+        _serviceCommand.dispose();
+        super.tearDown();
+    }
+
     private void setupMocks() {
         _mockTime = mock(ITime.class);
         _mockApp = mock(TestApplication.class);
@@ -211,6 +255,24 @@ public class GPSServiceCommandTest extends AndroidTestCase {
         assertEquals(BaseStatus.Status.INITIALIZED, captor.getValue().getStatus());
     }
 
+    @SmallTest
+    public void testExecuteAgainKeepsTheRideStarted() throws Exception {
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.START));
+        verify(_mockLocationManager, timeout(1000).times(1)).requestLocationUpdates(
+                anyString(), anyLong(), anyFloat(), any(LocationListener.class), any(Looper.class));
+
+        // next start command of MainService
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.ANNOUNCE_STATE));
+
+        verify(_bus, timeout(1000).times(2)).post(isA(GPSStatus.class));
+        assertEquals(BaseStatus.Status.STARTED, _serviceCommand.getStatus());
+        // the ride journal is only recovered by the first execute
+        verify(_mockRideJournal, times(1)).recover();
+    }
+
     @SmallTest
     public void testBroadcastEventOnLocationChange() throws Exception {
         when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
@@ -227,13 +289,16 @@ public class GPSServiceCommandTest extends AndroidTestCase {
                 anyString(),
                 anyLong(),
                 anyFloat(),
-                locationListenerCaptor.capture());
+                locationListenerCaptor.capture(),
+                any(Looper.class));
 
         Location location = new Location("location");
         LocationListener listenerArgument = locationListenerCaptor.getValue();
         when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(ts+10000);
         listenerArgument.onLocationChanged(location);
 
+        // the fix is processed on the GPS processing thread
+        verify(_bus,timeout(1000).times(2)).post(isA(NewLocation.class));
         ArgumentCaptor<NewLocation> captor = ArgumentCaptor.forClass(NewLocation.class);
         verify(_bus,timeout(1000).atLeast(1)).post(captor.capture());
 
@@ -270,7 +335,8 @@ public class GPSServiceCommandTest extends AndroidTestCase {
                 anyString(),
                 anyLong(),
                 anyFloat(),
-                any(LocationListener.class));
+                any(LocationListener.class),
+                any(Looper.class));
     }
 
     @SmallTest
@@ -285,7 +351,8 @@ public class GPSServiceCommandTest extends AndroidTestCase {
                 anyString(),
                 anyLong(),
                 anyFloat(),
-                locationListenerCaptor.capture());
+                locationListenerCaptor.capture(),
+                any(Looper.class));
 
 
         int refreshInterval = 200;
@@ -293,10 +360,11 @@ public class GPSServiceCommandTest extends AndroidTestCase {
 
         verify(_mockLocationManager, timeout(200).times(1)).removeUpdates((LocationListener) anyObject());
         verify(_mockLocationManager, timeout(200).times(1)).requestLocationUpdates(
-                LocationManager.GPS_PROVIDER,
-                refreshInterval,
-                2,
-                locationListenerCaptor.getValue()
+                eq(LocationManager.GPS_PROVIDER),
+                eq((long) refreshInterval),
+                eq(2f),
+                eq(locationListenerCaptor.getValue()),
+                any(Looper.class)
         );
     }
 
@@ -339,7 +407,19 @@ public class GPSServiceCommandTest extends AndroidTestCase {
         _serviceCommand.execute(_app);
         _serviceCommand.onGPSChangeState(new GPSChangeState(GPSChangeState.State.START));
 
-        verify(_mockSensorManager,timeout(2000).times(1)).registerListener(any(GPSSensorEventListener.class),any(Sensor.class),anyInt());
+        verify(_mockSensorManager,timeout(2000).times(1)).registerListener(any(GPSSensorEventListener.class),any(Sensor.class),anyInt(),any(Handler.class));
+    }
+
+    @SmallTest
+    public void testBatchedBarometerWithoutFifoUsesSamplingPeriod() throws Exception {
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+        when(_mockPreferences.getBoolean("PREF_BAROMETER_BATCHING", false)).thenReturn(true);
+
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(GPSChangeState.State.START));
+
+        // no pressure sensor in the mock: software batching
+        verify(_mockSensorManager,timeout(2000).times(1)).registerListener(any(GPSSensorEventListener.class),any(Sensor.class),eq(3000000),any(Handler.class));
     }
 
     @SmallTest
@@ -353,6 +433,196 @@ public class GPSServiceCommandTest extends AndroidTestCase {
         verify(_mockSensorManager,timeout(2000).times(1)).unregisterListener(any(GPSSensorEventListener.class));
     }
 
+    @SmallTest
+    public void testRecoversRideJournalOnExecute() throws Exception {
+        when(_mockRideJournal.recover()).thenReturn(true);
+        when(_mockRideJournal.getDistance()).thenReturn(1234f);
+
+        _serviceCommand.execute(_app);
+
+        verify(_mockDataStore, timeout(1000).times(1)).setDistance(1234f);
+        verify(_mockDataStore, timeout(1000).times(1)).commit();
+        verify(_mockRideJournal, timeout(1000).times(1)).clear();
+    }
+
+    @SmallTest
+    public void testAppendsToRideJournalOnLocationChange() throws Exception {
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.START));
+
+        ArgumentCaptor<LocationListener> locationListenerCaptor = ArgumentCaptor.forClass(LocationListener.class);
+        verify(_mockLocationManager,timeout(1000).times(1)).requestLocationUpdates(
+                anyString(),
+                anyLong(),
+                anyFloat(),
+                locationListenerCaptor.capture(),
+                any(Looper.class));
+        verify(_mockRideJournal, timeout(1000).times(1)).open();
+
+        locationListenerCaptor.getValue().onLocationChanged(new Location("location"));
+
+        verify(_mockRideJournal, timeout(1000).times(1)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+    }
+
+    @SmallTest
+    public void testClearsRideJournalOnStop() throws Exception {
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(GPSChangeState.State.START));
+        _serviceCommand.onGPSChangeState(new GPSChangeState(GPSChangeState.State.STOP));
+
+        // once on execute (nothing to recover), once on stop
+        verify(_mockRideJournal, timeout(1000).times(2)).clear();
+    }
+
+    @SmallTest
+    public void testAddsPointsToRideRepositoryWhenTracksEnabled() throws Exception {
+        when(_mockPreferences.getBoolean("ENABLE_TRACKS", false)).thenReturn(true);
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.START));
+
+        ArgumentCaptor<LocationListener> locationListenerCaptor = ArgumentCaptor.forClass(LocationListener.class);
+        verify(_mockLocationManager,timeout(1000).times(1)).requestLocationUpdates(
+                anyString(),
+                anyLong(),
+                anyFloat(),
+                locationListenerCaptor.capture(),
+                any(Looper.class));
+        verify(_mockRideRepository, timeout(1000).times(1)).openRide(anyLong());
+
+        Location location = new Location("location");
+        location.setTime(1000);
+        locationListenerCaptor.getValue().onLocationChanged(location);
+
+        verify(_mockRideRepository, timeout(1000).times(1)).addPoint(eq(1000l), anyDouble(), anyDouble(), anyDouble(), anyFloat(), anyInt(), anyInt(), anyDouble());
+        verify(_mockRideRepository, timeout(1000).times(1)).setTotals(anyFloat(), anyLong(), anyFloat(), anyFloat());
+    }
+
+    @SmallTest
+    public void testDoesNotAddPointsToRideRepositoryWhenTracksDisabled() throws Exception {
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.START));
+
+        ArgumentCaptor<LocationListener> locationListenerCaptor = ArgumentCaptor.forClass(LocationListener.class);
+        verify(_mockLocationManager,timeout(1000).times(1)).requestLocationUpdates(
+                anyString(),
+                anyLong(),
+                anyFloat(),
+                locationListenerCaptor.capture(),
+                any(Looper.class));
+        locationListenerCaptor.getValue().onLocationChanged(new Location("location"));
+        verify(_mockRideJournal, timeout(1000).times(1)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+
+        verify(_mockRideRepository, times(0)).openRide(anyLong());
+        verify(_mockRideRepository, times(0)).addPoint(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyFloat(), anyInt(), anyInt(), anyDouble());
+    }
+
+    private LocationListener startAndCaptureLocationListener() {
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.START));
+
+        ArgumentCaptor<LocationListener> locationListenerCaptor = ArgumentCaptor.forClass(LocationListener.class);
+        verify(_mockLocationManager,timeout(1000).times(1)).requestLocationUpdates(
+                anyString(),
+                anyLong(),
+                anyFloat(),
+                locationListenerCaptor.capture(),
+                any(Looper.class));
+        return locationListenerCaptor.getValue();
+    }
+
+    private Location accurateLocation(float accuracy) {
+        Location location = new Location("location");
+        location.setLatitude(45.5);
+        location.setLongitude(5.5);
+        location.setAltitude(300);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    @SmallTest
+    public void testCalibratesOnElevationModelOnceAtStart() throws Exception {
+        when(_mockPreferences.getBoolean("DEM_ALTITUDE", false)).thenReturn(true);
+        when(_mockElevationModel.getElevation(anyDouble(), anyDouble())).thenReturn(250.0);
+        LocationListener listener = startAndCaptureLocationListener();
+
+        listener.onLocationChanged(accurateLocation(5));
+        listener.onLocationChanged(accurateLocation(5));
+
+        verify(_mockRideJournal, timeout(1000).times(2)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+        verify(_mockElevationModel, times(1)).getElevation(45.5, 5.5);
+        verify(_mockDataStore, times(1)).setAltitudeCalibrationDelta(anyFloat(), anyLong());
+    }
+
+    @SmallTest
+    public void testWaitsForAnAccurateFixToCalibrateOnElevationModel() throws Exception {
+        when(_mockPreferences.getBoolean("DEM_ALTITUDE", false)).thenReturn(true);
+        when(_mockElevationModel.getElevation(anyDouble(), anyDouble())).thenReturn(250.0);
+        LocationListener listener = startAndCaptureLocationListener();
+
+        listener.onLocationChanged(accurateLocation(50));
+        verify(_mockRideJournal, timeout(1000).times(1)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+        verify(_mockElevationModel, times(0)).getElevation(anyDouble(), anyDouble());
+
+        listener.onLocationChanged(accurateLocation(5));
+        verify(_mockElevationModel, timeout(1000).times(1)).getElevation(45.5, 5.5);
+    }
+
+    @SmallTest
+    public void testDoesNotUseElevationModelWhenDisabled() throws Exception {
+        LocationListener listener = startAndCaptureLocationListener();
+
+        listener.onLocationChanged(accurateLocation(5));
+
+        verify(_mockRideJournal, timeout(1000).times(1)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+        verify(_mockElevationModel, times(0)).getElevation(anyDouble(), anyDouble());
+    }
+
+    @SmallTest
+    public void testUsesGeoidModelFromTheFirstFix() throws Exception {
+        when(_mockGeoidModel.getGeoidHeight(anyDouble(), anyDouble())).thenReturn(49.5);
+        LocationListener listener = startAndCaptureLocationListener();
+
+        listener.onLocationChanged(accurateLocation(5));
+
+        verify(_mockRideJournal, timeout(1000).times(1)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+        verify(_mockGeoidModel, times(1)).getGeoidHeight(45.5, 5.5);
+    }
+
+    @SmallTest
+    public void testGeoidHeightFromNmeaOverridesGeoidModel() throws Exception {
+        when(_mockGeoidModel.getGeoidHeight(anyDouble(), anyDouble())).thenReturn(49.5);
+        LocationListener listener = startAndCaptureLocationListener();
+        ArgumentCaptor<GpsStatus.NmeaListener> nmeaListenerCaptor = ArgumentCaptor.forClass(GpsStatus.NmeaListener.class);
+        verify(_mockLocationManager, timeout(2000).times(1)).addNmeaListener(nmeaListenerCaptor.capture());
+
+        listener.onLocationChanged(accurateLocation(5));
+        verify(_mockRideJournal, timeout(1000).times(1)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+        nmeaListenerCaptor.getValue().onNmeaReceived(0, "$GPGGA,1,2,3,4,5,6,7,8,9,10,48,12");
+        listener.onLocationChanged(accurateLocation(5));
+        verify(_mockRideJournal, timeout(1000).times(2)).append(anyFloat(), anyLong(), anyFloat(), anyInt(), anyFloat());
+
+        // the first fix only
+        verify(_mockGeoidModel, times(1)).getGeoidHeight(anyDouble(), anyDouble());
+    }
+
+    @SmallTest
+    public void testClosesRideOnReset() throws Exception {
+        _serviceCommand.execute(_app);
+        _serviceCommand.onResetGPSStateEvent(new ResetGPSState());
+
+        verify(_mockRideRepository, timeout(1000).times(1)).closeRide();
+    }
+
     @SmallTest
     public void testSetsPreferenceStartTimeOnStart() throws Exception {
         when(_mockTime.getCurrentTimeMilliseconds()).thenReturn((long)1000);
@@ -6,6 +6,8 @@ import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import com.njackson.gps.ServiceNmeaListener;
+import com.njackson.gps.nmea.FixQuality;
+import com.njackson.gps.replay.IInputListener;
 import com.njackson.state.IGPSDataStore;
 
 import java.util.Date;
@@ -16,6 +18,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -50,6 +53,32 @@ public class ServiceNmeaListenerTest extends AndroidTestCase {
         verify(_mockAdvancedLocation,times(1)).setGeoidHeight(11);
     }
 
+    @SmallTest
+    public void testHasGeoidHeightOnlyAfterGGAWithGeoidHeight(){
+        assertFalse(_listener.hasGeoidHeight());
+        // empty geoid height field
+        _listener.onNmeaReceived(new Date().getTime(),"$GPGGA,1,2,3,4,5,6,7,8,9,10,,12");
+        assertFalse(_listener.hasGeoidHeight());
+
+        _listener.onNmeaReceived(new Date().getTime(),"$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+        assertTrue(_listener.hasGeoidHeight());
+    }
+
+    @SmallTest
+    public void testRecordsEverySentenceWhileRecording(){
+        IInputListener recorder = mock(IInputListener.class);
+        _listener.setInputRecorder(recorder);
+
+        _listener.onNmeaReceived(1000, "$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+        _listener.onNmeaReceived(2000, "$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+        _listener.setInputRecorder(null);
+        _listener.onNmeaReceived(3000, "$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+
+        verify(recorder, times(1)).onNmeaReceived(1000, "$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+        verify(recorder, times(1)).onNmeaReceived(2000, "$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+        verify(recorder, never()).onNmeaReceived(3000, "$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+    }
+
     @SmallTest
     public void testOnNmeaReceivedWithInValidDoesNothing(){
         _listener.onNmeaReceived(new Date().getTime(),"bad string");
@@ -58,10 +87,71 @@ public class ServiceNmeaListenerTest extends AndroidTestCase {
     }
 
     @SmallTest
-    public void testOnNmeaReceivedUnregistersListener(){
+    public void testOnNmeaReceivedKeepsListenerRegistered(){
         _listener.onNmeaReceived(new Date().getTime(),"$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
 
-        verify(_mockLocationManager,times(1)).removeNmeaListener(_listener);
+        verify(_mockLocationManager,never()).removeNmeaListener(_listener);
+    }
+
+    @SmallTest
+    public void testOnNmeaReceivedCommitsGeoidOnlyWhenChanged(){
+        _listener.onNmeaReceived(new Date().getTime(),"$GPGGA,1,2,3,4,5,6,7,8,9,10,11,12");
+        _listener.onNmeaReceived(new Date().getTime(),"$GPGGA,1,2,3,4,5,6,7,8,9,10,11.1,12");
+        _listener.onNmeaReceived(new Date().getTime(),"$GPGGA,1,2,3,4,5,6,7,8,9,10,48.0,12");
+
+        verify(_dataStore,times(2)).commit();
+        verify(_mockAdvancedLocation,times(1)).setGeoidHeight(48);
+    }
+
+    @SmallTest
+    public void testOnNmeaReceivedUpdatesFixQualityFromGGA(){
+        _listener.onNmeaReceived(1000, "$GNGGA,092750.000,5321.6802,N,00630.3372,W,1,8,1.03,61.7,M,55.2,M,,*68");
+
+        FixQuality fixQuality = _listener.getFixQuality();
+        assertEquals(FixQuality.QUALITY_GPS, fixQuality.getQuality());
+        assertEquals(8, fixQuality.getNbSatellitesUsed());
+        assertEquals(1.03f, fixQuality.getHdop(), 0.001f);
+        assertEquals(1000, fixQuality.getTime());
+        verify(_mockAdvancedLocation,times(1)).setGeoidHeight(55.2);
+    }
+
+    @SmallTest
+    public void testOnNmeaReceivedUpdatesFixQualityFromGSA(){
+        _listener.onNmeaReceived(1000, "$GPGSA,A,3,10,07,05,02,29,04,08,13,,,,,1.72,1.03,1.38*0A");
+
+        FixQuality fixQuality = _listener.getFixQuality();
+        assertEquals(FixQuality.FIX_TYPE_3D, fixQuality.getFixType());
+        assertEquals(1.72f, fixQuality.getPdop(), 0.001f);
+        assertEquals(1.03f, fixQuality.getHdop(), 0.001f);
+        assertEquals(1.38f, fixQuality.getVdop(), 0.001f);
+        assertFalse(fixQuality.isDegraded());
+    }
+
+    @SmallTest
+    public void testOnNmeaReceivedUpdatesFixQualityFromRMC(){
+        _listener.onNmeaReceived(1000, "$GPRMC,092750.000,A,5321.6802,N,00630.3372,W,0.02,31.66,280511,,,A*43");
+
+        assertTrue(_listener.getFixQuality().isValid());
+    }
+
+    @SmallTest
+    public void testOnNmeaReceivedSumsSatellitesInViewOfAllTalkers(){
+        _listener.onNmeaReceived(1000, "$GPGSV,2,1,06,10,63,137,17,07,61,098,15,05,59,290,20,08,54,157,30*77");
+        _listener.onNmeaReceived(1000, "$GPGSV,2,2,06,02,39,223,19,13,28,070,17*75");
+        _listener.onNmeaReceived(1000, "$GLGSV,1,1,02,65,30,100,40,66,20,200,*62");
+
+        FixQuality fixQuality = _listener.getFixQuality();
+        assertEquals(8, fixQuality.getNbSatellitesInView());
+        // 17, 15, 20, 30, 19, 17, 40 (66 has no signal)
+        assertEquals(158f / 7, fixQuality.getAverageSnr(), 0.01f);
+    }
+
+    @SmallTest
+    public void testOnNmeaReceivedIgnoresBadChecksum(){
+        _listener.onNmeaReceived(1000, "$GPGGA,092750.000,5321.6802,N,00630.3372,W,1,8,1.03,61.7,M,55.2,M,,*00");
+
+        verify(_mockAdvancedLocation,times(0)).setGeoidHeight(anyDouble());
+        assertEquals(0, _listener.getFixQuality().getTime());
     }
 
     @SmallTest
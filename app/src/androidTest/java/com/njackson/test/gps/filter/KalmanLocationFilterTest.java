@@ -0,0 +1,257 @@
+package com.njackson.test.gps.filter;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.events.BleServiceCommand.BleSensorData;
+import com.njackson.gps.filter.KalmanLocationFilter;
+import com.njackson.gps.replay.IInputListener;
+import com.njackson.gps.replay.InputRecorder;
+import com.njackson.gps.replay.InputReplayer;
+import com.njackson.utils.geo.LocalProjection;
+import com.njackson.utils.time.ITime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class KalmanLocationFilterTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-KalmanLocationFilterTest";
+
+    private static final long START = 1400000000000l;
+    private static final double NOISE = 5.0; // m
+
+    private ITime _mockTime;
+    private KalmanLocationFilter _filter;
+    private LocalProjection _truth;
+    private Random _random;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        _mockTime = mock(ITime.class);
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(START);
+        _filter = new KalmanLocationFilter(_mockTime);
+        _truth = new LocalProjection();
+        _truth.setOrigin(45.0, 5.0);
+        _random = new Random(42);
+    }
+
+    // fix at x/y metres from the origin, with gaussian noise
+    private Location createFix(double x, double y, long time) {
+        double noisyX = x + _random.nextGaussian() * NOISE;
+        double noisyY = y + _random.nextGaussian() * NOISE;
+        Location location = new Location("test");
+        location.setLatitude(_truth.getLatitude(noisyX, noisyY));
+        location.setLongitude(_truth.getLongitude(noisyX, noisyY));
+        location.setAccuracy((float) NOISE);
+        location.setTime(time);
+        return location;
+    }
+
+    private double error(Location location, double x, double y) {
+        double dx = _truth.getX(location.getLatitude(), location.getLongitude()) - x;
+        double dy = _truth.getY(location.getLatitude(), location.getLongitude()) - y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @SmallTest
+    public void testFirstFixIsUnchanged() {
+        Location location = createFix(0, 0, START);
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+
+        _filter.filter(location);
+
+        assertEquals(latitude, location.getLatitude());
+        assertEquals(longitude, location.getLongitude());
+    }
+
+    @SmallTest
+    public void testReducesJitterOnStraightLine() {
+        double rawError = 0;
+        double filteredError = 0;
+        Location previousRaw = null;
+        Location previous = null;
+        double rawDistance = 0;
+        double distance = 0;
+        double speed = 0;
+        double bearing = 0;
+        int n = 300;
+        for (int i = 0; i < n; i++) {
+            // 5 m/s to the north east
+            double x = 3.5355 * i;
+            double y = 3.5355 * i;
+            Location location = createFix(x, y, START + i * 1000);
+            Location raw = new Location(location);
+            rawError += error(location, x, y);
+            _filter.filter(location);
+            if (i >= 10) {
+                // after convergence
+                filteredError += error(location, x, y);
+                speed += location.getSpeed();
+                bearing += location.getBearing();
+            }
+            if (previous != null) {
+                rawDistance += previousRaw.distanceTo(raw);
+                distance += previous.distanceTo(location);
+            }
+            previousRaw = raw;
+            previous = location;
+        }
+        rawError /= n;
+        filteredError /= n - 10;
+
+        assertTrue("raw:" + rawError + " filtered:" + filteredError, filteredError < rawError * 0.75);
+        // truth 1495m, jitter doubles the raw distance
+        assertTrue("raw:" + rawDistance + " filtered:" + distance, Math.abs(distance - 1495) < Math.abs(rawDistance - 1495) / 4);
+        assertEquals(5.0, speed / (n - 10), 0.3);
+        assertEquals(45.0, bearing / (n - 10), 3);
+    }
+
+    @SmallTest
+    public void testStationaryJitterDoesNotAddDistance() {
+        Location previous = null;
+        double distance = 0;
+        for (int i = 0; i < 120; i++) {
+            _filter.setSensorSpeed(0, START);
+            Location location = createFix(0, 0, START + i * 1000);
+            _filter.filter(location);
+            if (previous != null) {
+                distance += previous.distanceTo(location);
+            }
+            previous = location;
+        }
+
+        // raw fixes: ~120 * 8.9m
+        assertTrue("distance:" + distance, distance < 120);
+        assertTrue(previous.getSpeed() < 0.5);
+    }
+
+    @SmallTest
+    public void testUsesSensorSpeed() {
+        Location location = null;
+        for (int i = 0; i < 30; i++) {
+            _filter.setSensorSpeed(8.0f, START);
+            location = createFix(0, 8.0 * i, START + i * 1000);
+            _filter.filter(location);
+        }
+
+        assertEquals(8.0, location.getSpeed(), 0.3);
+    }
+
+    @SmallTest
+    public void testIgnoresOldSensorSpeed() {
+        Location location = null;
+        _filter.setSensorSpeed(2.0f, START);
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(START + 60000);
+        for (int i = 0; i < 30; i++) {
+            location = createFix(0, 8.0 * i, START + i * 1000);
+            _filter.filter(location);
+        }
+
+        // not pulled towards 2 m/s
+        assertTrue(location.getSpeed() > 5);
+    }
+
+    @SmallTest
+    public void testRestartsAfterGap() {
+        for (int i = 0; i < 10; i++) {
+            _filter.filter(createFix(5.0 * i, 0, START + i * 1000));
+        }
+        Location location = createFix(10000, 0, START + 120000);
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+
+        _filter.filter(location);
+
+        assertEquals(latitude, location.getLatitude());
+        assertEquals(longitude, location.getLongitude());
+    }
+
+    @LargeTest
+    public void testBenchmarkAndAccuracyOnRecordedTrack() throws Exception {
+        // 1 hour loop ride at 1Hz with noisy fixes and wheel speed, recorded then replayed
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        InputRecorder recorder = new InputRecorder(buffer, _mockTime);
+        final int n = 3600;
+        final double[] truthX = new double[n];
+        final double[] truthY = new double[n];
+        double radius = 2000;
+        double speed = 7.0;
+        double truthDistance = 0;
+        for (int i = 0; i < n; i++) {
+            double angle = speed * i / radius;
+            truthX[i] = radius * Math.sin(angle);
+            truthY[i] = radius - radius * Math.cos(angle);
+            if (i > 0) {
+                truthDistance += speed;
+            }
+            BleSensorData data = new BleSensorData();
+            data.setCyclingWheelRpm((float) (speed * 60 / 2.1));
+            recorder.onNewBleSensorData(data);
+            recorder.onLocationChanged(createFix(truthX[i], truthY[i], START + i * 1000));
+        }
+        recorder.close();
+
+        final KalmanLocationFilter filter = new KalmanLocationFilter(_mockTime);
+        final double[] result = new double[5]; // raw error, filtered error, raw distance, filtered distance, ns
+        IInputListener listener = new IInputListener() {
+            int i = 0;
+            Location previousRaw = null;
+            Location previous = null;
+
+            @Override
+            public void onLocationChanged(Location location) {
+                Location raw = new Location(location);
+                result[0] += error(raw, truthX[i], truthY[i]);
+                long start = System.nanoTime();
+                filter.filter(location);
+                result[4] += System.nanoTime() - start;
+                result[1] += error(location, truthX[i], truthY[i]);
+                if (previous != null) {
+                    result[2] += previousRaw.distanceTo(raw);
+                    result[3] += previous.distanceTo(location);
+                }
+                previousRaw = raw;
+                previous = location;
+                i++;
+            }
+
+            @Override
+            public void onNmeaReceived(long timestamp, String nmea) {
+            }
+
+            @Override
+            public void onSensorChanged(int sensorType, float[] values) {
+            }
+
+            @Override
+            public void onNewBleSensorData(BleSensorData data) {
+                filter.setSensorSpeed(data.getCyclingWheelRpm() * 2.1f / 60, START);
+            }
+        };
+        InputReplayer replayer = new InputReplayer();
+        replayer.setSpeed(InputReplayer.SPEED_MAX);
+        replayer.replay(new ByteArrayInputStream(buffer.toByteArray()), listener);
+
+        Log.d(TAG, "fixes:" + n + " " + (long) (result[4] / n) + "ns/fix"
+                + " mean error raw:" + (result[0] / n) + "m filtered:" + (result[1] / n) + "m"
+                + " distance truth:" + truthDistance + "m raw:" + result[2] + "m filtered:" + result[3] + "m");
+        assertTrue(result[1] < result[0] / 2);
+        assertTrue(Math.abs(result[3] - truthDistance) < Math.abs(result[2] - truthDistance));
+        assertEquals(truthDistance, result[3], truthDistance * 0.01);
+    }
+}
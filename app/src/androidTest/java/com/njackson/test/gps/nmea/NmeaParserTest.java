@@ -0,0 +1,116 @@
+package com.njackson.test.gps.nmea;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.gps.nmea.NmeaParser;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class NmeaParserTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-NmeaParserTest";
+
+    private static final String GGA = "$GNGGA,092750.000,5321.6802,N,00630.3372,W,1,8,1.03,61.7,M,55.2,M,,*68\r\n";
+
+    private NmeaParser _parser;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _parser = new NmeaParser();
+    }
+
+    @SmallTest
+    public void testRecognizesSentenceWhateverTheTalker() {
+        assertEquals(NmeaParser.SENTENCE_GGA, _parser.parse("$GPGGA,1,2"));
+        assertEquals(NmeaParser.TALKER_GPS, _parser.getTalker());
+        assertEquals(NmeaParser.SENTENCE_GSA, _parser.parse("$GNGSA,A,3"));
+        assertEquals(NmeaParser.TALKER_GNSS, _parser.getTalker());
+        assertEquals(NmeaParser.SENTENCE_GSV, _parser.parse("$GLGSV,1,1,00"));
+        assertEquals(NmeaParser.TALKER_GLONASS, _parser.getTalker());
+        assertEquals(NmeaParser.SENTENCE_RMC, _parser.parse("$BDRMC,1,A"));
+        assertEquals(NmeaParser.TALKER_BEIDOU, _parser.getTalker());
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse("$GPVTG,1,2"));
+    }
+
+    @SmallTest
+    public void testRejectsInvalidSentences() {
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse(null));
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse(""));
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse("GPGGA,1,2"));
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse("$GPGGAX,1,2"));
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse("$GPGGA,1,2*F"));
+    }
+
+    @SmallTest
+    public void testVerifiesChecksum() {
+        assertEquals(NmeaParser.SENTENCE_GGA, _parser.parse(GGA));
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse(GGA.replace("*68", "*69")));
+        assertEquals(NmeaParser.SENTENCE_UNKNOWN, _parser.parse(GGA.replace("61.7", "61.8")));
+    }
+
+    @SmallTest
+    public void testReadsFieldsInPlace() {
+        _parser.parse(GGA);
+
+        assertEquals(15, _parser.getNbFields());
+        assertEquals(92750.0, _parser.getDouble(1), 1e-9);
+        assertEquals(5321.6802, _parser.getDouble(2), 1e-9);
+        assertEquals('N', _parser.getChar(3));
+        assertEquals(1, _parser.getInt(6, -1));
+        assertEquals(8, _parser.getInt(7, -1));
+        assertEquals(1.03, _parser.getDouble(8), 1e-9);
+        assertEquals(55.2, _parser.getDouble(11), 1e-9);
+    }
+
+    @SmallTest
+    public void testEmptyAndInvalidFields() {
+        _parser.parse("$GPGGA,,-12.5,abc,,7");
+
+        assertTrue(_parser.isEmpty(1));
+        assertTrue(Double.isNaN(_parser.getDouble(1)));
+        assertEquals(-1, _parser.getInt(1, -1));
+        assertEquals(0, _parser.getChar(1));
+        assertEquals(-12.5, _parser.getDouble(2), 1e-9);
+        assertEquals(-12, _parser.getInt(2, 0));
+        assertTrue(Double.isNaN(_parser.getDouble(3)));
+        assertEquals(-1, _parser.getInt(3, -1));
+        assertEquals(7, _parser.getInt(5, -1));
+        // after the last field
+        assertTrue(_parser.isEmpty(10));
+        assertTrue(Double.isNaN(_parser.getDouble(10)));
+    }
+
+    @LargeTest
+    public void testBenchmarkAgainstSplit() {
+        int n = 100000;
+        double sum = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            // what ServiceNmeaListener did before
+            if (GGA.startsWith("$GPGGA") || GGA.startsWith("$GNGGA")) {
+                String[] values = GGA.split(",");
+                sum += Double.parseDouble(values[11]) + Double.parseDouble(values[8]) + Integer.parseInt(values[7]);
+            }
+        }
+        long splitNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            if (_parser.parse(GGA) == NmeaParser.SENTENCE_GGA) {
+                sum += _parser.getDouble(11) + _parser.getDouble(8) + _parser.getInt(7, 0);
+            }
+        }
+        long parserNs = System.nanoTime() - start;
+
+        Log.d(TAG, "split: " + (splitNs / n) + "ns/sentence, NmeaParser (with checksum): " + (parserNs / n)
+                + "ns/sentence (" + sum + ")");
+        assertTrue(parserNs < splitNs);
+    }
+}
@@ -0,0 +1,235 @@
+package com.njackson.test.gps.replay;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.njackson.application.modules.AndroidModule;
+import com.njackson.application.modules.ForApplication;
+import com.njackson.events.BleServiceCommand.BleSensorData;
+import com.njackson.events.GPSServiceCommand.GPSChangeState;
+import com.njackson.events.GPSServiceCommand.NewLocation;
+import com.njackson.events.base.BaseChangeState;
+import com.njackson.gps.GPSServiceCommand;
+import com.njackson.gps.replay.InputRecorder;
+import com.njackson.gps.replay.InputReplayer;
+import com.njackson.rides.IRideRepository;
+import com.njackson.state.GPSDataStore;
+import com.njackson.state.IGPSDataStore;
+import com.njackson.state.IRideJournal;
+import com.njackson.test.application.TestApplication;
+import com.njackson.utils.geo.IElevationModel;
+import com.njackson.utils.geo.IGeoidModel;
+import com.njackson.utils.time.ITime;
+import com.squareup.otto.Bus;
+import com.squareup.otto.ThreadEnforcer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.Provides;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Created by jay on 18/10/26.
+ *
+ * Whole pipeline benchmark: a recorded hour replayed through GPSServiceCommand.getInputListener(),
+ * on the processing thread and on the recorded clock, up to the NewLocation posts.
+ */
+public class GPSPipelineReplayTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-GPSPipelineReplayTest";
+
+    private static final int NB_FIXES = 3600;
+    private static final int REFRESH_INTERVAL = 1000; // ms, one fix per second
+
+    @Inject LocationManager _mockLocationManager;
+
+    private InputReplayer _replayer;
+    private GPSServiceCommand _serviceCommand;
+    private TestApplication _app;
+
+    // filled by the bus, on the processing thread
+    private long[] _latencies;
+    private int _nbFixes;
+    private long _lastFixTime;
+    private long _endNs;
+    private CountDownLatch _done;
+
+    // posts are timed before being delivered: the latency of a fix ends at its NewLocation post
+    private class TimingBus extends Bus {
+        TimingBus() {
+            super(ThreadEnforcer.ANY);
+        }
+
+        @Override
+        public void post(Object event) {
+            if (event instanceof NewLocation && _replayer.getRecordStartNs() > 0) {
+                NewLocation newLocation = (NewLocation) event;
+                // a fused sample (BLE, barometer) carries the time of the previous fix
+                if (newLocation.getTime() != _lastFixTime && _nbFixes < NB_FIXES) {
+                    _lastFixTime = newLocation.getTime();
+                    _endNs = System.nanoTime();
+                    _latencies[_nbFixes++] = _endNs - _replayer.getRecordStartNs();
+                    if (_nbFixes == NB_FIXES) {
+                        _done.countDown();
+                    }
+                }
+            }
+            super.post(event);
+        }
+    }
+
+    @Module(
+            includes = AndroidModule.class,
+            injects = GPSPipelineReplayTest.class,
+            overrides = true,
+            complete = false
+    )
+    class TestModule {
+        @Provides
+        @Singleton
+        SharedPreferences provideSharedPreferences() {
+            return mock(SharedPreferences.class);
+        }
+
+        @Provides
+        @Singleton
+        LocationManager provideLocationManager() {
+            return mock(LocationManager.class);
+        }
+
+        @Provides
+        @Singleton
+        SensorManager provideSensorManager() { return mock(SensorManager.class); }
+
+        @Provides
+        @Singleton
+        IGPSDataStore provideGPSDataStore() {
+            return mock(GPSDataStore.class);
+        }
+
+        @Provides
+        @Singleton
+        IRideJournal provideRideJournal() {
+            return mock(IRideJournal.class);
+        }
+
+        @Provides
+        @Singleton
+        IRideRepository provideRideRepository() {
+            return mock(IRideRepository.class);
+        }
+
+        @Provides
+        @Singleton
+        IElevationModel provideElevationModel() {
+            return mock(IElevationModel.class);
+        }
+
+        @Provides
+        @Singleton
+        IGeoidModel provideGeoidModel() {
+            return mock(IGeoidModel.class);
+        }
+
+        // the pipeline runs on the recorded clock
+        @Provides
+        ITime providesTime() { return _replayer.getTime(); }
+
+        @Provides @Singleton @ForApplication
+        Context provideApplicationContext() {
+            return getContext();
+        }
+
+        @Provides @Singleton
+        Bus providesBus() { return new TimingBus(); }
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        _replayer = new InputReplayer();
+        _replayer.setSpeed(InputReplayer.SPEED_MAX);
+        _app = new TestApplication();
+        _app.setObjectGraph(ObjectGraph.create(new TestModule()));
+        _app.inject(this);
+        when(_mockLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+
+        _latencies = new long[NB_FIXES];
+        _done = new CountDownLatch(1);
+        _serviceCommand = new GPSServiceCommand();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _serviceCommand.dispose();
+        super.tearDown();
+    }
+
+    // one hour at 1Hz: fix, 5 NMEA sentences, pressure sample, HRM value
+    private byte[] recordRide() throws Exception {
+        ITime mockTime = mock(ITime.class);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        InputRecorder recorder = new InputRecorder(buffer, mockTime);
+        Location location = new Location("test");
+        location.setAccuracy(5);
+        location.setSpeed(8);
+        for (int i = 0; i < NB_FIXES; i++) {
+            long time = 1445170000000l + 1000l * i;
+            when(mockTime.getCurrentTimeMilliseconds()).thenReturn(time);
+            location.setLatitude(45 + i * 0.0001);
+            location.setLongitude(5 + i * 0.0001);
+            location.setAltitude(200 + 100 * Math.sin(i / 300.0));
+            location.setTime(time);
+            recorder.onLocationChanged(location);
+            for (int j = 0; j < 5; j++) {
+                recorder.onNmeaReceived(time, "$GPGSV,3,1,11,03,03,111,00,04,15,270,00,06,01,010,00,13,06,292,00*74");
+            }
+            when(mockTime.getCurrentTimeMilliseconds()).thenReturn(time + 500);
+            recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+            BleSensorData hrm = new BleSensorData();
+            hrm.setHeartRate(120 + i % 20);
+            recorder.onNewBleSensorData(hrm);
+        }
+        recorder.close();
+        return buffer.toByteArray();
+    }
+
+    @LargeTest
+    public void testBenchmarkPipelineReplay() throws Exception {
+        byte[] recording = recordRide();
+        _serviceCommand.execute(_app);
+        _serviceCommand.onGPSChangeState(new GPSChangeState(BaseChangeState.State.START, REFRESH_INTERVAL));
+
+        long start = System.nanoTime();
+        _serviceCommand.replay(_replayer, new ByteArrayInputStream(recording));
+
+        assertTrue(_done.await(60, TimeUnit.SECONDS));
+        long duration = _endNs - start;
+        Arrays.sort(_latencies);
+        Log.d(TAG, NB_FIXES + " fixes (" + (NB_FIXES * 8) + " records) in " + (duration / 1000000) + "ms: "
+                + (NB_FIXES * 1000000000l / duration) + " fixes/s, latency median " + (_latencies[NB_FIXES / 2] / 1000)
+                + "us, 99th percentile " + (_latencies[NB_FIXES * 99 / 100] / 1000) + "us, max " + (_latencies[NB_FIXES - 1] / 1000) + "us");
+        // on the recorded clock no fix is throttled, whatever the replay speed
+        assertEquals(NB_FIXES, _nbFixes);
+    }
+}
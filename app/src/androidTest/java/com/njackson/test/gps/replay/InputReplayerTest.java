@@ -0,0 +1,204 @@
+package com.njackson.test.gps.replay;
+
+import android.hardware.Sensor;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.events.BleServiceCommand.BleSensorData;
+import com.njackson.gps.replay.IInputListener;
+import com.njackson.gps.replay.InputRecorder;
+import com.njackson.gps.replay.InputReplayer;
+import com.njackson.utils.time.ITime;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class InputReplayerTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-InputReplayerTest";
+
+    private ITime _mockTime;
+    private IInputListener _mockListener;
+    private ByteArrayOutputStream _buffer;
+    private InputRecorder _recorder;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        _mockTime = mock(ITime.class);
+        _mockListener = mock(IInputListener.class);
+        _buffer = new ByteArrayOutputStream();
+        _recorder = new InputRecorder(_buffer, _mockTime);
+    }
+
+    private InputReplayer replay(float speed) throws IOException {
+        _recorder.close();
+        InputReplayer replayer = new InputReplayer();
+        replayer.setSpeed(speed);
+        replayer.replay(new ByteArrayInputStream(_buffer.toByteArray()), _mockListener);
+        return replayer;
+    }
+
+    @SmallTest
+    public void testReplaysLocation() throws Exception {
+        Location location = new Location("test");
+        location.setLatitude(45.1);
+        location.setLongitude(5.2);
+        location.setAltitude(1200);
+        location.setAccuracy(4);
+        location.setTime(1234567890000l);
+        _recorder.onLocationChanged(location);
+
+        replay(InputReplayer.SPEED_MAX);
+
+        ArgumentCaptor<Location> captor = ArgumentCaptor.forClass(Location.class);
+        verify(_mockListener, times(1)).onLocationChanged(captor.capture());
+        assertEquals(45.1, captor.getValue().getLatitude());
+        assertEquals(5.2, captor.getValue().getLongitude());
+        assertEquals(1200.0, captor.getValue().getAltitude());
+        assertEquals(4.0f, captor.getValue().getAccuracy());
+        assertEquals(1234567890000l, captor.getValue().getTime());
+        assertFalse(captor.getValue().hasSpeed());
+    }
+
+    @SmallTest
+    public void testReplaysNmea() throws Exception {
+        String nmea = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+        _recorder.onNmeaReceived(42, nmea);
+
+        replay(InputReplayer.SPEED_MAX);
+
+        verify(_mockListener, times(1)).onNmeaReceived(42, nmea);
+    }
+
+    @SmallTest
+    public void testReplaysPressure() throws Exception {
+        _recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1013.25f});
+
+        replay(InputReplayer.SPEED_MAX);
+
+        ArgumentCaptor<float[]> captor = ArgumentCaptor.forClass(float[].class);
+        verify(_mockListener, times(1)).onSensorChanged(eq(Sensor.TYPE_PRESSURE), captor.capture());
+        assertEquals(1013.25f, captor.getValue()[0]);
+    }
+
+    @SmallTest
+    public void testReplaysBleSensorData() throws Exception {
+        BleSensorData hrm = new BleSensorData();
+        hrm.setHeartRate(142);
+        _recorder.onNewBleSensorData(hrm);
+        BleSensorData csc = new BleSensorData();
+        csc.setCyclingCadence(90);
+        csc.setCyclingWheelRpm(250.5f);
+        _recorder.onNewBleSensorData(csc);
+
+        replay(InputReplayer.SPEED_MAX);
+
+        ArgumentCaptor<BleSensorData> captor = ArgumentCaptor.forClass(BleSensorData.class);
+        verify(_mockListener, times(2)).onNewBleSensorData(captor.capture());
+        assertEquals(BleSensorData.SENSOR_HRM, captor.getAllValues().get(0).getType());
+        assertEquals(142, captor.getAllValues().get(0).getHeartRate());
+        assertEquals(BleSensorData.SENSOR_CSC, captor.getAllValues().get(1).getType());
+        assertEquals(90, captor.getAllValues().get(1).getCyclingCadence());
+        assertEquals(250.5f, captor.getAllValues().get(1).getCyclingWheelRpm());
+    }
+
+    @SmallTest
+    public void testReplaysAtRecordedSpeed() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(1000l);
+        _recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(2000l);
+        _recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+
+        InputReplayer replayer = replay(4);
+
+        // 1s recorded at 4x
+        assertTrue(replayer.getDurationNs() >= 240 * 1000000l);
+        assertEquals(2, replayer.getNbRecords());
+    }
+
+    @SmallTest
+    public void testTimeIsTheRecordedTime() throws Exception {
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(1000l);
+        _recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+        when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(61000l);
+        _recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+        _recorder.close();
+        final InputReplayer replayer = new InputReplayer();
+        replayer.setSpeed(InputReplayer.SPEED_MAX);
+        final List<Long> times = new ArrayList<Long>();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                times.add(replayer.getTime().getCurrentTimeMilliseconds());
+                return null;
+            }
+        }).when(_mockListener).onSensorChanged(anyInt(), any(float[].class));
+
+        replayer.replay(new ByteArrayInputStream(_buffer.toByteArray()), _mockListener);
+
+        // 60s recorded, replayed at once
+        assertEquals(Arrays.asList(1000l, 61000l), times);
+    }
+
+    @SmallTest
+    public void testRejectsUnknownFile() throws Exception {
+        try {
+            new InputReplayer().replay(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6}), _mockListener);
+            fail("IOException expected");
+        } catch (IOException e) {
+        }
+    }
+
+    @LargeTest
+    public void testBenchmarkReplayThroughput() throws Exception {
+        // decoding only, into a mock: the whole pipeline is benchmarked by GPSPipelineReplayTest
+        // one hour at 1Hz: fix, 5 NMEA sentences, pressure sample, HRM value
+        Location location = new Location("test");
+        for (int i = 0; i < 3600; i++) {
+            when(_mockTime.getCurrentTimeMilliseconds()).thenReturn(1000l * i);
+            location.setLatitude(45 + i * 0.0001);
+            location.setLongitude(5 + i * 0.0001);
+            location.setTime(1000l * i);
+            _recorder.onLocationChanged(location);
+            for (int j = 0; j < 5; j++) {
+                _recorder.onNmeaReceived(1000l * i, "$GPGSV,3,1,11,03,03,111,00,04,15,270,00,06,01,010,00,13,06,292,00*74");
+            }
+            _recorder.onSensorChanged(Sensor.TYPE_PRESSURE, new float[] {1000f});
+            BleSensorData hrm = new BleSensorData();
+            hrm.setHeartRate(120 + i % 20);
+            _recorder.onNewBleSensorData(hrm);
+        }
+
+        InputReplayer replayer = replay(InputReplayer.SPEED_MAX);
+
+        Log.d(TAG, "recording: " + _buffer.size() + " bytes, replay: " + replayer.getNbRecords() + " records in "
+                + (replayer.getDurationNs() / 1000000) + "ms (" + (replayer.getDurationNs() / replayer.getNbRecords()) + "ns/record)");
+        assertEquals(3600 * 8, replayer.getNbRecords());
+    }
+}
@@ -89,6 +89,54 @@ public class LiveTrackingTest extends AndroidTestCase {
         liveTracking.parseResponse("update_activity", response);
     }
 
+    private Location location(long time, double latitude, double longitude, float accuracy) {
+        Location location = new Location("Ventoo");
+        location.setAccuracy(accuracy);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(time);
+        return location;
+    }
+
+    @SmallTest
+    public void testStraightLineIsSimplifiedBeforeUpload() throws Exception {
+        LiveTracking liveTracking = new LiveTracking(LiveTracking.TYPE_JAYPS, new Bus());
+        long time = 1420980000000l;
+        Location first = location(time, 48, 3, 5);
+
+        // sent at once, the batch starts
+        liveTracking.addPoint(first, first, 0, 0);
+        assertEquals(1, liveTracking.getBufferedPoints().split(" ").length / 4);
+        // every 10s on a meridian, ~110 m apart
+        liveTracking.addPoint(first, location(time + 10000, 48.001, 3, 6), 0, 0);
+        liveTracking.addPoint(first, location(time + 20000, 48.002, 3, 7), 0, 0);
+        assertEquals(1, liveTracking.getBufferedPoints().split(" ").length / 4);
+        // end of the batch
+        liveTracking.addPoint(first, location(time + 30000, 48.003, 3, 8), 0, 0);
+
+        String[] points = liveTracking.getBufferedPoints().split(" ");
+        assertEquals(2 * 4, points.length);
+        assertEquals("48.003", points[4]);
+        assertEquals("5.0 8.0", liveTracking.getBufferedAccuracies());
+    }
+
+    @SmallTest
+    public void testCornerIsUploaded() throws Exception {
+        LiveTracking liveTracking = new LiveTracking(LiveTracking.TYPE_JAYPS, new Bus());
+        long time = 1420980000000l;
+        Location first = location(time, 48, 3, 5);
+
+        liveTracking.addPoint(first, first, 0, 0);
+        liveTracking.addPoint(first, location(time + 10000, 48.001, 3, 6), 0, 0);
+        // turns east
+        liveTracking.addPoint(first, location(time + 20000, 48.001, 3.002, 7), 0, 0);
+        liveTracking.addPoint(first, location(time + 30000, 48.001, 3.004, 8), 0, 0);
+
+        assertEquals("48.0 3.0 0.0 1420980000 48.001 3.0 0.0 1420980010 48.001 3.004 0.0 1420980030",
+                liveTracking.getBufferedPoints());
+        assertEquals("5.0 6.0 8.0", liveTracking.getBufferedAccuracies());
+    }
+
     @SmallTest
     public void testLiveTrackingGetLogin() throws Exception {
         LiveTracking liveTracking = new LiveTracking(LiveTracking.TYPE_JAYPS, new Bus());
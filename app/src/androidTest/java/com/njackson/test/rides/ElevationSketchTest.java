@@ -0,0 +1,57 @@
+package com.njackson.test.rides;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.rides.ElevationSketch;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class ElevationSketchTest extends AndroidTestCase {
+
+    private ElevationSketch _sketch;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _sketch = new ElevationSketch();
+    }
+
+    private void addPoints(int nbPoints) {
+        for (int i = 0; i < nbPoints; i++) {
+            _sketch.add(i);
+        }
+    }
+
+    @SmallTest
+    public void testShortRideKeepsEveryPoint() {
+        addPoints(10);
+
+        assertEquals(10, _sketch.size());
+        assertEquals(1, _sketch.getWidth());
+        assertEquals(9f, _sketch.get(9));
+    }
+
+    @SmallTest
+    public void testBucketsAreMergedWhenFull() {
+        addPoints(ElevationSketch.SIZE + 1);
+
+        assertEquals(ElevationSketch.SIZE / 2 + 1, _sketch.size());
+        assertEquals(2, _sketch.getWidth());
+        assertEquals(0.5f, _sketch.get(0));
+        // last bucket: one point
+        assertEquals(64f, _sketch.get(ElevationSketch.SIZE / 2));
+    }
+
+    @SmallTest
+    public void testLongRideStaysWithinSize() {
+        // 12 hours at 1Hz
+        addPoints(12 * 3600);
+
+        assertTrue(_sketch.size() > ElevationSketch.SIZE / 2);
+        assertTrue(_sketch.size() <= ElevationSketch.SIZE);
+        assertEquals((_sketch.getWidth() - 1) / 2f, _sketch.get(0));
+    }
+}
@@ -0,0 +1,138 @@
+package com.njackson.test.rides;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.rides.PointBlockReader;
+import com.njackson.rides.PointBlockWriter;
+import com.njackson.rides.RidePoint;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class PointBlockTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-PointBlockTest";
+
+    private PointBlockWriter _writer;
+    private PointBlockReader _reader;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _writer = new PointBlockWriter(256);
+        _reader = new PointBlockReader();
+    }
+
+    // 1Hz, ~7m/s to the north east, climbing
+    private void writeRide(int nbPoints) {
+        for (int i = 0; i < nbPoints; i++) {
+            _writer.add(1445000000000l + 1000l * i, 45.1234567 + 0.00005 * i, 5.7654321 + 0.00006 * i,
+                    212.3 + 0.1 * i, 120 + i % 7, 85 - i % 5, 18.5);
+        }
+    }
+
+    @SmallTest
+    public void testRoundTrip() {
+        writeRide(100);
+
+        assertTrue(_reader.set(_writer.toByteArray()));
+        RidePoint point = new RidePoint();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(_reader.next(point));
+            assertEquals(1445000000000l + 1000l * i, point.getTime());
+            assertEquals(45.1234567 + 0.00005 * i, point.getLatitude(), 1e-7);
+            assertEquals(5.7654321 + 0.00006 * i, point.getLongitude(), 1e-7);
+            assertEquals(212.3 + 0.1 * i, point.getAltitude(), 0.05);
+            assertEquals(120 + i % 7, point.getHeartRate());
+            assertEquals(85 - i % 5, point.getCadence());
+            assertEquals(18.5, point.getTemperature(), 0.05);
+        }
+        assertFalse(_reader.next(point));
+    }
+
+    @SmallTest
+    public void testNegativeValuesAndLargeSteps() {
+        _writer.add(1000, -33.8688197, 151.2092955, -12.5, 0, 0, 0);
+        _writer.add(500, 64.1265, -21.8174, 8848, 200, 255, -21.3);
+
+        _reader.set(_writer.toByteArray());
+        RidePoint point = new RidePoint();
+        assertTrue(_reader.next(point));
+        assertEquals(1000, point.getTime());
+        assertEquals(-33.8688197, point.getLatitude(), 1e-7);
+        assertEquals(151.2092955, point.getLongitude(), 1e-7);
+        assertEquals(-12.5, point.getAltitude(), 0.05);
+        assertTrue(_reader.next(point));
+        assertEquals(500, point.getTime());
+        assertEquals(64.1265, point.getLatitude(), 1e-7);
+        assertEquals(-21.8174, point.getLongitude(), 1e-7);
+        assertEquals(8848, point.getAltitude(), 0.05);
+        assertEquals(200, point.getHeartRate());
+        assertEquals(255, point.getCadence());
+        assertEquals(-21.3, point.getTemperature(), 0.05);
+    }
+
+    @SmallTest
+    public void testOneHertzPointsAreSmall() {
+        writeRide(256);
+
+        assertTrue(_writer.isFull());
+        assertFalse(_writer.add(0, 0, 0, 0, 0, 0, 0));
+        // first point is absolute
+        assertTrue("size " + _writer.getSize(), _writer.getSize() < 32 + 255 * 10);
+    }
+
+    @SmallTest
+    public void testClearStartsANewBlock() {
+        writeRide(10);
+        _writer.clear();
+        _writer.add(2000, 1.5, 2.5, 3.5, 4, 5, 0);
+
+        assertEquals(1, _writer.getNbPoints());
+        assertEquals(2000, _writer.getFirstTime());
+        _reader.set(_writer.toByteArray());
+        RidePoint point = new RidePoint();
+        assertTrue(_reader.next(point));
+        assertEquals(1.5, point.getLatitude(), 1e-7);
+        assertFalse(_reader.next(point));
+    }
+
+    @SmallTest
+    public void testReadsVersion1Blocks() {
+        // time 1000, lat/lon 1e-6, altitude 0.5m, heart rate 100, cadence 0, no temperature
+        byte[] data = {1, (byte) 0xD0, 0x0F, 0x14, 0x14, 0x0A, (byte) 0xC8, 0x01, 0x00};
+        RidePoint point = new RidePoint();
+
+        assertTrue(_reader.set(data));
+        assertTrue(_reader.next(point));
+        assertEquals(1000, point.getTime());
+        assertEquals(1e-6, point.getLatitude(), 1e-9);
+        assertEquals(1e-6, point.getLongitude(), 1e-9);
+        assertEquals(0.5, point.getAltitude(), 1e-9);
+        assertEquals(100, point.getHeartRate());
+        assertEquals(0, point.getCadence());
+        assertEquals(0, point.getTemperature(), 1e-9);
+        assertFalse(_reader.next(point));
+    }
+
+    @SmallTest
+    public void testRejectsUnknownVersionAndTruncatedBlock() {
+        writeRide(3);
+        byte[] data = _writer.toByteArray();
+        RidePoint point = new RidePoint();
+
+        data[0] = 42;
+        assertFalse(_reader.set(data));
+        assertFalse(_reader.next(point));
+
+        data[0] = PointBlockWriter.VERSION;
+        byte[] truncated = new byte[data.length - 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertTrue(_reader.set(truncated));
+        assertTrue(_reader.next(point));
+        assertTrue(_reader.next(point));
+        assertFalse(_reader.next(point));
+    }
+}
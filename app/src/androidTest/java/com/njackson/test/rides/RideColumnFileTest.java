@@ -0,0 +1,205 @@
+package com.njackson.test.rides;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.RideColumnFile;
+import com.njackson.rides.RideColumnWriter;
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RideRepository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class RideColumnFileTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-RideColumnFileTest";
+    private static final String DATABASE = "test_columns.db";
+    private static final long START = 1444987670000l;
+
+    private File _dir;
+    private File _file;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _dir = new File(getContext().getCacheDir(), "test_columns");
+        deleteDir();
+        _dir.mkdirs();
+        _file = new File(_dir, "1.col");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        deleteDir();
+        super.tearDown();
+    }
+
+    private void deleteDir() {
+        File[] files = _dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        _dir.delete();
+    }
+
+    private void addPoints(RideColumnWriter writer, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            writer.add(START + 1000l * i, 45.1234567 + 0.00005 * i, 5.7654321 + 0.00006 * i, 200 + 0.5 * i,
+                    8.5f, 120 + i % 7, 85, i < 10 ? 18.5 : 0);
+        }
+    }
+
+    @SmallTest
+    public void testColumnsAreReadBack() throws Exception {
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        addPoints(writer, 0, 20);
+        writer.close();
+
+        RideColumnFile columns = RideColumnFile.open(_file);
+
+        assertEquals(20, columns.getNbPoints());
+        assertEquals(START, columns.getStartTime());
+        assertEquals(START + 19000, columns.getTime(19));
+        assertEquals(45.1234567 + 0.00005 * 19, columns.getLatitude(19), 1e-7);
+        assertEquals(5.7654321 + 0.00006 * 19, columns.getLongitude(19), 1e-7);
+        assertEquals(20, columns.getAltitudes().remaining());
+        assertEquals(209.5f, columns.getAltitudes().get(19));
+        assertEquals(8.5f, columns.getSpeeds().get(19));
+        assertEquals(125, columns.getHeartRates().get(19) & 0xFF);
+        assertEquals(85, columns.getCadences().get(19) & 0xFF);
+        assertEquals(18.5f, columns.getTemperatures().get(9));
+        assertEquals(0f, columns.getTemperatures().get(10));
+    }
+
+    @SmallTest
+    public void testFileGrowsAndIsShrunkOnClose() throws Exception {
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        addPoints(writer, 0, 5000);
+        assertTrue(writer.getCapacity() >= 5000);
+        writer.close();
+
+        RideColumnFile columns = RideColumnFile.open(_file);
+
+        assertEquals(5000, columns.getNbPoints());
+        assertEquals(2699.5f, columns.getAltitudes().get(4999));
+        // header + 26 bytes per point
+        assertTrue(_file.length() < 128 + 26 * 5000 + 8 * 8);
+    }
+
+    @SmallTest
+    public void testPointsAreReadableWhileWriting() throws Exception {
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        addPoints(writer, 0, 10);
+
+        assertEquals(10, RideColumnFile.open(_file).getNbPoints());
+        addPoints(writer, 10, 15);
+        assertEquals(15, RideColumnFile.open(_file).getNbPoints());
+        writer.close();
+    }
+
+    @SmallTest
+    public void testWriterContinuesAnExistingFile() throws Exception {
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        addPoints(writer, 0, 10);
+        // process killed: not closed
+
+        writer = new RideColumnWriter(_file, START + 60000);
+        assertEquals(10, writer.getNbPoints());
+        addPoints(writer, 10, 20);
+        writer.close();
+
+        RideColumnFile columns = RideColumnFile.open(_file);
+        assertEquals(20, columns.getNbPoints());
+        assertEquals(START, columns.getStartTime());
+        assertEquals(START + 19000, columns.getTime(19));
+    }
+
+    @SmallTest
+    public void testIndexOf() throws Exception {
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        addPoints(writer, 0, 100);
+        writer.close();
+
+        RideColumnFile columns = RideColumnFile.open(_file);
+
+        assertEquals(0, columns.indexOf(START - 1000));
+        assertEquals(10, columns.indexOf(START + 10000));
+        assertEquals(11, columns.indexOf(START + 10001));
+        assertEquals(100, columns.indexOf(START + 1000000));
+    }
+
+    @SmallTest
+    public void testInvalidFileIsRejected() throws Exception {
+        FileOutputStream out = new FileOutputStream(_file);
+        out.write(new byte[256]);
+        out.close();
+
+        try {
+            RideColumnFile.open(_file);
+            fail();
+        } catch (IOException e) {
+        }
+        // and replaced by the writer
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        assertEquals(0, writer.getNbPoints());
+        writer.close();
+    }
+
+    @SmallTest
+    public void testRepositoryWritesTheColumnsDuringTheRide() throws Exception {
+        getContext().deleteDatabase(DATABASE);
+        RideDatabase database = new RideDatabase(getContext(), DATABASE);
+        RideRepository repository = new RideRepository(database, _dir);
+
+        long id = repository.openRide(START);
+        for (int i = 0; i < 5; i++) {
+            repository.addPoint(START + 1000l * i, 45, 5, 200 + i, 8.5f, 120, 85, 0);
+        }
+        // before any flush
+        assertEquals(5, repository.getColumns(id).getNbPoints());
+        assertEquals(8.5f, repository.getColumns(id).getSpeeds().get(4));
+
+        repository.closeRide();
+        assertEquals(5, repository.getColumns(id).getNbPoints());
+
+        repository.deleteRide(id);
+        assertNull(repository.getColumns(id));
+
+        database.close();
+        getContext().deleteDatabase(DATABASE);
+    }
+
+    @LargeTest
+    public void testReadAltitudeSeries() throws Exception {
+        int nbPoints = 50000;
+        RideColumnWriter writer = new RideColumnWriter(_file, START);
+        long start = System.nanoTime();
+        addPoints(writer, 0, nbPoints);
+        writer.close();
+        long writeNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        RideColumnFile columns = RideColumnFile.open(_file);
+        FloatBuffer altitudes = columns.getAltitudes();
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < altitudes.limit(); i++) {
+            max = Math.max(max, altitudes.get(i));
+        }
+        long readNs = System.nanoTime() - start;
+
+        Log.d(TAG, nbPoints + " points: " + (_file.length() / 1024) + "KB, write " + (writeNs / 1000000)
+                + "ms, altitude series read in " + (readNs / 1000) + "us");
+        assertEquals(200 + 0.5f * (nbPoints - 1), max);
+    }
+}
@@ -0,0 +1,388 @@
+package com.njackson.test.rides;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.IRideRepository;
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.rides.RideRepository;
+import com.njackson.rides.RideSummary;
+
+import java.util.List;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class RideRepositoryTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-RideRepositoryTest";
+    private static final String DATABASE = "test_rides.db";
+
+    private RideDatabase _database;
+    private RideRepository _repository;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        _database = new RideDatabase(getContext(), DATABASE);
+        _repository = new RideRepository(_database);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _database.close();
+        getContext().deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    private void addPoints(int from, int to) {
+        for (int i = from; i < to; i++) {
+            _repository.addPoint(1000l * i, 45 + 0.00005 * i, 5 + 0.00006 * i, 200 + 0.1 * i, 8.5f, 120, 80, 0);
+        }
+    }
+
+    private int countPoints(long rideId) {
+        RidePointIterator iterator = _repository.getPoints(rideId);
+        RidePoint point = new RidePoint();
+        int n = 0;
+        while (iterator.next(point)) {
+            assertEquals(1000l * n, point.getTime());
+            assertEquals(45 + 0.00005 * n, point.getLatitude(), 1e-7);
+            n++;
+        }
+        return n;
+    }
+
+    @SmallTest
+    public void testPointsAreReadBackInOrder() {
+        long id = _repository.openRide(0);
+        addPoints(0, RideRepository.BLOCK_POINTS * 2 + 10);
+
+        assertEquals(RideRepository.BLOCK_POINTS * 2 + 10, _repository.getPoints(id).getNbPoints());
+        assertEquals(RideRepository.BLOCK_POINTS * 2 + 10, countPoints(id));
+    }
+
+    @SmallTest
+    public void testSummaryIsSavedWithThePoints() {
+        long id = _repository.openRide(500);
+        addPoints(0, 10);
+        _repository.setTotals(1234f, 9000, 56f, 12.5f);
+        _repository.flush();
+
+        RideSummary summary = _repository.getRide(id);
+        assertEquals(500, summary.getStartTime());
+        assertEquals(9000, summary.getEndTime());
+        assertEquals(1234f, summary.getDistance());
+        assertEquals(9000, summary.getElapsedTime());
+        assertEquals(56f, summary.getAscent());
+        assertEquals(12.5f, summary.getMaxSpeed());
+        assertEquals(10, summary.getNbPoints());
+        assertFalse(summary.isClosed());
+    }
+
+    @SmallTest
+    public void testPointsAreWrittenInBatches() {
+        long id = _repository.openRide(0);
+        addPoints(0, 5);
+
+        // a new repository only sees what is on disk
+        RideRepository other = new RideRepository(_database);
+        assertEquals(0, other.getRide(id).getNbPoints());
+
+        addPoints(5, 40);
+        assertTrue(other.getRide(id).getNbPoints() >= 30);
+    }
+
+    @SmallTest
+    public void testFullBlockIsKeptUntilWritten() {
+        long id = _repository.openRide(0);
+        // the block writes fail
+        _database.getWritableDatabase().execSQL("ALTER TABLE blocks RENAME TO blocks_off");
+        addPoints(0, RideRepository.BLOCK_POINTS);
+        // dropped: the full block is still not written
+        _repository.addPoint(1000l * RideRepository.BLOCK_POINTS, 46, 6, 200, 8.5f, 120, 80, 0);
+
+        _database.getWritableDatabase().execSQL("ALTER TABLE blocks_off RENAME TO blocks");
+        addPoints(RideRepository.BLOCK_POINTS, RideRepository.BLOCK_POINTS + 10);
+
+        assertEquals(RideRepository.BLOCK_POINTS + 10, _repository.getPoints(id).getNbPoints());
+        assertEquals(RideRepository.BLOCK_POINTS + 10, countPoints(id));
+    }
+
+    @SmallTest
+    public void testOpenRideContinuesTheOpenRide() {
+        long id = _repository.openRide(0);
+        addPoints(0, 100);
+        _repository.flush();
+
+        // service restarted
+        _repository = new RideRepository(_database);
+        assertEquals(id, _repository.openRide(200000));
+        addPoints(100, 300);
+        _repository.closeRide();
+
+        assertEquals(300, _repository.getRide(id).getNbPoints());
+        assertEquals(300, countPoints(id));
+        assertTrue(_repository.getRide(id).isClosed());
+    }
+
+    @SmallTest
+    public void testCloseRideStartsANewRide() {
+        long first = _repository.openRide(0);
+        addPoints(0, 10);
+        _repository.closeRide();
+        assertEquals(IRideRepository.NO_RIDE, _repository.getCurrentRideId());
+
+        long second = _repository.openRide(100000);
+        addPoints(0, 20);
+        _repository.closeRide();
+
+        assertTrue(first != second);
+        List<RideSummary> rides = _repository.getRides();
+        assertEquals(2, rides.size());
+        // most recent first
+        assertEquals(second, rides.get(0).getId());
+        assertEquals(20, rides.get(0).getNbPoints());
+        assertEquals(first, rides.get(1).getId());
+        assertEquals(10, rides.get(1).getNbPoints());
+    }
+
+    @SmallTest
+    public void testEmptyRideIsNotKept() {
+        _repository.openRide(0);
+        _repository.closeRide();
+
+        assertEquals(0, _repository.getRides().size());
+    }
+
+    @SmallTest
+    public void testDeleteRide() {
+        long id = _repository.openRide(0);
+        addPoints(0, 300);
+        _repository.closeRide();
+
+        _repository.deleteRide(id);
+
+        assertNull(_repository.getRide(id));
+        assertEquals(0, countPoints(id));
+    }
+
+    @SmallTest
+    public void testAddPointWithoutOpenRideIsIgnored() {
+        addPoints(0, 10);
+        _repository.flush();
+
+        assertEquals(0, _repository.getRides().size());
+    }
+
+    @SmallTest
+    public void testStatisticsAreComputedWhileRecording() {
+        _repository.openRide(0);
+        for (int i = 0; i < 100; i++) {
+            _repository.addPoint(1000l * i, 45 + 0.00005 * i, 5 + 0.00006 * i, 200 + i, 8.5f, i < 50 ? 0 : 140 + i % 2 * 10, i < 10 ? 0 : 80, 0);
+        }
+        _repository.setTotals(700, 99000, 99, 9);
+        long id = _repository.getCurrentRideId();
+        _repository.closeRide();
+
+        RideSummary ride = _repository.getRide(id);
+
+        assertEquals(45.0, ride.getMinLatitude(), 1e-9);
+        assertEquals(45 + 0.00005 * 99, ride.getMaxLatitude(), 1e-9);
+        assertEquals(5 + 0.00006 * 99, ride.getMaxLongitude(), 1e-9);
+        assertEquals(200f, ride.getMinAltitude());
+        assertEquals(299f, ride.getMaxAltitude());
+        assertEquals(145, ride.getAverageHeartRate());
+        assertEquals(150, ride.getMaxHeartRate());
+        assertEquals(80, ride.getAverageCadence());
+        assertEquals(700 / 99f, ride.getAverageSpeed(), 1e-3);
+        assertEquals(50, ride.getElevationSketch().size());
+        assertEquals(200.5f, ride.getElevationSketch().get(0));
+    }
+
+    @SmallTest
+    public void testStatisticsContinueWithTheRide() {
+        _repository.openRide(0);
+        addPoints(0, 10);
+        _repository.flush();
+        // service restarted
+        _repository = new RideRepository(_database);
+        long id = _repository.openRide(0);
+        addPoints(10, 20);
+        _repository.closeRide();
+
+        RideSummary ride = _repository.getRide(id);
+
+        assertEquals(200f, ride.getMinAltitude());
+        assertEquals(201.9f, ride.getMaxAltitude(), 1e-3);
+        assertEquals(20, ride.getElevationSketch().size());
+    }
+
+    @SmallTest
+    public void testClosedRidesAreCached() {
+        long id = _repository.openRide(0);
+        addPoints(0, 10);
+        _repository.flush();
+        RideSummary open = _repository.getRide(id);
+        _repository.closeRide();
+
+        RideSummary closed = _repository.getRide(id);
+
+        assertNotSame(open, closed);
+        assertSame(closed, _repository.getRide(id));
+        assertSame(closed, _repository.getRides().get(0));
+        _repository.deleteRide(id);
+        assertNull(_repository.getRide(id));
+    }
+
+    private long recordRideAt(double latitude, double longitude, int nbPoints) {
+        long id = _repository.openRide(0);
+        for (int i = 0; i < nbPoints; i++) {
+            _repository.addPoint(1000l * i, latitude + 0.00005 * i, longitude + 0.00006 * i, 200, 8.5f, 120, 80, 0);
+        }
+        _repository.closeRide();
+        return id;
+    }
+
+    @SmallTest
+    public void testFindRidesThroughAPoint() {
+        long id1 = recordRideAt(45, 5, 300);
+        long id2 = recordRideAt(46, 6, 300);
+
+        long[] rides = _repository.findRides(45.005, 5.006, 100);
+        assertEquals(1, rides.length);
+        assertEquals(id1, rides[0]);
+        rides = _repository.findRides(46.01, 6.012, 100);
+        assertEquals(1, rides.length);
+        assertEquals(id2, rides[0]);
+        assertEquals(0, _repository.findRides(45.5, 5.5, 1000).length);
+    }
+
+    @SmallTest
+    public void testFindRidesIsExact() {
+        recordRideAt(45, 5, 300);
+
+        // ~150 m from the track
+        assertEquals(0, _repository.findRides(45.005, 5.0085, 100).length);
+        assertEquals(1, _repository.findRides(45.005, 5.0085, 300).length);
+    }
+
+    @SmallTest
+    public void testFindRidesMostRecentFirst() {
+        long id1 = recordRideAt(45, 5, 300);
+        long id2 = recordRideAt(45, 5, 300);
+
+        long[] rides = _repository.findRides(45.005, 5.006, 100);
+
+        assertEquals(2, rides.length);
+        assertEquals(id2, rides[0]);
+        assertEquals(id1, rides[1]);
+    }
+
+    @SmallTest
+    public void testFindNearestRide() {
+        recordRideAt(45, 5, 300);
+        // ~110 m north
+        long id2 = recordRideAt(45.001, 5, 300);
+
+        assertEquals(id2, _repository.findNearestRide(45.0062, 5.006, 500));
+        assertEquals(IRideRepository.NO_RIDE, _repository.findNearestRide(45.5, 5.5, 500));
+    }
+
+    @SmallTest
+    public void testDeletedRideIsNotFound() {
+        long id = recordRideAt(45, 5, 300);
+
+        _repository.deleteRide(id);
+
+        assertEquals(0, _repository.findRides(45.005, 5.006, 100).length);
+    }
+
+    @SmallTest
+    public void testCurrentRideIsFoundAfterFlush() {
+        long id = _repository.openRide(0);
+        addPoints(0, 10);
+        _repository.flush();
+
+        long[] rides = _repository.findRides(45, 5, 50);
+
+        assertEquals(1, rides.length);
+        assertEquals(id, rides[0]);
+        _repository.closeRide();
+    }
+
+    @LargeTest
+    public void testListHistoryFromSummaries() {
+        // a few seasons
+        int nbRides = 500;
+        for (int r = 0; r < nbRides; r++) {
+            _repository.openRide(r * 86400000l);
+            addPoints(0, 200);
+            _repository.closeRide();
+        }
+        _repository = new RideRepository(_database);
+
+        long start = System.nanoTime();
+        List<RideSummary> rides = _repository.getRides();
+        long firstNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        rides = _repository.getRides();
+        long cachedNs = System.nanoTime() - start;
+
+        Log.d(TAG, nbRides + " rides: list " + (firstNs / 1000) + "us, cached " + (cachedNs / 1000) + "us");
+        assertEquals(nbRides, rides.size());
+        // 200 points: 50 buckets of 4
+        assertEquals(50, rides.get(0).getElevationSketch().size());
+    }
+
+    @LargeTest
+    public void testFindRidesInAHistory() {
+        // 300 rides through the same col, 10 minutes at 1Hz each
+        int nbRides = 300;
+        for (int r = 0; r < nbRides; r++) {
+            recordRideAt(45 + 0.0001 * (r % 10), 5, 600);
+        }
+
+        long start = System.nanoTime();
+        long[] rides = _repository.findRides(45.01, 5.012, 200);
+        long findNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        long nearest = _repository.findNearestRide(45.0, 5.0, 200);
+        long nearestNs = System.nanoTime() - start;
+
+        Log.d(TAG, nbRides + " rides: findRides " + (findNs / 1000) + "us, findNearestRide " + (nearestNs / 1000) + "us");
+        assertEquals(nbRides, rides.length);
+        assertTrue(nearest != IRideRepository.NO_RIDE);
+    }
+
+    @LargeTest
+    public void testSizeOfASeason() {
+        // 100 hours at 1Hz
+        int nbRides = 50;
+        int nbPoints = 2 * 3600;
+        long start = System.nanoTime();
+        for (int r = 0; r < nbRides; r++) {
+            _repository.openRide(r * 86400000l);
+            addPoints(0, nbPoints);
+            _repository.closeRide();
+        }
+        long writeNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<RideSummary> rides = _repository.getRides();
+        long listNs = System.nanoTime() - start;
+
+        long size = getContext().getDatabasePath(DATABASE).length();
+        Log.d(TAG, nbRides + " rides, " + (nbRides * nbPoints) + " points: " + (size / 1024) + "KB, "
+                + (size / (nbRides * nbPoints)) + " bytes/point, write " + (writeNs / nbRides / 1000000) + "ms/ride, list "
+                + (listNs / 1000) + "us");
+        assertEquals(nbRides, rides.size());
+        assertTrue(size < 5 * 1024 * 1024);
+    }
+}
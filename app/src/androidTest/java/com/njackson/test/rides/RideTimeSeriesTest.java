@@ -0,0 +1,127 @@
+package com.njackson.test.rides;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.RideTimeSeries;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class RideTimeSeriesTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-RideTimeSeriesTest";
+
+    private RideTimeSeries _series;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _series = new RideTimeSeries();
+    }
+
+    // one point per second from time 0
+    private void addPoints(int nbPoints) {
+        for (int i = 0; i < nbPoints; i++) {
+            _series.add(1000l * i, 45 + 0.0001 * i, 5 + 0.0002 * i, 200 + 0.5 * i, 0.01f * i, 120 + i % 50, 80 + i % 20);
+        }
+    }
+
+    @SmallTest
+    public void testPointsAcrossChunks() {
+        int n = 3 * RideTimeSeries.CHUNK_SIZE + 10;
+        addPoints(n);
+
+        assertEquals(n, _series.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(1000l * i, _series.getTime(i));
+            assertEquals(45 + 0.0001 * i, _series.getLatitude(i), 1e-5);
+            assertEquals(5 + 0.0002 * i, _series.getLongitude(i), 1e-5);
+            assertEquals(200 + 0.5f * i, _series.getAltitude(i));
+            assertEquals(120 + i % 50, _series.getHeartRate(i));
+            assertEquals(80 + i % 20, _series.getCadence(i));
+        }
+    }
+
+    @SmallTest
+    public void testIndexOf() {
+        addPoints(2000);
+
+        assertEquals(0, _series.indexOf(-5));
+        assertEquals(1500, _series.indexOf(1500000));
+        assertEquals(1501, _series.indexOf(1500001));
+        assertEquals(2000, _series.indexOf(5000000));
+    }
+
+    @SmallTest
+    public void testTimeRange() {
+        addPoints(2000);
+
+        RideTimeSeries.Range range = _series.timeRange(1000000, 1100000);
+
+        assertEquals(100, range.size());
+        assertEquals(1000, range.getFrom());
+        assertEquals(1000000, range.getTime(0));
+        assertEquals(1099000, range.getTime(99));
+        assertEquals(0, _series.timeRange(3000000, 4000000).size());
+    }
+
+    @SmallTest
+    public void testRangeAltitudesAcrossChunks() {
+        addPoints(3000);
+        RideTimeSeries.Range range = _series.range(1000, 2100);
+        float[] altitudes = new float[range.size() + 1];
+
+        range.getAltitudes(altitudes, 1);
+
+        for (int i = 0; i < range.size(); i++) {
+            assertEquals(range.getAltitude(i), altitudes[i + 1]);
+            assertEquals(200 + 0.5f * (1000 + i), altitudes[i + 1]);
+        }
+    }
+
+    @SmallTest
+    public void testRangeOutOfTheSeries() {
+        addPoints(10);
+        try {
+            _series.range(5, 11);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @SmallTest
+    public void testClear() {
+        addPoints(2000);
+
+        _series.clear();
+        assertEquals(0, _series.size());
+        _series.add(5000, 46, 6, 300, 1, 0, 0);
+
+        assertEquals(1, _series.size());
+        assertEquals(5000, _series.getTime(0));
+        assertEquals(300f, _series.getAltitude(0));
+    }
+
+    @LargeTest
+    public void testAppendAndScan() {
+        // 24h at 1 Hz
+        int n = 86400;
+        long start = System.nanoTime();
+        addPoints(n);
+        long append = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += _series.getAltitude(i);
+        }
+        long scan = System.nanoTime() - start;
+
+        Log.d(TAG, n + " points: append " + (append / n) + "ns per point, scan " + (scan / n) + "ns per point");
+        assertEquals(200.0 * n + 0.5 * n * (n - 1) / 2, sum, 1e3);
+    }
+}
@@ -0,0 +1,127 @@
+package com.njackson.test.segments;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.segments.Segment;
+import com.njackson.segments.SegmentMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class SegmentMatcherTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-SegmentMatcherTest";
+    private static final double METERS_PER_DEGREE = 111132.0;
+    private static final double METERS_PER_DEGREE_LON = METERS_PER_DEGREE * Math.cos(Math.toRadians(45));
+
+    private final List<long[]> _efforts = new ArrayList<long[]>();
+    private final SegmentMatcher.IEffortListener _listener = new SegmentMatcher.IEffortListener() {
+        @Override
+        public void onEffort(Segment segment, long startTime, long elapsedTime) {
+            _efforts.add(new long[] {segment.getId(), startTime, elapsedTime});
+        }
+    };
+
+    // north from (45 + y0 m, 5 + x0 m), length m
+    private static Segment northSegment(long id, double x0, double y0, double length) {
+        double[] latitudes = {45 + y0 / METERS_PER_DEGREE, 45 + (y0 + length / 2) / METERS_PER_DEGREE, 45 + (y0 + length) / METERS_PER_DEGREE};
+        double[] longitudes = {5 + x0 / METERS_PER_DEGREE_LON, 5 + x0 / METERS_PER_DEGREE_LON, 5 + x0 / METERS_PER_DEGREE_LON};
+        return new Segment(id, "segment" + id, latitudes, longitudes, (float) length, 0);
+    }
+
+    // 5 m/s north from 200 m before the origin, x m east of it, one fix per second
+    private void rideNorth(SegmentMatcher matcher, double x, int nbFixes) {
+        for (int i = 0; i < nbFixes; i++) {
+            matcher.onLocation(1000l * i, 45 + (-200 + 5 * i) / METERS_PER_DEGREE, 5 + x / METERS_PER_DEGREE_LON);
+        }
+    }
+
+    @SmallTest
+    public void testEffortOnTheSegment() {
+        SegmentMatcher matcher = new SegmentMatcher(Arrays.asList(northSegment(1, 0, 0, 1000)), _listener);
+
+        rideNorth(matcher, 3, 400);
+
+        assertEquals(1, _efforts.size());
+        assertEquals(1, _efforts.get(0)[0]);
+        // last fix in the start gate: 20 m past the start, first fix in the end gate: 20 m before the end
+        assertEquals(44000, _efforts.get(0)[1]);
+        assertEquals(236000 - 44000, _efforts.get(0)[2]);
+    }
+
+    @SmallTest
+    public void testNoEffortBesideTheSegment() {
+        SegmentMatcher matcher = new SegmentMatcher(Arrays.asList(northSegment(1, 0, 0, 1000)), _listener);
+
+        // parallel road 100 m away
+        rideNorth(matcher, 100, 400);
+
+        assertEquals(0, _efforts.size());
+        assertEquals(0, matcher.getNbActive());
+    }
+
+    @SmallTest
+    public void testLeavingTheSegmentDropsTheAttempt() {
+        SegmentMatcher matcher = new SegmentMatcher(Arrays.asList(northSegment(1, 0, 0, 1000)), _listener);
+
+        rideNorth(matcher, 0, 100);
+        assertEquals(1, matcher.getNbActive());
+        // turn east at 300 m
+        for (int i = 1; i < 100; i++) {
+            matcher.onLocation(100000 + 1000l * i, 45 + 300 / METERS_PER_DEGREE, 5 + 5 * i / METERS_PER_DEGREE_LON);
+        }
+
+        assertEquals(0, _efforts.size());
+        assertEquals(0, matcher.getNbActive());
+    }
+
+    @SmallTest
+    public void testShortcutIsNotAnEffort() {
+        // out 500 m north, back 500 m south next to it
+        double[] latitudes = {45, 45 + 500 / METERS_PER_DEGREE, 45};
+        double[] longitudes = {5, 5, 5 + 30 / METERS_PER_DEGREE_LON};
+        SegmentMatcher matcher = new SegmentMatcher(Arrays.asList(new Segment(1, "loop", latitudes, longitudes, 1000, 0)), _listener);
+
+        // from the start straight to the end
+        for (int i = 0; i < 20; i++) {
+            matcher.onLocation(1000l * i, 45, 5 + 2 * i / METERS_PER_DEGREE_LON);
+        }
+
+        assertEquals(0, _efforts.size());
+    }
+
+    @SmallTest
+    public void testResetDropsTheAttempts() {
+        SegmentMatcher matcher = new SegmentMatcher(Arrays.asList(northSegment(1, 0, 0, 1000)), _listener);
+        rideNorth(matcher, 0, 100);
+
+        matcher.reset();
+
+        assertEquals(0, matcher.getNbActive());
+    }
+
+    @LargeTest
+    public void testManySegmentsPerFix() {
+        // 500 segments on a 5 x 5 km grid, 10 of them on the road
+        List<Segment> segments = new ArrayList<Segment>();
+        for (int i = 0; i < 500; i++) {
+            segments.add(i < 10 ? northSegment(i, 0, i * 1000, 800) : northSegment(i, (i % 25) * 200 + 300, (i / 25) * 250, 800));
+        }
+        SegmentMatcher matcher = new SegmentMatcher(segments, _listener);
+
+        int nbFixes = 20000;
+        long start = System.nanoTime();
+        rideNorth(matcher, 0, nbFixes);
+        long ns = System.nanoTime() - start;
+
+        Log.d(TAG, segments.size() + " segments: " + (ns / nbFixes) + "ns per fix, " + _efforts.size() + " efforts");
+        assertEquals(10, _efforts.size());
+    }
+}
@@ -0,0 +1,166 @@
+package com.njackson.test.segments;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RideRepository;
+import com.njackson.segments.Segment;
+import com.njackson.segments.SegmentBatch;
+import com.njackson.segments.SegmentDatabase;
+import com.njackson.segments.SegmentRepository;
+
+import java.util.List;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class SegmentRepositoryTest extends AndroidTestCase {
+
+    private static final String DATABASE = "test_segments.db";
+    private static final String RIDE_DATABASE = "test_segments_rides.db";
+    private static final double METERS_PER_DEGREE = 111132.0;
+
+    private SegmentDatabase _database;
+    private SegmentRepository _repository;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        _database = new SegmentDatabase(getContext(), DATABASE);
+        _repository = new SegmentRepository(_database);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _database.close();
+        getContext().deleteDatabase(DATABASE);
+        getContext().deleteDatabase(RIDE_DATABASE);
+        super.tearDown();
+    }
+
+    // straight north from (45, 5), one point every 10 m
+    private long addStraightSegment(String name, double length) {
+        int n = (int) (length / 10) + 1;
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = 45 + 10 * i / METERS_PER_DEGREE;
+            longitudes[i] = 5;
+        }
+        return _repository.addSegment(name, latitudes, longitudes);
+    }
+
+    @SmallTest
+    public void testSegmentIsSimplified() {
+        long id = addStraightSegment("climb", 1000);
+
+        List<Segment> segments = _repository.getSegments();
+        assertEquals(1, segments.size());
+        Segment segment = segments.get(0);
+        assertEquals(id, segment.getId());
+        assertEquals("climb", segment.getName());
+        assertEquals(2, segment.getNbPoints());
+        assertEquals(45 + 1000 / METERS_PER_DEGREE, segment.getLatitude(1), 1e-6);
+        assertEquals(1000, segment.getLength(), 5);
+        assertEquals(0, segment.getBestTime());
+    }
+
+    @SmallTest
+    public void testSegmentNeedsTwoPoints() {
+        assertEquals(-1, _repository.addSegment("point", new double[] {45}, new double[] {5}));
+    }
+
+    @SmallTest
+    public void testBestTime() {
+        long id = addStraightSegment("climb", 1000);
+
+        assertTrue(_repository.addEffort(id, 1, 10000, 200000));
+        assertFalse(_repository.addEffort(id, 2, 10000, 250000));
+        assertTrue(_repository.addEffort(id, 2, 20000, 180000));
+        assertFalse(_repository.addEffort(id, 3, 30000, 190000));
+
+        assertEquals(180000, _repository.getSegments().get(0).getBestTime());
+        long[] times = _repository.getEffortTimes(id);
+        assertEquals(3, times.length);
+        assertEquals(180000, times[0]);
+        assertEquals(190000, times[1]);
+        assertEquals(200000, times[2]);
+    }
+
+    @SmallTest
+    public void testEffortRecordedOnce() {
+        long id = addStraightSegment("climb", 1000);
+
+        assertTrue(_repository.addEffort(id, 1, 10000, 200000));
+        assertFalse(_repository.addEffort(id, 1, 10000, 200000));
+
+        assertEquals(1, _repository.getEffortTimes(id).length);
+    }
+
+    @SmallTest
+    public void testDeleteSegment() {
+        long id = addStraightSegment("climb", 1000);
+        _repository.addEffort(id, 1, 10000, 200000);
+
+        _repository.deleteSegment(id);
+
+        assertEquals(0, _repository.getSegments().size());
+        assertEquals(0, _repository.getEffortTimes(id).length);
+    }
+
+    @SmallTest
+    public void testRematchStoredRides() {
+        getContext().deleteDatabase(RIDE_DATABASE);
+        RideDatabase rideDatabase = new RideDatabase(getContext(), RIDE_DATABASE);
+        RideRepository rides = new RideRepository(rideDatabase);
+        try {
+            // 5 m/s north through the segment, twice, and once 2 km east of it
+            for (int r = 0; r < 3; r++) {
+                double longitude = r < 2 ? 5 : 5.025;
+                rides.openRide(0);
+                for (int i = 0; i < 300; i++) {
+                    rides.addPoint(1000l * i, 45 + (-100 + (r == 1 ? 4 : 5) * i) / METERS_PER_DEGREE, longitude, 200, 5, 0, 0, 0);
+                }
+                rides.closeRide();
+            }
+            long id = addStraightSegment("climb", 1000);
+
+            assertEquals(2, SegmentBatch.rematch(_repository, rides));
+            assertEquals(2, _repository.getEffortTimes(id).length);
+            // rematch: already recorded
+            assertEquals(2, SegmentBatch.rematch(_repository, rides));
+            assertEquals(2, _repository.getEffortTimes(id).length);
+        } finally {
+            rideDatabase.close();
+        }
+    }
+
+    @SmallTest
+    public void testCreateFromRide() {
+        getContext().deleteDatabase(RIDE_DATABASE);
+        RideDatabase rideDatabase = new RideDatabase(getContext(), RIDE_DATABASE);
+        RideRepository rides = new RideRepository(rideDatabase);
+        try {
+            // 5 m/s north for 1 km
+            long rideId = rides.openRide(0);
+            for (int i = 0; i <= 200; i++) {
+                rides.addPoint(1000l * i, 45 + 5 * i / METERS_PER_DEGREE, 5, 200, 5, 0, 0, 0);
+            }
+            rides.closeRide();
+
+            long id = SegmentBatch.createFromRide(_repository, rides, rideId, "ride");
+
+            List<Segment> segments = _repository.getSegments();
+            assertEquals(1, segments.size());
+            assertEquals(id, segments.get(0).getId());
+            assertEquals(1000, segments.get(0).getLength(), 1);
+            // the ride itself
+            assertEquals(1, SegmentBatch.rematch(_repository, rides));
+        } finally {
+            rideDatabase.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.njackson.test.segments;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.application.modules.AndroidModule;
+import com.njackson.events.GPSServiceCommand.NewLocation;
+import com.njackson.events.GPSServiceCommand.ResetGPSState;
+import com.njackson.events.SegmentServiceCommand.SegmentEffort;
+import com.njackson.events.SegmentServiceCommand.SegmentsChanged;
+import com.njackson.events.base.BaseStatus;
+import com.njackson.rides.IRideRepository;
+import com.njackson.segments.ISegmentRepository;
+import com.njackson.segments.Segment;
+import com.njackson.segments.SegmentServiceCommand;
+import com.njackson.test.application.TestApplication;
+import com.squareup.otto.Bus;
+import com.squareup.otto.Subscribe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.Provides;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class SegmentServiceCommandTest extends AndroidTestCase {
+
+    private static final double METERS_PER_DEGREE = 111132.0;
+
+    @Inject Bus _bus;
+    @Inject ISegmentRepository _mockSegmentRepository;
+    @Inject IRideRepository _mockRideRepository;
+
+    private SegmentServiceCommand _service;
+    private TestApplication _app;
+    private List<Segment> _segments;
+    private SegmentEffort _effort;
+    private CountDownLatch _effortLatch;
+
+    @Module(
+            includes = AndroidModule.class,
+            injects = SegmentServiceCommandTest.class,
+            overrides = true,
+            complete = false
+    )
+    class TestModule {
+        @Provides
+        @Singleton
+        ISegmentRepository providesSegmentRepository() {
+            return mock(ISegmentRepository.class);
+        }
+
+        @Provides
+        @Singleton
+        IRideRepository providesRideRepository() {
+            return mock(IRideRepository.class);
+        }
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+
+        _app = new TestApplication();
+        _app.setObjectGraph(ObjectGraph.create(new TestModule()));
+        _app.inject(this);
+        _bus.register(this);
+
+        // 1 km north from (45, 5)
+        _segments = Arrays.asList(new Segment(1, "climb", new double[] {45, 45 + 1000 / METERS_PER_DEGREE}, new double[] {5, 5}, 1000, 0));
+        when(_mockSegmentRepository.getSegments()).thenReturn(_segments);
+        when(_mockRideRepository.getCurrentRideId()).thenReturn(7l);
+        _effortLatch = new CountDownLatch(1);
+
+        _service = new SegmentServiceCommand();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _bus.unregister(this);
+        _service.dispose();
+        super.tearDown();
+    }
+
+    @Subscribe
+    public void onSegmentEffortEvent(SegmentEffort event) {
+        _effort = event;
+        _effortLatch.countDown();
+    }
+
+    // 10 m/s north, one fix per second, back to the start every 120 s
+    private void rideNorth(int from, int to) {
+        for (int i = from; i < to; i++) {
+            NewLocation event = new NewLocation();
+            event.setTime(1000l * i);
+            event.setLatitude(45 + (-100 + 10 * (i % 120)) / METERS_PER_DEGREE);
+            event.setLongitude(5);
+            _bus.post(event);
+        }
+    }
+
+    @SmallTest
+    public void testEffortIsSavedAndPosted() throws Exception {
+        when(_mockSegmentRepository.addEffort(anyLong(), anyLong(), anyLong(), anyLong())).thenReturn(true);
+        _service.execute(_app);
+
+        rideNorth(0, 120);
+
+        assertTrue(_effortLatch.await(2000, TimeUnit.MILLISECONDS));
+        // last fix in the start gate: 20 m, first fix in the end gate: 980 m
+        verify(_mockSegmentRepository, timeout(2000).times(1)).addEffort(1, 7, 12000, 96000);
+        assertEquals(1, _effort.getSegmentId());
+        assertEquals(96000, _effort.getElapsedTime());
+        assertTrue(_effort.isBest());
+    }
+
+    @SmallTest
+    public void testResetDropsTheAttempt() throws Exception {
+        _service.execute(_app);
+
+        rideNorth(0, 50);
+        _bus.post(new ResetGPSState());
+        rideNorth(50, 120);
+
+        assertFalse(_effortLatch.await(500, TimeUnit.MILLISECONDS));
+        verify(_mockSegmentRepository, never()).addEffort(anyLong(), anyLong(), anyLong(), anyLong());
+    }
+
+    @SmallTest
+    public void testExecuteAgainKeepsTheAttempt() throws Exception {
+        _service.execute(_app);
+
+        rideNorth(0, 50);
+        _service.execute(_app);
+        rideNorth(50, 120);
+
+        assertTrue(_effortLatch.await(2000, TimeUnit.MILLISECONDS));
+        verify(_mockSegmentRepository, times(1)).getSegments();
+        assertEquals(96000, _effort.getElapsedTime());
+    }
+
+    @SmallTest
+    public void testRepositoryIsNotUsedOnTheCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        Answer<Object> recordThread = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                threads.add(Thread.currentThread());
+                return invocation.getMethod().getName().equals("getSegments") ? _segments : true;
+            }
+        };
+        when(_mockSegmentRepository.getSegments()).thenAnswer(recordThread);
+        when(_mockSegmentRepository.addEffort(anyLong(), anyLong(), anyLong(), anyLong())).thenAnswer(recordThread);
+        _service.execute(_app);
+
+        rideNorth(0, 120);
+
+        assertTrue(_effortLatch.await(2000, TimeUnit.MILLISECONDS));
+        assertEquals(2, threads.size());
+        for (Thread thread : threads) {
+            assertNotSame(caller, thread);
+        }
+    }
+
+    @SmallTest
+    public void testNewSegmentIsMatchedLive() throws Exception {
+        when(_mockSegmentRepository.getSegments()).thenReturn(new ArrayList<Segment>());
+        _service.execute(_app);
+        rideNorth(0, 120);
+        assertFalse(_effortLatch.await(500, TimeUnit.MILLISECONDS));
+
+        when(_mockSegmentRepository.getSegments()).thenReturn(_segments);
+        _bus.post(new SegmentsChanged());
+        rideNorth(120, 240);
+
+        assertTrue(_effortLatch.await(2000, TimeUnit.MILLISECONDS));
+        assertEquals(1, _effort.getSegmentId());
+    }
+
+    @SmallTest
+    public void testStatusIsInitializedAfterExecute() {
+        _service.execute(_app);
+
+        assertEquals(BaseStatus.Status.INITIALIZED, _service.getStatus());
+    }
+}
@@ -4,11 +4,26 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
 
 import com.njackson.Constants;
 import com.njackson.state.GPSDataStore;
-
+import com.njackson.state.StateSnapshot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.times;
@@ -18,10 +33,13 @@ import static org.mockito.internal.verification.VerificationModeFactory.times;
  */
 public class GPSDataStoreTest extends AndroidTestCase {
 
+    private static final String TAG = "PB-GPSDataStoreTest";
+
     SharedPreferences _mockPreferences;
     SharedPreferences.Editor _mockEditor;
     private Resources _mockResource;
     private Context _mockContext;
+    private File _snapshotFile;
 
     @Override
     public void setUp() throws Exception {
@@ -45,6 +63,15 @@ public class GPSDataStoreTest extends AndroidTestCase {
         when(_mockPreferences.getFloat("GEOID_HEIGHT",0)).thenReturn(16f);
         when(_mockPreferences.getFloat("GPS_FIRST_LOCATION_LAT",0)).thenReturn(17f);
         when(_mockPreferences.getFloat("GPS_FIRST_LOCATION_LON",0)).thenReturn(18f);
+
+        _snapshotFile = new File(getContext().getCacheDir(), "test_state.bin");
+        _snapshotFile.delete();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _snapshotFile.delete();
+        super.tearDown();
     }
 
     public void testLoadsUnitsFromPreferencesOnStart() {
@@ -179,4 +206,197 @@ public class GPSDataStoreTest extends AndroidTestCase {
 
         verify(_mockEditor,times(1)).commit();
     }
+
+    private ExecutorService blockedExecutor(final CountDownLatch latch) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        return executor;
+    }
+
+    public void testWriteBehindDoesNotWriteOnCallerThread() {
+        CountDownLatch latch = new CountDownLatch(1);
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, blockedExecutor(latch));
+        store.setDistance(23f);
+        store.commit();
+
+        verify(_mockEditor, never()).commit();
+        latch.countDown();
+        store.flushSync();
+        verify(_mockEditor, times(1)).commit();
+    }
+
+    public void testWriteBehindWritesOnlyChangedValues() {
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, Executors.newSingleThreadExecutor());
+        store.setDistance(23f);
+        store.setElapsedTime(14l); // unchanged
+        store.commit();
+        store.flushSync();
+
+        verify(_mockEditor, times(1)).putFloat("GPS_DISTANCE", 23f);
+        verify(_mockEditor, never()).putLong(eq("GPS_ELAPSEDTIME"), anyLong());
+        verify(_mockEditor, never()).putFloat(eq("GPS_ASCENT"), anyFloat());
+        verify(_mockEditor, never()).putString(eq("UNITS_OF_MEASURE"), anyString());
+    }
+
+    public void testWriteBehindCoalescesCommits() {
+        CountDownLatch latch = new CountDownLatch(1);
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, blockedExecutor(latch));
+        store.setDistance(23f);
+        store.commit();
+        store.setDistance(24f);
+        store.commit();
+        store.setAscent(25f);
+        store.commit();
+
+        latch.countDown();
+        store.flushSync();
+
+        verify(_mockEditor, times(1)).commit();
+        verify(_mockEditor, times(1)).putFloat("GPS_DISTANCE", 24f);
+        verify(_mockEditor, times(1)).putFloat("GPS_ASCENT", 25f);
+    }
+
+    public void testWriteBehindSkipsCommitWithoutChanges() {
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, Executors.newSingleThreadExecutor());
+        store.commit();
+        store.flushSync();
+
+        verify(_mockEditor, never()).commit();
+    }
+
+    public void testSnapshotKeepsTheRideState() {
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, Executors.newSingleThreadExecutor(), _snapshotFile);
+        store.setStartTime(22l);
+        store.setDistance(23f);
+        store.setElapsedTime(24l);
+        store.setAscent(25f);
+        store.setNbAscent(3);
+        store.setMaxSpeed(12f);
+        store.setAltitudeCalibrationDelta(4f, 1000l);
+        store.setGEOIDHeight(26f);
+        store.setFirstLocationLattitude(27f);
+        store.setFirstLocationLongitude(28f);
+        store.commit();
+        store.flushSync();
+
+        assertEquals(StateSnapshot.SIZE, _snapshotFile.length());
+        GPSDataStore loaded = new GPSDataStore(_mockPreferences, _mockContext, null, _snapshotFile);
+        assertEquals(22l, loaded.getStartTime());
+        assertEquals(23f, loaded.getDistance());
+        assertEquals(24l, loaded.getElapsedTime());
+        assertEquals(25f, loaded.getAscent());
+        assertEquals(3, loaded.getNbAscent());
+        assertEquals(12f, loaded.getMaxSpeed());
+        assertEquals(4f, loaded.getAltitudeCalibrationDelta(2000l));
+        assertEquals(26f, loaded.getGEOIDHeight());
+        assertEquals(27f, loaded.getFirstLocationLattitude());
+        assertEquals(28f, loaded.getFirstLocationLongitude());
+        // units stay a setting
+        assertEquals(11, loaded.getMeasurementUnits());
+    }
+
+    public void testSnapshotDoesNotWriteStateToPreferences() {
+        new GPSDataStore(_mockPreferences, _mockContext, null, _snapshotFile).commit();
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, null, _snapshotFile);
+        store.setDistance(23f);
+        store.commit();
+
+        verify(_mockEditor, never()).putFloat(eq("GPS_DISTANCE"), anyFloat());
+        verify(_mockEditor, times(2)).putString("UNITS_OF_MEASURE", "11");
+    }
+
+    public void testSnapshotMovesStateFromPreferences() {
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, Executors.newSingleThreadExecutor(), _snapshotFile);
+
+        assertEquals(13f, store.getDistance());
+        store.commit();
+        store.flushSync();
+
+        verify(_mockEditor, times(1)).remove("GPS_DISTANCE");
+        verify(_mockEditor, times(1)).remove("GPS_FIRST_LOCATION_LON");
+        assertEquals(13f, new GPSDataStore(_mockPreferences, _mockContext, null, _snapshotFile).getDistance());
+    }
+
+    public void testCorruptedSnapshotIsIgnored() throws Exception {
+        GPSDataStore store = new GPSDataStore(_mockPreferences, _mockContext, null, _snapshotFile);
+        store.setDistance(23f);
+        store.commit();
+
+        RandomAccessFile file = new RandomAccessFile(_snapshotFile, "rw");
+        file.seek(12);
+        file.write(0xff);
+        file.close();
+
+        // values of the preferences
+        assertEquals(13f, new GPSDataStore(_mockPreferences, _mockContext, null, _snapshotFile).getDistance());
+    }
+
+    // preferences XML as written by the app: settings, texts of the speed fragment and, before the snapshot, the ride state
+    private void writePreferencesXml(String name, boolean withState) throws Exception {
+        File file = new File(new File(getContext().getFilesDir().getParentFile(), "shared_prefs"), name + ".xml");
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (int i = 0; i < 40; i++) {
+            writer.write("    <boolean name=\"SETTING_" + i + "\" value=\"true\" />\n");
+        }
+        writer.write("    <string name=\"UNITS_OF_MEASURE\">1</string>\n");
+        String[] strings = {"SPEEDFRAGMENT_SPEED", "SPEEDFRAGMENT_AVGSPEED", "SPEEDFRAGMENT_DISTANCE", "SPEEDFRAGMENT_TIME"};
+        for (String key : strings) {
+            writer.write("    <string name=\"" + key + "\">12.3</string>\n");
+        }
+        if (withState) {
+            String[] longs = {"GPS_LAST_START", "GPS_ELAPSEDTIME", "ALTITUDE_CALIBRATION_DELTA_TIME"};
+            for (String key : longs) {
+                writer.write("    <long name=\"" + key + "\" value=\"1445170000000\" />\n");
+            }
+            String[] floats = {"GPS_DISTANCE", "GPS_ASCENT", "GPS_MAX_SPEED", "ALTITUDE_CALIBRATION_DELTA", "GEOID_HEIGHT",
+                    "GPS_FIRST_LOCATION_LAT", "GPS_FIRST_LOCATION_LON"};
+            for (String key : floats) {
+                writer.write("    <float name=\"" + key + "\" value=\"12345.678\" />\n");
+            }
+            writer.write("    <int name=\"GPS_NB_ASCENT\" value=\"12\" />\n");
+        }
+        writer.write("</map>\n");
+        writer.close();
+    }
+
+    // cold start: a preferences file never loaded by this process, then the construction of the store
+    private long timeColdStart(String prefix, boolean withSnapshot, int n) throws Exception {
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            String name = prefix + i;
+            writePreferencesXml(name, !withSnapshot);
+            long start = System.nanoTime();
+            SharedPreferences preferences = getContext().getSharedPreferences(name, Context.MODE_PRIVATE);
+            GPSDataStore store = new GPSDataStore(preferences, getContext(), null, withSnapshot ? _snapshotFile : null);
+            total += System.nanoTime() - start;
+
+            assertEquals(1, store.getMeasurementUnits());
+            new File(new File(getContext().getFilesDir().getParentFile(), "shared_prefs"), name + ".xml").delete();
+        }
+        return total / n;
+    }
+
+    @LargeTest
+    public void testColdStartWithSnapshot() throws Exception {
+        new StateSnapshot().write(_snapshotFile);
+        // unique names: SharedPreferences are cached by the process
+        String prefix = "test_gpsdatastore_" + System.currentTimeMillis() + "_";
+        int n = 50;
+
+        long preferences = timeColdStart(prefix + "prefs_", false, n);
+        long snapshot = timeColdStart(prefix + "snapshot_", true, n);
+
+        // the units are still a setting: both load the preferences XML, the snapshot one is smaller
+        Log.d(TAG, "GPSDataStore cold start, state in preferences: " + (preferences / 1000) + "us, in snapshot: " + (snapshot / 1000) + "us");
+    }
 }
@@ -0,0 +1,164 @@
+package com.njackson.test.state;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.state.RideJournal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class RideJournalTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-RideJournalTest";
+
+    private File _file;
+    private RideJournal _journal;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _file = new File(getContext().getCacheDir(), "test.journal");
+        _file.delete();
+        _journal = new RideJournal(_file);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _journal.close();
+        _file.delete();
+        super.tearDown();
+    }
+
+    private void appendRide(int nbFixes) {
+        for (int i = 1; i <= nbFixes; i++) {
+            _journal.append(5.0f * i, 1000l * i, 0.5f * i, i / 10, Math.min(i, 15));
+        }
+    }
+
+    @SmallTest
+    public void testNothingToRecoverWithoutJournal() {
+        assertFalse(_journal.recover());
+    }
+
+    @SmallTest
+    public void testRecordsHaveFixedSize() {
+        _journal.open();
+        appendRide(10);
+        _journal.close();
+
+        assertEquals(10 * RideJournal.RECORD_SIZE, _file.length());
+    }
+
+    @SmallTest
+    public void testRecoversTotals() {
+        _journal.open();
+        appendRide(150);
+        _journal.close();
+
+        RideJournal journal = new RideJournal(_file);
+        assertTrue(journal.recover());
+        assertEquals(750f, journal.getDistance(), 0.01f);
+        assertEquals(150000l, journal.getElapsedTime());
+        assertEquals(75f, journal.getAscent(), 0.01f);
+        assertEquals(15, journal.getNbAscent());
+        assertEquals(15f, journal.getMaxSpeed());
+    }
+
+    @SmallTest
+    public void testRecoveryCompactsJournal() {
+        _journal.open();
+        appendRide(150);
+        _journal.close();
+
+        assertTrue(_journal.recover());
+
+        assertEquals(RideJournal.RECORD_SIZE, _file.length());
+    }
+
+    @SmallTest
+    public void testRecoveryIgnoresTornRecord() throws Exception {
+        _journal.open();
+        appendRide(20);
+        _journal.close();
+        // crash in the middle of the 21st record
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.setLength(20 * RideJournal.RECORD_SIZE + 10);
+        file.close();
+
+        assertTrue(_journal.recover());
+        assertEquals(100f, _journal.getDistance(), 0.01f);
+        assertEquals(20000l, _journal.getElapsedTime());
+    }
+
+    @SmallTest
+    public void testRecoveryStopsAtCorruptedRecord() throws Exception {
+        _journal.open();
+        appendRide(20);
+        _journal.close();
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.seek(15 * RideJournal.RECORD_SIZE + 5);
+        file.write(0xff);
+        file.close();
+
+        assertTrue(_journal.recover());
+        assertEquals(75f, _journal.getDistance(), 0.01f);
+    }
+
+    @SmallTest
+    public void testAppendsAfterRecovery() {
+        _journal.open();
+        appendRide(20);
+        _journal.close();
+
+        assertTrue(_journal.recover());
+        _journal.open();
+        _journal.append(105f, 21000l, 10.5f, 2, 15f);
+        _journal.close();
+
+        RideJournal journal = new RideJournal(_file);
+        assertTrue(journal.recover());
+        assertEquals(105f, journal.getDistance(), 0.01f);
+        assertEquals(21000l, journal.getElapsedTime());
+    }
+
+    @SmallTest
+    public void testClearDeletesJournal() {
+        _journal.open();
+        appendRide(10);
+        _journal.clear();
+
+        assertFalse(_file.exists());
+        assertFalse(_journal.recover());
+    }
+
+    @LargeTest
+    public void testCompactsLongRide() {
+        _journal.open();
+        appendRide(10000);
+        _journal.close();
+
+        assertTrue(_file.length() <= 3600 * RideJournal.RECORD_SIZE);
+        assertTrue(_journal.recover());
+        assertEquals(50000f, _journal.getDistance(), 0.5f);
+        assertEquals(10000000l, _journal.getElapsedTime());
+    }
+
+    @LargeTest
+    public void testBenchmarkAppend() {
+        int n = 3600;
+        _journal.open();
+        long start = System.nanoTime();
+        appendRide(n);
+        long ns = System.nanoTime() - start;
+        _journal.close();
+
+        Log.d(TAG, "append: " + (ns / n / 1000) + "us/fix, " + RideJournal.RECORD_SIZE + " bytes/fix");
+    }
+}
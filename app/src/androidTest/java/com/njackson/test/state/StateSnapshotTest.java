@@ -0,0 +1,138 @@
+package com.njackson.test.state;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+import android.util.Xml;
+
+import com.njackson.state.StateSnapshot;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class StateSnapshotTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-StateSnapshotTest";
+
+    private File _file;
+    private File _xmlFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _file = new File(getContext().getCacheDir(), "test_snapshot.bin");
+        _xmlFile = new File(getContext().getCacheDir(), "test_preferences.xml");
+        _file.delete();
+        _xmlFile.delete();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _file.delete();
+        _xmlFile.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testNoSnapshot() {
+        assertFalse(new StateSnapshot().read(_file));
+    }
+
+    @SmallTest
+    public void testWriteThenRead() throws Exception {
+        new StateSnapshot().write(_file);
+
+        assertEquals(StateSnapshot.SIZE, _file.length());
+        assertTrue(new StateSnapshot().read(_file));
+        assertFalse(new File(_file.getPath() + ".tmp").exists());
+    }
+
+    @SmallTest
+    public void testTruncatedSnapshotIsInvalid() throws Exception {
+        new StateSnapshot().write(_file);
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.setLength(StateSnapshot.SIZE - 1);
+        file.close();
+
+        assertFalse(new StateSnapshot().read(_file));
+    }
+
+    // the preferences as they were: settings, ride state and texts of the speed fragment
+    private void writePreferencesXml() throws Exception {
+        FileWriter writer = new FileWriter(_xmlFile);
+        writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (int i = 0; i < 40; i++) {
+            writer.write("    <boolean name=\"SETTING_" + i + "\" value=\"true\" />\n");
+        }
+        String[] longs = {"GPS_LAST_START", "GPS_ELAPSEDTIME", "ALTITUDE_CALIBRATION_DELTA_TIME"};
+        for (String key : longs) {
+            writer.write("    <long name=\"" + key + "\" value=\"1445170000000\" />\n");
+        }
+        String[] floats = {"GPS_DISTANCE", "GPS_ASCENT", "GPS_MAX_SPEED", "ALTITUDE_CALIBRATION_DELTA", "GEOID_HEIGHT",
+                "GPS_FIRST_LOCATION_LAT", "GPS_FIRST_LOCATION_LON"};
+        for (String key : floats) {
+            writer.write("    <float name=\"" + key + "\" value=\"12345.678\" />\n");
+        }
+        writer.write("    <int name=\"GPS_NB_ASCENT\" value=\"12\" />\n");
+        String[] strings = {"SPEEDFRAGMENT_SPEED", "SPEEDFRAGMENT_AVGSPEED", "SPEEDFRAGMENT_DISTANCE", "SPEEDFRAGMENT_TIME"};
+        for (String key : strings) {
+            writer.write("    <string name=\"" + key + "\">12.3</string>\n");
+        }
+        writer.write("</map>\n");
+        writer.close();
+    }
+
+    // what SharedPreferences does at the first access: the whole file in a map
+    private Map<String, String> parsePreferencesXml() throws Exception {
+        Map<String, String> values = new HashMap<String, String>();
+        FileInputStream in = new FileInputStream(_xmlFile);
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(in, "utf-8");
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG && parser.getAttributeValue(null, "name") != null) {
+                    String value = parser.getAttributeValue(null, "value");
+                    values.put(parser.getAttributeValue(null, "name"), value != null ? value : parser.nextText());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return values;
+    }
+
+    @LargeTest
+    public void testSnapshotReadIsFasterThanPreferencesXml() throws Exception {
+        writePreferencesXml();
+        new StateSnapshot().write(_file);
+        int n = 200;
+
+        assertEquals(55, parsePreferencesXml().size());
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            parsePreferencesXml();
+        }
+        long xml = (System.nanoTime() - start) / n;
+
+        StateSnapshot snapshot = new StateSnapshot();
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            assertTrue(snapshot.read(_file));
+        }
+        long binary = (System.nanoTime() - start) / n;
+
+        Log.d(TAG, "preferences xml: " + (xml / 1000) + "us, snapshot: " + (binary / 1000) + "us");
+        assertTrue(binary < xml);
+    }
+}
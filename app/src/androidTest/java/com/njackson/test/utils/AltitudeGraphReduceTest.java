@@ -1,7 +1,9 @@
 package com.njackson.test.utils;
 
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
 
 import com.njackson.utils.AltitudeGraphReduce;
 
@@ -21,6 +23,8 @@ import java.util.Arrays;
  */
 public class AltitudeGraphReduceTest extends AndroidTestCase {
 
+    private static final String TAG = "PB-AltitudeGraphReduceTest";
+
     private AltitudeGraphReduce _graphReduce;
 
     @Override
@@ -112,4 +116,101 @@ public class AltitudeGraphReduceTest extends AndroidTestCase {
         assertEquals(_graphReduce.getMin(),99999);
         assertEquals(_graphReduce.getCache().size(),0);
     }
+
+    @SmallTest
+    public void testOneBarPerBinUpTo14Bins() {
+        _graphReduce.setBinInterval(100);
+
+        for (int n = 0; n < 10; n++) {
+            // two altitudes per bin
+            _graphReduce.addAltitude(100 + 10 * n, 100 * n, 0);
+            _graphReduce.addAltitude(110 + 10 * n, 100 * n + 50, 0);
+        }
+
+        int[] graphData = _graphReduce.getGraphData();
+        for (int n = 0; n < 10; n++) {
+            assertEquals(105 + 10 * n, graphData[n]);
+        }
+        assertEquals(0, graphData[10]);
+        assertEquals(0, graphData[13]);
+    }
+
+    @SmallTest
+    public void testBarsAreMergedWhenTheBinsDoNotFit() {
+        _graphReduce.setBinInterval(100);
+
+        // 30 bins: 4 bins per bar, 8 bars stretched over the graph
+        for (int n = 0; n < 30; n++) {
+            _graphReduce.addAltitude(100 * n, 100 * n, 0);
+        }
+
+        int[] graphData = _graphReduce.getGraphData();
+        // bins 0 to 3
+        assertEquals(150, graphData[0]);
+        // a seventh of the bar of bins 24 to 27, and bins 28, 29
+        assertEquals(2830, graphData[13]);
+        for (int i = 1; i < 14; i++) {
+            assertTrue(graphData[i] > graphData[i - 1]);
+        }
+    }
+
+    @SmallTest
+    public void testNoBarIsEmptyAfterAMerge() {
+        _graphReduce.setBinInterval(100);
+
+        // the 15th bin merges the bars: 8 bars of 2 bins, the last one with 1 bin
+        for (int n = 0; n < 15; n++) {
+            _graphReduce.addAltitude(1000, 100 * n, 0);
+            int[] graphData = _graphReduce.getGraphData();
+            for (int i = 0; i <= Math.min(n, 13); i++) {
+                assertEquals(1000, graphData[i]);
+            }
+        }
+    }
+
+    @SmallTest
+    public void testLastBarFollowsTheLastBin() {
+        _graphReduce.setBinInterval(100);
+        for (int n = 0; n < 20; n++) {
+            _graphReduce.addAltitude(100, 100 * n, 0);
+        }
+
+        _graphReduce.addAltitude(300, 1950, 0);
+
+        // bins 18 and 19 (100 and 200)
+        assertEquals(150, _graphReduce.getGraphData()[13]);
+    }
+
+    @SmallTest
+    public void testGraphIsEmptyAfterReset() {
+        for (int n = 0; n < 100; n++) {
+            _graphReduce.addAltitude(100, 200000 * n, 0);
+        }
+
+        _graphReduce.resetData();
+        _graphReduce.addAltitude(500, 0, 0);
+
+        int[] graphData = _graphReduce.getGraphData();
+        assertEquals(500, graphData[0]);
+        assertEquals(0, graphData[1]);
+    }
+
+    @LargeTest
+    public void testCostPerSampleIsFlatFor24h() {
+        // 1 Hz for 24h, the graph is read after each sample like broadcastLocation does
+        int[] graphData = new int[14];
+        long[] hourNs = new long[24];
+        for (int hour = 0; hour < 24; hour++) {
+            long start = System.nanoTime();
+            for (int s = 0; s < 3600; s++) {
+                long time = 1000l * (3600 * hour + s);
+                _graphReduce.addAltitude(1000 + (int) (500 * Math.sin(time / 3.6e6)), time, 0);
+                _graphReduce.getGraphData(graphData);
+            }
+            hourNs[hour] = System.nanoTime() - start;
+        }
+
+        Log.d(TAG, "first hour: " + (hourNs[0] / 3600) + "ns per sample, last hour: " + (hourNs[23] / 3600) + "ns per sample");
+        assertEquals(720, _graphReduce.getCache().size());
+    }
 }
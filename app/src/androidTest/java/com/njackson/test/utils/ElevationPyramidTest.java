@@ -0,0 +1,171 @@
+package com.njackson.test.utils;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.utils.ElevationPyramid;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class ElevationPyramidTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-ElevationPyramidTest";
+
+    private ElevationPyramid _pyramid;
+    private final float[] _min = new float[100];
+    private final float[] _max = new float[100];
+    private final float[] _mean = new float[100];
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _pyramid = new ElevationPyramid();
+    }
+
+    // one altitude per second, 5 m per second, altitude = index
+    private void addAltitudes(int from, int to) {
+        for (int i = from; i < to; i++) {
+            _pyramid.add(1000l * i, 5f * i, i);
+        }
+    }
+
+    @SmallTest
+    public void testOneColumnPerAltitude() {
+        addAltitudes(0, 50);
+
+        assertEquals(50, _pyramid.getProfile(0, 50, _min, _max, _mean));
+        for (int i = 0; i < 50; i++) {
+            assertEquals((float) i, _min[i]);
+            assertEquals((float) i, _max[i]);
+            assertEquals((float) i, _mean[i]);
+        }
+    }
+
+    @SmallTest
+    public void testWholeRide() {
+        addAltitudes(0, 10000);
+
+        assertEquals(100, _pyramid.getProfile(0, 10000, _min, _max, _mean));
+        // 100 altitudes per column, nodes of 64: at most a node more on each side
+        for (int c = 0; c < 100; c++) {
+            assertTrue(_min[c] <= 100 * c);
+            assertTrue(_min[c] > 100 * c - 64);
+            assertTrue(_max[c] >= 100 * c + 99);
+            assertTrue(_max[c] < 100 * c + 99 + 64);
+            assertEquals(100 * c + 49.5f, _mean[c], 64);
+        }
+        assertEquals(0f, _min[0]);
+        assertEquals(9999f, _max[99]);
+    }
+
+    private static float sawTooth(int i) {
+        return (i * 37) % 101;
+    }
+
+    @SmallTest
+    public void testProfileMatchesTheAltitudes() {
+        for (int i = 0; i < 5000; i++) {
+            _pyramid.add(1000l * i, 5f * i, sawTooth(i));
+        }
+
+        int nbColumns = _pyramid.getProfile(1234, 4321, _min, _max, _mean);
+
+        assertEquals(100, nbColumns);
+        // ~31 altitudes per column, nodes of 16
+        for (int c = 0; c < nbColumns; c++) {
+            int start = 1234 + 3087 * c / 100;
+            int end = 1234 + 3087 * (c + 1) / 100;
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            float widenedMin = Float.MAX_VALUE;
+            float widenedMax = -Float.MAX_VALUE;
+            for (int i = start - 16; i < end + 16; i++) {
+                if (i >= start && i < end) {
+                    min = Math.min(min, sawTooth(i));
+                    max = Math.max(max, sawTooth(i));
+                }
+                widenedMin = Math.min(widenedMin, sawTooth(i));
+                widenedMax = Math.max(widenedMax, sawTooth(i));
+            }
+            assertTrue(_min[c] <= min && _min[c] >= widenedMin);
+            assertTrue(_max[c] >= max && _max[c] <= widenedMax);
+        }
+    }
+
+    @SmallTest
+    public void testLastMinutes() {
+        addAltitudes(0, 7200);
+
+        // last 10 min
+        int nbColumns = _pyramid.getProfileByTime(7200000 - 600000, 7200000, _min, _max, _mean);
+
+        assertEquals(100, nbColumns);
+        assertEquals(6600f, _min[0], 4);
+        assertEquals(7199f, _max[99]);
+    }
+
+    @SmallTest
+    public void testLastKilometers() {
+        addAltitudes(0, 7200);
+
+        // last 5 km: 1000 altitudes
+        assertEquals(6200, _pyramid.indexOfDistance(5 * 7199 - 5000 + 1));
+        int nbColumns = _pyramid.getProfileByDistance(5 * 7199 - 5000 + 1, Float.MAX_VALUE, _min, _max, _mean);
+
+        assertEquals(100, nbColumns);
+        assertEquals(6200f, _min[0], 8);
+        assertEquals(7199f, _max[99]);
+    }
+
+    @SmallTest
+    public void testClear() {
+        addAltitudes(0, 3000);
+
+        _pyramid.clear();
+        for (int i = 0; i < 300; i++) {
+            _pyramid.add(1000l * i, 5f * i, 500);
+        }
+
+        assertEquals(100, _pyramid.getProfile(0, 300, _min, _max, _mean));
+        for (int c = 0; c < 100; c++) {
+            assertEquals(500f, _min[c]);
+            assertEquals(500f, _max[c]);
+            assertEquals(500f, _mean[c]);
+        }
+    }
+
+    @SmallTest
+    public void testEmptyWindow() {
+        addAltitudes(0, 100);
+
+        assertEquals(0, _pyramid.getProfileByTime(500000, 600000, _min, _max, _mean));
+    }
+
+    @LargeTest
+    public void testProfileCostDoesNotDependOnTheRideLength() {
+        // 24h at 1 Hz
+        int n = 86400;
+        long start = System.nanoTime();
+        addAltitudes(0, n);
+        long add = (System.nanoTime() - start) / n;
+
+        int nbProfiles = 1000;
+        long[] durations = new long[2];
+        int[] sizes = {3600, n};
+        for (int k = 0; k < 2; k++) {
+            start = System.nanoTime();
+            for (int i = 0; i < nbProfiles; i++) {
+                _pyramid.getProfile(n - sizes[k], n, _min, _max, _mean);
+            }
+            durations[k] = (System.nanoTime() - start) / nbProfiles;
+        }
+
+        Log.d(TAG, "add: " + add + "ns, profile of 1h: " + (durations[0] / 1000) + "us, of 24h: " + (durations[1] / 1000) + "us");
+        assertEquals(0f, _min[0]);
+        assertEquals(n - 1f, _max[99]);
+    }
+}
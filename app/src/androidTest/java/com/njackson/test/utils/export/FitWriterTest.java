@@ -0,0 +1,165 @@
+package com.njackson.test.utils.export;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RideRepository;
+import com.njackson.rides.RideSummary;
+import com.njackson.utils.export.FitWriter;
+import com.njackson.utils.export.IExportListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class FitWriterTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-FitWriterTest";
+    private static final String DATABASE = "test_fit.db";
+    private static final long START = 1444987670000l;
+
+    private RideDatabase _database;
+    private RideRepository _repository;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        _database = new RideDatabase(getContext(), DATABASE);
+        _repository = new RideRepository(_database);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _database.close();
+        getContext().deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    // same ride as the golden files: no heart rate for the first 2 points, temperature for the first 10
+    static long recordRide(RideRepository repository, int nbPoints) {
+        long id = repository.openRide(START);
+        for (int i = 0; i < nbPoints; i++) {
+            repository.addPoint(START + 1000l * i, 45.1234567 + 0.00005 * i, 5.7654321 + 0.00006 * i, 212.3 + 0.1 * (i % 100), 8.5f,
+                    i < 2 ? 0 : 120 + i % 7, 85 - i % 5, i < 10 ? 18.5 : 0);
+        }
+        repository.setTotals(150.5f, 1000l * (nbPoints - 1), 1.9f, 8.25f);
+        repository.closeRide();
+        return id;
+    }
+
+    static byte[] readResource(Class<?> c, String name) throws Exception {
+        InputStream in = c.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private byte[] write(long id, IExportListener listener) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RideSummary ride = _repository.getRide(id);
+        new FitWriter(out).writeRide(ride, _repository.getPoints(id), listener);
+        return out.toByteArray();
+    }
+
+    @SmallTest
+    public void testMatchesGoldenFile() throws Exception {
+        long id = recordRide(_repository, 20);
+
+        byte[] fit = write(id, null);
+
+        assertTrue(Arrays.equals(readResource(getClass(), "ride.fit"), fit));
+    }
+
+    @SmallTest
+    public void testHeaderAndCrc() throws Exception {
+        long id = recordRide(_repository, 300);
+
+        byte[] fit = write(id, null);
+
+        assertEquals(14, fit[0]);
+        assertEquals('.', fit[8]);
+        assertEquals('F', fit[9]);
+        assertEquals('I', fit[10]);
+        assertEquals('T', fit[11]);
+        int dataSize = (fit[4] & 0xFF) | (fit[5] & 0xFF) << 8 | (fit[6] & 0xFF) << 16 | (fit[7] & 0xFF) << 24;
+        assertEquals(14 + dataSize + 2, fit.length);
+        // the CRC of a FIT file including its CRC is 0
+        assertEquals(0, crc(fit, 0, 14));
+        assertEquals(0, crc(fit, 0, fit.length));
+    }
+
+    @SmallTest
+    public void testReportsProgress() throws Exception {
+        long id = recordRide(_repository, 1234);
+        final int[] progress = new int[2];
+
+        write(id, new IExportListener() {
+            @Override
+            public void onProgress(int nbPoints, int total) {
+                progress[0] = nbPoints;
+                progress[1] = total;
+            }
+        });
+
+        assertEquals(1234, progress[0]);
+        assertEquals(1234, progress[1]);
+    }
+
+    @LargeTest
+    public void testEncodeThroughput() throws Exception {
+        // 12 hours at 1Hz
+        int nbPoints = 12 * 3600;
+        long id = recordRide(_repository, nbPoints);
+        RideSummary ride = _repository.getRide(id);
+        final long[] size = new long[1];
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                size[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                size[0] += len;
+            }
+        };
+
+        long start = System.nanoTime();
+        new FitWriter(out).writeRide(ride, _repository.getPoints(id), null);
+        long ns = System.nanoTime() - start;
+
+        Log.d(TAG, nbPoints + " points: " + (size[0] / 1024) + "KB in " + (ns / 1000000) + "ms, "
+                + (nbPoints * 1000000000l / ns) + " points/s");
+        assertTrue(size[0] < nbPoints * 25);
+    }
+
+    private static int crc(byte[] data, int from, int to) {
+        int[] table = {0x0000, 0xCC01, 0xD801, 0x1400, 0xF001, 0x3C00, 0x2800, 0xE401,
+                0xA001, 0x6C00, 0x7800, 0xB401, 0x5000, 0x9C01, 0x8801, 0x4400};
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            int b = data[i] & 0xFF;
+            int tmp = table[crc & 0xF];
+            crc = (crc >> 4) & 0x0FFF;
+            crc = crc ^ tmp ^ table[b & 0xF];
+            tmp = table[crc & 0xF];
+            crc = (crc >> 4) & 0x0FFF;
+            crc = crc ^ tmp ^ table[(b >> 4) & 0xF];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,98 @@
+package com.njackson.test.utils.export;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RideRepository;
+import com.njackson.rides.RideSummary;
+import com.njackson.utils.export.TcxWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class TcxWriterTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-TcxWriterTest";
+    private static final String DATABASE = "test_tcx.db";
+
+    private RideDatabase _database;
+    private RideRepository _repository;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        _database = new RideDatabase(getContext(), DATABASE);
+        _repository = new RideRepository(_database);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _database.close();
+        getContext().deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    private String write(long id) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RideSummary ride = _repository.getRide(id);
+        new TcxWriter(out).writeRide(ride, _repository.getPoints(id), null);
+        return out.toString("UTF-8");
+    }
+
+    @SmallTest
+    public void testMatchesGoldenFile() throws Exception {
+        long id = FitWriterTest.recordRide(_repository, 20);
+
+        String tcx = write(id);
+
+        assertEquals(new String(FitWriterTest.readResource(getClass(), "ride.tcx"), "UTF-8"), tcx);
+    }
+
+    @SmallTest
+    public void testOmitsUnknownHeartRate() throws Exception {
+        long id = FitWriterTest.recordRide(_repository, 3);
+
+        String tcx = write(id);
+
+        assertEquals(3, tcx.split("<Trackpoint>").length - 1);
+        assertEquals(1, tcx.split("<HeartRateBpm>").length - 1);
+        assertTrue(tcx.contains("<DistanceMeters>0.0</DistanceMeters><Cadence>85</Cadence></Trackpoint>"));
+    }
+
+    @LargeTest
+    public void testEncodeThroughput() throws Exception {
+        // 12 hours at 1Hz
+        int nbPoints = 12 * 3600;
+        long id = FitWriterTest.recordRide(_repository, nbPoints);
+        RideSummary ride = _repository.getRide(id);
+        final long[] size = new long[1];
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                size[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                size[0] += len;
+            }
+        };
+
+        long start = System.nanoTime();
+        TcxWriter writer = new TcxWriter(out);
+        writer.writeRide(ride, _repository.getPoints(id), null);
+        long ns = System.nanoTime() - start;
+
+        Log.d(TAG, nbPoints + " points: " + (size[0] / 1024) + "KB in " + (ns / 1000000) + "ms, "
+                + (nbPoints * 1000000000l / ns) + " points/s");
+        assertEquals(nbPoints, writer.getNbPoints());
+    }
+}
@@ -0,0 +1,60 @@
+package com.njackson.test.utils.export;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.utils.export.TextFormat;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class TextFormatTest extends AndroidTestCase {
+
+    private final char[] _buffer = new char[64];
+
+    private String decimal(double value, int decimals) {
+        return new String(_buffer, 0, TextFormat.appendDecimal(_buffer, 0, value, decimals));
+    }
+
+    private String time(long time) {
+        return new String(_buffer, 0, TextFormat.appendIsoTime(_buffer, 0, time));
+    }
+
+    @SmallTest
+    public void testAppendLong() {
+        assertEquals("0", new String(_buffer, 0, TextFormat.appendLong(_buffer, 0, 0)));
+        assertEquals("1234567890123", new String(_buffer, 0, TextFormat.appendLong(_buffer, 0, 1234567890123l)));
+        assertEquals("-42", new String(_buffer, 0, TextFormat.appendLong(_buffer, 0, -42)));
+    }
+
+    @SmallTest
+    public void testAppendDecimal() {
+        assertEquals("45.1234567", decimal(45.1234567, 7));
+        assertEquals("-5.0000100", decimal(-5.00001, 7));
+        assertEquals("0.0500000", decimal(0.05, 7));
+        assertEquals("212.3", decimal(212.26, 1));
+        assertEquals("-0.5", decimal(-0.46, 1));
+        assertEquals("0.0", decimal(-0.01, 1));
+        assertEquals("100.0", decimal(99.96, 1));
+        assertEquals("13", decimal(12.5, 0));
+        assertEquals("0", decimal(Double.NaN, 2));
+    }
+
+    @SmallTest
+    public void testAppendDecimalAtAnOffset() {
+        _buffer[0] = 'x';
+        int end = TextFormat.appendDecimal(_buffer, 1, 1.25, 2);
+
+        assertEquals("x1.25", new String(_buffer, 0, end));
+    }
+
+    @SmallTest
+    public void testAppendIsoTime() {
+        assertEquals("1970-01-01T00:00:00Z", time(0));
+        assertEquals("2015-10-16T09:27:50Z", time(1444987670000l));
+        assertEquals("2015-10-16T09:27:50.123Z", time(1444987670123l));
+        assertEquals("2016-02-29T23:59:59Z", time(1456790399000l));
+        assertEquals("2000-03-01T00:00:00Z", time(951868800000l));
+        assertEquals("1969-12-31T23:59:59Z", time(-1000));
+    }
+}
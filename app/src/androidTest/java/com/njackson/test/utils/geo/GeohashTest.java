@@ -0,0 +1,69 @@
+package com.njackson.test.utils.geo;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.njackson.utils.geo.Geohash;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class GeohashTest extends AndroidTestCase {
+
+    @SmallTest
+    public void testEncodeMatchesGeohashStrings() {
+        // geohash.org: u4pruydqqvj
+        assertEquals("u4pruy", Geohash.toString(Geohash.encode(57.64911, 10.40744, 30), 30));
+        assertEquals("u4pruydqqv", Geohash.toString(Geohash.encode(57.64911, 10.40744, 50), 50));
+    }
+
+    @SmallTest
+    public void testCellContainsItsSubCells() {
+        long cell = Geohash.encode(45.1234567, 5.7654321, 20);
+        long subCell = Geohash.encode(45.1234567, 5.7654321, 30);
+
+        assertEquals(cell, subCell >> 10);
+    }
+
+    @SmallTest
+    public void testCover() {
+        long[] cells = new long[16];
+        long cell = Geohash.encode(45.1234567, 5.7654321, 30);
+
+        // inside one cell
+        assertEquals(1, Geohash.cover(45.1234, 45.1235, 5.7654, 5.7655, 30, cells));
+        assertEquals(cell, cells[0]);
+        // too many cells
+        assertEquals(-1, Geohash.cover(44, 46, 5, 7, 30, cells));
+    }
+
+    @SmallTest
+    public void testCoverRadiusContainsTheCellsAround() {
+        long[] ranges = new long[2 * 64];
+
+        int nbRanges = Geohash.coverRadius(45.1234567, 5.7654321, 500, 30, 64, ranges);
+
+        // 500 m north, east, south, west
+        double[][] points = {{45.1279, 5.7654321}, {45.1234567, 5.7717}, {45.1191, 5.7654321}, {45.1234567, 5.7592}};
+        for (double[] point : points) {
+            long cell = Geohash.encode(point[0], point[1], 30);
+            boolean found = false;
+            for (int i = 0; i < nbRanges; i++) {
+                found |= cell >= ranges[2 * i] && cell <= ranges[2 * i + 1];
+            }
+            assertTrue(found);
+        }
+    }
+
+    @SmallTest
+    public void testCoverRadiusUsesCoarserCells() {
+        long[] ranges = new long[2 * 64];
+
+        int nbRanges = Geohash.coverRadius(45.1234567, 5.7654321, 100000, 30, 64, ranges);
+
+        assertTrue(nbRanges <= 64);
+        for (int i = 1; i < nbRanges; i++) {
+            assertTrue(ranges[2 * i] > ranges[2 * i - 1] + 1);
+        }
+    }
+}
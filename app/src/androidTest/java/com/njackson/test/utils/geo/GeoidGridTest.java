@@ -0,0 +1,185 @@
+package com.njackson.test.utils.geo;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.utils.geo.GeoidGrid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class GeoidGridTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-GeoidGridTest";
+
+    private File _file;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        _file = new File(getContext().getCacheDir(), "test_geoid.bin");
+        _file.delete();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _file.delete();
+        super.tearDown();
+    }
+
+    private interface Field {
+        double getHeight(double latitude, double longitude);
+    }
+
+    // grid of resolution degrees, sampled from field
+    private void writeGrid(double resolution, Field field) throws IOException {
+        int rows = (int) Math.round(180 / resolution) + 1;
+        int columns = 2 * (rows - 1);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file)));
+        try {
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    out.writeShort((int) Math.round(100 * field.getHeight(90 - row * resolution, column * resolution)));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // smooth, EGM96 like amplitudes (-100..80 m)
+    private static final Field SMOOTH = new Field() {
+        @Override
+        public double getHeight(double latitude, double longitude) {
+            double lat = Math.toRadians(latitude);
+            double lon = Math.toRadians(longitude);
+            return 60 * Math.sin(2 * lat) * Math.cos(3 * lon) + 20 * Math.cos(lon) * Math.cos(lat) - 10;
+        }
+    };
+
+    @SmallTest
+    public void testSamples() throws IOException {
+        writeGrid(1, SMOOTH);
+        GeoidGrid grid = new GeoidGrid(_file);
+
+        assertEquals(SMOOTH.getHeight(45, 5), grid.getGeoidHeight(45, 5), 0.005);
+        assertEquals(SMOOTH.getHeight(-12, 200), grid.getGeoidHeight(-12, 200), 0.005);
+        assertEquals(SMOOTH.getHeight(90, 0), grid.getGeoidHeight(90, 0), 0.005);
+        assertEquals(SMOOTH.getHeight(-90, 0), grid.getGeoidHeight(-90, 0), 0.005);
+    }
+
+    @SmallTest
+    public void testLongitudeWraps() throws IOException {
+        // 0.25 m per degree east
+        writeGrid(1, new Field() {
+            @Override
+            public double getHeight(double latitude, double longitude) {
+                return longitude / 4;
+            }
+        });
+        GeoidGrid grid = new GeoidGrid(_file);
+
+        assertEquals(10.5 / 4, grid.getGeoidHeight(45, 10.5), 1e-6);
+        // between the last column and the first one
+        assertEquals(359.0 / 8, grid.getGeoidHeight(45, 359.5), 1e-6);
+        assertEquals(359.0 / 8, grid.getGeoidHeight(45, -0.5), 1e-6);
+        assertEquals(350.0 / 4, grid.getGeoidHeight(45, -10), 1e-6);
+        assertEquals(0.25 / 4, grid.getGeoidHeight(45, 720.25), 1e-6);
+    }
+
+    @SmallTest
+    public void testNotAvailable() throws IOException {
+        GeoidGrid missing = new GeoidGrid(_file);
+        assertTrue(Double.isNaN(missing.getGeoidHeight(45, 5)));
+
+        FileOutputStream out = new FileOutputStream(_file);
+        out.write(new byte[1000]);
+        out.close();
+        GeoidGrid wrongSize = new GeoidGrid(_file);
+        assertTrue(Double.isNaN(wrongSize.getGeoidHeight(45, 5)));
+    }
+
+    @SmallTest
+    public void testOutOfRange() throws IOException {
+        writeGrid(1, SMOOTH);
+        GeoidGrid grid = new GeoidGrid(_file);
+
+        assertTrue(Double.isNaN(grid.getGeoidHeight(90.5, 5)));
+        assertTrue(Double.isNaN(grid.getGeoidHeight(Double.NaN, 5)));
+        assertTrue(Double.isNaN(grid.getGeoidHeight(45, Double.POSITIVE_INFINITY)));
+    }
+
+    @SmallTest
+    public void testInterpolationAccuracy() throws IOException {
+        writeGrid(1, SMOOTH);
+        GeoidGrid grid = new GeoidGrid(_file);
+        Random random = new Random(42);
+        int nb = 10000;
+        double max = 0;
+        double sum2 = 0;
+        for (int i = 0; i < nb; i++) {
+            double latitude = 180 * random.nextDouble() - 90;
+            double longitude = 360 * random.nextDouble() - 180;
+            double error = grid.getGeoidHeight(latitude, longitude) - SMOOTH.getHeight(latitude, longitude);
+            max = Math.max(max, Math.abs(error));
+            sum2 += error * error;
+        }
+        Log.d(TAG, "1 degree grid: max error " + max + "m, rms " + Math.sqrt(sum2 / nb) + "m");
+
+        // bilinear: h^2 / 8 x second derivatives, plus 0.5 cm of quantization
+        assertTrue(max < 0.05);
+    }
+
+    @SmallTest
+    public void testMatchesEgm96ReferenceValues() {
+        GeoidGrid grid = new GeoidGrid(getContext().getAssets(), "egm96-15.bin", new File(getContext().getCacheDir(), "egm96-15.bin"));
+        if (Double.isNaN(grid.getGeoidHeight(0, 0))) {
+            // created by generateGeoidGrid (app/build.gradle), which checks the same points
+            Log.d(TAG, "egm96-15.bin not bundled, skipped");
+            return;
+        }
+        // NGA EGM96 test points (latitude, longitude, geoid height)
+        double[][] points = {
+                { 38.6281550, 269.7791550, -31.628 },
+                { -14.6212170, 305.0211140, -2.969 },
+                { 46.8743190, 102.4487290, -43.575 },
+                { -23.6174460, 133.8747120, 15.871 },
+                { 38.6254730, 359.9995000, 50.066 },
+                { -0.4667440, 0.0023000, 17.329 },
+        };
+        for (double[] point : points) {
+            double height = grid.getGeoidHeight(point[0], point[1]);
+            Log.d(TAG, point[0] + "," + point[1] + ": " + height + "m, expected " + point[2] + "m");
+            // 15' bilinear interpolation
+            assertEquals(point[2], height, 1.0);
+        }
+    }
+
+    @LargeTest
+    public void testLookupSpeed() throws IOException {
+        // EGM96 15' size
+        writeGrid(0.25, SMOOTH);
+        GeoidGrid grid = new GeoidGrid(_file);
+        grid.getGeoidHeight(0, 0);
+        int nb = 1000000;
+        double sum = 0;
+        // a ride: the fixes are close to each other
+        long start = System.nanoTime();
+        for (int i = 0; i < nb; i++) {
+            sum += grid.getGeoidHeight(45.5 + 0.4 * Math.sin(i * 1e-5), 5 + 2.0 * i / nb);
+        }
+        long elapsed = System.nanoTime() - start;
+        Log.d(TAG, "getGeoidHeight: " + (elapsed / nb) + " ns");
+
+        assertFalse(Double.isNaN(sum));
+    }
+}
@@ -0,0 +1,124 @@
+package com.njackson.test.utils.geo;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.utils.geo.LocalProjection;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class LocalProjectionTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-LocalProjectionTest";
+
+    private LocalProjection _projection;
+    private Location _origin;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        _origin = new Location("test");
+        _origin.setLatitude(45.0);
+        _origin.setLongitude(5.0);
+
+        _projection = new LocalProjection();
+        _projection.setOrigin(_origin.getLatitude(), _origin.getLongitude());
+    }
+
+    // worst difference with distanceTo/bearingTo for points on a circle of radius meters around the origin
+    private double maxError(double radius) {
+        double max = 0;
+        for (int k = 0; k < 32; k++) {
+            double theta = 2 * Math.PI * k / 32;
+            Location location = new Location("test");
+            location.setLatitude(_origin.getLatitude() + radius * Math.cos(theta) / 111132.0);
+            location.setLongitude(_origin.getLongitude() + radius * Math.sin(theta) / (111320.0 * Math.cos(Math.toRadians(_origin.getLatitude()))));
+
+            double distance = _origin.distanceTo(location);
+            double bearing = Math.toRadians(_origin.bearingTo(location));
+            double dx = _projection.getX(location.getLatitude(), location.getLongitude()) - distance * Math.sin(bearing);
+            double dy = _projection.getY(location.getLatitude(), location.getLongitude()) - distance * Math.cos(bearing);
+            max = Math.max(max, Math.sqrt(dx * dx + dy * dy));
+        }
+        return max;
+    }
+
+    @SmallTest
+    public void testOriginIsZero() {
+        assertEquals(0.0, _projection.getX(45.0, 5.0), 1e-9);
+        assertEquals(0.0, _projection.getY(45.0, 5.0), 1e-9);
+    }
+
+    @SmallTest
+    public void testAxes() {
+        assertTrue(_projection.getX(45.0, 5.01) > 0);
+        assertTrue(_projection.getX(45.0, 4.99) < 0);
+        assertTrue(_projection.getY(45.01, 5.0) > 0);
+        assertTrue(_projection.getY(44.99, 5.0) < 0);
+    }
+
+    @SmallTest
+    public void testAccuracyWithin10km() {
+        // distanceTo is computed in float, allow 0.5m
+        assertTrue(maxError(1000) < 0.5);
+        assertTrue(maxError(10000) < 0.5);
+    }
+
+    @SmallTest
+    public void testAccuracyWithin50km() {
+        assertTrue(maxError(50000) < 5);
+    }
+
+    @SmallTest
+    public void testLongitudeWrap() {
+        _projection.setOrigin(0, 179.99);
+        assertEquals(-_projection.getX(0, 179.97), _projection.getX(0, -179.99), 0.01);
+    }
+
+    @SmallTest
+    public void testInverse() {
+        double x = _projection.getX(45.3, 5.4);
+        double y = _projection.getY(45.3, 5.4);
+
+        assertEquals(45.3, _projection.getLatitude(x, y), 1e-7);
+        assertEquals(5.4, _projection.getLongitude(x, y), 1e-7);
+    }
+
+    @LargeTest
+    public void testBenchmarkAgainstDistanceToBearingTo() {
+        int n = 100000;
+        Location[] locations = new Location[100];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = new Location("test");
+            locations[i].setLatitude(_origin.getLatitude() + 0.001 * i);
+            locations[i].setLongitude(_origin.getLongitude() + 0.0007 * i);
+        }
+
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Location location = locations[i % locations.length];
+            // what GPSServiceCommand and LiveTracking did before
+            sum += _origin.distanceTo(location) * Math.sin(_origin.bearingTo(location) / 180 * 3.1415);
+            sum += _origin.distanceTo(location) * Math.cos(_origin.bearingTo(location) / 180 * 3.1415);
+        }
+        long locationNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Location location = locations[i % locations.length];
+            sum += _projection.getX(location.getLatitude(), location.getLongitude());
+            sum += _projection.getY(location.getLatitude(), location.getLongitude());
+        }
+        long projectionNs = System.nanoTime() - start;
+
+        Log.d(TAG, "distanceTo/bearingTo: " + (locationNs / n) + "ns/point, LocalProjection: " + (projectionNs / n)
+                + "ns/point, speed-up x" + (locationNs / Math.max(1, projectionNs)) + " (" + sum + ")");
+        assertTrue(projectionNs < locationNs);
+    }
+}
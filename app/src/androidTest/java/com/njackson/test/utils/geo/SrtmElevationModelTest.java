@@ -0,0 +1,162 @@
+package com.njackson.test.utils.geo;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.utils.geo.SrtmElevationModel;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class SrtmElevationModelTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-SrtmElevationModelTest";
+
+    private static final int N = 11;
+    private static final short VOID = -32768;
+
+    private File _directory;
+    private SrtmElevationModel _model;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        _directory = new File(getContext().getCacheDir(), "test_dem");
+        deleteTiles();
+        _directory.mkdirs();
+        _model = new SrtmElevationModel(_directory);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        deleteTiles();
+        super.tearDown();
+    }
+
+    private void deleteTiles() {
+        File[] files = _directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // N x N tile, sample (row, column) = base + 10 * column + 100 * (N - 1 - row): rises to the east and the north
+    private void writeTile(int south, int west, int base, int voidRow, int voidColumn) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(_directory, SrtmElevationModel.tileName(south, west))));
+        try {
+            for (int row = 0; row < N; row++) {
+                for (int column = 0; column < N; column++) {
+                    boolean isVoid = row == voidRow && column == voidColumn;
+                    out.writeShort(isVoid ? VOID : base + 10 * column + 100 * (N - 1 - row));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @SmallTest
+    public void testTileName() {
+        assertEquals("N45E005.hgt", SrtmElevationModel.tileName(45, 5));
+        assertEquals("S01W001.hgt", SrtmElevationModel.tileName(-1, -1));
+        assertEquals("N00W180.hgt", SrtmElevationModel.tileName(0, -180));
+    }
+
+    @SmallTest
+    public void testSamplesAndBilinearInterpolation() throws IOException {
+        writeTile(45, 5, 0, -1, -1);
+
+        // south west corner, north east corner
+        assertEquals(0, _model.getElevation(45, 5), 1e-6);
+        assertEquals(10 * 10 + 100 * 10, _model.getElevation(45.99999999, 5.99999999), 1e-3);
+        // on a sample
+        assertEquals(10 * 3 + 100 * 4, _model.getElevation(45.4, 5.3), 1e-6);
+        // between 4 samples: the plane is exact
+        assertEquals(10 * 3.5 + 100 * 4.25, _model.getElevation(45.425, 5.35), 1e-6);
+    }
+
+    @SmallTest
+    public void testIgnoresVoids() throws IOException {
+        // row 5 from the north: latitude 45.5, column 5: longitude 5.5
+        writeTile(45, 5, 0, 5, 5);
+
+        assertEquals(10 * 6 + 100 * 5, _model.getElevation(45.5, 5.6), 1e-6);
+        // the void sample alone
+        assertTrue(Double.isNaN(_model.getElevation(45.5, 5.5)));
+        // weights of the 3 other samples
+        double elevation = _model.getElevation(45.45, 5.55);
+        assertFalse(Double.isNaN(elevation));
+        assertTrue(elevation > 10 * 5 + 100 * 4 && elevation < 10 * 6 + 100 * 5);
+    }
+
+    @SmallTest
+    public void testMissingTile() throws IOException {
+        writeTile(45, 5, 0, -1, -1);
+
+        assertTrue(Double.isNaN(_model.getElevation(46.5, 5.5)));
+        assertTrue(Double.isNaN(_model.getElevation(91, 5.5)));
+        assertTrue(Double.isNaN(_model.getElevation(Double.NaN, 5.5)));
+        assertFalse(Double.isNaN(_model.getElevation(45.5, 5.5)));
+    }
+
+    @SmallTest
+    public void testRejectsFileOfTheWrongSize() throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(_directory, SrtmElevationModel.tileName(45, 5)));
+        out.write(new byte[3 * 5]);
+        out.close();
+
+        assertTrue(Double.isNaN(_model.getElevation(45.5, 5.5)));
+    }
+
+    @SmallTest
+    public void testEvictsLeastRecentlyUsedTiles() throws IOException {
+        for (int west = 0; west < 12; west++) {
+            writeTile(45, west, 1000 * west, -1, -1);
+        }
+        for (int west = 0; west < 12; west++) {
+            assertEquals(1000 * west, _model.getElevation(45, west + 0.0), 1e-6);
+        }
+        // the first tiles were evicted and are mapped again
+        for (int west = 0; west < 12; west++) {
+            assertEquals(1000 * west + 10 * 5, _model.getElevation(45, west + 0.5), 1e-6);
+        }
+    }
+
+    @SmallTest
+    public void testClearForgetsMissingTiles() throws IOException {
+        assertTrue(Double.isNaN(_model.getElevation(45.5, 5.5)));
+        writeTile(45, 5, 0, -1, -1);
+        // still remembered as missing
+        assertTrue(Double.isNaN(_model.getElevation(45.5, 5.5)));
+
+        _model.clear();
+
+        assertEquals(10 * 5 + 100 * 5, _model.getElevation(45.5, 5.5), 1e-6);
+    }
+
+    @LargeTest
+    public void testLookupSpeed() throws IOException {
+        writeTile(45, 5, 0, -1, -1);
+        writeTile(45, 6, 0, -1, -1);
+        int nb = 1000000;
+        double sum = 0;
+        // a ride along the 2 tiles
+        long start = System.nanoTime();
+        for (int i = 0; i < nb; i++) {
+            sum += _model.getElevation(45.5 + 0.4 * Math.sin(i * 1e-5), 5 + 2.0 * i / nb);
+        }
+        long elapsed = System.nanoTime() - start;
+        Log.d(TAG, "getElevation: " + (elapsed / nb) + " ns");
+
+        assertFalse(Double.isNaN(sum));
+    }
+}
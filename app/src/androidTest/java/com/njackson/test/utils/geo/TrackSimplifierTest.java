@@ -0,0 +1,191 @@
+package com.njackson.test.utils.geo;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.RidePoint;
+import com.njackson.utils.geo.LocalProjection;
+import com.njackson.utils.geo.TrackSimplifier;
+
+import java.util.Random;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class TrackSimplifierTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-TrackSimplifierTest";
+    private static final double METERS_PER_DEGREE = 111132.0;
+
+    private double[] _latitudes;
+    private double[] _longitudes;
+
+    // 7 m/s, straight stretches and bends, 0.5 m of GPS noise
+    private void makeRide(int nbPoints) {
+        _latitudes = new double[nbPoints];
+        _longitudes = new double[nbPoints];
+        Random random = new Random(42);
+        double x = 0, y = 0, heading = 0;
+        for (int i = 0; i < nbPoints; i++) {
+            if ((i / 300) % 3 == 0) {
+                heading += 0.01 * Math.sin(i / 40.0);
+            }
+            x += 7 * Math.cos(heading);
+            y += 7 * Math.sin(heading);
+            _latitudes[i] = 45 + (y + random.nextGaussian() * 0.5) / METERS_PER_DEGREE;
+            _longitudes[i] = 5 + (x + random.nextGaussian() * 0.5) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(45)));
+        }
+    }
+
+    // indexes of the kept points (the time of the points is their index)
+    private int simplify(TrackSimplifier simplifier, int[] kept) {
+        RidePoint point = new RidePoint();
+        RidePoint out = new RidePoint();
+        int nbKept = 0;
+        for (int i = 0; i < _latitudes.length; i++) {
+            point.set(i, _latitudes[i], _longitudes[i], 0, 0, 0, 0);
+            if (simplifier.add(point, out)) {
+                kept[nbKept++] = (int) out.getTime();
+            }
+        }
+        if (simplifier.finish(out)) {
+            kept[nbKept++] = (int) out.getTime();
+        }
+        return nbKept;
+    }
+
+    // {max, mean} distance of the dropped points to the simplified track
+    private double[] errors(int[] kept, int nbKept) {
+        LocalProjection projection = new LocalProjection();
+        double max = 0, sum = 0;
+        int count = 0;
+        for (int k = 0; k + 1 < nbKept; k++) {
+            int from = kept[k];
+            int to = kept[k + 1];
+            projection.setOrigin(_latitudes[from], _longitudes[from]);
+            double bx = projection.getX(_latitudes[to], _longitudes[to]);
+            double by = projection.getY(_latitudes[to], _longitudes[to]);
+            double length2 = bx * bx + by * by;
+            for (int i = from + 1; i < to; i++) {
+                double px = projection.getX(_latitudes[i], _longitudes[i]);
+                double py = projection.getY(_latitudes[i], _longitudes[i]);
+                double t = length2 > 0 ? Math.max(0, Math.min(1, (px * bx + py * by) / length2)) : 0;
+                double d = Math.hypot(px - t * bx, py - t * by);
+                max = Math.max(max, d);
+                sum += d;
+                count++;
+            }
+        }
+        return new double[] {max, count > 0 ? sum / count : 0};
+    }
+
+    @SmallTest
+    public void testStraightLineKeepsTheEnds() {
+        _latitudes = new double[100];
+        _longitudes = new double[100];
+        for (int i = 0; i < 100; i++) {
+            _latitudes[i] = 45 + i * 0.0001;
+            _longitudes[i] = 5;
+        }
+        int[] kept = new int[100];
+
+        int nbKept = simplify(new TrackSimplifier(2), kept);
+
+        assertEquals(2, nbKept);
+        assertEquals(0, kept[0]);
+        assertEquals(99, kept[1]);
+    }
+
+    @SmallTest
+    public void testCornerIsKept() {
+        _latitudes = new double[21];
+        _longitudes = new double[21];
+        for (int i = 0; i <= 20; i++) {
+            // north then east, 10 m steps
+            _latitudes[i] = 45 + Math.min(i, 10) * 10 / METERS_PER_DEGREE;
+            _longitudes[i] = 5 + Math.max(i - 10, 0) * 10 / (METERS_PER_DEGREE * Math.cos(Math.toRadians(45)));
+        }
+        int[] kept = new int[21];
+
+        int nbKept = simplify(new TrackSimplifier(2), kept);
+
+        assertEquals(3, nbKept);
+        assertEquals(10, kept[1]);
+    }
+
+    @SmallTest
+    public void testWindowBoundsTheDelay() {
+        _latitudes = new double[100];
+        _longitudes = new double[100];
+        for (int i = 0; i < 100; i++) {
+            _latitudes[i] = 45 + i * 0.0001;
+            _longitudes[i] = 5;
+        }
+        int[] kept = new int[100];
+
+        int nbKept = simplify(new TrackSimplifier(2, 10), kept);
+
+        for (int k = 0; k + 1 < nbKept; k++) {
+            assertTrue(kept[k + 1] - kept[k] <= 10);
+        }
+        assertEquals(99, kept[nbKept - 1]);
+    }
+
+    @SmallTest
+    public void testErrorIsWithinTolerance() {
+        makeRide(2000);
+        int[] kept = new int[2000];
+
+        int nbKept = simplify(new TrackSimplifier(2), kept);
+
+        assertTrue(errors(kept, nbKept)[0] <= 2.001);
+        assertEquals(0, kept[0]);
+        assertEquals(1999, kept[nbKept - 1]);
+    }
+
+    @SmallTest
+    public void testErrorStatisticsMatchTheSimplifiedTrack() {
+        makeRide(2000);
+        int[] kept = new int[2000];
+        TrackSimplifier simplifier = new TrackSimplifier(2);
+
+        int nbKept = simplify(simplifier, kept);
+        double[] errors = errors(kept, nbKept);
+
+        assertEquals(errors[0], simplifier.getMaxError(), 1e-6);
+        // rms >= mean
+        assertTrue(simplifier.getRmsError() >= errors[1] - 1e-9);
+        assertTrue(simplifier.getRmsError() <= simplifier.getMaxError());
+    }
+
+    @SmallTest
+    public void testSimplifierCanBeReused() {
+        makeRide(500);
+        int[] kept = new int[500];
+        TrackSimplifier simplifier = new TrackSimplifier(2);
+
+        int nbKept = simplify(simplifier, kept);
+
+        assertEquals(nbKept, simplify(simplifier, kept));
+    }
+
+    @LargeTest
+    public void testThroughputAndErrors() {
+        int nbPoints = 20000;
+        makeRide(nbPoints);
+        int[] kept = new int[nbPoints];
+
+        TrackSimplifier simplifier = new TrackSimplifier(2);
+        long start = System.nanoTime();
+        int nbKept = simplify(simplifier, kept);
+        long ns = System.nanoTime() - start;
+        double[] errors = errors(kept, nbKept);
+
+        Log.d(TAG, nbPoints + " points -> " + nbKept + " in " + (ns / 1000) + "us, " + (nbPoints * 1000000000l / ns)
+                + " points/s, max error " + errors[0] + "m, mean " + errors[1] + "m, rms " + simplifier.getRmsError() + "m");
+        assertTrue(nbKept < nbPoints / 5);
+        assertTrue(errors[0] <= 2.001);
+    }
+}
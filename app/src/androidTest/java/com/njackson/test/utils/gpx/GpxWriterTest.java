@@ -0,0 +1,195 @@
+package com.njackson.test.utils.gpx;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.rides.RideRepository;
+import com.njackson.utils.export.IExportListener;
+import com.njackson.utils.geo.TrackSimplifier;
+import com.njackson.utils.gpx.GpxWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.Locale;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class GpxWriterTest extends AndroidTestCase {
+
+    private static final String TAG = "PB-GpxWriterTest";
+    private static final String DATABASE = "test_gpx.db";
+
+    private RideDatabase _database;
+    private RideRepository _repository;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        _database = new RideDatabase(getContext(), DATABASE);
+        _repository = new RideRepository(_database);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        _database.close();
+        getContext().deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    private String write(boolean extended, RidePoint point) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GpxWriter writer = new GpxWriter(out, extended);
+        writer.writeHeader("Ride <1> & co", 1444987670000l);
+        writer.writePoint(point);
+        writer.close();
+        return out.toString("UTF-8");
+    }
+
+    private long recordRide(int nbPoints) {
+        long id = _repository.openRide(1444987670000l);
+        for (int i = 0; i < nbPoints; i++) {
+            _repository.addPoint(1444987670000l + 1000l * i, 45.1234567 + 0.00005 * i, 5.7654321 + 0.00006 * i,
+                    212.3 + 0.1 * (i % 100), 8.5f, 120 + i % 7, 85 - i % 5, 0);
+        }
+        _repository.closeRide();
+        return id;
+    }
+
+    @SmallTest
+    public void testWritesPoint() throws Exception {
+        RidePoint point = new RidePoint();
+        point.set(1444987670000l, 45.1234567, -5.00001, 212.3, 120, 85, 0);
+
+        String gpx = write(false, point);
+
+        assertTrue(gpx.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx version=\"1.1\""));
+        assertTrue(gpx.contains("<metadata><time>2015-10-16T09:27:50Z</time></metadata>"));
+        assertTrue(gpx.contains("<trk><name>Ride &lt;1&gt; &amp; co</name><trkseg>"));
+        assertTrue(gpx.contains("<trkpt lat=\"45.1234567\" lon=\"-5.0000100\"><ele>212.3</ele><time>2015-10-16T09:27:50Z</time></trkpt>\n"));
+        assertFalse(gpx.contains("gpxtpx"));
+        assertTrue(gpx.endsWith("</trkseg></trk>\n</gpx>\n"));
+    }
+
+    @SmallTest
+    public void testWritesHeartRateAndCadenceWhenExtended() throws Exception {
+        RidePoint point = new RidePoint();
+        point.set(1444987670000l, 45.1234567, 5.7654321, 212.3, 120, 0, 0);
+
+        String gpx = write(true, point);
+
+        assertTrue(gpx.contains("xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v1\""));
+        assertTrue(gpx.contains("<time>2015-10-16T09:27:50Z</time><extensions><gpxtpx:TrackPointExtension>"
+                + "<gpxtpx:hr>120</gpxtpx:hr></gpxtpx:TrackPointExtension></extensions></trkpt>"));
+        assertFalse(gpx.contains("gpxtpx:cad"));
+    }
+
+    @SmallTest
+    public void testWritesAllPointsAndReportsProgress() throws Exception {
+        long id = recordRide(1234);
+        final int[] progress = new int[2];
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GpxWriter writer = new GpxWriter(out, true);
+        writer.writeHeader("Ventoo", 0);
+        writer.writePoints(_repository.getPoints(id), new IExportListener() {
+            @Override
+            public void onProgress(int nbPoints, int total) {
+                assertTrue(nbPoints >= progress[0]);
+                progress[0] = nbPoints;
+                progress[1] = total;
+            }
+        });
+        writer.close();
+
+        assertEquals(1234, writer.getNbPoints());
+        assertEquals(1234, progress[0]);
+        assertEquals(1234, progress[1]);
+        String gpx = out.toString("UTF-8");
+        assertEquals(1234, gpx.split("<trkpt ").length - 1);
+        // last point
+        assertTrue(gpx.contains("<trkpt lat=\"45.1851067\" lon=\"5.8394121\"><ele>215.6</ele><time>2015-10-16T09:48:23Z</time>"));
+    }
+
+    @SmallTest
+    public void testSimplifiedTrackKeepsTheEnds() throws Exception {
+        // straight line
+        long id = recordRide(1234);
+        final int[] progress = new int[1];
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GpxWriter writer = new GpxWriter(out, false);
+        writer.writeHeader("Ventoo", 0);
+        writer.writePoints(_repository.getPoints(id), new TrackSimplifier(2), new IExportListener() {
+            @Override
+            public void onProgress(int nbPoints, int total) {
+                progress[0] = nbPoints;
+            }
+        });
+        writer.close();
+
+        assertEquals(2, writer.getNbPoints());
+        assertEquals(1234, progress[0]);
+        String gpx = out.toString("UTF-8");
+        assertTrue(gpx.contains("<trkpt lat=\"45.1851067\" lon=\"5.8394121\">"));
+    }
+
+    @LargeTest
+    public void testBenchmarkAgainstString() throws Exception {
+        // 12 hours at 1Hz
+        int nbPoints = 12 * 3600;
+        long id = recordRide(nbPoints);
+        File file = new File(getContext().getCacheDir(), "test.gpx");
+        Runtime runtime = Runtime.getRuntime();
+
+        // the whole document in a String then FileWriter, as AdvancedLocation.getGPX and GpxExport did
+        System.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        StringBuilder gpx = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx><trk><trkseg>\n");
+        RidePoint point = new RidePoint();
+        RidePointIterator iterator = _repository.getPoints(id);
+        while (iterator.next(point)) {
+            gpx.append(String.format(Locale.US, "<trkpt lat=\"%.7f\" lon=\"%.7f\"><ele>%.1f</ele><time>%tFT%<tTZ</time>"
+                            + "<extensions><gpxtpx:TrackPointExtension><gpxtpx:hr>%d</gpxtpx:hr><gpxtpx:cad>%d</gpxtpx:cad>"
+                            + "</gpxtpx:TrackPointExtension></extensions></trkpt>\n",
+                    point.getLatitude(), point.getLongitude(), point.getAltitude(), point.getTime(),
+                    point.getHeartRate(), point.getCadence()));
+        }
+        gpx.append("</trkseg></trk>\n</gpx>\n");
+        String document = gpx.toString();
+        long stringPeak = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+        FileWriter fileWriter = new FileWriter(file);
+        fileWriter.write(document);
+        fileWriter.close();
+        long stringNs = System.nanoTime() - start;
+        gpx = null;
+        document = null;
+
+        System.gc();
+        usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        start = System.nanoTime();
+        GpxWriter writer = new GpxWriter(new BufferedOutputStream(new FileOutputStream(file)), true);
+        writer.writeHeader("Ventoo", 0);
+        writer.writePoints(_repository.getPoints(id), null);
+        long streamingPeak = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+        writer.close();
+        long streamingNs = System.nanoTime() - start;
+
+        Log.d(TAG, nbPoints + " points, " + (file.length() / 1024) + "KB: String " + (stringNs / 1000000) + "ms (~"
+                + (stringPeak / 1024) + "KB heap), streaming " + (streamingNs / 1000000) + "ms (~"
+                + (streamingPeak / 1024) + "KB heap)");
+        file.delete();
+        assertTrue(streamingNs < stringNs);
+    }
+}
@@ -24,17 +24,28 @@ import com.njackson.changelog.IChangeLogBuilder;
 import com.njackson.events.ActivityRecognitionCommand.ActivityRecognitionStatus;
 import com.njackson.events.GPSServiceCommand.GPSStatus;
 import com.njackson.events.GPSServiceCommand.ResetGPSState;
+import com.njackson.events.SegmentServiceCommand.SegmentEffort;
+import com.njackson.events.SegmentServiceCommand.SegmentsChanged;
 import com.njackson.events.UI.StartButtonTouchedEvent;
 import com.njackson.events.UI.StopButtonTouchedEvent;
 import com.njackson.events.GoogleFitCommand.GoogleFitStatus;
 import com.njackson.events.base.BaseStatus;
+import com.njackson.rides.IRideRepository;
+import com.njackson.rides.RideSummary;
+import com.njackson.segments.ISegmentRepository;
+import com.njackson.segments.SegmentBatch;
 import com.njackson.state.IGPSDataStore;
+import com.njackson.utils.geo.IElevationModel;
 import com.njackson.utils.googleplay.IGooglePlayServices;
 import com.njackson.utils.gpx.GpxExport;
 import com.njackson.utils.services.IServiceStarter;
 import com.squareup.otto.Bus;
 import com.squareup.otto.Subscribe;
 
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
 import javax.inject.Inject;
 
 import de.cketti.library.changelog.ChangeLog;
@@ -50,6 +61,9 @@ public class MainActivity extends FragmentActivity  implements SharedPreferences
     @Inject SharedPreferences _sharedPreferences;
     @Inject IChangeLogBuilder _changeLogBuilder;
     @Inject IGPSDataStore _dataStore;
+    @Inject IRideRepository _rideRepository;
+    @Inject ISegmentRepository _segmentRepository;
+    @Inject IElevationModel _elevationModel;
 
     private boolean _authInProgress;
 
@@ -82,6 +96,13 @@ public class MainActivity extends FragmentActivity  implements SharedPreferences
             handleGoogleFitFailure(event);
         }
     }
+    @Subscribe
+    public void onSegmentEffort(SegmentEffort event) {
+        long seconds = event.getElapsedTime() / 1000;
+        String time = String.format("%d:%02d", seconds / 60, seconds % 60);
+        Toast.makeText(this, event.getName() + ": " + time + (event.isBest() ? " (PR)" : ""), Toast.LENGTH_LONG).show();
+    }
+
     @Subscribe
     public void onGPSServiceState(GPSStatus event) {
         if (event.getStatus() == BaseStatus.Status.DISABLED) {
@@ -218,11 +239,17 @@ public class MainActivity extends FragmentActivity  implements SharedPreferences
         }
         if (id == R.id.action_export_gpx) {
             if (_sharedPreferences.getBoolean("ENABLE_TRACKS", false)) {
-                GpxExport.export(getApplicationContext(), _sharedPreferences.getBoolean("ADVANCED_GPX", false));
+                GpxExport.export(getApplicationContext(), _rideRepository, _sharedPreferences.getString("EXPORT_FORMAT", "gpx"), _sharedPreferences.getBoolean("ADVANCED_GPX", false),
+                        _sharedPreferences.getBoolean("SIMPLIFY_GPX", false),
+                        _sharedPreferences.getBoolean("DEM_ALTITUDE", false) ? _elevationModel : null);
             } else {
                 Toast.makeText(getApplicationContext(), "Please enable tracks in the settings to save GPX before using the export", Toast.LENGTH_SHORT).show();
             }
         }
+        if (id == R.id.action_segment_from_ride) {
+            createSegmentFromLastRide();
+            return true;
+        }
         if (id == R.id.action_reset) {
             new AlertDialog.Builder(this)
                     .setTitle(R.string.ALERT_RESET_DATA_TITLE)
@@ -244,6 +271,38 @@ public class MainActivity extends FragmentActivity  implements SharedPreferences
         return super.onOptionsItemSelected(item);
     }
 
+    // the whole last ride becomes a segment, matched against the stored rides and, once the matcher is rebuilt, live
+    private void createSegmentFromLastRide() {
+        new Thread(new Runnable() {
+            public void run() {
+                List<RideSummary> rides = _rideRepository.getRides();
+                if (rides.size() == 0) {
+                    showMessage("No recorded ride: check \"Enable tracks\" and start the GPS");
+                    return;
+                }
+                RideSummary ride = rides.get(0);
+                String name = "Ride of " + DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(new Date(ride.getStartTime()));
+                if (SegmentBatch.createFromRide(_segmentRepository, _rideRepository, ride.getId(), name) < 0) {
+                    showMessage("The last ride is too short for a segment");
+                    return;
+                }
+                SegmentBatch.rematch(_segmentRepository, _rideRepository);
+                _bus.post(new SegmentsChanged());
+                showMessage("Segment \"" + name + "\" saved");
+            }
+        }).start();
+    }
+
+    // from a background thread
+    private void showMessage(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if(key.compareTo("ACTIVITY_RECOGNITION") == 0 || key.compareTo("GOOGLE_FIT") == 0) {
@@ -23,7 +23,9 @@ import com.njackson.application.PebbleBikeApplication;
 import com.njackson.events.BleServiceCommand.BleSensorData;
 import com.njackson.events.GPSServiceCommand.ChangeRefreshInterval;
 import com.njackson.events.GPSServiceCommand.ResetGPSState;
+import com.njackson.rides.IRideRepository;
 import com.njackson.state.IGPSDataStore;
+import com.njackson.utils.geo.IElevationModel;
 import com.njackson.utils.gpx.GpxExport;
 import com.njackson.utils.services.IServiceStarter;
 import com.njackson.utils.watchface.IInstallWatchFace;
@@ -52,6 +54,8 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
     @Inject IInstallWatchFace _installWatchFace;
     @Inject SharedPreferences _sharedPreferences;
     @Inject IGPSDataStore _dataStore;
+    @Inject IRideRepository _rideRepository;
+    @Inject IElevationModel _elevationModel;
     @Inject IServiceStarter _serviceStarter;
     @Inject Bus _bus;
 
@@ -98,7 +102,9 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
         exportGPXPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
             public boolean onPreferenceClick(Preference preference) {
-                GpxExport.export(getApplicationContext(), _sharedPreferences.getBoolean("ADVANCED_GPX", false));
+                GpxExport.export(getApplicationContext(), _rideRepository, _sharedPreferences.getString("EXPORT_FORMAT", "gpx"), _sharedPreferences.getBoolean("ADVANCED_GPX", false),
+                        _sharedPreferences.getBoolean("SIMPLIFY_GPX", false),
+                        _sharedPreferences.getBoolean("DEM_ALTITUDE", false) ? _elevationModel : null);
                 return true;
             }
         });
@@ -141,8 +147,8 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
         }
 
         pref = findPreference("PREF_GEOID_HEIGHT_INFO");
-        if (_sharedPreferences.getFloat("GEOID_HEIGHT", 0) != 0) {
-            pref.setSummary("Correction: " + _sharedPreferences.getFloat("GEOID_HEIGHT", 0) + "m");
+        if (_dataStore.getGEOIDHeight() != 0) {
+            pref.setSummary("Correction: " + _dataStore.getGEOIDHeight() + "m");
         } else {
             pref.setSummary("No correction");
         }
@@ -19,38 +19,45 @@ public class AdvancedLocationToNewLocation extends NewLocation {
     private static float _altitudeConversion;
 
     public AdvancedLocationToNewLocation(AdvancedLocation advancedLocation, double xpos, double ypos, int units) {
+        populate(this, advancedLocation, xpos, ypos, units);
+    }
+
+    // fill an existing (pooled) event instead of allocating a new one
+    public static void populate(NewLocation event, AdvancedLocation advancedLocation, double xpos, double ypos, int units) {
         createUnits(units);
 
-        this.setUnits(units);
+        event.setUnits(units);
         if (_speedInversion) {
-            this.setSpeed(advancedLocation.getSpeed() > 0 ? 1/(advancedLocation.getSpeed() * _speedConversion) : 0);
-            this.setMaxSpeed(advancedLocation.getMaxSpeed() > 0 ? 1/(advancedLocation.getMaxSpeed() * _speedConversion) : 0);
-            this.setAvgSpeed(advancedLocation.getAverageSpeed() > 0 ? 1/(advancedLocation.getAverageSpeed() * _speedConversion) : 0);
+            event.setSpeed(advancedLocation.getSpeed() > 0 ? 1/(advancedLocation.getSpeed() * _speedConversion) : 0);
+            event.setMaxSpeed(advancedLocation.getMaxSpeed() > 0 ? 1/(advancedLocation.getMaxSpeed() * _speedConversion) : 0);
+            event.setAvgSpeed(advancedLocation.getAverageSpeed() > 0 ? 1/(advancedLocation.getAverageSpeed() * _speedConversion) : 0);
         } else {
-            this.setSpeed(advancedLocation.getSpeed() * _speedConversion);
-            this.setMaxSpeed(advancedLocation.getMaxSpeed() * _speedConversion);
-            this.setAvgSpeed(advancedLocation.getAverageSpeed() * _speedConversion);
+            event.setSpeed(advancedLocation.getSpeed() * _speedConversion);
+            event.setMaxSpeed(advancedLocation.getMaxSpeed() * _speedConversion);
+            event.setAvgSpeed(advancedLocation.getAverageSpeed() * _speedConversion);
         }
-        this.setDistance(advancedLocation.getDistance() * _distanceConversion);
-        this.setLatitude(advancedLocation.getLatitude());
-        this.setLongitude(advancedLocation.getLongitude());
-        this.setAltitude(advancedLocation.getAltitude() * _altitudeConversion); // m
-        this.setAscent(advancedLocation.getAscent() * _altitudeConversion); // m
-        this.setAscentRate(3600f * advancedLocation.getAscentRate() * _altitudeConversion); // in m/h
-        this.setNbAscent(advancedLocation.getNbAscent());
-        this.setSlope(100f * advancedLocation.getSlope()); // in %
-        this.setAccuracy(advancedLocation.getAccuracy()); // m
-        this.setTime(advancedLocation.getTime());
-        this.setElapsedTimeSeconds((int) (advancedLocation.getElapsedTime() / 1000));
-        this.setXpos(xpos);
-        this.setYpos(ypos);
-        this.setBearing(advancedLocation.getBearing());
-        this.setHeartRate(255); // 255: no Heart Rate available
-        this.setCyclingCadence(255); // 255: no cadence available
-        this.setRunningCadence(255); // 255: no cadence available
+        event.setDistance(advancedLocation.getDistance() * _distanceConversion);
+        event.setLatitude(advancedLocation.getLatitude());
+        event.setLongitude(advancedLocation.getLongitude());
+        event.setAltitude(advancedLocation.getAltitude() * _altitudeConversion); // m
+        event.setAscent(advancedLocation.getAscent() * _altitudeConversion); // m
+        event.setAscentRate(3600f * advancedLocation.getAscentRate() * _altitudeConversion); // in m/h
+        event.setNbAscent(advancedLocation.getNbAscent());
+        event.setSlope(100f * advancedLocation.getSlope()); // in %
+        event.setAccuracy(advancedLocation.getAccuracy()); // m
+        event.setTime(advancedLocation.getTime());
+        event.setElapsedTimeSeconds((int) (advancedLocation.getElapsedTime() / 1000));
+        event.setXpos(xpos);
+        event.setYpos(ypos);
+        event.setBearing(advancedLocation.getBearing());
+        event.setHeartRate(255); // 255: no Heart Rate available
+        event.setCyclingCadence(255); // 255: no cadence available
+        event.setRunningCadence(255); // 255: no cadence available
+        event.setTemperature(0);
+        event.setBatteryLevel(0);
     }
 
-    private void createUnits(int units) {
+    private static void createUnits(int units) {
         if (units == Constants.IMPERIAL) {
             _speedInversion = false;
             _speedConversion = Constants.MS_TO_MPH;
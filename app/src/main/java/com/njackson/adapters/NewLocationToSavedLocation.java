@@ -5,24 +5,29 @@ import com.njackson.events.GPSServiceCommand.SavedLocation;
 
 public class NewLocationToSavedLocation extends SavedLocation {
     public NewLocationToSavedLocation(NewLocation newLocation) {
-        this.setSpeed(newLocation.getSpeed());
-        this.setMaxSpeed(newLocation.getMaxSpeed());
-        this.setDistance(newLocation.getDistance());
-        this.setAvgSpeed(newLocation.getAverageSpeed());
-        this.setLatitude(newLocation.getLatitude());
-        this.setLongitude(newLocation.getLongitude());
-        this.setAltitude(newLocation.getAltitude());
-        this.setAscent(newLocation.getAscent());
-        this.setAscentRate(newLocation.getAscentRate());
-        this.setNbAscent(newLocation.getNbAscent());
-        this.setSlope(newLocation.getSlope());
-        this.setAccuracy(newLocation.getAccuracy());
-        this.setElapsedTimeSeconds(newLocation.getElapsedTimeSeconds());
-        this.setXpos(newLocation.getXpos());
-        this.setYpos(newLocation.getYpos());
-        this.setBearing(newLocation.getBearing());
-        this.setUnits(newLocation.getUnits());
-        this.setTime(newLocation.getTime());
-        this.setHeartRate(newLocation.getHeartRate());
+        populate(this, newLocation);
+    }
+
+    // fill an existing (pooled) event instead of allocating a new one
+    public static void populate(SavedLocation savedLocation, NewLocation newLocation) {
+        savedLocation.setSpeed(newLocation.getSpeed());
+        savedLocation.setMaxSpeed(newLocation.getMaxSpeed());
+        savedLocation.setDistance(newLocation.getDistance());
+        savedLocation.setAvgSpeed(newLocation.getAverageSpeed());
+        savedLocation.setLatitude(newLocation.getLatitude());
+        savedLocation.setLongitude(newLocation.getLongitude());
+        savedLocation.setAltitude(newLocation.getAltitude());
+        savedLocation.setAscent(newLocation.getAscent());
+        savedLocation.setAscentRate(newLocation.getAscentRate());
+        savedLocation.setNbAscent(newLocation.getNbAscent());
+        savedLocation.setSlope(newLocation.getSlope());
+        savedLocation.setAccuracy(newLocation.getAccuracy());
+        savedLocation.setElapsedTimeSeconds(newLocation.getElapsedTimeSeconds());
+        savedLocation.setXpos(newLocation.getXpos());
+        savedLocation.setYpos(newLocation.getYpos());
+        savedLocation.setBearing(newLocation.getBearing());
+        savedLocation.setUnits(newLocation.getUnits());
+        savedLocation.setTime(newLocation.getTime());
+        savedLocation.setHeartRate(newLocation.getHeartRate());
     }
 }
@@ -6,6 +6,8 @@ import android.util.Log;
 
 import com.squareup.otto.Bus;
 
+import java.util.ArrayDeque;
+
 /**
  * Created by server on 27/04/2014.
  */
@@ -13,6 +15,17 @@ public class MainThreadBus extends Bus {
     private final Bus mBus;
     private final Handler mHandler = new Handler(Looper.getMainLooper());
 
+    // events posted from other threads, waiting for the main looper
+    // the deque and the dispatch runnable are reused, so a post from the processing thread allocates nothing
+    private final ArrayDeque<Object> mPending = new ArrayDeque<Object>();
+    private boolean mDispatchScheduled = false;
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending();
+        }
+    };
+
     public MainThreadBus(final Bus bus) {
         if (bus == null) {
             throw new NullPointerException("bus must not be null");
@@ -35,12 +48,29 @@ public class MainThreadBus extends Bus {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             mBus.post(event);
         } else {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mBus.post(event);
+            synchronized (mPending) {
+                mPending.addLast(event);
+                if (mDispatchScheduled) {
+                    // the scheduled dispatch will deliver this event too, before any message posted after it
+                    return;
+                }
+                mDispatchScheduled = true;
+            }
+            mHandler.post(mDispatch);
+        }
+    }
+
+    private void dispatchPending() {
+        while (true) {
+            Object event;
+            synchronized (mPending) {
+                event = mPending.pollFirst();
+                if (event == null) {
+                    mDispatchScheduled = false;
+                    return;
                 }
-            });
+            }
+            mBus.post(event);
         }
     }
 }
@@ -2,8 +2,10 @@ package com.njackson.application;
 
 import android.app.Application;
 import android.content.SharedPreferences;
+import android.os.StrictMode;
 import android.util.Log;
 
+import com.njackson.BuildConfig;
 import com.njackson.analytics.IAnalytics;
 import com.njackson.application.modules.AndroidModule;
 
@@ -29,6 +31,15 @@ public class PebbleBikeApplication extends Application implements IInjectionCont
     @Override
     public void onCreate() {
         super.onCreate();
+
+        if (BuildConfig.STRICT_MODE) {
+            // "strict" build type: crash on disk writes from the main thread
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .penaltyDeath()
+                    .build());
+        }
     }
 
     @Override
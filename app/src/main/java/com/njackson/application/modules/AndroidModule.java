@@ -41,12 +41,27 @@ import com.njackson.pebble.PebbleDataReceiver;
 import com.njackson.pebble.PebbleServiceCommand;
 import com.njackson.pebble.canvas.CanvasWrapper;
 import com.njackson.pebble.canvas.ICanvasWrapper;
+import com.njackson.rides.IRideRepository;
+import com.njackson.rides.RideDatabase;
+import com.njackson.rides.RideRepository;
+import com.njackson.rides.RideTimeSeries;
+import com.njackson.segments.ISegmentRepository;
+import com.njackson.segments.SegmentDatabase;
+import com.njackson.segments.SegmentRepository;
+import com.njackson.segments.SegmentServiceCommand;
 import com.njackson.service.IServiceCommand;
 import com.njackson.service.MainService;
 import com.njackson.state.GPSDataStore;
 import com.njackson.state.IGPSDataStore;
+import com.njackson.state.IRideJournal;
+import com.njackson.state.RideJournal;
 import com.njackson.utils.AltitudeGraphReduce;
+import com.njackson.utils.ElevationPyramid;
 import com.njackson.utils.BootUpReceiver;
+import com.njackson.utils.geo.GeoidGrid;
+import com.njackson.utils.geo.IElevationModel;
+import com.njackson.utils.geo.IGeoidModel;
+import com.njackson.utils.geo.SrtmElevationModel;
 import com.njackson.utils.googleplay.GoogleFitSessionManager;
 import com.njackson.utils.googleplay.GooglePlayServices;
 import com.njackson.utils.googleplay.IGoogleFitSessionManager;
@@ -66,8 +81,10 @@ import com.njackson.utils.watchface.InstallPebbleWatchFace;
 import com.squareup.otto.Bus;
 import com.squareup.otto.ThreadEnforcer;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -98,6 +115,7 @@ import static android.content.Context.SENSOR_SERVICE;
         ActivityRecognitionServiceCommand.class,
         PebbleDataReceiver.class,
         BLEServiceCommand.class,
+        SegmentServiceCommand.class,
         Ble.class,
         SpeedFragment.class,
         MessageManager.class,
@@ -138,7 +156,16 @@ public class AndroidModule {
     }
 
     @Provides @Singleton
-    IGPSDataStore providesGPSDataStore(SharedPreferences preferences) { return new GPSDataStore(preferences, application); }
+    IGPSDataStore providesGPSDataStore(SharedPreferences preferences) { return new GPSDataStore(preferences, application, Executors.newSingleThreadExecutor(), new File(application.getFilesDir(), "state.bin")); }
+
+    @Provides @Singleton
+    IRideJournal providesRideJournal() { return new RideJournal(new File(application.getFilesDir(), "ride.journal")); }
+
+    @Provides @Singleton
+    ISegmentRepository providesSegmentRepository() { return new SegmentRepository(new SegmentDatabase(application)); }
+
+    @Provides @Singleton
+    IRideRepository providesRideRepository() { return new RideRepository(new RideDatabase(application), new File(application.getFilesDir(), "rides")); }
 
     @Provides @Singleton @Named("GoogleActivity")
     GoogleApiClient provideActivityRecognitionClient() {
@@ -164,6 +191,22 @@ public class AndroidModule {
     @Provides @Singleton
     AltitudeGraphReduce providesAltitudeGraphReduce() { return new AltitudeGraphReduce(); }
 
+    @Provides @Singleton
+    ElevationPyramid providesElevationPyramid() { return new ElevationPyramid(); }
+
+    @Provides @Singleton
+    RideTimeSeries providesRideTimeSeries() { return new RideTimeSeries(); }
+
+    @Provides @Singleton
+    IElevationModel providesElevationModel() {
+        // .hgt tiles copied by the user, files/dem on the external storage if available
+        File dir = application.getExternalFilesDir(null);
+        return new SrtmElevationModel(new File(dir != null ? dir : application.getFilesDir(), "dem"));
+    }
+
+    @Provides @Singleton
+    IGeoidModel providesGeoidModel() { return new GeoidGrid(application.getAssets(), "egm96-15.bin", new File(application.getFilesDir(), "egm96-15.bin")); }
+
     @Provides @Singleton
     public IMessageManager providesMessageManager(SharedPreferences preferences) { return new MessageManager(preferences, application); }
 
@@ -238,7 +281,8 @@ public class AndroidModule {
                 new OruxMapsServiceCommand(),
                 new LiveServiceCommand(),
                 new GoogleFitServiceCommand(),
-                new BLEServiceCommand()
+                new BLEServiceCommand(),
+                new SegmentServiceCommand()
         );
     }
 }
\ No newline at end of file
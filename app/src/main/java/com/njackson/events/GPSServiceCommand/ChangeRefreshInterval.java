@@ -5,13 +5,33 @@ package com.njackson.events.GPSServiceCommand;
  */
 public class ChangeRefreshInterval {
 
+    public static final float DEFAULT_MIN_DISTANCE = 2.0f;
+
     private int _refreshInterval;
     public int getRefreshInterval() {
         return _refreshInterval;
     }
 
+    // minimum distance between location updates, in meters
+    private float _minDistance = DEFAULT_MIN_DISTANCE;
+    public float getMinDistance() {
+        return _minDistance;
+    }
+
+    // true when sent by AdaptiveRefreshPolicy: only the GPS sampling changes, not the user refresh interval
+    private boolean _adaptive = false;
+    public boolean isAdaptive() {
+        return _adaptive;
+    }
+
     public ChangeRefreshInterval(int refreshinterval) {
         _refreshInterval = refreshinterval;
     }
 
+    public ChangeRefreshInterval(int refreshinterval, float minDistance, boolean adaptive) {
+        _refreshInterval = refreshinterval;
+        _minDistance = minDistance;
+        _adaptive = adaptive;
+    }
+
 }
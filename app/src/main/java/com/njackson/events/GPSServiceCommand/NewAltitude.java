@@ -15,6 +15,11 @@ public class NewAltitude {
         return _altitudeValues;
     }
 
+    // empty event, filled in place through getAltitudes() when reused from a pool
+    public NewAltitude() {
+        _altitudeValues = new int[VALUES_SIZE];
+    }
+
     public NewAltitude(int[] altitudeValues) {
         if(altitudeValues == null || altitudeValues.length != VALUES_SIZE)
             throw new InvalidParameterException("Constructor requires altitude values with size" + VALUES_SIZE);
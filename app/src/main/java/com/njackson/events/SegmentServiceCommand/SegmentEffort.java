@@ -0,0 +1,37 @@
+package com.njackson.events.SegmentServiceCommand;
+
+/**
+ * Created by jay on 18/10/26.
+ */
+public class SegmentEffort {
+
+    private final long _segmentId;
+    private final String _name;
+    private final long _elapsedTime;
+    private final boolean _best;
+
+    public SegmentEffort(long segmentId, String name, long elapsedTime, boolean best) {
+        _segmentId = segmentId;
+        _name = name;
+        _elapsedTime = elapsedTime;
+        _best = best;
+    }
+
+    public long getSegmentId() {
+        return _segmentId;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    // ms
+    public long getElapsedTime() {
+        return _elapsedTime;
+    }
+
+    // new best time (PR)
+    public boolean isBest() {
+        return _best;
+    }
+}
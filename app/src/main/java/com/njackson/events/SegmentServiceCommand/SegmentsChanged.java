@@ -0,0 +1,9 @@
+package com.njackson.events.SegmentServiceCommand;
+
+/**
+ * Created by jay on 18/10/26.
+ *
+ * A segment was added or deleted: the live matcher is rebuilt.
+ */
+public class SegmentsChanged {
+}
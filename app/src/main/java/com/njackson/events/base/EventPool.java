@@ -0,0 +1,96 @@
+package com.njackson.events.base;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Small fixed size pool of recyclable events.
+ *
+ * Events are posted through MainThreadBus, so they are dispatched on the main looper. An event
+ * given to releaseAfterDispatch() only goes back to the pool once the main looper has processed
+ * everything queued before it, i.e. once every subscriber has seen it.
+ * Subscribers must not keep a reference to a pooled event after their @Subscribe method returns.
+ *
+ * Neither MainThreadBus nor this pool allocate per event: both reuse a single Runnable and the
+ * Messages come from the Android Message pool. What remains per post is Otto's own dispatch
+ * (a queued EventWithHandler and its queue node, and the reflective invoke arguments, for each
+ * subscriber), which cannot be avoided without replacing the bus.
+ */
+public class EventPool<T> {
+
+    public interface Factory<T> {
+        T create();
+    }
+
+    private final Factory<T> _factory;
+    private final Object[] _free;
+    private int _nbFree = 0;
+
+    // ring buffer of events waiting for their dispatch to complete
+    private final Object[] _pending;
+    private int _pendingHead = 0;
+    private int _nbPending = 0;
+
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+    private final Runnable _drain = new Runnable() {
+        @Override
+        public void run() {
+            releaseOldestPending();
+        }
+    };
+
+    public EventPool(int size, Factory<T> factory) {
+        _factory = factory;
+        _free = new Object[size];
+        _pending = new Object[size];
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized T obtain() {
+        if (_nbFree == 0) {
+            // pool exhausted (subscribers slower than the producer), fall back to allocation
+            return _factory.create();
+        }
+        _nbFree--;
+        T event = (T) _free[_nbFree];
+        _free[_nbFree] = null;
+        return event;
+    }
+
+    public synchronized void release(T event) {
+        if (event != null && _nbFree < _free.length) {
+            _free[_nbFree++] = event;
+        }
+    }
+
+    // release the event once all the events already queued on the main looper have been dispatched
+    public synchronized void releaseAfterDispatch(T event) {
+        if (event == null) {
+            return;
+        }
+        if (_nbPending == _pending.length) {
+            // too many events in flight, let the GC collect this one
+            return;
+        }
+        _pending[(_pendingHead + _nbPending) % _pending.length] = event;
+        _nbPending++;
+        // one message per event (recycled, _drain is reused): the handler queue is FIFO and MainThreadBus
+        // delivers an event before any message posted after it, so when it runs the event has been dispatched
+        _handler.post(_drain);
+    }
+
+    public synchronized int getNbFree() {
+        return _nbFree;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void releaseOldestPending() {
+        if (_nbPending == 0) {
+            return;
+        }
+        release((T) _pending[_pendingHead]);
+        _pending[_pendingHead] = null;
+        _pendingHead = (_pendingHead + 1) % _pending.length;
+        _nbPending--;
+    }
+}
@@ -0,0 +1,143 @@
+package com.njackson.gps;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.google.android.gms.location.DetectedActivity;
+import com.njackson.events.GPSServiceCommand.ChangeRefreshInterval;
+import com.squareup.otto.Bus;
+
+/**
+ * Adapts the GPS sampling to the ride: full rate when fast, accelerating or with a poor fix,
+ * slower at steady cruise, slowest when stationary.
+ *
+ * Every decision is posted as an adaptive ChangeRefreshInterval (interval and minimum distance),
+ * only when it changes. Slowing down requires the condition to hold for HOLD_TIME, going back to
+ * the full rate is immediate.
+ */
+public class AdaptiveRefreshPolicy {
+
+    private static final String TAG = "PB-AdaptiveRefreshPolicy";
+
+    public static final int MODE_FULL = 0;
+    public static final int MODE_CRUISE = 1;
+    public static final int MODE_STATIONARY = 2;
+
+    static final float STATIONARY_SPEED = 1.0f; // m/s
+    static final float FAST_SPEED = 12.0f; // m/s, ~43km/h
+    static final float STEADY_ACCELERATION = 0.3f; // m/s2
+    static final float GOOD_ACCURACY = 10.0f; // m
+    static final long HOLD_TIME = 30000; // ms
+    static final float MIN_DISTANCE_FULL = ChangeRefreshInterval.DEFAULT_MIN_DISTANCE;
+    static final float MIN_DISTANCE_STATIONARY = 10.0f;
+
+    private Bus _bus;
+
+    private int _minInterval = 1000;
+    private int _cruiseInterval = 5000;
+    private int _maxInterval = 10000;
+
+    private int _mode = MODE_FULL;
+    private int _candidateMode = MODE_FULL;
+    private long _candidateSince = 0;
+
+    private boolean _still = false;
+    private boolean _hasPrevious = false;
+    private float _previousSpeed = 0;
+    private long _previousTime = 0;
+    // smoothed absolute acceleration
+    private float _acceleration = 0;
+
+    public AdaptiveRefreshPolicy(Bus bus) {
+        _bus = bus;
+    }
+
+    // minInterval: user refresh interval, maxInterval: slowest sampling allowed
+    public void setBounds(int minInterval, int maxInterval) {
+        _minInterval = minInterval;
+        _maxInterval = Math.max(minInterval, maxInterval);
+        _cruiseInterval = Math.max(_minInterval, Math.min(_maxInterval / 2, 5000));
+    }
+
+    public int getMode() {
+        return _mode;
+    }
+
+    public int getInterval() {
+        return getInterval(_mode);
+    }
+
+    public float getMinDistance() {
+        return _mode == MODE_STATIONARY ? MIN_DISTANCE_STATIONARY : MIN_DISTANCE_FULL;
+    }
+
+    public void reset() {
+        _mode = MODE_FULL;
+        _candidateMode = MODE_FULL;
+        _hasPrevious = false;
+        _acceleration = 0;
+        _still = false;
+    }
+
+    public void onActivityChanged(int activityType) {
+        _still = activityType == DetectedActivity.STILL;
+        if (!_still && _mode == MODE_STATIONARY) {
+            // moving again: no fix may arrive before the minimum distance, don't wait for one
+            _candidateMode = MODE_FULL;
+            setMode(MODE_FULL);
+        }
+    }
+
+    public void onLocationChanged(Location location) {
+        float speed = location.getSpeed();
+        long time = location.getTime();
+
+        if (_hasPrevious && time > _previousTime) {
+            float acceleration = Math.abs(speed - _previousSpeed) * 1000f / (time - _previousTime);
+            _acceleration = 0.7f * _acceleration + 0.3f * acceleration;
+        }
+        _hasPrevious = true;
+        _previousSpeed = speed;
+        _previousTime = time;
+
+        int wanted;
+        if (location.hasAccuracy() && location.getAccuracy() > GOOD_ACCURACY) {
+            wanted = MODE_FULL;
+        } else if (speed < STATIONARY_SPEED || (_still && speed < FAST_SPEED)) {
+            wanted = MODE_STATIONARY;
+        } else if (speed < FAST_SPEED && _acceleration < STEADY_ACCELERATION) {
+            wanted = MODE_CRUISE;
+        } else {
+            wanted = MODE_FULL;
+        }
+
+        if (wanted != _candidateMode) {
+            _candidateMode = wanted;
+            _candidateSince = time;
+        }
+        if (wanted == _mode) {
+            return;
+        }
+        if (wanted < _mode || time - _candidateSince >= HOLD_TIME) {
+            // faster sampling: immediately, slower sampling: only if stable
+            setMode(wanted);
+        }
+    }
+
+    private void setMode(int mode) {
+        _mode = mode;
+        Log.d(TAG, "mode:" + mode + " interval:" + getInterval() + " minDistance:" + getMinDistance());
+        _bus.post(new ChangeRefreshInterval(getInterval(), getMinDistance(), true));
+    }
+
+    private int getInterval(int mode) {
+        switch (mode) {
+            case MODE_STATIONARY:
+                return _maxInterval;
+            case MODE_CRUISE:
+                return _cruiseInterval;
+            default:
+                return _minInterval;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.njackson.gps;
+
+import android.os.Handler;
+
+import com.njackson.Constants;
+import com.njackson.utils.time.ITime;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Fixed rate sample clock for the GPS pipeline.
+ *
+ * GPS fixes, BLE notifications and barometer samples only update the latest values; the fused
+ * sample (callback) is emitted at most once per refresh interval, when new data is available.
+ * A significant change (e.g. first heart rate value, big altitude change) emits immediately.
+ */
+public class FusionScheduler {
+
+    private static final String TAG = "PB-FusionScheduler";
+
+    private ITime _time;
+    private Handler _handler;
+    private Callable _callback;
+
+    private int _interval = Constants.REFRESH_INTERVAL_DEFAULT;
+    private long _lastEmit = 0;
+    private boolean _dirty = false;
+    private boolean _scheduled = false;
+
+    private final Runnable _tick = new Runnable() {
+        @Override
+        public void run() {
+            _scheduled = false;
+            if (_dirty) {
+                emit();
+            }
+        }
+    };
+
+    public FusionScheduler(ITime time, Handler handler, Callable callback) {
+        _time = time;
+        _handler = handler;
+        _callback = callback;
+    }
+
+    public int getInterval() {
+        return _interval;
+    }
+
+    // interval in milliseconds, usually REFRESH_INTERVAL
+    public void setInterval(int interval) {
+        _interval = interval > 0 ? interval : Constants.REFRESH_INTERVAL_DEFAULT;
+    }
+
+    // new sensor data is available, emit now if significant or if the interval has elapsed, otherwise at the next tick
+    public void onNewData(boolean significant) {
+        _dirty = true;
+        long delay = _lastEmit + _interval - _time.getCurrentTimeMilliseconds();
+        if (significant || delay <= 0) {
+            emit();
+        } else if (!_scheduled) {
+            _scheduled = true;
+            _handler.postDelayed(_tick, delay);
+        }
+    }
+
+    // a sample including the latest values has been broadcast outside of the scheduler (new GPS fix)
+    public void onEmitted() {
+        _lastEmit = _time.getCurrentTimeMilliseconds();
+        _dirty = false;
+        cancelTick();
+    }
+
+    public void stop() {
+        _dirty = false;
+        cancelTick();
+    }
+
+    private void cancelTick() {
+        if (_scheduled) {
+            _handler.removeCallbacks(_tick);
+            _scheduled = false;
+        }
+    }
+
+    private void emit() {
+        onEmitted();
+        try {
+            _callback.call();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
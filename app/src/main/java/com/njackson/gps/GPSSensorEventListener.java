@@ -4,24 +4,51 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
 import android.util.Log;
 
 import com.google.common.base.Function;
+import com.njackson.gps.replay.IInputListener;
 
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 
 import fr.jayps.android.AdvancedLocation;
 
 /**
  * Created by njackson on 24/12/14.
+ *
+ * By default each pressure sample updates the altitude. Batched, the samples are buffered and a
+ * batch updates the altitude once with its median pressure (spikes are ignored):
+ * - hardware batching: the sensor FIFO delivers the samples of maxReportLatencyUs in a burst, the
+ *   batch is processed after the burst (posted on the handler delivering the samples)
+ * - software batching: the batch is processed every batchSize samples
  */
 public class GPSSensorEventListener implements SensorEventListener{
 
     private static final String TAG = "PB-GPSSensorEventListener";
 
+    static final int MAX_BATCH = 128;
+
     private AdvancedLocation _advancedLocation;
     private Callable  _callback;
     private SensorManager _sensorManager;
+    private IInputListener _inputRecorder = null;
+
+    private final float[] _pressures = new float[MAX_BATCH];
+    private final float[] _sorted = new float[MAX_BATCH];
+    private int _nbPressures = 0;
+    private boolean _batching = false;
+    private Handler _handler = null;
+    private int _batchSize = MAX_BATCH;
+    private boolean _flushPosted = false;
+    private final Runnable _flushTask = new Runnable() {
+        @Override
+        public void run() {
+            _flushPosted = false;
+            flush();
+        }
+    };
 
     public GPSSensorEventListener(AdvancedLocation advancedLocation, SensorManager sensorManager, Callable callback){
         _advancedLocation = advancedLocation;
@@ -29,6 +56,23 @@ public class GPSSensorEventListener implements SensorEventListener{
         _sensorManager = sensorManager;
     }
 
+    public void setInputRecorder(IInputListener inputRecorder) {
+        _inputRecorder = inputRecorder;
+    }
+
+    // handler: the one the sensor delivers the samples on
+    public void enableHardwareBatching(Handler handler) {
+        _batching = true;
+        _handler = handler;
+        _batchSize = MAX_BATCH;
+    }
+
+    public void enableSoftwareBatching(int batchSize) {
+        _batching = true;
+        _handler = null;
+        _batchSize = Math.min(batchSize, MAX_BATCH);
+    }
+
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
 
@@ -41,16 +85,46 @@ public class GPSSensorEventListener implements SensorEventListener{
     }
 
     public void sensorChanged(int sensorType, float[] values) {
+        if (_inputRecorder != null) {
+            _inputRecorder.onSensorChanged(sensorType, values);
+        }
         if(sensorType == Sensor.TYPE_PRESSURE) {
-            float pressure_value = values[0];
-            double altitude = _sensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, pressure_value);
-            _advancedLocation.onAltitudeChanged(altitude);
-
-            try {
-                _callback.call();
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (!_batching) {
+                onPressure(values[0]);
+                return;
+            }
+            _pressures[_nbPressures++] = values[0];
+            if (_nbPressures >= _batchSize) {
+                flush();
+            } else if (_handler != null && !_flushPosted) {
+                // after the other samples of the burst
+                _flushPosted = true;
+                _handler.post(_flushTask);
             }
         }
     }
+
+    // processes the buffered samples in one pass
+    public void flush() {
+        if (_nbPressures == 0) {
+            return;
+        }
+        System.arraycopy(_pressures, 0, _sorted, 0, _nbPressures);
+        Arrays.sort(_sorted, 0, _nbPressures);
+        float median = _nbPressures % 2 == 1 ? _sorted[_nbPressures / 2]
+                : (_sorted[_nbPressures / 2 - 1] + _sorted[_nbPressures / 2]) / 2;
+        _nbPressures = 0;
+        onPressure(median);
+    }
+
+    private void onPressure(float pressure_value) {
+        double altitude = _sensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, pressure_value);
+        _advancedLocation.onAltitudeChanged(altitude);
+
+        try {
+            _callback.call();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -9,7 +9,11 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
 import com.njackson.Constants;
@@ -17,6 +21,7 @@ import com.njackson.adapters.AdvancedLocationToNewLocation;
 import com.njackson.adapters.NewLocationToSavedLocation;
 import com.njackson.application.IInjectionContainer;
 import com.njackson.application.modules.ForApplication;
+import com.njackson.events.ActivityRecognitionCommand.NewActivityEvent;
 import com.njackson.events.BleServiceCommand.BleSensorData;
 import com.njackson.events.GPSServiceCommand.ChangeRefreshInterval;
 import com.njackson.events.GPSServiceCommand.GPSChangeState;
@@ -26,14 +31,32 @@ import com.njackson.events.GPSServiceCommand.ResetGPSState;
 import com.njackson.events.GPSServiceCommand.NewLocation;
 import com.njackson.events.GPSServiceCommand.SavedLocation;
 import com.njackson.events.base.BaseStatus;
+import com.njackson.events.base.EventPool;
+import com.njackson.gps.filter.ILocationFilter;
+import com.njackson.gps.filter.KalmanLocationFilter;
+import com.njackson.gps.filter.NoLocationFilter;
+import com.njackson.gps.nmea.FixQuality;
+import com.njackson.gps.replay.IInputListener;
+import com.njackson.gps.replay.InputRecorder;
+import com.njackson.gps.replay.InputReplayer;
+import com.njackson.rides.IRideRepository;
+import com.njackson.rides.RideTimeSeries;
 import com.njackson.service.IServiceCommand;
 import com.njackson.state.IGPSDataStore;
+import com.njackson.state.IRideJournal;
 import com.njackson.utils.AltitudeGraphReduce;
 import com.njackson.utils.BatteryStatus;
+import com.njackson.utils.ElevationPyramid;
+import com.njackson.utils.geo.IElevationModel;
+import com.njackson.utils.geo.IGeoidModel;
+import com.njackson.utils.geo.LocalProjection;
 import com.njackson.utils.time.ITime;
 import com.squareup.otto.Bus;
 import com.squareup.otto.Subscribe;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
@@ -61,20 +84,32 @@ public class GPSServiceCommand implements IServiceCommand {
     @Inject ITime _time;
     @Inject SharedPreferences _sharedPreferences;
     @Inject AltitudeGraphReduce _altitudeGraphReduce;
+    @Inject ElevationPyramid _elevationPyramid;
+    @Inject IRideJournal _rideJournal;
+    @Inject IRideRepository _rideRepository;
+    @Inject RideTimeSeries _timeSeries;
+    @Inject IElevationModel _elevationModel;
+    @Inject IGeoidModel _geoidModel;
 
     private AdvancedLocation _advancedLocation;
     private Location firstLocation = null;
+    private LocalProjection _projection = new LocalProjection();
+    private ILocationFilter _locationFilter = new NoLocationFilter();
     private ServiceNmeaListener _nmeaListener;
+    // updated by _nmeaListener, read by _locationFilter
+    private final FixQuality _fixQuality = new FixQuality();
     private GPSSensorEventListener _sensorListener;
+    private InputRecorder _inputRecorder = null;
+    // points are saved in the ride history (ENABLE_TRACKS)
+    private boolean _saveRide = false;
 	private int _heartRate = 0;
     private int _cyclingCadence = 0;
     private int _runningCadence = 0;
     private double _temperature = 0;
     private int _batteryLevel = 0;
-    private BaseStatus.Status _currentStatus= BaseStatus.Status.NOT_INITIALIZED;
+    private volatile BaseStatus.Status _currentStatus= BaseStatus.Status.NOT_INITIALIZED;
     private SavedLocation _savedLocation = null;
     private NewAltitude _savedNewAltitude = null;
-    private int _nbLocationReceived = 0;
 
     private long _last_post_newlocation  = 0;
     private long _last_post_battery_level  = 0;
@@ -82,20 +117,113 @@ public class GPSServiceCommand implements IServiceCommand {
 
     private int _refresh_interval = 0;
 
+    // BLE and barometer values are fused into one sample per refresh interval
+    private static final int HEART_RATE_SIGNIFICANT_CHANGE = 10; // bpm
+    private static final int CADENCE_SIGNIFICANT_CHANGE = 10; // rpm
+    private static final double ALTITUDE_SIGNIFICANT_CHANGE = 5; // m
+    private FusionScheduler _fusionScheduler;
+    private int _lastFusedHeartRate = 0;
+    private int _lastFusedCadence = 0;
+    private double _lastFusedAltitude = 0;
+
+    // barometer: one sample every 3 s, or batched (PREF_BAROMETER_BATCHING)
+    private static final int BAROMETER_SAMPLING_PERIOD = 3000000; // us
+    private static final int BAROMETER_BATCH_SAMPLING_PERIOD = 1000000; // us
+    private static final int BAROMETER_MAX_REPORT_LATENCY = 30000000; // us
+    private static final int BAROMETER_SOFTWARE_BATCH_SIZE = 5;
+
+    private AdaptiveRefreshPolicy _refreshPolicy;
+
+    // the altitude is calibrated once on the offline elevation model (DEM_ALTITUDE), at the start
+    private static final float DEM_CALIBRATION_MAX_ACCURACY = 20; // m
+    private boolean _demCalibrationPending = false;
+    private boolean _adaptiveRefresh = false;
+
+    // single writer: all inputs (fixes, NMEA, sensors, bus events) are processed on this thread,
+    // events posted from it are delivered on the main thread by MainThreadBus
+    private HandlerThread _processingThread = null;
+    private Handler _handler = null;
+
+    // events are reused to avoid allocations for every fix/sensor value
+    private static final int EVENT_POOL_SIZE = 4;
+    private final EventPool<NewLocation> _newLocationPool = new EventPool<NewLocation>(EVENT_POOL_SIZE, new EventPool.Factory<NewLocation>() {
+        @Override
+        public NewLocation create() {
+            return new NewLocation();
+        }
+    });
+    private final EventPool<SavedLocation> _savedLocationPool = new EventPool<SavedLocation>(EVENT_POOL_SIZE, new EventPool.Factory<SavedLocation>() {
+        @Override
+        public SavedLocation create() {
+            return new SavedLocation();
+        }
+    });
+    private final EventPool<NewAltitude> _newAltitudePool = new EventPool<NewAltitude>(EVENT_POOL_SIZE, new EventPool.Factory<NewAltitude>() {
+        @Override
+        public NewAltitude create() {
+            return new NewAltitude();
+        }
+    });
+
     @Subscribe
     public void onResetGPSStateEvent(ResetGPSState event) {
-        //stop service stopLocationUpdates();
-        resetGPSStats();
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                //stop service stopLocationUpdates();
+                resetGPSStats();
+            }
+        });
     }
 
     @Subscribe
-    public void onGPSRefreshChangeEvent(ChangeRefreshInterval event) {
+    public void onGPSRefreshChangeEvent(final ChangeRefreshInterval event) {
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                handleRefreshChange(event);
+            }
+        });
+    }
+
+    private void handleRefreshChange(ChangeRefreshInterval event) {
+        if (event.isAdaptive()) {
+            // GPS sampling only, _refresh_interval stays the user setting
+            if (_currentStatus == BaseStatus.Status.STARTED) {
+                requestLocationUpdates(event.getRefreshInterval(), event.getMinDistance());
+            }
+            return;
+        }
         _refresh_interval = event.getRefreshInterval();
+        _fusionScheduler.setInterval(_refresh_interval);
+        _refreshPolicy.reset();
+        _refreshPolicy.setBounds(_refresh_interval, getAdaptiveRefreshMax());
         changeRefreshInterval(event.getRefreshInterval());
     }
 
     @Subscribe
-    public void onGPSChangeState(GPSChangeState event) {
+    public void onNewActivityEvent(final NewActivityEvent event) {
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                if (_adaptiveRefresh && _currentStatus == BaseStatus.Status.STARTED) {
+                    _refreshPolicy.onActivityChanged(event.getActivityType());
+                }
+            }
+        });
+    }
+
+    @Subscribe
+    public void onGPSChangeState(final GPSChangeState event) {
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                handleGPSChangeState(event);
+            }
+        });
+    }
+
+    private void handleGPSChangeState(GPSChangeState event) {
         switch(event.getState()) {
             case START:
                 if(_currentStatus != BaseStatus.Status.STARTED) {
@@ -116,7 +244,19 @@ public class GPSServiceCommand implements IServiceCommand {
     }
 
     @Subscribe
-    public void onNewBleSensorData(BleSensorData event) {
+    public void onNewBleSensorData(final BleSensorData event) {
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                handleBleSensorData(event);
+            }
+        });
+    }
+
+    private void handleBleSensorData(BleSensorData event) {
+        if (_inputRecorder != null) {
+            _inputRecorder.onNewBleSensorData(event);
+        }
         switch (event.getType()) {
             case BleSensorData.SENSOR_HRM:
                 _heartRate = event.getHeartRate();
@@ -131,7 +271,10 @@ public class GPSServiceCommand implements IServiceCommand {
                     wheelSize = 0;
                 }
                 if (wheelSize > 0) {
-                    _advancedLocation.setSensorSpeed(wheelSize / 1000 * event.getCyclingWheelRpm() / 60, _time.getCurrentTimeMilliseconds());
+                    // wheel size in mm, speed in m/s
+                    float wheelSpeed = wheelSize / 1000f * event.getCyclingWheelRpm() / 60;
+                    _advancedLocation.setSensorSpeed(wheelSpeed, _time.getCurrentTimeMilliseconds());
+                    _locationFilter.setSensorSpeed(wheelSpeed, _time.getCurrentTimeMilliseconds());
                 }
                 Log.d(TAG, "onNewBleSensorData _cadence:" + _cyclingCadence + " wheelRpm:" + event.getCyclingWheelRpm() + " wheelSize:" + wheelSize);
                 break;
@@ -148,21 +291,81 @@ public class GPSServiceCommand implements IServiceCommand {
                 Log.d(TAG, "onNewBleSensorData type unknown:" + event.getType());
                 break;
         }
-        broadcastLocation(null);
+        boolean significant = isSignificantChange(_heartRate, _lastFusedHeartRate, HEART_RATE_SIGNIFICANT_CHANGE)
+                || isSignificantChange(_cyclingCadence, _lastFusedCadence, CADENCE_SIGNIFICANT_CHANGE);
+        _fusionScheduler.onNewData(significant);
+    }
+
+    private boolean isSignificantChange(int value, int lastValue, int threshold) {
+        // first value after no data is always significant
+        return (value > 0 && lastValue == 0) || Math.abs(value - lastValue) >= threshold;
+    }
+
+    private void runOnProcessingThread(Runnable runnable) {
+        if (Looper.myLooper() == _handler.getLooper()) {
+            runnable.run();
+        } else {
+            _handler.post(runnable);
+        }
     }
 
     @Override
     public void execute(IInjectionContainer container) {
         container.inject(this);
+
+        // execute() is called again for each start command of MainService: the processing thread
+        // and the objects it uses are only created once, until dispose()
+        if (_processingThread == null) {
+            _processingThread = new HandlerThread("PB-GPSProcessing");
+            _processingThread.start();
+            _handler = new Handler(_processingThread.getLooper());
+
+            _refreshPolicy = new AdaptiveRefreshPolicy(_bus);
+            _fusionScheduler = new FusionScheduler(_time, _handler, new Callable() {
+                @Override
+                public Object call() throws Exception {
+                    broadcastLocation(null);
+                    return null;
+                }
+            });
+        }
+
         _bus.register(this);
 
-        _currentStatus = BaseStatus.Status.INITIALIZED;
-        createNewAdvancedLocation();
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                if (_currentStatus != BaseStatus.Status.STARTED) {
+                    _currentStatus = BaseStatus.Status.INITIALIZED;
+                    createNewAdvancedLocation();
+                    recoverRideJournal();
+                }
+            }
+        });
     }
 
     @Override
     public void dispose() {
         _bus.unregister(this);
+
+        if (_processingThread != null) {
+            final HandlerThread processingThread = _processingThread;
+            _processingThread = null;
+            _handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // listeners are bound to this looper, remove them before it dies
+                    if (_currentStatus == BaseStatus.Status.STARTED) {
+                        stop();
+                    }
+                    // a pending tick would run on the dead looper
+                    _fusionScheduler.stop();
+                    // the service may be gone with the process right after onDestroy
+                    _dataStore.flushSync();
+                    processingThread.quit();
+                }
+            });
+        }
     }
 
     @Override
@@ -170,17 +373,62 @@ public class GPSServiceCommand implements IServiceCommand {
         return _currentStatus;
     }
 
+    // entry point of the raw inputs, used by InputReplayer to feed a recorded ride through the same listeners
+    public IInputListener getInputListener() {
+        return _inputListener;
+    }
+
+    // replays a recording through getInputListener() on the processing thread: each input is processed
+    // before the next one is read. With InputReplayer.getTime() as ITime the results don't depend on the
+    // replay speed. The processing thread is busy during the replay, fusion ticks only run after it.
+    public void replay(final InputReplayer replayer, final InputStream inputStream) {
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replayer.replay(inputStream, _inputListener);
+                } catch (IOException e) {
+                    Log.e(TAG, "replay: " + e);
+                }
+            }
+        });
+    }
+
     private void start(int refreshInterval) {
         Log.d(TAG, "Start");
 
         createNewAdvancedLocation();
         loadGPSStats();
 
+        _fusionScheduler.setInterval(refreshInterval);
+
+        _adaptiveRefresh = _sharedPreferences.getBoolean("PREF_ADAPTIVE_REFRESH", false);
+        _refreshPolicy.reset();
+        _demCalibrationPending = _sharedPreferences.getBoolean("DEM_ALTITUDE", false);
+
+        if (_sharedPreferences.getBoolean("PREF_GPS_FILTER", false)) {
+            _locationFilter = new KalmanLocationFilter(_time);
+        } else {
+            _locationFilter = new NoLocationFilter();
+        }
+        _fixQuality.reset();
+        _locationFilter.setFixQuality(_fixQuality);
+        _refreshPolicy.setBounds(refreshInterval, getAdaptiveRefreshMax());
+
         // check to see if GPS is enabled
         if(checkGPSEnabled(_locationMgr)) {
+            _rideJournal.open();
+            _saveRide = _sharedPreferences.getBoolean("ENABLE_TRACKS", false);
+            if (_saveRide) {
+                // continues the ride until a reset
+                _rideRepository.openRide(_time.getCurrentTimeMilliseconds());
+            }
             requestLocationUpdates(refreshInterval);
             registerNmeaListener();
             registerSensorListener();
+            if (_sharedPreferences.getBoolean("PREF_RECORD_INPUTS", false)) {
+                startRecording();
+            }
             setGPSStartTime();
 
             _currentStatus = BaseStatus.Status.STARTED;
@@ -195,12 +443,24 @@ public class GPSServiceCommand implements IServiceCommand {
 
     public void stop (){
         saveGPSStats();
+        _rideJournal.clear();
+        _rideRepository.flush();
 
         stopLocationUpdates();
+        stopRecording();
+        _fusionScheduler.stop();
 
         _currentStatus = BaseStatus.Status.STOPPED;
     }
 
+    private int getAdaptiveRefreshMax() {
+        try {
+            return Integer.valueOf(_sharedPreferences.getString("PREF_ADAPTIVE_REFRESH_MAX", "10000"));
+        } catch (Exception ex) {
+            return 10000;
+        }
+    }
+
     private void setGPSStartTime() {
         _dataStore.setStartTime(_time.getCurrentTimeMilliseconds());
         _dataStore.commit();
@@ -231,8 +491,10 @@ public class GPSServiceCommand implements IServiceCommand {
             firstLocation = new Location("Ventoo");
             firstLocation.setLatitude(_dataStore.getFirstLocationLattitude());
             firstLocation.setLongitude(_dataStore.getFirstLocationLongitude());
+            _projection.setOrigin(firstLocation.getLatitude(), firstLocation.getLongitude());
         } else {
             firstLocation = null;
+            _projection.reset();
         }
     }
 
@@ -252,18 +514,62 @@ public class GPSServiceCommand implements IServiceCommand {
         _dataStore.commit();
     }
 
+    // totals of a ride interrupted before stop() (crash, service killed), more recent than GPSDataStore
+    private void recoverRideJournal() {
+        if (_rideJournal.recover()) {
+            Log.d(TAG, "recovered ride distance:" + _rideJournal.getDistance() + " elapsedTime:" + _rideJournal.getElapsedTime());
+            _dataStore.setDistance(_rideJournal.getDistance());
+            _dataStore.setElapsedTime(_rideJournal.getElapsedTime());
+            _dataStore.setAscent(_rideJournal.getAscent());
+            _dataStore.setNbAscent(_rideJournal.getNbAscent());
+            _dataStore.setMaxSpeed(_rideJournal.getMaxSpeed());
+            _dataStore.commit();
+        }
+        _rideJournal.clear();
+    }
+
     // reset the saved state
     private void resetGPSStats() {
         _dataStore.resetAllValues();
         _dataStore.commit();
+        _rideJournal.clear();
+        // the previous ride stays in the history
+        _rideRepository.closeRide();
+        if (_currentStatus == BaseStatus.Status.STARTED) {
+            _rideJournal.open();
+            if (_saveRide) {
+                _rideRepository.openRide(_time.getCurrentTimeMilliseconds());
+            }
+        }
 
         // GPS is running
         // reninit all properties
         createNewAdvancedLocation();
+        _locationFilter.reset();
 
         loadGPSStats();
 
         _altitudeGraphReduce.resetData();
+        _elevationPyramid.clear();
+        _timeSeries.clear();
+        _demCalibrationPending = _sharedPreferences.getBoolean("DEM_ALTITUDE", false);
+    }
+
+    // shifts the calibration delta so the altitude matches the elevation model at this fix
+    private void calibrateOnElevationModel(Location location) {
+        if (!location.hasAccuracy() || location.getAccuracy() > DEM_CALIBRATION_MAX_ACCURACY || _advancedLocation.getAltitude() == 0.0) {
+            return;
+        }
+        _demCalibrationPending = false;
+        double elevation = _elevationModel.getElevation(location.getLatitude(), location.getLongitude());
+        if (Double.isNaN(elevation)) {
+            Log.d(TAG, "no elevation model at " + location.getLatitude() + "," + location.getLongitude());
+            return;
+        }
+        double delta = _advancedLocation.getAltitudeCalibrationDelta() + elevation - _advancedLocation.getAltitude();
+        _advancedLocation.setAltitudeCalibrationDelta((float) delta);
+        _dataStore.setAltitudeCalibrationDelta((float) delta, _time.getCurrentTimeMilliseconds());
+        Log.d(TAG, "calibrated on elevation model: " + elevation + "m, delta " + delta);
     }
 
     private void createNewAdvancedLocation() {
@@ -274,14 +580,19 @@ public class GPSServiceCommand implements IServiceCommand {
     }
 
     private void requestLocationUpdates(long refresh_interval) {
+        requestLocationUpdates(refresh_interval, ChangeRefreshInterval.DEFAULT_MIN_DISTANCE);
+    }
+
+    private void requestLocationUpdates(long refresh_interval, float minDistance) {
         if (_currentStatus == BaseStatus.Status.STARTED) {
             _locationMgr.removeUpdates(_locationListener);
         }
-        _locationMgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, refresh_interval, 2.0f, _locationListener);
+        _locationMgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, refresh_interval, minDistance, _locationListener, _handler.getLooper());
     }
 
+    // called on the processing thread: LocationManager delivers NMEA sentences on the looper of the thread that registers
     private void registerNmeaListener() {
-        _nmeaListener = new ServiceNmeaListener(_advancedLocation,_locationMgr, _dataStore);
+        _nmeaListener = new ServiceNmeaListener(_advancedLocation,_locationMgr, _dataStore, _fixQuality);
         _locationMgr.addNmeaListener(_nmeaListener);
     }
 
@@ -290,40 +601,158 @@ public class GPSServiceCommand implements IServiceCommand {
             @Override
             public Object call() throws Exception {
                 //Log.d(TAG, "call:" + _advancedLocation.getAltitudeFromPressure());
-                broadcastLocation(null);
+                _fusionScheduler.onNewData(Math.abs(_advancedLocation.getAltitude() - _lastFusedAltitude) >= ALTITUDE_SIGNIFICANT_CHANGE);
                 return null;
             }
         });
 
+        Sensor pressure = _sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+        if (_sharedPreferences.getBoolean("PREF_BAROMETER_BATCHING", false)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && pressure != null && pressure.getFifoMaxEventCount() > 0) {
+                // the samples wait in the sensor FIFO, the CPU is woken up once per latency
+                _sensorListener.enableHardwareBatching(_handler);
+                _sensorManager.registerListener(_sensorListener, pressure, BAROMETER_BATCH_SAMPLING_PERIOD, BAROMETER_MAX_REPORT_LATENCY, _handler);
+                return;
+            }
+            // no FIFO: still a wakeup per sample, but one altitude update per batch
+            _sensorListener.enableSoftwareBatching(BAROMETER_SOFTWARE_BATCH_SIZE);
+        }
         // delay between events in microseconds
-        _sensorManager.registerListener(_sensorListener, _sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE), 3000000);
+        _sensorManager.registerListener(_sensorListener, pressure, BAROMETER_SAMPLING_PERIOD, _handler);
+    }
+
+    private void startRecording() {
+        File dir = _applicationContext.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = _applicationContext.getFilesDir();
+        }
+        File file = new File(dir, "inputs-" + _time.getCurrentTimeMilliseconds() + ".bin");
+        try {
+            _inputRecorder = new InputRecorder(file, _time);
+        } catch (IOException e) {
+            Log.e(TAG, "startRecording: " + e);
+            return;
+        }
+        Log.d(TAG, "startRecording: " + file.getAbsolutePath());
+        _sensorListener.setInputRecorder(_inputRecorder);
+        _nmeaListener.setInputRecorder(_inputRecorder);
+    }
+
+    private void stopRecording() {
+        if (_inputRecorder == null) {
+            return;
+        }
+        _nmeaListener.setInputRecorder(null);
+        _sensorListener.setInputRecorder(null);
+        _inputRecorder.close();
+        _inputRecorder = null;
     }
 
     private void stopLocationUpdates() {
         _locationMgr.removeUpdates(_locationListener);
         _locationMgr.removeNmeaListener(_nmeaListener);
         _sensorManager.unregisterListener(_sensorListener);
+        if (_sensorListener != null) {
+            // pending batch
+            _sensorListener.flush();
+        }
     }
 
     private void changeRefreshInterval(int refreshInterval) {
         requestLocationUpdates(refreshInterval);
     }
 
-    private LocationListener _locationListener = new LocationListener() {
+    private IInputListener _inputListener = new IInputListener() {
         @Override
         public void onLocationChanged(Location location) {
+            _locationListener.onLocationChanged(location);
+        }
+
+        @Override
+        public void onNmeaReceived(final long timestamp, final String nmea) {
+            runOnProcessingThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (_nmeaListener != null) {
+                        _nmeaListener.onNmeaReceived(timestamp, nmea);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onSensorChanged(final int sensorType, float[] values) {
+            // the caller may reuse its array
+            final float[] copy = values.clone();
+            runOnProcessingThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (_sensorListener != null) {
+                        _sensorListener.sensorChanged(sensorType, copy);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onNewBleSensorData(BleSensorData data) {
+            GPSServiceCommand.this.onNewBleSensorData(data);
+        }
+    };
+
+    private LocationListener _locationListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(final Location location) {
+            if (Looper.myLooper() != _handler.getLooper()) {
+                // not from LocationManager (replay, tests)
+                _handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLocationChanged(location);
+                    }
+                });
+                return;
+            }
+            if (_inputRecorder != null) {
+                _inputRecorder.onLocationChanged(location);
+            }
+            // raw fix recorded above, smoothed from here on
+            _locationFilter.filter(location);
+            if (_nmeaListener == null || !_nmeaListener.hasGeoidHeight()) {
+                // until a GGA sentence gives the geoid height, the first fix included
+                double geoidHeight = _geoidModel.getGeoidHeight(location.getLatitude(), location.getLongitude());
+                if (!Double.isNaN(geoidHeight)) {
+                    _advancedLocation.setGeoidHeight(geoidHeight);
+                }
+            }
             _advancedLocation.onLocationChanged(location, _heartRate, _cyclingCadence);
+            if (_demCalibrationPending) {
+                calibrateOnElevationModel(location);
+            }
+            if (_adaptiveRefresh) {
+                _refreshPolicy.onLocationChanged(location);
+            }
             if (firstLocation == null) {
                 firstLocation = location;
+                _projection.setOrigin(location.getLatitude(), location.getLongitude());
                 saveGPSStats();
             }
-            _nbLocationReceived++;
-            if (_nbLocationReceived % 100 == 0) {
-                // save stats every 100 new locations
-                saveGPSStats();
+            // a few bytes per fix, GPSDataStore is only committed on start/stop
+            _rideJournal.append(_advancedLocation.getDistance(), _advancedLocation.getElapsedTime(),
+                    (float) _advancedLocation.getAscent(), _advancedLocation.getNbAscent(), _advancedLocation.getMaxSpeed());
+            _timeSeries.add(location.getTime(), location.getLatitude(), location.getLongitude(),
+                    _advancedLocation.getAltitude(), location.getSpeed(), _heartRate, _cyclingCadence);
+            if (_saveRide) {
+                // written in batches by the repository
+                _rideRepository.addPoint(location.getTime(), location.getLatitude(), location.getLongitude(),
+                        _advancedLocation.getAltitude(), location.getSpeed(), _heartRate, _cyclingCadence, _temperature);
+                _rideRepository.setTotals(_advancedLocation.getDistance(), _advancedLocation.getElapsedTime(),
+                        (float) _advancedLocation.getAscent(), _advancedLocation.getMaxSpeed());
             }
 
             broadcastLocation(location);
+            // the fix carries the latest BLE and barometer values too
+            _fusionScheduler.onEmitted();
         }
 
         @Override
@@ -347,14 +776,18 @@ public class GPSServiceCommand implements IServiceCommand {
     private double _ypos = 0;
     private void broadcastLocation(Location location) {
         if (firstLocation != null && location != null) {
-            _xpos = firstLocation.distanceTo(location) * Math.sin(firstLocation.bearingTo(location) / 180 * 3.1415);
-            _xpos = Math.floor(_xpos / 10);
-            _ypos = firstLocation.distanceTo(location) * Math.cos(firstLocation.bearingTo(location) / 180 * 3.1415);
-            _ypos = Math.floor(_ypos / 10);
+            // map position relative to the first location, in units of 10m
+            _xpos = Math.floor(_projection.getX(location.getLatitude(), location.getLongitude()) / 10);
+            _ypos = Math.floor(_projection.getY(location.getLatitude(), location.getLongitude()) / 10);
         }
         int units = _dataStore.getMeasurementUnits();
 
-        NewLocation event = new AdvancedLocationToNewLocation(_advancedLocation, _xpos, _ypos, units);
+        _lastFusedHeartRate = _heartRate;
+        _lastFusedCadence = _cyclingCadence;
+        _lastFusedAltitude = _advancedLocation.getAltitude();
+
+        NewLocation event = _newLocationPool.obtain();
+        AdvancedLocationToNewLocation.populate(event, _advancedLocation, _xpos, _ypos, units);
         if (_heartRate > 0) {
             event.setHeartRate(_heartRate);
         }
@@ -381,22 +814,32 @@ public class GPSServiceCommand implements IServiceCommand {
             _last_post_battery_level = _time.getCurrentTimeMilliseconds();
         }
 
-        _savedLocation = new NewLocationToSavedLocation(event);
+        SavedLocation savedLocation = _savedLocationPool.obtain();
+        NewLocationToSavedLocation.populate(savedLocation, event);
+        // the previous one may still be queued by broadcastStatus
+        _savedLocationPool.releaseAfterDispatch(_savedLocation);
+        _savedLocation = savedLocation;
 
         if (_time.getCurrentTimeMilliseconds() - _last_post_newlocation > _refresh_interval * 0.95) {
             // 0.95 to avoid skipping wanted data
             //Log.d(TAG, "ts:" + _time.getCurrentTimeMilliseconds() + " _refresh_interval:" + _refresh_interval);
             _last_post_newlocation = _time.getCurrentTimeMilliseconds();
             _bus.post(event);
+            _newLocationPool.releaseAfterDispatch(event);
+        } else {
+            _newLocationPool.release(event);
         }
 
         if (_advancedLocation.getAltitude() != 0.0) {
             _altitudeGraphReduce.addAltitude((int) _advancedLocation.getAltitude(), _advancedLocation.getElapsedTime(), _advancedLocation.getDistance());
+            _elevationPyramid.add(_advancedLocation.getElapsedTime(), _advancedLocation.getDistance(), (float) _advancedLocation.getAltitude());
 
-            NewAltitude newAltitude = new NewAltitude(_altitudeGraphReduce.getGraphData());
+            NewAltitude newAltitude = _newAltitudePool.obtain();
+            _altitudeGraphReduce.getGraphData(newAltitude.getAltitudes());
 
             _bus.post(newAltitude);
 
+            _newAltitudePool.releaseAfterDispatch(_savedNewAltitude);
             _savedNewAltitude = newAltitude;
         }
     }
@@ -1,53 +1,166 @@
 package com.njackson.gps;
 
-import android.content.SharedPreferences;
 import android.location.GpsStatus;
 import android.location.LocationManager;
-import android.util.Log;
 
 
+import com.njackson.gps.nmea.FixQuality;
+import com.njackson.gps.nmea.NmeaParser;
+import com.njackson.gps.replay.IInputListener;
 import com.njackson.state.IGPSDataStore;
 
-import javax.inject.Inject;
-
 import fr.jayps.android.AdvancedLocation;
 
 /**
  * Created by njackson on 24/12/14.
+ *
+ * Stays registered for the whole ride: sentences are parsed in place (NmeaParser) to update the
+ * fix quality (GGA, GSA, RMC, GSV, any talker) and the geoid height (GGA).
  */
 public class ServiceNmeaListener implements GpsStatus.NmeaListener {
 
     private static final String TAG = "PB-ServiceNmeaListener";
 
+    // geoid height changes slowly, avoid a commit for every GGA
+    private static final double GEOID_HEIGHT_MIN_CHANGE = 0.5; // m
+
     private LocationManager _locationManager;
     private IGPSDataStore _dataStore;
     private AdvancedLocation _advancedLocation;
+    private FixQuality _fixQuality;
+    private IInputListener _inputRecorder = null;
+
+    private final NmeaParser _parser = new NmeaParser();
+    private double _geoidHeight = Double.NaN;
+
+    // GSV: satellites in view and signal per talker, a cycle spans several sentences
+    private final int[] _nbInView = new int[NmeaParser.NB_TALKERS];
+    private final float[] _snrSum = new float[NmeaParser.NB_TALKERS];
+    private final int[] _snrCount = new int[NmeaParser.NB_TALKERS];
+    private final float[] _cycleSnrSum = new float[NmeaParser.NB_TALKERS];
+    private final int[] _cycleSnrCount = new int[NmeaParser.NB_TALKERS];
 
     public ServiceNmeaListener(AdvancedLocation advancedLocation, LocationManager locationmanager, IGPSDataStore dataStore) {
+        this(advancedLocation, locationmanager, dataStore, new FixQuality());
+    }
+
+    public ServiceNmeaListener(AdvancedLocation advancedLocation, LocationManager locationmanager, IGPSDataStore dataStore, FixQuality fixQuality) {
         _advancedLocation = advancedLocation;
         _locationManager = locationmanager;
         _dataStore = dataStore;
+        _fixQuality = fixQuality;
+    }
+
+    public FixQuality getFixQuality() {
+        return _fixQuality;
+    }
+
+    // records the raw sentences, null to stop
+    public void setInputRecorder(IInputListener inputRecorder) {
+        _inputRecorder = inputRecorder;
+    }
+
+    // a GGA sentence carried the geoid height, it overrides the geoid model
+    public boolean hasGeoidHeight() {
+        return !Double.isNaN(_geoidHeight);
     }
 
     @Override
     public void onNmeaReceived(long timestamp, String nmea) {
-        if (nmea.startsWith("$GPGGA")) {
+        if (_inputRecorder != null) {
+            _inputRecorder.onNmeaReceived(timestamp, nmea);
+        }
+        switch (_parser.parse(nmea)) {
+            case NmeaParser.SENTENCE_GGA:
+                onGGA();
+                break;
+            case NmeaParser.SENTENCE_GSA:
+                onGSA();
+                break;
+            case NmeaParser.SENTENCE_RMC:
+                _fixQuality.setValid(_parser.getChar(2) == 'A');
+                break;
+            case NmeaParser.SENTENCE_GSV:
+                onGSV();
+                break;
+            default:
+                return;
+        }
+        _fixQuality.setTime(timestamp);
+    }
+
+    // $GPGGA,time,lat,N,lon,E,quality,nbSatellites,hdop,altitude,M,geoidHeight,M,...
+    private void onGGA() {
+        _fixQuality.setQuality(_parser.getInt(6, FixQuality.QUALITY_INVALID));
+        _fixQuality.setNbSatellitesUsed(_parser.getInt(7, 0));
+        double hdop = _parser.getDouble(8);
+        if (!Double.isNaN(hdop)) {
+            _fixQuality.setHdop((float) hdop);
+        }
+
+        // Height of geoid above WGS84 ellipsoid
+        double geoidHeight = _parser.getDouble(11);
+        if (!Double.isNaN(geoidHeight)
+                && (Double.isNaN(_geoidHeight) || Math.abs(geoidHeight - _geoidHeight) >= GEOID_HEIGHT_MIN_CHANGE)) {
+            _geoidHeight = geoidHeight;
+            _advancedLocation.setGeoidHeight(geoidHeight);
+
+            _dataStore.setGEOIDHeight((float) geoidHeight);
+            _dataStore.commit();
+        }
+    }
 
-            String[] strValues = nmea.split(",");
+    // $GPGSA,mode,fixType,prn x 12,pdop,hdop,vdop
+    private void onGSA() {
+        _fixQuality.setFixType(_parser.getInt(2, FixQuality.FIX_TYPE_UNKNOWN));
+        double pdop = _parser.getDouble(15);
+        double hdop = _parser.getDouble(16);
+        double vdop = _parser.getDouble(17);
+        if (!Double.isNaN(pdop)) {
+            _fixQuality.setPdop((float) pdop);
+        }
+        if (!Double.isNaN(hdop)) {
+            _fixQuality.setHdop((float) hdop);
+        }
+        if (!Double.isNaN(vdop)) {
+            _fixQuality.setVdop((float) vdop);
+        }
+    }
 
-            try {
-                // Height of geoid above WGS84 ellipsoid
-                double geoid_height = Double.parseDouble(strValues[11]);
+    // $GPGSV,nbMessages,messageNumber,nbInView,(prn,elevation,azimuth,snr) x 1..4[,signalId]
+    private void onGSV() {
+        int talker = _parser.getTalker();
+        int nbMessages = _parser.getInt(1, 0);
+        int messageNumber = _parser.getInt(2, 0);
+        if (messageNumber == 1) {
+            _snrSum[talker] = 0;
+            _snrCount[talker] = 0;
+        }
+        _nbInView[talker] = _parser.getInt(3, 0);
 
-                _advancedLocation.setGeoidHeight(geoid_height);
+        int nbBlocks = (_parser.getNbFields() - 4) / 4;
+        for (int i = 0; i < nbBlocks; i++) {
+            int snr = _parser.getInt(7 + 4 * i, 0);
+            if (snr > 0) {
+                _snrSum[talker] += snr;
+                _snrCount[talker]++;
+            }
+        }
 
-                _dataStore.setGEOIDHeight((float) geoid_height);
-                _dataStore.commit();
+        if (messageNumber == nbMessages) {
+            _cycleSnrSum[talker] = _snrSum[talker];
+            _cycleSnrCount[talker] = _snrCount[talker];
 
-                // no longer need Nmea updates
-                _locationManager.removeNmeaListener(this);
-            } catch (Exception e) {
+            int nbInView = 0;
+            float snrSum = 0;
+            int snrCount = 0;
+            for (int t = 0; t < NmeaParser.NB_TALKERS; t++) {
+                nbInView += _nbInView[t];
+                snrSum += _cycleSnrSum[t];
+                snrCount += _cycleSnrCount[t];
             }
+            _fixQuality.setNbSatellitesInView(nbInView);
+            _fixQuality.setAverageSnr(snrCount > 0 ? snrSum / snrCount : Float.NaN);
         }
     }
 }
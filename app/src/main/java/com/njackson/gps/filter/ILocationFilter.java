@@ -0,0 +1,20 @@
+package com.njackson.gps.filter;
+
+import android.location.Location;
+
+import com.njackson.gps.nmea.FixQuality;
+
+/**
+ * Filter stage between LocationManager and AdvancedLocation.
+ *
+ * filter() updates the location in place: LocationManager delivers a new instance for each fix
+ * and AdvancedLocation may keep a reference on it.
+ */
+public interface ILocationFilter {
+    public void filter(Location location);
+    // speed from a sensor (BLE wheel), in m/s
+    public void setSensorSpeed(float speed, long time);
+    // updated in place by the NMEA listener
+    public void setFixQuality(FixQuality fixQuality);
+    public void reset();
+}
@@ -0,0 +1,221 @@
+package com.njackson.gps.filter;
+
+import android.location.Location;
+
+import com.njackson.gps.nmea.FixQuality;
+import com.njackson.utils.geo.LocalProjection;
+import com.njackson.utils.time.ITime;
+
+/**
+ * Constant velocity Kalman filter on position and speed.
+ *
+ * The state (position and velocity) is kept in a local metric frame (LocalProjection), east and
+ * north axes are independent 2-state filters. Measurements:
+ * - position, with the fix accuracy as standard deviation (inflated when the NMEA fix quality is degraded)
+ * - GPS (doppler) speed and bearing, when available
+ * - sensor (BLE wheel) speed, along the estimated heading, when recent
+ *
+ * The state is a few doubles, nothing is allocated per fix.
+ */
+public class KalmanLocationFilter implements ILocationFilter {
+
+    private static final String TAG = "PB-KalmanLocationFilter";
+
+    static final double ACCELERATION_NOISE = 1.0; // m2/s3, acceleration spectral density
+    static final double DEFAULT_ACCURACY = 10.0; // m, when the fix has no accuracy
+    static final double GPS_SPEED_SIGMA = 0.5; // m/s
+    static final double SENSOR_SPEED_SIGMA = 0.3; // m/s
+    static final double INITIAL_SPEED_SIGMA = 4.0; // m/s
+    static final long SENSOR_SPEED_MAX_AGE = 3000; // ms
+    static final long MAX_GAP = 30000; // ms, restart the filter after a longer gap
+    static final double MIN_HEADING_SPEED = 1.0; // m/s, heading is undefined below
+    static final double STOPPED_SENSOR_SPEED = 0.3; // m/s
+    static final double MAX_ORIGIN_DISTANCE = 10000; // m, re-anchor the frame beyond
+    static final double DEGRADED_FIX_VARIANCE_FACTOR = 4;
+    static final long FIX_QUALITY_MAX_AGE = 3000; // ms
+
+    // 1D constant velocity filter: position, velocity and covariance
+    private static class Axis {
+        double p;
+        double v;
+        double pp;
+        double pv;
+        double vv;
+
+        void init(double position, double velocity, double positionVariance, double velocityVariance) {
+            p = position;
+            v = velocity;
+            pp = positionVariance;
+            pv = 0;
+            vv = velocityVariance;
+        }
+
+        void predict(double dt, double q) {
+            p += v * dt;
+            double dt2 = dt * dt;
+            pp += 2 * dt * pv + dt2 * vv + q * dt2 * dt / 3;
+            pv += dt * vv + q * dt2 / 2;
+            vv += q * dt;
+        }
+
+        void updatePosition(double z, double r) {
+            double s = pp + r;
+            double kp = pp / s;
+            double kv = pv / s;
+            double y = z - p;
+            p += kp * y;
+            v += kv * y;
+            vv -= kv * pv;
+            pv -= kp * pv;
+            pp -= kp * pp;
+        }
+
+        void updateVelocity(double z, double r) {
+            double s = vv + r;
+            double kp = pv / s;
+            double kv = vv / s;
+            double y = z - v;
+            p += kp * y;
+            v += kv * y;
+            pp -= kp * pv;
+            pv -= kv * pv;
+            vv -= kv * vv;
+        }
+    }
+
+    private final ITime _time;
+    private FixQuality _fixQuality = null;
+    private final LocalProjection _projection = new LocalProjection();
+    private final Axis _x = new Axis();
+    private final Axis _y = new Axis();
+
+    private boolean _initialized = false;
+    private long _lastTime = 0;
+
+    private float _sensorSpeed = 0;
+    private long _sensorSpeedTime = 0;
+    private boolean _hasSensorSpeed = false;
+
+    public KalmanLocationFilter(ITime time) {
+        _time = time;
+    }
+
+    @Override
+    public void setSensorSpeed(float speed, long time) {
+        _sensorSpeed = speed;
+        _sensorSpeedTime = time;
+        _hasSensorSpeed = true;
+    }
+
+    @Override
+    public void setFixQuality(FixQuality fixQuality) {
+        _fixQuality = fixQuality;
+    }
+
+    @Override
+    public void reset() {
+        _initialized = false;
+        _hasSensorSpeed = false;
+        _projection.reset();
+    }
+
+    @Override
+    public void filter(Location location) {
+        double accuracy = location.hasAccuracy() && location.getAccuracy() > 0 ? location.getAccuracy() : DEFAULT_ACCURACY;
+        double r = accuracy * accuracy;
+        if (_fixQuality != null && _fixQuality.isDegraded()
+                && _time.getCurrentTimeMilliseconds() - _fixQuality.getTime() <= FIX_QUALITY_MAX_AGE) {
+            r *= DEGRADED_FIX_VARIANCE_FACTOR;
+        }
+        long dtMs = location.getTime() - _lastTime;
+
+        if (!_initialized || dtMs < 0 || dtMs > MAX_GAP) {
+            init(location, r);
+            return;
+        }
+
+        _lastTime = location.getTime();
+        if (dtMs > 0) {
+            double dt = dtMs / 1000.0;
+            _x.predict(dt, ACCELERATION_NOISE);
+            _y.predict(dt, ACCELERATION_NOISE);
+        }
+
+        _x.updatePosition(_projection.getX(location.getLatitude(), location.getLongitude()), r);
+        _y.updatePosition(_projection.getY(location.getLatitude(), location.getLongitude()), r);
+
+        if (location.hasSpeed() && location.hasBearing()) {
+            double bearing = Math.toRadians(location.getBearing());
+            double gpsSpeedVariance = GPS_SPEED_SIGMA * GPS_SPEED_SIGMA;
+            _x.updateVelocity(location.getSpeed() * Math.sin(bearing), gpsSpeedVariance);
+            _y.updateVelocity(location.getSpeed() * Math.cos(bearing), gpsSpeedVariance);
+        }
+
+        if (_hasSensorSpeed && _time.getCurrentTimeMilliseconds() - _sensorSpeedTime <= SENSOR_SPEED_MAX_AGE) {
+            updateSensorSpeed(location);
+        }
+
+        if (_x.p * _x.p + _y.p * _y.p > MAX_ORIGIN_DISTANCE * MAX_ORIGIN_DISTANCE) {
+            // keep the projection accurate: move the origin to the current position
+            _projection.setOrigin(_projection.getLatitude(_x.p, _y.p), _projection.getLongitude(_x.p, _y.p));
+            _x.p = 0;
+            _y.p = 0;
+        }
+
+        write(location);
+    }
+
+    private void init(Location location, double r) {
+        _projection.setOrigin(location.getLatitude(), location.getLongitude());
+        double vx = 0;
+        double vy = 0;
+        if (location.hasSpeed() && location.hasBearing()) {
+            double bearing = Math.toRadians(location.getBearing());
+            vx = location.getSpeed() * Math.sin(bearing);
+            vy = location.getSpeed() * Math.cos(bearing);
+        }
+        _x.init(0, vx, r, INITIAL_SPEED_SIGMA * INITIAL_SPEED_SIGMA);
+        _y.init(0, vy, r, INITIAL_SPEED_SIGMA * INITIAL_SPEED_SIGMA);
+        _lastTime = location.getTime();
+        _initialized = true;
+    }
+
+    // the sensor measures the norm of the velocity, applied along the estimated heading
+    private void updateSensorSpeed(Location location) {
+        double r = SENSOR_SPEED_SIGMA * SENSOR_SPEED_SIGMA;
+        if (_sensorSpeed < STOPPED_SENSOR_SPEED) {
+            _x.updateVelocity(0, r);
+            _y.updateVelocity(0, r);
+            return;
+        }
+
+        double speed = Math.sqrt(_x.v * _x.v + _y.v * _y.v);
+        double sin;
+        double cos;
+        if (speed >= MIN_HEADING_SPEED) {
+            sin = _x.v / speed;
+            cos = _y.v / speed;
+        } else if (location.hasBearing() && location.hasSpeed() && location.getSpeed() >= MIN_HEADING_SPEED) {
+            double bearing = Math.toRadians(location.getBearing());
+            sin = Math.sin(bearing);
+            cos = Math.cos(bearing);
+        } else {
+            // unknown heading
+            return;
+        }
+        _x.updateVelocity(_sensorSpeed * sin, r);
+        _y.updateVelocity(_sensorSpeed * cos, r);
+    }
+
+    private void write(Location location) {
+        location.setLatitude(_projection.getLatitude(_x.p, _y.p));
+        location.setLongitude(_projection.getLongitude(_x.p, _y.p));
+
+        double speed = Math.sqrt(_x.v * _x.v + _y.v * _y.v);
+        location.setSpeed((float) speed);
+        if (speed >= MIN_HEADING_SPEED) {
+            double bearing = Math.toDegrees(Math.atan2(_x.v, _y.v));
+            location.setBearing((float) (bearing < 0 ? bearing + 360 : bearing));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.njackson.gps.filter;
+
+import android.location.Location;
+
+import com.njackson.gps.nmea.FixQuality;
+
+/**
+ * Raw fixes, used when filtering is disabled.
+ */
+public class NoLocationFilter implements ILocationFilter {
+
+    @Override
+    public void filter(Location location) {
+    }
+
+    @Override
+    public void setSensorSpeed(float speed, long time) {
+    }
+
+    @Override
+    public void setFixQuality(FixQuality fixQuality) {
+    }
+
+    @Override
+    public void reset() {
+    }
+}
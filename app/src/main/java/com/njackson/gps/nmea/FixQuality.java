@@ -0,0 +1,133 @@
+package com.njackson.gps.nmea;
+
+/**
+ * Quality of the current GPS fix, from NMEA sentences (GGA, GSA, RMC, GSV).
+ *
+ * One instance is updated in place by ServiceNmeaListener on the GPS processing thread and read
+ * by the other stages (location filter) on the same thread. Values are NaN/0 until received.
+ */
+public class FixQuality {
+
+    // GGA fix quality
+    public static final int QUALITY_INVALID = 0;
+    public static final int QUALITY_GPS = 1;
+    public static final int QUALITY_DGPS = 2;
+
+    // GSA fix type
+    public static final int FIX_TYPE_UNKNOWN = 0;
+    public static final int FIX_TYPE_NONE = 1;
+    public static final int FIX_TYPE_2D = 2;
+    public static final int FIX_TYPE_3D = 3;
+
+    private long _time = 0;
+    private int _quality = QUALITY_INVALID;
+    private int _fixType = FIX_TYPE_UNKNOWN;
+    private int _nbSatellitesUsed = 0;
+    private int _nbSatellitesInView = 0;
+    private float _averageSnr = Float.NaN;
+    private float _hdop = Float.NaN;
+    private float _vdop = Float.NaN;
+    private float _pdop = Float.NaN;
+    private boolean _valid = false;
+
+    // time of the last update (ms, NMEA listener timestamp)
+    public long getTime() {
+        return _time;
+    }
+
+    public int getQuality() {
+        return _quality;
+    }
+
+    public int getFixType() {
+        return _fixType;
+    }
+
+    public int getNbSatellitesUsed() {
+        return _nbSatellitesUsed;
+    }
+
+    public int getNbSatellitesInView() {
+        return _nbSatellitesInView;
+    }
+
+    // dB-Hz, over the satellites in view with a signal
+    public float getAverageSnr() {
+        return _averageSnr;
+    }
+
+    public float getHdop() {
+        return _hdop;
+    }
+
+    public float getVdop() {
+        return _vdop;
+    }
+
+    public float getPdop() {
+        return _pdop;
+    }
+
+    // RMC status
+    public boolean isValid() {
+        return _valid;
+    }
+
+    // 2D fix, or too few satellites for a good position
+    public boolean isDegraded() {
+        return _fixType == FIX_TYPE_2D || (_nbSatellitesUsed > 0 && _nbSatellitesUsed < 5);
+    }
+
+    public void setTime(long time) {
+        _time = time;
+    }
+
+    public void setQuality(int quality) {
+        _quality = quality;
+    }
+
+    public void setFixType(int fixType) {
+        _fixType = fixType;
+    }
+
+    public void setNbSatellitesUsed(int nbSatellitesUsed) {
+        _nbSatellitesUsed = nbSatellitesUsed;
+    }
+
+    public void setNbSatellitesInView(int nbSatellitesInView) {
+        _nbSatellitesInView = nbSatellitesInView;
+    }
+
+    public void setAverageSnr(float averageSnr) {
+        _averageSnr = averageSnr;
+    }
+
+    public void setHdop(float hdop) {
+        _hdop = hdop;
+    }
+
+    public void setVdop(float vdop) {
+        _vdop = vdop;
+    }
+
+    public void setPdop(float pdop) {
+        _pdop = pdop;
+    }
+
+    public void setValid(boolean valid) {
+        _valid = valid;
+    }
+
+    public void reset() {
+        _time = 0;
+        _quality = QUALITY_INVALID;
+        _fixType = FIX_TYPE_UNKNOWN;
+        _nbSatellitesUsed = 0;
+        _nbSatellitesInView = 0;
+        _averageSnr = Float.NaN;
+        _hdop = Float.NaN;
+        _vdop = Float.NaN;
+        _pdop = Float.NaN;
+        _valid = false;
+    }
+}
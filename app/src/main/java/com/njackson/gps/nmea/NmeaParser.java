@@ -0,0 +1,232 @@
+package com.njackson.gps.nmea;
+
+/**
+ * Streaming NMEA 0183 tokenizer.
+ *
+ * parse() only records the offsets of the fields in the sentence, values are read in place with
+ * getDouble/getInt/getChar: no substring, no split, no allocation. Field 0 is the address ($GPGGA),
+ * as with String.split(",").
+ *
+ * The sentence type is recognized whatever the talker (GP, GN, GL, GA, GB/BD...). When a checksum
+ * is present (*hh), the sentence is rejected if it does not match.
+ */
+public class NmeaParser {
+
+    private static final String TAG = "PB-NmeaParser";
+
+    public static final int SENTENCE_UNKNOWN = 0;
+    public static final int SENTENCE_GGA = 1;
+    public static final int SENTENCE_GSA = 2;
+    public static final int SENTENCE_RMC = 3;
+    public static final int SENTENCE_GSV = 4;
+
+    public static final int TALKER_GPS = 0;     // GP
+    public static final int TALKER_GLONASS = 1; // GL
+    public static final int TALKER_GALILEO = 2; // GA
+    public static final int TALKER_BEIDOU = 3;  // GB, BD
+    public static final int TALKER_GNSS = 4;    // GN, combined
+    public static final int TALKER_OTHER = 5;
+    public static final int NB_TALKERS = 6;
+
+    static final int MAX_FIELDS = 32;
+
+    private String _sentence = null;
+    private final int[] _start = new int[MAX_FIELDS];
+    private final int[] _end = new int[MAX_FIELDS];
+    private int _nbFields = 0;
+    private int _talker = TALKER_OTHER;
+
+    public int getNbFields() {
+        return _nbFields;
+    }
+
+    public int getTalker() {
+        return _talker;
+    }
+
+    // returns the SENTENCE_ type, SENTENCE_UNKNOWN for unsupported or invalid sentences
+    public int parse(String sentence) {
+        _sentence = sentence;
+        _nbFields = 0;
+        if (sentence == null || sentence.length() < 6 || sentence.charAt(0) != '$') {
+            return SENTENCE_UNKNOWN;
+        }
+
+        int length = sentence.length();
+        while (length > 0 && (sentence.charAt(length - 1) == '\n' || sentence.charAt(length - 1) == '\r')) {
+            length--;
+        }
+
+        int checksum = 0;
+        int fieldStart = 0;
+        int i = 1;
+        for (; i < length; i++) {
+            char c = sentence.charAt(i);
+            if (c == '*') {
+                break;
+            }
+            checksum ^= c;
+            if (c == ',') {
+                if (!addField(fieldStart, i)) {
+                    return SENTENCE_UNKNOWN;
+                }
+                fieldStart = i + 1;
+            }
+        }
+        if (!addField(fieldStart, i)) {
+            return SENTENCE_UNKNOWN;
+        }
+        if (i < length) {
+            // *hh
+            if (i + 3 > length) {
+                return SENTENCE_UNKNOWN;
+            }
+            int expected = (hexValue(sentence.charAt(i + 1)) << 4) | hexValue(sentence.charAt(i + 2));
+            if (expected != checksum) {
+                return SENTENCE_UNKNOWN;
+            }
+        }
+
+        // address: $ + talker (2 chars) + type (3 chars)
+        if (_end[0] != 6) {
+            return SENTENCE_UNKNOWN;
+        }
+        _talker = parseTalker(sentence.charAt(1), sentence.charAt(2));
+        char t0 = sentence.charAt(3);
+        char t1 = sentence.charAt(4);
+        char t2 = sentence.charAt(5);
+        if (t0 == 'G' && t1 == 'G' && t2 == 'A') {
+            return SENTENCE_GGA;
+        } else if (t0 == 'G' && t1 == 'S' && t2 == 'A') {
+            return SENTENCE_GSA;
+        } else if (t0 == 'R' && t1 == 'M' && t2 == 'C') {
+            return SENTENCE_RMC;
+        } else if (t0 == 'G' && t1 == 'S' && t2 == 'V') {
+            return SENTENCE_GSV;
+        }
+        return SENTENCE_UNKNOWN;
+    }
+
+    public boolean isEmpty(int field) {
+        return field >= _nbFields || _start[field] == _end[field];
+    }
+
+    // first character of the field, 0 if empty
+    public char getChar(int field) {
+        return isEmpty(field) ? 0 : _sentence.charAt(_start[field]);
+    }
+
+    public int getInt(int field, int defaultValue) {
+        if (isEmpty(field)) {
+            return defaultValue;
+        }
+        int value = 0;
+        int i = _start[field];
+        boolean negative = _sentence.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        int end = _end[field];
+        if (i == end) {
+            return defaultValue;
+        }
+        for (; i < end; i++) {
+            char c = _sentence.charAt(i);
+            if (c == '.') {
+                break;
+            }
+            if (c < '0' || c > '9') {
+                return defaultValue;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // NaN if the field is empty or not a number (NMEA numbers have no exponent)
+    public double getDouble(int field) {
+        if (isEmpty(field)) {
+            return Double.NaN;
+        }
+        int i = _start[field];
+        int end = _end[field];
+        boolean negative = false;
+        char c = _sentence.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int decimals = 0;
+        boolean dot = false;
+        boolean digits = false;
+        for (; i < end; i++) {
+            c = _sentence.charAt(i);
+            if (c == '.' && !dot) {
+                dot = true;
+            } else if (c >= '0' && c <= '9') {
+                digits = true;
+                if (mantissa < 100000000000000000l) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (dot) {
+                        decimals++;
+                    }
+                } else if (!dot) {
+                    // too many digits, keep the magnitude
+                    decimals--;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (!digits) {
+            return Double.NaN;
+        }
+        double value = mantissa;
+        if (decimals > 0) {
+            value /= pow10(decimals);
+        } else if (decimals < 0) {
+            value *= pow10(-decimals);
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean addField(int start, int end) {
+        if (_nbFields >= MAX_FIELDS) {
+            return false;
+        }
+        _start[_nbFields] = start;
+        _end[_nbFields] = end;
+        _nbFields++;
+        return true;
+    }
+
+    private static int parseTalker(char c0, char c1) {
+        if (c0 == 'G') {
+            switch (c1) {
+                case 'P': return TALKER_GPS;
+                case 'L': return TALKER_GLONASS;
+                case 'A': return TALKER_GALILEO;
+                case 'B': return TALKER_BEIDOU;
+                case 'N': return TALKER_GNSS;
+            }
+        } else if (c0 == 'B' && c1 == 'D') {
+            return TALKER_BEIDOU;
+        }
+        return TALKER_OTHER;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1000;
+    }
+
+    private static final double[] POW10 = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private static double pow10(int n) {
+        return n < POW10.length ? POW10[n] : Math.pow(10, n);
+    }
+}
@@ -0,0 +1,15 @@
+package com.njackson.gps.replay;
+
+import android.location.Location;
+
+import com.njackson.events.BleServiceCommand.BleSensorData;
+
+/**
+ * Raw inputs of the GPS pipeline, as received from LocationManager, SensorManager and the BLE service.
+ */
+public interface IInputListener {
+    public void onLocationChanged(Location location);
+    public void onNmeaReceived(long timestamp, String nmea);
+    public void onSensorChanged(int sensorType, float[] values);
+    public void onNewBleSensorData(BleSensorData data);
+}
@@ -0,0 +1,168 @@
+package com.njackson.gps.replay;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.njackson.events.BleServiceCommand.BleSensorData;
+import com.njackson.utils.time.ITime;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the raw inputs of the GPS pipeline (fixes, NMEA sentences, pressure samples, BLE values)
+ * to a compact binary log, so that a ride can be replayed with InputReplayer.
+ *
+ * Format (big endian, DataOutputStream):
+ *   header: int MAGIC, short VERSION
+ *   record: byte type, long timestamp (ms, reception time), payload depending on the type
+ */
+public class InputRecorder implements IInputListener {
+
+    private static final String TAG = "PB-InputRecorder";
+
+    public static final int MAGIC = 0x56545243; // "VTRC"
+    public static final short VERSION = 1;
+
+    public static final byte TYPE_LOCATION = 1;
+    public static final byte TYPE_NMEA = 2;
+    public static final byte TYPE_SENSOR = 3;
+    public static final byte TYPE_BLE = 4;
+
+    static final byte LOCATION_HAS_ALTITUDE = 1;
+    static final byte LOCATION_HAS_SPEED = 2;
+    static final byte LOCATION_HAS_BEARING = 4;
+    static final byte LOCATION_HAS_ACCURACY = 8;
+
+    private DataOutputStream _out;
+    private ITime _time;
+    private int _nbRecords = 0;
+
+    public InputRecorder(File file, ITime time) throws IOException {
+        this(new FileOutputStream(file), time);
+    }
+
+    public InputRecorder(OutputStream outputStream, ITime time) throws IOException {
+        _out = new DataOutputStream(new BufferedOutputStream(outputStream, 8192));
+        _time = time;
+        _out.writeInt(MAGIC);
+        _out.writeShort(VERSION);
+    }
+
+    public int getNbRecords() {
+        return _nbRecords;
+    }
+
+    @Override
+    public synchronized void onLocationChanged(Location location) {
+        if (_out == null) {
+            return;
+        }
+        try {
+            writeHeader(TYPE_LOCATION);
+            byte flags = 0;
+            if (location.hasAltitude()) flags |= LOCATION_HAS_ALTITUDE;
+            if (location.hasSpeed()) flags |= LOCATION_HAS_SPEED;
+            if (location.hasBearing()) flags |= LOCATION_HAS_BEARING;
+            if (location.hasAccuracy()) flags |= LOCATION_HAS_ACCURACY;
+            _out.writeByte(flags);
+            _out.writeLong(location.getTime());
+            _out.writeDouble(location.getLatitude());
+            _out.writeDouble(location.getLongitude());
+            _out.writeDouble(location.getAltitude());
+            _out.writeFloat(location.getSpeed());
+            _out.writeFloat(location.getBearing());
+            _out.writeFloat(location.getAccuracy());
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void onNmeaReceived(long timestamp, String nmea) {
+        if (_out == null) {
+            return;
+        }
+        try {
+            writeHeader(TYPE_NMEA);
+            _out.writeLong(timestamp);
+            _out.writeUTF(nmea);
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void onSensorChanged(int sensorType, float[] values) {
+        if (_out == null) {
+            return;
+        }
+        try {
+            writeHeader(TYPE_SENSOR);
+            _out.writeByte(sensorType);
+            _out.writeByte(values.length);
+            for (int i = 0; i < values.length; i++) {
+                _out.writeFloat(values[i]);
+            }
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void onNewBleSensorData(BleSensorData data) {
+        if (_out == null) {
+            return;
+        }
+        try {
+            writeHeader(TYPE_BLE);
+            _out.writeByte(data.getType());
+            switch (data.getType()) {
+                case BleSensorData.SENSOR_HRM:
+                    _out.writeShort(data.getHeartRate());
+                    break;
+                case BleSensorData.SENSOR_CSC:
+                    _out.writeShort(data.getCyclingCadence());
+                    _out.writeFloat(data.getCyclingWheelRpm());
+                    break;
+                case BleSensorData.SENSOR_RSC:
+                    _out.writeShort(data.getRunningCadence());
+                    break;
+                case BleSensorData.SENSOR_TEMPERATURE:
+                    _out.writeFloat((float) data.getTemperature());
+                    break;
+            }
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    public synchronized void close() {
+        if (_out == null) {
+            return;
+        }
+        try {
+            _out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close: " + e);
+        }
+        _out = null;
+        Log.d(TAG, "close: " + _nbRecords + " records");
+    }
+
+    private void writeHeader(byte type) throws IOException {
+        _out.writeByte(type);
+        _out.writeLong(_time.getCurrentTimeMilliseconds());
+        _nbRecords++;
+    }
+
+    private void onError(IOException e) {
+        // stop recording, the ride itself must not be affected
+        Log.e(TAG, "IOException: " + e);
+        close();
+    }
+}
@@ -0,0 +1,205 @@
+package com.njackson.gps.replay;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.njackson.events.BleServiceCommand.BleSensorData;
+import com.njackson.utils.time.ITime;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+/**
+ * Replays a log written by InputRecorder through an IInputListener (usually
+ * GPSServiceCommand.getInputListener()), at real time (speed 1), N times faster, or as fast as possible.
+ *
+ * replay() blocks and dispatches on the calling thread: call it from the thread the listener expects
+ * (GPSServiceCommand.replay()).
+ *
+ * getTime() is the recorded clock: the reception time of the record being dispatched. Injected as the
+ * ITime of the pipeline, the throttling follows the recording and not the replay speed.
+ */
+public class InputReplayer {
+
+    private static final String TAG = "PB-InputReplayer";
+
+    // no wait between records, for throughput benchmarks
+    public static final float SPEED_MAX = 0;
+
+    private float _speed = 1;
+    private volatile boolean _cancelled = false;
+
+    private int _nbRecords = 0;
+    private long _durationNs = 0;
+
+    // recorded time (ms) and System.nanoTime() of the record being dispatched
+    private volatile long _timestamp = 0;
+    private long _recordStartNs = 0;
+
+    private final ITime _time = new ITime() {
+        @Override
+        public Date getCurrentDate() {
+            return new Date(_timestamp);
+        }
+
+        @Override
+        public long getCurrentTimeMilliseconds() {
+            return _timestamp;
+        }
+    };
+
+    public void setSpeed(float speed) {
+        _speed = speed;
+    }
+
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    // number of records dispatched by the last replay
+    public int getNbRecords() {
+        return _nbRecords;
+    }
+
+    // wall clock duration of the last replay
+    public long getDurationNs() {
+        return _durationNs;
+    }
+
+    public ITime getTime() {
+        return _time;
+    }
+
+    // when the record being dispatched was read, for per record latencies (on the replay thread)
+    public long getRecordStartNs() {
+        return _recordStartNs;
+    }
+
+    public void replay(File file, IInputListener listener) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            replay(inputStream, listener);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    public void replay(InputStream inputStream, IInputListener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream, 8192));
+        if (in.readInt() != InputRecorder.MAGIC) {
+            throw new IOException("Not an input recording");
+        }
+        short version = in.readShort();
+        if (version != InputRecorder.VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+
+        _cancelled = false;
+        _nbRecords = 0;
+        long start = System.nanoTime();
+        long firstTimestamp = -1;
+        float[] values = new float[16];
+
+        while (!_cancelled) {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                break;
+            }
+            long timestamp = in.readLong();
+            if (firstTimestamp < 0) {
+                firstTimestamp = timestamp;
+            }
+            waitUntil(start, timestamp - firstTimestamp);
+            _timestamp = timestamp;
+            _recordStartNs = System.nanoTime();
+
+            switch (type) {
+                case InputRecorder.TYPE_LOCATION:
+                    listener.onLocationChanged(readLocation(in));
+                    break;
+                case InputRecorder.TYPE_NMEA:
+                    long nmeaTimestamp = in.readLong();
+                    listener.onNmeaReceived(nmeaTimestamp, in.readUTF());
+                    break;
+                case InputRecorder.TYPE_SENSOR:
+                    int sensorType = in.readByte();
+                    int nbValues = in.readByte();
+                    if (nbValues > values.length) {
+                        values = new float[nbValues];
+                    }
+                    for (int i = 0; i < nbValues; i++) {
+                        values[i] = in.readFloat();
+                    }
+                    listener.onSensorChanged(sensorType, values);
+                    break;
+                case InputRecorder.TYPE_BLE:
+                    listener.onNewBleSensorData(readBleSensorData(in));
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+            _nbRecords++;
+        }
+        _durationNs = System.nanoTime() - start;
+        Log.d(TAG, "replay: " + _nbRecords + " records in " + (_durationNs / 1000000) + "ms");
+    }
+
+    private void waitUntil(long startNs, long offsetMs) {
+        if (_speed <= SPEED_MAX) {
+            return;
+        }
+        long delayMs = (long) (offsetMs / _speed) - (System.nanoTime() - startNs) / 1000000;
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                _cancelled = true;
+            }
+        }
+    }
+
+    private Location readLocation(DataInputStream in) throws IOException {
+        byte flags = in.readByte();
+        Location location = new Location("Replay");
+        location.setTime(in.readLong());
+        location.setLatitude(in.readDouble());
+        location.setLongitude(in.readDouble());
+        double altitude = in.readDouble();
+        float speed = in.readFloat();
+        float bearing = in.readFloat();
+        float accuracy = in.readFloat();
+        if ((flags & InputRecorder.LOCATION_HAS_ALTITUDE) != 0) location.setAltitude(altitude);
+        if ((flags & InputRecorder.LOCATION_HAS_SPEED) != 0) location.setSpeed(speed);
+        if ((flags & InputRecorder.LOCATION_HAS_BEARING) != 0) location.setBearing(bearing);
+        if ((flags & InputRecorder.LOCATION_HAS_ACCURACY) != 0) location.setAccuracy(accuracy);
+        return location;
+    }
+
+    private BleSensorData readBleSensorData(DataInputStream in) throws IOException {
+        BleSensorData data = new BleSensorData();
+        switch (in.readByte()) {
+            case BleSensorData.SENSOR_HRM:
+                data.setHeartRate(in.readShort());
+                break;
+            case BleSensorData.SENSOR_CSC:
+                data.setCyclingCadence(in.readShort());
+                data.setCyclingWheelRpm(in.readFloat());
+                break;
+            case BleSensorData.SENSOR_RSC:
+                data.setRunningCadence(in.readShort());
+                break;
+            case BleSensorData.SENSOR_TEMPERATURE:
+                data.setTemperature(in.readFloat());
+                break;
+        }
+        return data;
+    }
+}
@@ -23,6 +23,9 @@ import org.xml.sax.InputSource;
 
 import com.njackson.Constants;
 import com.njackson.events.LiveServiceCommand.LiveMessage;
+import com.njackson.rides.RidePoint;
+import com.njackson.utils.geo.LocalProjection;
+import com.njackson.utils.geo.TrackSimplifier;
 import com.squareup.otto.Bus;
 
 import fr.jayps.android.AdvancedLocation;
@@ -43,6 +46,7 @@ public class LiveTracking implements ILiveTracking {
 
     protected Context _context = null;
     private Location _firstLocation = null;
+    private LocalProjection _projection = new LocalProjection();
     private long _prevTime = -1;
     private Location _lastLocation = null;
     private String _activity_id = "";
@@ -50,6 +54,13 @@ public class LiveTracking implements ILiveTracking {
     private String _bufferAccuracies = "";
     private String _bufferHeartRates = "";
     private String _bufferCadences = "";
+
+    // the points of a batch within SIMPLIFY_TOLERANCE of the uploaded track are not sent
+    static final double SIMPLIFY_TOLERANCE = 2; // m
+    private final TrackSimplifier _simplifier = new TrackSimplifier(SIMPLIFY_TOLERANCE);
+    private final RidePoint _point = new RidePoint();
+    private final RidePoint _keptPoint = new RidePoint();
+    private float _previousAccuracy = 0;
     private String _login = "";
     private String _password = "";
     private String _url = "";
@@ -116,8 +127,12 @@ public class LiveTracking implements ILiveTracking {
             // too early (dt<5s), do nothing
             return false;
         }
-        _bufferPoints += (_bufferPoints != "" ? " " : "") + location.getLatitude() + " " + location.getLongitude() + " " + String.format(Locale.US, "%.1f", location.getAltitude()) + " " + String.format("%d", (int) (location.getTime() / 1000));
-        _bufferAccuracies += (_bufferAccuracies != "" ? " " : "") + String.format(Locale.US, "%.1f", location.getAccuracy());
+        _point.set(location.getTime(), location.getLatitude(), location.getLongitude(), location.getAltitude(), 0, 0, 0);
+        if (_simplifier.add(_point, _keptPoint)) {
+            // the previous point, or this one if it starts the batch
+            bufferPoint(_keptPoint, _keptPoint.getTime() == location.getTime() ? location.getAccuracy() : _previousAccuracy);
+        }
+        _previousAccuracy = location.getAccuracy();
         if (heart_rate > 0 && heart_rate < 255) {
             _bufferHeartRates += (_bufferHeartRates != "" ? " " : "") + heart_rate + " " + String.format("%d", (int) (location.getTime() / 1000));
         }
@@ -131,13 +146,30 @@ public class LiveTracking implements ILiveTracking {
 			}
             return false;
         }
-        // ok
+        // ok, the batch ends with this point
+        if (_simplifier.finish(_keptPoint)) {
+            bufferPoint(_keptPoint, location.getAccuracy());
+        }
         _prevTime = location.getTime();
         this._lastLocation = location;
         new SendLiveTask().execute(new SendLiveTaskParams(_bufferPoints, _bufferAccuracies, _bufferHeartRates, _bufferCadences));
         return true;
     }
 
+    private void bufferPoint(RidePoint point, float accuracy) {
+        _bufferPoints += (_bufferPoints != "" ? " " : "") + point.getLatitude() + " " + point.getLongitude() + " " + String.format(Locale.US, "%.1f", point.getAltitude()) + " " + String.format("%d", (int) (point.getTime() / 1000));
+        _bufferAccuracies += (_bufferAccuracies != "" ? " " : "") + String.format(Locale.US, "%.1f", accuracy);
+    }
+
+    // "lat lon altitude time ..." not uploaded yet
+    public String getBufferedPoints() {
+        return _bufferPoints;
+    }
+
+    public String getBufferedAccuracies() {
+        return _bufferAccuracies;
+    }
+
     class SendLiveTaskParams {
         String points;
         String accuracies;
@@ -350,6 +382,9 @@ public class LiveTracking implements ILiveTracking {
 
         data[0] = (byte) _friends.size();
 
+        // no-op unless the first location changed
+        _projection.setOrigin(firstLocation.getLatitude(), firstLocation.getLongitude());
+
         //Log.d(TAG,  "firstLocation: lat="+firstLocation.getLatitude()+"-lon="+firstLocation.getLongitude());
 
         Iterator<Entry<String, LiveTrackingFriend>> iter = _friends.entrySet().iterator();
@@ -365,8 +400,8 @@ public class LiveTracking implements ILiveTracking {
 
             Location tmploc = f.getLocation();
             //Log.d(TAG,  f.number + "|lat="+firstLocation.getLatitude()+"-lon="+firstLocation.getLongitude());
-            double xpos = firstLocation.distanceTo(tmploc) * Math.sin(firstLocation.bearingTo(tmploc)/180*3.1415);
-            double ypos = firstLocation.distanceTo(tmploc) * Math.cos(firstLocation.bearingTo(tmploc)/180*3.1415);
+            double xpos = _projection.getX(tmploc.getLatitude(), tmploc.getLongitude());
+            double ypos = _projection.getY(tmploc.getLatitude(), tmploc.getLongitude());
             xpos = Math.floor(xpos/10);
             ypos = Math.floor(ypos/10);
 
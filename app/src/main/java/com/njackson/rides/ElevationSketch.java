@@ -0,0 +1,80 @@
+package com.njackson.rides;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Elevation profile of a ride in at most SIZE values, built while recording without knowing the
+ * length of the ride: each value is the average altitude of width consecutive points. When the
+ * SIZE buckets are full, pairs are merged and the width doubles: there are always between SIZE / 2
+ * and SIZE values once the ride is longer than SIZE points.
+ */
+public class ElevationSketch {
+
+    public static final int SIZE = 64;
+
+    private final double[] _sums = new double[SIZE];
+    private int _nbBuckets = 0;
+    // points per bucket, and in the last one
+    private int _width = 1;
+    private int _lastCount = 0;
+
+    public void add(double altitude) {
+        if (_nbBuckets == 0 || _lastCount == _width) {
+            if (_nbBuckets == SIZE) {
+                merge();
+            }
+            _sums[_nbBuckets++] = 0;
+            _lastCount = 0;
+        }
+        _sums[_nbBuckets - 1] += altitude;
+        _lastCount++;
+    }
+
+    private void merge() {
+        for (int i = 0; i < SIZE / 2; i++) {
+            _sums[i] = _sums[2 * i] + _sums[2 * i + 1];
+        }
+        _nbBuckets = SIZE / 2;
+        _width *= 2;
+        _lastCount = _width;
+    }
+
+    public void clear() {
+        _nbBuckets = 0;
+        _width = 1;
+        _lastCount = 0;
+    }
+
+    public int size() {
+        return _nbBuckets;
+    }
+
+    // average altitude of bucket i (m)
+    public float get(int i) {
+        return (float) (_sums[i] / (i == _nbBuckets - 1 ? _lastCount : _width));
+    }
+
+    // points per value
+    public int getWidth() {
+        return _width;
+    }
+
+    // width, count of the last bucket, size, averages (float): at most 9 + 4 * SIZE bytes
+    void write(ByteBuffer buffer) {
+        buffer.putInt(_width);
+        buffer.putInt(_lastCount);
+        buffer.put((byte) _nbBuckets);
+        for (int i = 0; i < _nbBuckets; i++) {
+            buffer.putFloat(get(i));
+        }
+    }
+
+    void read(ByteBuffer buffer) {
+        _width = buffer.getInt();
+        _lastCount = buffer.getInt();
+        _nbBuckets = buffer.get();
+        for (int i = 0; i < _nbBuckets; i++) {
+            _sums[i] = (double) buffer.getFloat() * (i == _nbBuckets - 1 ? _lastCount : _width);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.njackson.rides;
+
+import java.util.List;
+
+/**
+ * History of the rides: a summary per ride and its points.
+ *
+ * Points are appended to the current (open) ride from the GPS processing thread, they are
+ * written in batches: a fix is not on disk until the next flush.
+ */
+public interface IRideRepository {
+
+    long NO_RIDE = -1;
+
+    // continues the last ride left open (service killed, stop/start), or creates a new one; returns its id
+    long openRide(long time);
+
+    // NO_RIDE if no ride is open
+    long getCurrentRideId();
+
+    // speed in m/s (column file only), temperature in degrees C, 0 if unknown
+    void addPoint(long time, double latitude, double longitude, double altitude, float speed, int heartRate, int cadence, double temperature);
+
+    // totals of the current ride, saved with the next flush
+    void setTotals(float distance, long elapsedTime, float ascent, float maxSpeed);
+
+    // writes the pending points and totals in one transaction
+    void flush();
+
+    // flushes and closes the current ride, the next openRide() creates a new one
+    void closeRide();
+
+    // summaries only (no point is read), most recent first; closed rides are cached, do not modify them
+    List<RideSummary> getRides();
+
+    // null if the ride does not exist
+    RideSummary getRide(long rideId);
+
+    // points of the ride, in order, read one block at a time
+    RidePointIterator getPoints(long rideId);
+
+    // ids of the rides with a written point within radius metres, most recent first (geohash index)
+    long[] findRides(double latitude, double longitude, double radius);
+
+    // ride with the written point nearest to the position, NO_RIDE if none within maxDistance metres
+    long findNearestRide(double latitude, double longitude, double maxDistance);
+
+    // columns of the ride (see RideColumnFile), null if the ride has no column file
+    RideColumnFile getColumns(long rideId);
+
+    void deleteRide(long rideId);
+}
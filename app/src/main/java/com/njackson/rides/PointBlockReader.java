@@ -0,0 +1,103 @@
+package com.njackson.rides;
+
+/**
+ * Decodes the blocks written by PointBlockWriter, one point at a time, without allocation.
+ * Blocks of version 1 (no temperature) are read with a 0 (unknown) temperature.
+ */
+public class PointBlockReader {
+
+    private byte[] _data = null;
+    private int _position = 0;
+    private int _end = 0;
+    private byte _version = 0;
+
+    // previous point, fixed point values
+    private long _time;
+    private int _latitude;
+    private int _longitude;
+    private int _altitude;
+    private int _heartRate;
+    private int _cadence;
+    private int _temperature;
+
+    // returns false if the block is empty or has an unknown version
+    public boolean set(byte[] data) {
+        _data = data;
+        _end = data != null ? data.length : 0;
+        _time = 0;
+        _latitude = 0;
+        _longitude = 0;
+        _altitude = 0;
+        _heartRate = 0;
+        _cadence = 0;
+        _temperature = 0;
+        _version = _end > 0 ? data[0] : 0;
+        if (_version != 1 && _version != PointBlockWriter.VERSION) {
+            _position = _end;
+            return false;
+        }
+        _position = 1;
+        return true;
+    }
+
+    // fills point with the next point, returns false at the end of the block (or if it is truncated)
+    public boolean next(RidePoint point) {
+        if (_position >= _end) {
+            return false;
+        }
+        try {
+            _time += unzigzag(readVarLong());
+            _latitude += unzigzag(readVarInt());
+            _longitude += unzigzag(readVarInt());
+            _altitude += unzigzag(readVarInt());
+            _heartRate += unzigzag(readVarInt());
+            _cadence += unzigzag(readVarInt());
+            if (_version >= 2) {
+                _temperature += unzigzag(readVarInt());
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            _position = _end;
+            return false;
+        }
+        point.set(_time,
+                _latitude / PointBlockWriter.COORDINATE_SCALE,
+                _longitude / PointBlockWriter.COORDINATE_SCALE,
+                _altitude / PointBlockWriter.ALTITUDE_SCALE,
+                _heartRate,
+                _cadence,
+                _temperature / PointBlockWriter.TEMPERATURE_SCALE);
+        return true;
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = _data[_position++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = _data[_position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,151 @@
+package com.njackson.rides;
+
+import java.util.Arrays;
+
+/**
+ * Encodes up to a fixed number of points in one block.
+ *
+ * Format: VERSION byte, then for each point the changes since the previous point (0 for the first
+ * one) as zigzag varints: time (ms), latitude and longitude (1e-7 degree), altitude (dm), heart
+ * rate, cadence, temperature (0.1 degree C). A 1Hz point is typically 9-11 bytes.
+ *
+ * VERSION 1 blocks have no temperature, they are still read by PointBlockReader.
+ *
+ * The buffer is reused from one block to the next (clear()).
+ */
+public class PointBlockWriter {
+
+    public static final byte VERSION = 2;
+
+    static final double COORDINATE_SCALE = 1e7;
+    static final double ALTITUDE_SCALE = 10;
+    static final double TEMPERATURE_SCALE = 10;
+
+    // worst case: 10 bytes for the time, 5 for each int
+    private static final int MAX_POINT_SIZE = 10 + 6 * 5;
+
+    private final int _capacity;
+    private byte[] _data;
+    private int _size;
+    private int _nbPoints;
+    private long _firstTime;
+
+    // previous point, fixed point values
+    private long _time;
+    private int _latitude;
+    private int _longitude;
+    private int _altitude;
+    private int _heartRate;
+    private int _cadence;
+    private int _temperature;
+
+    public PointBlockWriter(int capacity) {
+        _capacity = capacity;
+        _data = new byte[64 + capacity * 10];
+        clear();
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    public boolean isFull() {
+        return _nbPoints >= _capacity;
+    }
+
+    public long getFirstTime() {
+        return _firstTime;
+    }
+
+    // encoded size in bytes
+    public int getSize() {
+        return _size;
+    }
+
+    public void clear() {
+        _data[0] = VERSION;
+        _size = 1;
+        _nbPoints = 0;
+        _firstTime = 0;
+        _time = 0;
+        _latitude = 0;
+        _longitude = 0;
+        _altitude = 0;
+        _heartRate = 0;
+        _cadence = 0;
+        _temperature = 0;
+    }
+
+    // returns false if the block is full
+    public boolean add(long time, double latitude, double longitude, double altitude, int heartRate, int cadence, double temperature) {
+        if (isFull()) {
+            return false;
+        }
+        if (_size + MAX_POINT_SIZE > _data.length) {
+            _data = Arrays.copyOf(_data, _data.length * 2);
+        }
+        int lat = (int) Math.round(latitude * COORDINATE_SCALE);
+        int lon = (int) Math.round(longitude * COORDINATE_SCALE);
+        int alt = (int) Math.round(altitude * ALTITUDE_SCALE);
+        int temp = (int) Math.round(temperature * TEMPERATURE_SCALE);
+
+        writeVarLong(zigzag(time - _time));
+        writeVarInt(zigzag(lat - _latitude));
+        writeVarInt(zigzag(lon - _longitude));
+        writeVarInt(zigzag(alt - _altitude));
+        writeVarInt(zigzag(heartRate - _heartRate));
+        writeVarInt(zigzag(cadence - _cadence));
+        writeVarInt(zigzag(temp - _temperature));
+
+        if (_nbPoints == 0) {
+            _firstTime = time;
+        }
+        _time = time;
+        _latitude = lat;
+        _longitude = lon;
+        _altitude = alt;
+        _heartRate = heartRate;
+        _cadence = cadence;
+        _temperature = temp;
+        _nbPoints++;
+        return true;
+    }
+
+    public boolean add(RidePoint point) {
+        return add(point.getTime(), point.getLatitude(), point.getLongitude(), point.getAltitude(),
+                point.getHeartRate(), point.getCadence(), point.getTemperature());
+    }
+
+    // copy of the encoded block
+    public byte[] toByteArray() {
+        return Arrays.copyOf(_data, _size);
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            _data[_size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _data[_size++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7Fl) != 0) {
+            _data[_size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _data[_size++] = (byte) value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
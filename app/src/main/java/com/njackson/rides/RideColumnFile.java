@@ -0,0 +1,186 @@
+package com.njackson.rides;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Columnar ride file (one per ride, written by RideColumnWriter), for charts and analysis that
+ * need one series without decoding the point blocks.
+ *
+ * Layout, little endian:
+ *   header: magic, version, nbPoints, capacity (int), startTime (long), offset of each column (int)
+ *   columns: capacity fixed-width values each, 8 bytes aligned
+ *
+ * The file is mapped read-only: the getters return views of the mapping, reading a series does
+ * not copy it and does not allocate per sample. The views contain the points written when the
+ * file was opened.
+ */
+public class RideColumnFile {
+
+    static final int MAGIC = 0x4C4F4356; // "VCOL"
+    static final int VERSION = 1;
+
+    // columns
+    public static final int TIME = 0;        // int, ms since getStartTime()
+    public static final int LATITUDE = 1;    // int, 1e-7 degrees
+    public static final int LONGITUDE = 2;   // int, 1e-7 degrees
+    public static final int ALTITUDE = 3;    // float, m
+    public static final int SPEED = 4;       // float, m/s
+    public static final int HEART_RATE = 5;  // unsigned byte, bpm, 0 if unknown
+    public static final int CADENCE = 6;     // unsigned byte, rpm, 0 if unknown
+    public static final int TEMPERATURE = 7; // float, degrees C, 0 if unknown
+    static final int NB_COLUMNS = 8;
+    static final int[] WIDTHS = {4, 4, 4, 4, 4, 1, 1, 4};
+
+    static final double COORDINATE_SCALE = 1e7;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_NB_POINTS = 8;
+    static final int OFFSET_CAPACITY = 12;
+    static final int OFFSET_START_TIME = 16;
+    static final int OFFSET_COLUMNS = 24;
+    static final int HEADER_SIZE = align(OFFSET_COLUMNS + 4 * NB_COLUMNS);
+
+    private final ByteBuffer _buffer;
+    private final int _nbPoints;
+    private final long _startTime;
+    private final int[] _offsets = new int[NB_COLUMNS];
+
+    private RideColumnFile(ByteBuffer buffer) throws IOException {
+        _buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new IOException("not a ride column file");
+        }
+        if (buffer.getInt(OFFSET_VERSION) != VERSION) {
+            throw new IOException("unknown version " + buffer.getInt(OFFSET_VERSION));
+        }
+        _nbPoints = buffer.getInt(OFFSET_NB_POINTS);
+        int capacity = buffer.getInt(OFFSET_CAPACITY);
+        _startTime = buffer.getLong(OFFSET_START_TIME);
+        if (_nbPoints < 0 || _nbPoints > capacity) {
+            throw new IOException("invalid nbPoints " + _nbPoints);
+        }
+        for (int c = 0; c < NB_COLUMNS; c++) {
+            _offsets[c] = buffer.getInt(OFFSET_COLUMNS + 4 * c);
+            if (_offsets[c] < HEADER_SIZE || (long) _offsets[c] + (long) WIDTHS[c] * capacity > buffer.capacity()) {
+                throw new IOException("invalid column " + c);
+            }
+        }
+    }
+
+    public static RideColumnFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new RideColumnFile(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    public IntBuffer getTimes() {
+        return column(TIME).asIntBuffer();
+    }
+
+    public IntBuffer getLatitudes() {
+        return column(LATITUDE).asIntBuffer();
+    }
+
+    public IntBuffer getLongitudes() {
+        return column(LONGITUDE).asIntBuffer();
+    }
+
+    public FloatBuffer getAltitudes() {
+        return column(ALTITUDE).asFloatBuffer();
+    }
+
+    public FloatBuffer getSpeeds() {
+        return column(SPEED).asFloatBuffer();
+    }
+
+    // unsigned: get(i) & 0xFF
+    public ByteBuffer getHeartRates() {
+        return column(HEART_RATE);
+    }
+
+    // unsigned: get(i) & 0xFF
+    public ByteBuffer getCadences() {
+        return column(CADENCE);
+    }
+
+    public FloatBuffer getTemperatures() {
+        return column(TEMPERATURE).asFloatBuffer();
+    }
+
+    public long getTime(int index) {
+        return _startTime + _buffer.getInt(_offsets[TIME] + 4 * index);
+    }
+
+    public double getLatitude(int index) {
+        return _buffer.getInt(_offsets[LATITUDE] + 4 * index) / COORDINATE_SCALE;
+    }
+
+    public double getLongitude(int index) {
+        return _buffer.getInt(_offsets[LONGITUDE] + 4 * index) / COORDINATE_SCALE;
+    }
+
+    // index of the first point at or after time, getNbPoints() if none: series over a time range
+    // are [indexOf(from), indexOf(to))
+    public int indexOf(long time) {
+        long offset = time - _startTime;
+        int base = _offsets[TIME];
+        int low = 0;
+        int high = _nbPoints;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_buffer.getInt(base + 4 * mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer column(int c) {
+        ByteBuffer buffer = _buffer.duplicate();
+        buffer.limit(_offsets[c] + WIDTHS[c] * _nbPoints);
+        buffer.position(_offsets[c]);
+        // slice() resets the byte order
+        return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    // offsets of the columns for a capacity, the last element is the file size
+    static int[] layout(int capacity) {
+        int[] offsets = new int[NB_COLUMNS + 1];
+        int offset = HEADER_SIZE;
+        for (int c = 0; c < NB_COLUMNS; c++) {
+            offsets[c] = offset;
+            offset += align(WIDTHS[c] * capacity);
+        }
+        offsets[NB_COLUMNS] = offset;
+        return offsets;
+    }
+}
@@ -0,0 +1,166 @@
+package com.njackson.rides;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends points to a RideColumnFile during the ride.
+ *
+ * The file is mapped read-write with room for a capacity of points, a point is a few puts in the
+ * mapping and the point count in the header is updated with each point: the points survive the
+ * process being killed. When the file is full it is copied to a file twice as large (renamed over
+ * the old one), close() shrinks it to the points written.
+ */
+public class RideColumnWriter {
+
+    private static final String TAG = "PB-RideColumnWriter";
+
+    // 1h at 1Hz, ~100KB
+    static final int INITIAL_CAPACITY = 3600;
+
+    private final File _file;
+    private RandomAccessFile _raf = null;
+    private MappedByteBuffer _buffer = null;
+    private int[] _offsets;
+    private int _capacity = 0;
+    private int _nbPoints = 0;
+    private final long _startTime;
+
+    // continues the points of file if it is a valid column file, creates it otherwise
+    public RideColumnWriter(File file, long startTime) throws IOException {
+        _file = file;
+        if (file.exists() && resume()) {
+            _startTime = _buffer.getLong(RideColumnFile.OFFSET_START_TIME);
+            Log.d(TAG, "resume " + file.getName() + " nbPoints:" + _nbPoints);
+        } else {
+            _startTime = startTime;
+            create(file, INITIAL_CAPACITY);
+        }
+    }
+
+    private boolean resume() throws IOException {
+        try {
+            RideColumnFile.open(_file);
+        } catch (IOException e) {
+            Log.e(TAG, "resume: " + e.getMessage());
+            return false;
+        }
+        _raf = new RandomAccessFile(_file, "rw");
+        _buffer = map(_raf, _raf.length());
+        _nbPoints = _buffer.getInt(RideColumnFile.OFFSET_NB_POINTS);
+        _capacity = _buffer.getInt(RideColumnFile.OFFSET_CAPACITY);
+        _offsets = RideColumnFile.layout(_capacity);
+        return true;
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    // temperature in degrees C, 0 if unknown
+    public void add(long time, double latitude, double longitude, double altitude, float speed, int heartRate, int cadence, double temperature) throws IOException {
+        long offset = time - _startTime;
+        if (offset < 0 || offset > Integer.MAX_VALUE) {
+            // more than 24 days
+            throw new IOException("time out of range " + time);
+        }
+        if (_nbPoints == _capacity) {
+            resize(Math.max(2 * _capacity, INITIAL_CAPACITY));
+        }
+        int i = _nbPoints;
+        _buffer.putInt(_offsets[RideColumnFile.TIME] + 4 * i, (int) offset);
+        _buffer.putInt(_offsets[RideColumnFile.LATITUDE] + 4 * i, (int) Math.round(latitude * RideColumnFile.COORDINATE_SCALE));
+        _buffer.putInt(_offsets[RideColumnFile.LONGITUDE] + 4 * i, (int) Math.round(longitude * RideColumnFile.COORDINATE_SCALE));
+        _buffer.putFloat(_offsets[RideColumnFile.ALTITUDE] + 4 * i, (float) altitude);
+        _buffer.putFloat(_offsets[RideColumnFile.SPEED] + 4 * i, speed);
+        _buffer.put(_offsets[RideColumnFile.HEART_RATE] + i, (byte) Math.min(Math.max(heartRate, 0), 255));
+        _buffer.put(_offsets[RideColumnFile.CADENCE] + i, (byte) Math.min(Math.max(cadence, 0), 255));
+        _buffer.putFloat(_offsets[RideColumnFile.TEMPERATURE] + 4 * i, (float) temperature);
+        _nbPoints++;
+        _buffer.putInt(RideColumnFile.OFFSET_NB_POINTS, _nbPoints);
+    }
+
+    // writes the mapping to the disk (the kernel writes it anyway, this survives a power loss)
+    public void flush() {
+        _buffer.force();
+    }
+
+    // shrinks the file to the points written
+    public void close() throws IOException {
+        try {
+            if (_capacity > _nbPoints) {
+                resize(_nbPoints);
+            }
+            _buffer.force();
+        } finally {
+            _raf.close();
+        }
+    }
+
+    private void create(File file, int capacity) throws IOException {
+        int[] offsets = RideColumnFile.layout(capacity);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.setLength(offsets[RideColumnFile.NB_COLUMNS]);
+        MappedByteBuffer buffer = map(raf, offsets[RideColumnFile.NB_COLUMNS]);
+        buffer.putInt(RideColumnFile.OFFSET_MAGIC, RideColumnFile.MAGIC);
+        buffer.putInt(RideColumnFile.OFFSET_VERSION, RideColumnFile.VERSION);
+        buffer.putInt(RideColumnFile.OFFSET_NB_POINTS, 0);
+        buffer.putInt(RideColumnFile.OFFSET_CAPACITY, capacity);
+        buffer.putLong(RideColumnFile.OFFSET_START_TIME, _startTime);
+        for (int c = 0; c < RideColumnFile.NB_COLUMNS; c++) {
+            buffer.putInt(RideColumnFile.OFFSET_COLUMNS + 4 * c, offsets[c]);
+        }
+        _raf = raf;
+        _buffer = buffer;
+        _offsets = offsets;
+        _capacity = capacity;
+    }
+
+    // copies the columns to a new file and renames it over the current one
+    private void resize(int capacity) throws IOException {
+        long start = System.currentTimeMillis();
+        RandomAccessFile oldRaf = _raf;
+        MappedByteBuffer oldBuffer = _buffer;
+        int[] oldOffsets = _offsets;
+        File tmp = new File(_file.getPath() + ".tmp");
+
+        create(tmp, capacity);
+        for (int c = 0; c < RideColumnFile.NB_COLUMNS; c++) {
+            ByteBuffer src = oldBuffer.duplicate();
+            src.limit(oldOffsets[c] + RideColumnFile.WIDTHS[c] * _nbPoints);
+            src.position(oldOffsets[c]);
+            ByteBuffer dst = _buffer.duplicate();
+            dst.position(_offsets[c]);
+            dst.put(src);
+        }
+        _buffer.putInt(RideColumnFile.OFFSET_NB_POINTS, _nbPoints);
+        _buffer.force();
+        oldRaf.close();
+        if (!tmp.renameTo(_file)) {
+            throw new IOException("rename failed " + tmp);
+        }
+        Log.d(TAG, "resize " + _file.getName() + " to " + capacity + " points in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile raf, long size) throws IOException {
+        MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,123 @@
+package com.njackson.rides;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * rides: one summary row per ride, its statistics in one blob (RideSummary.toStats, version 3)
+ * blocks: the points of the rides, PointBlockWriter blocks of RideRepository.BLOCK_POINTS points
+ * cells: geohash index of the blocks (RideSpatialIndex), version 2
+ */
+public class RideDatabase extends SQLiteOpenHelper {
+
+    private static final String TAG = "PB-RideDatabase";
+
+    public static final String DATABASE_NAME = "rides.db";
+    static final int DATABASE_VERSION = 3;
+
+    static final String TABLE_RIDES = "rides";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_START_TIME = "start_time";
+    static final String COLUMN_END_TIME = "end_time";
+    static final String COLUMN_DISTANCE = "distance";
+    static final String COLUMN_ELAPSED_TIME = "elapsed_time";
+    static final String COLUMN_ASCENT = "ascent";
+    static final String COLUMN_MAX_SPEED = "max_speed";
+    static final String COLUMN_NB_POINTS = "nb_points";
+    static final String COLUMN_CLOSED = "closed";
+    static final String COLUMN_STATS = "stats";
+
+    static final String TABLE_BLOCKS = "blocks";
+    static final String COLUMN_RIDE_ID = "ride_id";
+    static final String COLUMN_SEQ = "seq";
+    static final String COLUMN_FIRST_TIME = "first_time";
+    static final String COLUMN_DATA = "data";
+
+    static final String TABLE_CELLS = "cells";
+    static final String COLUMN_CELL = "cell";
+
+    public RideDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    public RideDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_RIDES + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_START_TIME + " INTEGER NOT NULL, "
+                + COLUMN_END_TIME + " INTEGER NOT NULL, "
+                + COLUMN_DISTANCE + " REAL NOT NULL DEFAULT 0, "
+                + COLUMN_ELAPSED_TIME + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_ASCENT + " REAL NOT NULL DEFAULT 0, "
+                + COLUMN_MAX_SPEED + " REAL NOT NULL DEFAULT 0, "
+                + COLUMN_NB_POINTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CLOSED + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_STATS + " BLOB)");
+        db.execSQL("CREATE INDEX rides_start_time ON " + TABLE_RIDES + " (" + COLUMN_START_TIME + ")");
+
+        // the primary key is the only index needed to read the points of a ride in order
+        db.execSQL("CREATE TABLE " + TABLE_BLOCKS + " ("
+                + COLUMN_RIDE_ID + " INTEGER NOT NULL, "
+                + COLUMN_SEQ + " INTEGER NOT NULL, "
+                + COLUMN_FIRST_TIME + " INTEGER NOT NULL, "
+                + COLUMN_NB_POINTS + " INTEGER NOT NULL, "
+                + COLUMN_DATA + " BLOB NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_RIDE_ID + ", " + COLUMN_SEQ + "))");
+
+        createCells(db);
+    }
+
+    // the primary key is the index of the queries by cell
+    private void createCells(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CELLS + " ("
+                + COLUMN_CELL + " INTEGER NOT NULL, "
+                + COLUMN_RIDE_ID + " INTEGER NOT NULL, "
+                + COLUMN_SEQ + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_CELL + ", " + COLUMN_RIDE_ID + ", " + COLUMN_SEQ + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            long start = System.currentTimeMillis();
+            createCells(db);
+            RideSpatialIndex.indexBlocks(db);
+            Log.d(TAG, "onUpgrade: cells indexed in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        if (oldVersion < 3) {
+            long start = System.currentTimeMillis();
+            db.execSQL("ALTER TABLE " + TABLE_RIDES + " ADD COLUMN " + COLUMN_STATS + " BLOB");
+            computeStats(db);
+            Log.d(TAG, "onUpgrade: stats computed in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    // statistics of the rides recorded before version 3, from their points
+    private void computeStats(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_RIDES, new String[] {COLUMN_ID}, null, null, null, null, null);
+        try {
+            RidePoint point = new RidePoint();
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                RideSummary summary = new RideSummary();
+                RidePointIterator points = new RidePointIterator(db, id, 0);
+                while (points.next(point)) {
+                    summary.addPoint(point.getLatitude(), point.getLongitude(), point.getAltitude(), point.getHeartRate(), point.getCadence());
+                }
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_STATS, summary.toStats());
+                db.update(TABLE_RIDES, values, COLUMN_ID + "=?", new String[] {String.valueOf(id)});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.njackson.rides;
+
+/**
+ * One sample of a ride, as stored in the point blocks.
+ *
+ * Mutable: iterators fill the same instance for every point.
+ */
+public class RidePoint {
+
+    private long _time = 0;
+    private double _latitude = 0;
+    private double _longitude = 0;
+    private double _altitude = 0;
+    private int _heartRate = 0;
+    private int _cadence = 0;
+    private double _temperature = 0;
+
+    // ms, UTC
+    public long getTime() {
+        return _time;
+    }
+
+    public double getLatitude() {
+        return _latitude;
+    }
+
+    public double getLongitude() {
+        return _longitude;
+    }
+
+    // m
+    public double getAltitude() {
+        return _altitude;
+    }
+
+    // bpm, 0 if unknown
+    public int getHeartRate() {
+        return _heartRate;
+    }
+
+    // rpm, 0 if unknown
+    public int getCadence() {
+        return _cadence;
+    }
+
+    // degrees C, 0 if unknown
+    public double getTemperature() {
+        return _temperature;
+    }
+
+    public void set(long time, double latitude, double longitude, double altitude, int heartRate, int cadence, double temperature) {
+        _time = time;
+        _latitude = latitude;
+        _longitude = longitude;
+        _altitude = altitude;
+        _heartRate = heartRate;
+        _cadence = cadence;
+        _temperature = temperature;
+    }
+
+    public void set(RidePoint point) {
+        set(point._time, point._latitude, point._longitude, point._altitude, point._heartRate, point._cadence, point._temperature);
+    }
+}
@@ -0,0 +1,80 @@
+package com.njackson.rides;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.njackson.utils.geo.IElevationModel;
+
+/**
+ * Points of a ride, read one block at a time: memory does not depend on the length of the ride.
+ *
+ * Usage:
+ *   RidePoint point = new RidePoint();
+ *   while (iterator.next(point)) { ... }
+ */
+public class RidePointIterator {
+
+    private static final String[] DATA_COLUMNS = {RideDatabase.COLUMN_SEQ, RideDatabase.COLUMN_DATA};
+
+    private final SQLiteDatabase _db;
+    private final long _rideId;
+    private final int _nbPoints;
+    private final PointBlockReader _reader = new PointBlockReader();
+    private int _nextSeq = 0;
+    private boolean _done = false;
+    private IElevationModel _elevationModel = null;
+
+    RidePointIterator(SQLiteDatabase db, long rideId, int nbPoints) {
+        _db = db;
+        _rideId = rideId;
+        _nbPoints = nbPoints;
+    }
+
+    // from the summary, to report progress
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    // the altitudes are replaced by the elevations of the model, where it has data
+    public void setElevationModel(IElevationModel elevationModel) {
+        _elevationModel = elevationModel;
+    }
+
+    // fills point with the next point, returns false after the last one
+    public boolean next(RidePoint point) {
+        while (!_reader.next(point)) {
+            if (!loadNextBlock()) {
+                return false;
+            }
+        }
+        if (_elevationModel != null) {
+            double elevation = _elevationModel.getElevation(point.getLatitude(), point.getLongitude());
+            if (!Double.isNaN(elevation)) {
+                point.set(point.getTime(), point.getLatitude(), point.getLongitude(), elevation,
+                        point.getHeartRate(), point.getCadence(), point.getTemperature());
+            }
+        }
+        return true;
+    }
+
+    private boolean loadNextBlock() {
+        if (_done) {
+            return false;
+        }
+        Cursor cursor = _db.query(RideDatabase.TABLE_BLOCKS, DATA_COLUMNS,
+                RideDatabase.COLUMN_RIDE_ID + "=? AND " + RideDatabase.COLUMN_SEQ + ">=?",
+                new String[] {String.valueOf(_rideId), String.valueOf(_nextSeq)},
+                null, null, RideDatabase.COLUMN_SEQ, "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                _done = true;
+                return false;
+            }
+            _nextSeq = cursor.getInt(0) + 1;
+            _reader.set(cursor.getBlob(1));
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.njackson.rides;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite ride history (see RideDatabase).
+ *
+ * The points of the current ride are encoded in a PointBlockWriter of BLOCK_POINTS points. Every
+ * FLUSH_POINTS points, the block (INSERT OR REPLACE, it is rewritten until it is full) and the
+ * summary row are written in one transaction, with the geohash cells of the block
+ * (RideSpatialIndex). A few hours at 1Hz are a few hundred KB.
+ *
+ * With a column directory, the points are also appended to a RideColumnFile per ride, for the
+ * charts that read one series.
+ *
+ * Methods are synchronized: points are appended from the GPS processing thread, rides are listed
+ * and exported from other threads.
+ */
+public class RideRepository implements IRideRepository {
+
+    private static final String TAG = "PB-RideRepository";
+
+    // ~1.2KB blocks at 1Hz: 3 per 4KB SQLite page, and small rewrites until the block is full
+    public static final int BLOCK_POINTS = 128;
+    static final int FLUSH_POINTS = 30;
+
+    private static final String[] SUMMARY_COLUMNS = {
+            RideDatabase.COLUMN_ID,
+            RideDatabase.COLUMN_START_TIME,
+            RideDatabase.COLUMN_END_TIME,
+            RideDatabase.COLUMN_DISTANCE,
+            RideDatabase.COLUMN_ELAPSED_TIME,
+            RideDatabase.COLUMN_ASCENT,
+            RideDatabase.COLUMN_MAX_SPEED,
+            RideDatabase.COLUMN_NB_POINTS,
+            RideDatabase.COLUMN_CLOSED,
+            RideDatabase.COLUMN_STATS
+    };
+
+    // closed rides, they do not change: listing them again does not parse their statistics
+    static final int CACHE_SIZE = 512;
+
+    private final SQLiteOpenHelper _helper;
+    private final File _columnDir;
+    private SQLiteStatement _insertBlock = null;
+    private SQLiteStatement _updateRide = null;
+    private SQLiteStatement _insertCell = null;
+    private final LruCache<Long, RideSummary> _cache = new LruCache<Long, RideSummary>(CACHE_SIZE);
+
+    // current ride
+    private long _rideId = NO_RIDE;
+    private final RideSummary _summary = new RideSummary();
+    private final PointBlockWriter _block = new PointBlockWriter(BLOCK_POINTS);
+    private final RideSpatialIndex _blockCells = new RideSpatialIndex();
+    private int _blockSeq = 0;
+    private boolean _dirty = false;
+    private int _nbPointsSinceFlush = 0;
+    private RideColumnWriter _columns = null;
+
+    // without column files
+    public RideRepository(SQLiteOpenHelper helper) {
+        this(helper, null);
+    }
+
+    public RideRepository(SQLiteOpenHelper helper, File columnDir) {
+        _helper = helper;
+        _columnDir = columnDir;
+    }
+
+    @Override
+    public synchronized long openRide(long time) {
+        if (_rideId != NO_RIDE) {
+            return _rideId;
+        }
+        SQLiteDatabase db = _helper.getWritableDatabase();
+        Cursor cursor = db.query(RideDatabase.TABLE_RIDES, SUMMARY_COLUMNS, RideDatabase.COLUMN_CLOSED + "=0",
+                null, null, null, RideDatabase.COLUMN_ID + " DESC", "1");
+        try {
+            if (cursor.moveToFirst()) {
+                readSummary(cursor, _summary);
+                _rideId = _summary.getId();
+                resumeLastBlock(db);
+                _columns = openColumns(_rideId, _summary.getStartTime());
+                Log.d(TAG, "openRide: continue ride " + _rideId + " nbPoints:" + _summary.getNbPoints());
+                return _rideId;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(RideDatabase.COLUMN_START_TIME, time);
+        values.put(RideDatabase.COLUMN_END_TIME, time);
+        long id = db.insert(RideDatabase.TABLE_RIDES, null, values);
+        if (id < 0) {
+            Log.e(TAG, "openRide: insert failed");
+            return NO_RIDE;
+        }
+        _rideId = id;
+        _summary.setId(id);
+        _summary.setStartTime(time);
+        _summary.setEndTime(time);
+        _summary.setDistance(0);
+        _summary.setElapsedTime(0);
+        _summary.setAscent(0);
+        _summary.setMaxSpeed(0);
+        _summary.setNbPoints(0);
+        _summary.setClosed(false);
+        _summary.clearStats();
+        _block.clear();
+        _blockCells.clear();
+        _blockSeq = 0;
+        _nbPointsSinceFlush = 0;
+        _dirty = false;
+        _columns = openColumns(_rideId, time);
+        Log.d(TAG, "openRide: new ride " + _rideId);
+        return _rideId;
+    }
+
+    // appends to the last block of the ride if it is not full
+    private void resumeLastBlock(SQLiteDatabase db) {
+        _block.clear();
+        _blockCells.clear();
+        _blockSeq = 0;
+        _nbPointsSinceFlush = 0;
+        _dirty = false;
+        Cursor cursor = db.query(RideDatabase.TABLE_BLOCKS,
+                new String[] {RideDatabase.COLUMN_SEQ, RideDatabase.COLUMN_NB_POINTS, RideDatabase.COLUMN_DATA},
+                RideDatabase.COLUMN_RIDE_ID + "=?", new String[] {String.valueOf(_rideId)},
+                null, null, RideDatabase.COLUMN_SEQ + " DESC", "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            int seq = cursor.getInt(0);
+            if (cursor.getInt(1) >= BLOCK_POINTS) {
+                _blockSeq = seq + 1;
+                return;
+            }
+            _blockSeq = seq;
+            PointBlockReader reader = new PointBlockReader();
+            reader.set(cursor.getBlob(2));
+            RidePoint point = new RidePoint();
+            while (reader.next(point)) {
+                _block.add(point);
+                _blockCells.add(point.getLatitude(), point.getLongitude());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private File getColumnFile(long rideId) {
+        return new File(_columnDir, rideId + ".col");
+    }
+
+    private RideColumnWriter openColumns(long rideId, long startTime) {
+        if (_columnDir == null) {
+            return null;
+        }
+        try {
+            _columnDir.mkdirs();
+            return new RideColumnWriter(getColumnFile(rideId), startTime);
+        } catch (IOException e) {
+            // the ride is still saved in the blocks
+            Log.e(TAG, "openColumns", e);
+            return null;
+        }
+    }
+
+    private void closeColumns() {
+        if (_columns == null) {
+            return;
+        }
+        try {
+            _columns.close();
+        } catch (IOException e) {
+            Log.e(TAG, "closeColumns", e);
+        }
+        _columns = null;
+    }
+
+    @Override
+    public synchronized long getCurrentRideId() {
+        return _rideId;
+    }
+
+    @Override
+    public synchronized void addPoint(long time, double latitude, double longitude, double altitude, float speed, int heartRate, int cadence, double temperature) {
+        if (_rideId == NO_RIDE) {
+            return;
+        }
+        if (_block.isFull() && !nextBlock()) {
+            // the full block is still not written: the point is dropped, and not counted in the summary
+            return;
+        }
+        _block.add(time, latitude, longitude, altitude, heartRate, cadence, temperature);
+        _blockCells.add(latitude, longitude);
+        if (_columns != null) {
+            try {
+                _columns.add(time, latitude, longitude, altitude, speed, heartRate, cadence, temperature);
+            } catch (IOException e) {
+                Log.e(TAG, "addPoint: columns", e);
+                closeColumns();
+            }
+        }
+        _summary.setNbPoints(_summary.getNbPoints() + 1);
+        _summary.setEndTime(time);
+        _summary.addPoint(latitude, longitude, altitude, heartRate, cadence);
+        _dirty = true;
+        _nbPointsSinceFlush++;
+
+        if (_block.isFull()) {
+            nextBlock();
+        } else if (_nbPointsSinceFlush >= FLUSH_POINTS) {
+            flush();
+        }
+    }
+
+    // writes the full block and starts the next one; if the write fails the block is kept, retried with the next point
+    private boolean nextBlock() {
+        if (!write()) {
+            return false;
+        }
+        _block.clear();
+        _blockCells.clear();
+        _blockSeq++;
+        return true;
+    }
+
+    @Override
+    public synchronized void setTotals(float distance, long elapsedTime, float ascent, float maxSpeed) {
+        if (_rideId == NO_RIDE) {
+            return;
+        }
+        _summary.setDistance(distance);
+        _summary.setElapsedTime(elapsedTime);
+        _summary.setAscent(ascent);
+        _summary.setMaxSpeed(maxSpeed);
+        _dirty = true;
+    }
+
+    @Override
+    public synchronized void flush() {
+        write();
+    }
+
+    // false if the block and the summary could not be written
+    private boolean write() {
+        if (_rideId == NO_RIDE || !_dirty) {
+            return true;
+        }
+        if (_columns != null) {
+            _columns.flush();
+        }
+        SQLiteDatabase db = _helper.getWritableDatabase();
+        compileStatements(db);
+        db.beginTransaction();
+        try {
+            if (_block.getNbPoints() > 0) {
+                _insertBlock.bindLong(1, _rideId);
+                _insertBlock.bindLong(2, _blockSeq);
+                _insertBlock.bindLong(3, _block.getFirstTime());
+                _insertBlock.bindLong(4, _block.getNbPoints());
+                _insertBlock.bindBlob(5, _block.toByteArray());
+                _insertBlock.executeInsert();
+                _blockCells.write(_insertCell, _rideId, _blockSeq);
+            }
+            _updateRide.bindLong(1, _summary.getEndTime());
+            _updateRide.bindDouble(2, _summary.getDistance());
+            _updateRide.bindLong(3, _summary.getElapsedTime());
+            _updateRide.bindDouble(4, _summary.getAscent());
+            _updateRide.bindDouble(5, _summary.getMaxSpeed());
+            _updateRide.bindLong(6, _summary.getNbPoints());
+            _updateRide.bindBlob(7, _summary.toStats());
+            _updateRide.bindLong(8, _rideId);
+            _updateRide.executeUpdateDelete();
+            db.setTransactionSuccessful();
+            _dirty = false;
+            _nbPointsSinceFlush = 0;
+            return true;
+        } catch (SQLException e) {
+            // disk full...: retried with the next flush
+            Log.e(TAG, "flush", e);
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void compileStatements(SQLiteDatabase db) {
+        if (_insertBlock != null) {
+            return;
+        }
+        _insertBlock = db.compileStatement("INSERT OR REPLACE INTO " + RideDatabase.TABLE_BLOCKS + " ("
+                + RideDatabase.COLUMN_RIDE_ID + ", " + RideDatabase.COLUMN_SEQ + ", " + RideDatabase.COLUMN_FIRST_TIME + ", "
+                + RideDatabase.COLUMN_NB_POINTS + ", " + RideDatabase.COLUMN_DATA + ") VALUES (?, ?, ?, ?, ?)");
+        _updateRide = db.compileStatement("UPDATE " + RideDatabase.TABLE_RIDES + " SET "
+                + RideDatabase.COLUMN_END_TIME + "=?, " + RideDatabase.COLUMN_DISTANCE + "=?, "
+                + RideDatabase.COLUMN_ELAPSED_TIME + "=?, " + RideDatabase.COLUMN_ASCENT + "=?, "
+                + RideDatabase.COLUMN_MAX_SPEED + "=?, " + RideDatabase.COLUMN_NB_POINTS + "=?, "
+                + RideDatabase.COLUMN_STATS + "=? WHERE "
+                + RideDatabase.COLUMN_ID + "=?");
+        _insertCell = db.compileStatement(RideSpatialIndex.insertCellSql());
+    }
+
+    @Override
+    public synchronized void closeRide() {
+        if (_rideId == NO_RIDE) {
+            return;
+        }
+        flush();
+        closeColumns();
+        SQLiteDatabase db = _helper.getWritableDatabase();
+        if (_summary.getNbPoints() == 0) {
+            // nothing recorded, do not keep an empty ride in the history
+            db.delete(RideDatabase.TABLE_RIDES, RideDatabase.COLUMN_ID + "=?", new String[] {String.valueOf(_rideId)});
+            if (_columnDir != null) {
+                getColumnFile(_rideId).delete();
+            }
+        } else {
+            ContentValues values = new ContentValues();
+            values.put(RideDatabase.COLUMN_CLOSED, 1);
+            db.update(RideDatabase.TABLE_RIDES, values, RideDatabase.COLUMN_ID + "=?", new String[] {String.valueOf(_rideId)});
+        }
+        Log.d(TAG, "closeRide " + _rideId + " nbPoints:" + _summary.getNbPoints());
+        _rideId = NO_RIDE;
+        _block.clear();
+        _blockCells.clear();
+    }
+
+    @Override
+    public List<RideSummary> getRides() {
+        List<RideSummary> rides = new ArrayList<RideSummary>();
+        Cursor cursor = _helper.getReadableDatabase().query(RideDatabase.TABLE_RIDES, SUMMARY_COLUMNS,
+                null, null, null, null, RideDatabase.COLUMN_START_TIME + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                rides.add(readCachedSummary(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rides;
+    }
+
+    @Override
+    public RideSummary getRide(long rideId) {
+        Cursor cursor = _helper.getReadableDatabase().query(RideDatabase.TABLE_RIDES, SUMMARY_COLUMNS,
+                RideDatabase.COLUMN_ID + "=?", new String[] {String.valueOf(rideId)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return readCachedSummary(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public RidePointIterator getPoints(long rideId) {
+        synchronized (this) {
+            if (rideId == _rideId) {
+                // include the points not written yet
+                flush();
+            }
+        }
+        RideSummary summary = getRide(rideId);
+        return new RidePointIterator(_helper.getReadableDatabase(), rideId, summary != null ? summary.getNbPoints() : 0);
+    }
+
+    @Override
+    public RideColumnFile getColumns(long rideId) {
+        if (_columnDir == null) {
+            return null;
+        }
+        File file = getColumnFile(rideId);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            // the points of the current ride are in the file as soon as they are added
+            return RideColumnFile.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "getColumns", e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void deleteRide(long rideId) {
+        if (rideId == _rideId) {
+            _rideId = NO_RIDE;
+            _block.clear();
+            _blockCells.clear();
+            closeColumns();
+        }
+        _cache.remove(rideId);
+        if (_columnDir != null) {
+            getColumnFile(rideId).delete();
+        }
+        SQLiteDatabase db = _helper.getWritableDatabase();
+        String[] args = {String.valueOf(rideId)};
+        db.beginTransaction();
+        try {
+            db.delete(RideDatabase.TABLE_CELLS, RideDatabase.COLUMN_RIDE_ID + "=?", args);
+            db.delete(RideDatabase.TABLE_BLOCKS, RideDatabase.COLUMN_RIDE_ID + "=?", args);
+            db.delete(RideDatabase.TABLE_RIDES, RideDatabase.COLUMN_ID + "=?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public long[] findRides(double latitude, double longitude, double radius) {
+        RideSpatialIndex.Result result = RideSpatialIndex.query(_helper.getReadableDatabase(), latitude, longitude, radius);
+        long[] rideIds = new long[result.size];
+        System.arraycopy(result.rideIds, 0, rideIds, 0, result.size);
+        return rideIds;
+    }
+
+    @Override
+    public long findNearestRide(double latitude, double longitude, double maxDistance) {
+        RideSpatialIndex.Result result = RideSpatialIndex.query(_helper.getReadableDatabase(), latitude, longitude, maxDistance);
+        long rideId = NO_RIDE;
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < result.size; i++) {
+            if (result.distances[i] < min) {
+                min = result.distances[i];
+                rideId = result.rideIds[i];
+            }
+        }
+        return rideId;
+    }
+
+    // the summaries of the closed rides are shared: callers must not modify them
+    private RideSummary readCachedSummary(Cursor cursor) {
+        RideSummary summary = _cache.get(cursor.getLong(0));
+        if (summary != null) {
+            return summary;
+        }
+        summary = new RideSummary();
+        readSummary(cursor, summary);
+        if (summary.isClosed()) {
+            _cache.put(summary.getId(), summary);
+        }
+        return summary;
+    }
+
+    private static void readSummary(Cursor cursor, RideSummary summary) {
+        summary.setId(cursor.getLong(0));
+        summary.setStartTime(cursor.getLong(1));
+        summary.setEndTime(cursor.getLong(2));
+        summary.setDistance(cursor.getFloat(3));
+        summary.setElapsedTime(cursor.getLong(4));
+        summary.setAscent(cursor.getFloat(5));
+        summary.setMaxSpeed(cursor.getFloat(6));
+        summary.setNbPoints(cursor.getInt(7));
+        summary.setClosed(cursor.getInt(8) != 0);
+        summary.readStats(cursor.getBlob(9));
+    }
+}
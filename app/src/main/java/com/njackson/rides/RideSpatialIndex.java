@@ -0,0 +1,165 @@
+package com.njackson.rides;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.njackson.utils.geo.Geohash;
+import com.njackson.utils.geo.LocalProjection;
+
+/**
+ * Geohash index of the point blocks (RideDatabase.TABLE_CELLS): one (cell, ride_id, seq) row for
+ * each CELL_BITS cell a block passes through, the primary key is the index.
+ *
+ * The cells of the current block are collected while the points are added (a few per block) and
+ * written with the block (INSERT OR IGNORE, the block is rewritten until it is full).
+ *
+ * A query reads the blocks of the cells around the point in one statement (cell ranges, see
+ * Geohash.coverRadius), then checks the distance of their points: the result is exact.
+ */
+class RideSpatialIndex {
+
+    private static final String TAG = "PB-RideSpatialIndex";
+
+    // geohash of 6 characters, ~1.2 x 0.6 km
+    static final int CELL_BITS = 30;
+    // larger radius: coarser cells
+    static final int MAX_QUERY_CELLS = 64;
+
+    // cells of the current block
+    private long[] _cells = new long[8];
+    private int _nbCells = 0;
+
+    void add(double latitude, double longitude) {
+        long cell = Geohash.encode(latitude, longitude, CELL_BITS);
+        for (int i = _nbCells - 1; i >= 0; i--) {
+            if (_cells[i] == cell) {
+                return;
+            }
+        }
+        if (_nbCells == _cells.length) {
+            long[] cells = new long[2 * _nbCells];
+            System.arraycopy(_cells, 0, cells, 0, _nbCells);
+            _cells = cells;
+        }
+        _cells[_nbCells++] = cell;
+    }
+
+    // new block
+    void clear() {
+        _nbCells = 0;
+    }
+
+    // insertCell: INSERT OR IGNORE (cell, ride_id, seq), in the transaction of the block
+    void write(SQLiteStatement insertCell, long rideId, int seq) {
+        for (int i = 0; i < _nbCells; i++) {
+            insertCell.bindLong(1, _cells[i]);
+            insertCell.bindLong(2, rideId);
+            insertCell.bindLong(3, seq);
+            insertCell.executeInsert();
+        }
+    }
+
+    static String insertCellSql() {
+        return "INSERT OR IGNORE INTO " + RideDatabase.TABLE_CELLS + " (" + RideDatabase.COLUMN_CELL + ", "
+                + RideDatabase.COLUMN_RIDE_ID + ", " + RideDatabase.COLUMN_SEQ + ") VALUES (?, ?, ?)";
+    }
+
+    // indexes all the blocks (database upgrade)
+    static void indexBlocks(SQLiteDatabase db) {
+        SQLiteStatement insertCell = db.compileStatement(insertCellSql());
+        RideSpatialIndex index = new RideSpatialIndex();
+        PointBlockReader reader = new PointBlockReader();
+        RidePoint point = new RidePoint();
+        Cursor cursor = db.query(RideDatabase.TABLE_BLOCKS,
+                new String[] {RideDatabase.COLUMN_RIDE_ID, RideDatabase.COLUMN_SEQ, RideDatabase.COLUMN_DATA},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                index.clear();
+                if (reader.set(cursor.getBlob(2))) {
+                    while (reader.next(point)) {
+                        index.add(point.getLatitude(), point.getLongitude());
+                    }
+                }
+                index.write(insertCell, cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+            insertCell.close();
+        }
+    }
+
+    /**
+     * Rides with a point within radius metres of a point, and the distance of their nearest point.
+     * Most recent (highest id) first.
+     */
+    static class Result {
+        long[] rideIds = new long[16];
+        double[] distances = new double[16];
+        int size = 0;
+
+        private void add(long rideId, double distance) {
+            if (size > 0 && rideIds[size - 1] == rideId) {
+                distances[size - 1] = Math.min(distances[size - 1], distance);
+                return;
+            }
+            if (size == rideIds.length) {
+                long[] rideIds = new long[2 * size];
+                double[] distances = new double[2 * size];
+                System.arraycopy(this.rideIds, 0, rideIds, 0, size);
+                System.arraycopy(this.distances, 0, distances, 0, size);
+                this.rideIds = rideIds;
+                this.distances = distances;
+            }
+            rideIds[size] = rideId;
+            distances[size] = distance;
+            size++;
+        }
+    }
+
+    static Result query(SQLiteDatabase db, double latitude, double longitude, double radius) {
+        long[] ranges = new long[2 * MAX_QUERY_CELLS];
+        int nbRanges = Geohash.coverRadius(latitude, longitude, radius, CELL_BITS, MAX_QUERY_CELLS, ranges);
+        StringBuilder where = new StringBuilder();
+        String[] args = new String[2 * nbRanges];
+        for (int i = 0; i < nbRanges; i++) {
+            where.append(i == 0 ? "" : " OR ").append("c.").append(RideDatabase.COLUMN_CELL).append(" BETWEEN ? AND ?");
+            args[2 * i] = String.valueOf(ranges[2 * i]);
+            args[2 * i + 1] = String.valueOf(ranges[2 * i + 1]);
+        }
+        // each block once, even if it is in several cells
+        String sql = "SELECT " + RideDatabase.COLUMN_RIDE_ID + ", " + RideDatabase.COLUMN_DATA
+                + " FROM " + RideDatabase.TABLE_BLOCKS + " WHERE rowid IN (SELECT b.rowid FROM "
+                + RideDatabase.TABLE_CELLS + " c, " + RideDatabase.TABLE_BLOCKS + " b WHERE (" + where + ") AND b."
+                + RideDatabase.COLUMN_RIDE_ID + "=c." + RideDatabase.COLUMN_RIDE_ID + " AND b."
+                + RideDatabase.COLUMN_SEQ + "=c." + RideDatabase.COLUMN_SEQ + ") ORDER BY " + RideDatabase.COLUMN_RIDE_ID + " DESC";
+
+        Result result = new Result();
+        LocalProjection projection = new LocalProjection();
+        projection.setOrigin(latitude, longitude);
+        double radius2 = radius * radius;
+        PointBlockReader reader = new PointBlockReader();
+        RidePoint point = new RidePoint();
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                if (!reader.set(cursor.getBlob(1))) {
+                    continue;
+                }
+                double min2 = Double.MAX_VALUE;
+                while (reader.next(point)) {
+                    double x = projection.getX(point.getLatitude(), point.getLongitude());
+                    double y = projection.getY(point.getLatitude(), point.getLongitude());
+                    min2 = Math.min(min2, x * x + y * y);
+                }
+                if (min2 <= radius2) {
+                    result.add(cursor.getLong(0), Math.sqrt(min2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,255 @@
+package com.njackson.rides;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Summary row of a ride: listing the rides only reads these.
+ *
+ * The statistics (bounding box, altitude range, heart rate and cadence, elevation sketch) are
+ * updated with each point while recording (addPoint) and saved as one blob (toStats/readStats).
+ */
+public class RideSummary {
+
+    private long _id = 0;
+    private long _startTime = 0;
+    private long _endTime = 0;
+    private float _distance = 0;
+    private long _elapsedTime = 0;
+    private float _ascent = 0;
+    private float _maxSpeed = 0;
+    private int _nbPoints = 0;
+    private boolean _closed = false;
+
+    // statistics, min > max if no point
+    private double _minLatitude = Double.MAX_VALUE;
+    private double _maxLatitude = -Double.MAX_VALUE;
+    private double _minLongitude = Double.MAX_VALUE;
+    private double _maxLongitude = -Double.MAX_VALUE;
+    private float _minAltitude = Float.MAX_VALUE;
+    private float _maxAltitude = -Float.MAX_VALUE;
+    private int _maxHeartRate = 0;
+    private long _heartRateSum = 0;
+    private int _nbHeartRates = 0;
+    private int _maxCadence = 0;
+    private long _cadenceSum = 0;
+    private int _nbCadences = 0;
+    private final ElevationSketch _elevationSketch = new ElevationSketch();
+
+    static final int STATS_VERSION = 1;
+
+    public long getId() {
+        return _id;
+    }
+
+    public void setId(long id) {
+        _id = id;
+    }
+
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        _startTime = startTime;
+    }
+
+    // time of the last point
+    public long getEndTime() {
+        return _endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        _endTime = endTime;
+    }
+
+    public float getDistance() {
+        return _distance;
+    }
+
+    public void setDistance(float distance) {
+        _distance = distance;
+    }
+
+    public long getElapsedTime() {
+        return _elapsedTime;
+    }
+
+    public void setElapsedTime(long elapsedTime) {
+        _elapsedTime = elapsedTime;
+    }
+
+    public float getAscent() {
+        return _ascent;
+    }
+
+    public void setAscent(float ascent) {
+        _ascent = ascent;
+    }
+
+    public float getMaxSpeed() {
+        return _maxSpeed;
+    }
+
+    public void setMaxSpeed(float maxSpeed) {
+        _maxSpeed = maxSpeed;
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    public void setNbPoints(int nbPoints) {
+        _nbPoints = nbPoints;
+    }
+
+    // false for the ride being recorded
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    public void setClosed(boolean closed) {
+        _closed = closed;
+    }
+
+    // m/s, over the elapsed time
+    public float getAverageSpeed() {
+        return _elapsedTime > 0 ? _distance * 1000 / _elapsedTime : 0;
+    }
+
+    public boolean hasBounds() {
+        return _minLatitude <= _maxLatitude;
+    }
+
+    public double getMinLatitude() {
+        return _minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return _maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return _minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return _maxLongitude;
+    }
+
+    // m, valid if hasBounds()
+    public float getMinAltitude() {
+        return _minAltitude;
+    }
+
+    public float getMaxAltitude() {
+        return _maxAltitude;
+    }
+
+    // bpm, 0 if unknown
+    public int getMaxHeartRate() {
+        return _maxHeartRate;
+    }
+
+    // over the points with a heart rate, 0 if none
+    public int getAverageHeartRate() {
+        return _nbHeartRates > 0 ? Math.round((float) _heartRateSum / _nbHeartRates) : 0;
+    }
+
+    // rpm, 0 if unknown
+    public int getMaxCadence() {
+        return _maxCadence;
+    }
+
+    // over the points with a cadence (stopped pedalling excluded), 0 if none
+    public int getAverageCadence() {
+        return _nbCadences > 0 ? Math.round((float) _cadenceSum / _nbCadences) : 0;
+    }
+
+    public ElevationSketch getElevationSketch() {
+        return _elevationSketch;
+    }
+
+    void addPoint(double latitude, double longitude, double altitude, int heartRate, int cadence) {
+        _minLatitude = Math.min(_minLatitude, latitude);
+        _maxLatitude = Math.max(_maxLatitude, latitude);
+        _minLongitude = Math.min(_minLongitude, longitude);
+        _maxLongitude = Math.max(_maxLongitude, longitude);
+        _minAltitude = Math.min(_minAltitude, (float) altitude);
+        _maxAltitude = Math.max(_maxAltitude, (float) altitude);
+        if (heartRate > 0) {
+            _maxHeartRate = Math.max(_maxHeartRate, heartRate);
+            _heartRateSum += heartRate;
+            _nbHeartRates++;
+        }
+        if (cadence > 0) {
+            _maxCadence = Math.max(_maxCadence, cadence);
+            _cadenceSum += cadence;
+            _nbCadences++;
+        }
+        _elevationSketch.add(altitude);
+    }
+
+    void clearStats() {
+        _minLatitude = Double.MAX_VALUE;
+        _maxLatitude = -Double.MAX_VALUE;
+        _minLongitude = Double.MAX_VALUE;
+        _maxLongitude = -Double.MAX_VALUE;
+        _minAltitude = Float.MAX_VALUE;
+        _maxAltitude = -Float.MAX_VALUE;
+        _maxHeartRate = 0;
+        _heartRateSum = 0;
+        _nbHeartRates = 0;
+        _maxCadence = 0;
+        _cadenceSum = 0;
+        _nbCadences = 0;
+        _elevationSketch.clear();
+    }
+
+    // at most 338 bytes
+    byte[] toStats() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 * 8 + 2 * 4 + 2 * (4 + 8 + 4) + 9 + 4 * ElevationSketch.SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) STATS_VERSION);
+        buffer.putDouble(_minLatitude);
+        buffer.putDouble(_maxLatitude);
+        buffer.putDouble(_minLongitude);
+        buffer.putDouble(_maxLongitude);
+        buffer.putFloat(_minAltitude);
+        buffer.putFloat(_maxAltitude);
+        buffer.putInt(_maxHeartRate);
+        buffer.putLong(_heartRateSum);
+        buffer.putInt(_nbHeartRates);
+        buffer.putInt(_maxCadence);
+        buffer.putLong(_cadenceSum);
+        buffer.putInt(_nbCadences);
+        _elevationSketch.write(buffer);
+        byte[] stats = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, stats, 0, stats.length);
+        return stats;
+    }
+
+    // stats null or unknown version: no statistics
+    void readStats(byte[] stats) {
+        clearStats();
+        if (stats == null || stats.length == 0 || stats[0] != STATS_VERSION) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(stats);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.get();
+        _minLatitude = buffer.getDouble();
+        _maxLatitude = buffer.getDouble();
+        _minLongitude = buffer.getDouble();
+        _maxLongitude = buffer.getDouble();
+        _minAltitude = buffer.getFloat();
+        _maxAltitude = buffer.getFloat();
+        _maxHeartRate = buffer.getInt();
+        _heartRateSum = buffer.getLong();
+        _nbHeartRates = buffer.getInt();
+        _maxCadence = buffer.getInt();
+        _cadenceSum = buffer.getLong();
+        _nbCadences = buffer.getInt();
+        _elevationSketch.read(buffer);
+    }
+}
@@ -0,0 +1,214 @@
+package com.njackson.rides;
+
+import java.util.Arrays;
+
+/**
+ * The fixes of the current ride in memory, one primitive array per value (struct of arrays).
+ *
+ * The arrays are chunks of CHUNK_SIZE values: add() is O(1) and never copies the values, only the
+ * small arrays of chunks are doubled. Latitude and longitude are floats (~0.5 m), heart rate and
+ * cadence shorts.
+ *
+ * Single writer (GPSServiceCommand's processing thread), readers on any thread see the first size()
+ * points: size is volatile and updated after the values. clear() keeps the chunks.
+ */
+public class RideTimeSeries {
+
+    public static final int CHUNK_BITS = 10;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private long[][] _time = new long[8][];
+    private float[][] _latitude = new float[8][];
+    private float[][] _longitude = new float[8][];
+    private float[][] _altitude = new float[8][];
+    private float[][] _speed = new float[8][];
+    private short[][] _heartRate = new short[8][];
+    private short[][] _cadence = new short[8][];
+    private int _nbChunks = 0;
+
+    private volatile int _size = 0;
+
+    // time: ms, increasing
+    public void add(long time, double latitude, double longitude, double altitude, float speed, int heartRate, int cadence) {
+        int i = _size;
+        int chunk = i >>> CHUNK_BITS;
+        if (chunk == _nbChunks) {
+            addChunk();
+        }
+        int j = i & CHUNK_MASK;
+        _time[chunk][j] = time;
+        _latitude[chunk][j] = (float) latitude;
+        _longitude[chunk][j] = (float) longitude;
+        _altitude[chunk][j] = (float) altitude;
+        _speed[chunk][j] = speed;
+        _heartRate[chunk][j] = (short) heartRate;
+        _cadence[chunk][j] = (short) cadence;
+        _size = i + 1;
+    }
+
+    private void addChunk() {
+        if (_nbChunks == _time.length) {
+            int length = 2 * _nbChunks;
+            _time = Arrays.copyOf(_time, length);
+            _latitude = Arrays.copyOf(_latitude, length);
+            _longitude = Arrays.copyOf(_longitude, length);
+            _altitude = Arrays.copyOf(_altitude, length);
+            _speed = Arrays.copyOf(_speed, length);
+            _heartRate = Arrays.copyOf(_heartRate, length);
+            _cadence = Arrays.copyOf(_cadence, length);
+        }
+        _time[_nbChunks] = new long[CHUNK_SIZE];
+        _latitude[_nbChunks] = new float[CHUNK_SIZE];
+        _longitude[_nbChunks] = new float[CHUNK_SIZE];
+        _altitude[_nbChunks] = new float[CHUNK_SIZE];
+        _speed[_nbChunks] = new float[CHUNK_SIZE];
+        _heartRate[_nbChunks] = new short[CHUNK_SIZE];
+        _cadence[_nbChunks] = new short[CHUNK_SIZE];
+        _nbChunks++;
+    }
+
+    // new ride
+    public void clear() {
+        _size = 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public long getTime(int i) {
+        return _time[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    public float getLatitude(int i) {
+        return _latitude[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    public float getLongitude(int i) {
+        return _longitude[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    public float getAltitude(int i) {
+        return _altitude[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    public float getSpeed(int i) {
+        return _speed[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    public int getHeartRate(int i) {
+        return _heartRate[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    public int getCadence(int i) {
+        return _cadence[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    // first point at or after time, size() if none
+    public int indexOf(long time) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // copies the altitudes of [from, to) to out, chunk by chunk
+    public void getAltitudes(int from, int to, float[] out, int offset) {
+        copy(_altitude, from, to, out, offset);
+    }
+
+    public void getSpeeds(int from, int to, float[] out, int offset) {
+        copy(_speed, from, to, out, offset);
+    }
+
+    private static void copy(float[][] chunks, int from, int to, float[] out, int offset) {
+        while (from < to) {
+            int j = from & CHUNK_MASK;
+            int n = Math.min(CHUNK_SIZE - j, to - from);
+            System.arraycopy(chunks[from >>> CHUNK_BITS], j, out, offset, n);
+            from += n;
+            offset += n;
+        }
+    }
+
+    // points [from, to), no copy
+    public Range range(int from, int to) {
+        if (from < 0 || to > _size || from > to) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ") size " + _size);
+        }
+        return new Range(from, to);
+    }
+
+    // points with fromTime <= time < toTime
+    public Range timeRange(long fromTime, long toTime) {
+        int from = indexOf(fromTime);
+        return new Range(from, Math.max(from, indexOf(toTime)));
+    }
+
+    /**
+     * Consecutive points of the series, indexed from 0.
+     */
+    public class Range {
+
+        private final int _from;
+        private final int _to;
+
+        private Range(int from, int to) {
+            _from = from;
+            _to = to;
+        }
+
+        public int size() {
+            return _to - _from;
+        }
+
+        // index in the series
+        public int getFrom() {
+            return _from;
+        }
+
+        public long getTime(int i) {
+            return RideTimeSeries.this.getTime(_from + i);
+        }
+
+        public float getLatitude(int i) {
+            return RideTimeSeries.this.getLatitude(_from + i);
+        }
+
+        public float getLongitude(int i) {
+            return RideTimeSeries.this.getLongitude(_from + i);
+        }
+
+        public float getAltitude(int i) {
+            return RideTimeSeries.this.getAltitude(_from + i);
+        }
+
+        public float getSpeed(int i) {
+            return RideTimeSeries.this.getSpeed(_from + i);
+        }
+
+        public int getHeartRate(int i) {
+            return RideTimeSeries.this.getHeartRate(_from + i);
+        }
+
+        public int getCadence(int i) {
+            return RideTimeSeries.this.getCadence(_from + i);
+        }
+
+        public void getAltitudes(float[] out, int offset) {
+            RideTimeSeries.this.getAltitudes(_from, _to, out, offset);
+        }
+
+        public void getSpeeds(float[] out, int offset) {
+            RideTimeSeries.this.getSpeeds(_from, _to, out, offset);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.njackson.segments;
+
+import java.util.List;
+
+/**
+ * Segments and their efforts (the times they were ridden).
+ */
+public interface ISegmentRepository {
+
+    // the track is simplified before it is stored; returns the id, -1 if the track is too short
+    long addSegment(String name, double[] latitudes, double[] longitudes);
+
+    List<Segment> getSegments();
+
+    void deleteSegment(long segmentId);
+
+    // returns true if it is a new best time (PR) of the segment; an effort already recorded is ignored
+    boolean addEffort(long segmentId, long rideId, long startTime, long elapsedTime);
+
+    // elapsed times (ms), fastest first
+    long[] getEffortTimes(long segmentId);
+}
@@ -0,0 +1,59 @@
+package com.njackson.segments;
+
+/**
+ * Timed segment (climb, sprint): a simplified polyline, ridden from its first point (start gate)
+ * to its last point (end gate).
+ */
+public class Segment {
+
+    private final long _id;
+    private final String _name;
+    private final double[] _latitudes;
+    private final double[] _longitudes;
+    private final float _length;
+    private long _bestTime;
+
+    // bestTime: ms, 0 if never ridden
+    public Segment(long id, String name, double[] latitudes, double[] longitudes, float length, long bestTime) {
+        _id = id;
+        _name = name;
+        _latitudes = latitudes;
+        _longitudes = longitudes;
+        _length = length;
+        _bestTime = bestTime;
+    }
+
+    public long getId() {
+        return _id;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public int getNbPoints() {
+        return _latitudes.length;
+    }
+
+    public double getLatitude(int i) {
+        return _latitudes[i];
+    }
+
+    public double getLongitude(int i) {
+        return _longitudes[i];
+    }
+
+    // m, along the polyline
+    public float getLength() {
+        return _length;
+    }
+
+    // ms, 0 if never ridden
+    public long getBestTime() {
+        return _bestTime;
+    }
+
+    public void setBestTime(long bestTime) {
+        _bestTime = bestTime;
+    }
+}
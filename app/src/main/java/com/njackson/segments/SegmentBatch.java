@@ -0,0 +1,109 @@
+package com.njackson.segments;
+
+import android.util.Log;
+
+import com.njackson.rides.IRideRepository;
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches the stored rides against the segments (new segment, rides recorded before it). Only the
+ * rides passing through the start and the end of a segment are read (geohash index of the rides).
+ */
+public class SegmentBatch implements SegmentMatcher.IEffortListener {
+
+    private static final String TAG = "PB-SegmentBatch";
+
+    private final ISegmentRepository _segmentRepository;
+    private long _rideId;
+    private int _nbEfforts = 0;
+
+    private SegmentBatch(ISegmentRepository segmentRepository) {
+        _segmentRepository = segmentRepository;
+    }
+
+    @Override
+    public void onEffort(Segment segment, long startTime, long elapsedTime) {
+        if (_segmentRepository.addEffort(segment.getId(), _rideId, startTime, elapsedTime)) {
+            segment.setBestTime(elapsedTime);
+        }
+        _nbEfforts++;
+    }
+
+    // new segment along a stored ride, start to end; returns its id, -1 if the ride is too short.
+    // Long: call from a background thread, then rematch() for the efforts of the stored rides
+    public static long createFromRide(ISegmentRepository segmentRepository, IRideRepository rideRepository, long rideId, String name) {
+        RidePointIterator points = rideRepository.getPoints(rideId);
+        double[] latitudes = new double[Math.max(points.getNbPoints(), 2)];
+        double[] longitudes = new double[latitudes.length];
+        RidePoint point = new RidePoint();
+        int n = 0;
+        while (points.next(point)) {
+            if (n == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, 2 * n);
+                longitudes = Arrays.copyOf(longitudes, 2 * n);
+            }
+            latitudes[n] = point.getLatitude();
+            longitudes[n] = point.getLongitude();
+            n++;
+        }
+        if (n < 2) {
+            return -1;
+        }
+        return segmentRepository.addSegment(name, Arrays.copyOf(latitudes, n), Arrays.copyOf(longitudes, n));
+    }
+
+    // returns the number of efforts found (already recorded ones included), long: call from a background thread
+    public static int rematch(ISegmentRepository segmentRepository, IRideRepository rideRepository) {
+        long start = System.currentTimeMillis();
+        List<Segment> segments = segmentRepository.getSegments();
+        long[] rideIds = new long[0];
+        for (Segment segment : segments) {
+            int last = segment.getNbPoints() - 1;
+            long[] starts = rideRepository.findRides(segment.getLatitude(0), segment.getLongitude(0), SegmentMatcher.GATE_RADIUS);
+            long[] ends = rideRepository.findRides(segment.getLatitude(last), segment.getLongitude(last), SegmentMatcher.GATE_RADIUS);
+            rideIds = union(rideIds, intersection(starts, ends));
+        }
+
+        SegmentBatch batch = new SegmentBatch(segmentRepository);
+        SegmentMatcher matcher = new SegmentMatcher(segments, batch);
+        for (long rideId : rideIds) {
+            batch._rideId = rideId;
+            matcher.matchRide(rideRepository.getPoints(rideId));
+        }
+        Log.d(TAG, "rematch: " + segments.size() + " segments, " + rideIds.length + " rides, " + batch._nbEfforts
+                + " efforts in " + (System.currentTimeMillis() - start) + "ms");
+        return batch._nbEfforts;
+    }
+
+    private static long[] intersection(long[] a, long[] b) {
+        long[] sorted = b.clone();
+        Arrays.sort(sorted);
+        long[] result = new long[a.length];
+        int n = 0;
+        for (long id : a) {
+            if (Arrays.binarySearch(sorted, id) >= 0) {
+                result[n++] = id;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // sorted, without duplicates
+    private static long[] union(long[] a, long[] b) {
+        long[] all = new long[a.length + b.length];
+        System.arraycopy(a, 0, all, 0, a.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        Arrays.sort(all);
+        int n = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (n == 0 || all[n - 1] != all[i]) {
+                all[n++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, n);
+    }
+}
@@ -0,0 +1,60 @@
+package com.njackson.segments;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * segments: the polylines (int 1e-7 degrees latitude, longitude pairs, little endian) and best times
+ * efforts: one row per time a segment was ridden, ride_id is a RideDatabase ride
+ */
+public class SegmentDatabase extends SQLiteOpenHelper {
+
+    private static final String TAG = "PB-SegmentDatabase";
+
+    public static final String DATABASE_NAME = "segments.db";
+    static final int DATABASE_VERSION = 1;
+
+    static final String TABLE_SEGMENTS = "segments";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_POINTS = "points";
+    static final String COLUMN_LENGTH = "length";
+    static final String COLUMN_BEST_TIME = "best_time";
+
+    static final String TABLE_EFFORTS = "efforts";
+    static final String COLUMN_SEGMENT_ID = "segment_id";
+    static final String COLUMN_RIDE_ID = "ride_id";
+    static final String COLUMN_START_TIME = "start_time";
+    static final String COLUMN_ELAPSED_TIME = "elapsed_time";
+
+    public SegmentDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    public SegmentDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SEGMENTS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_NAME + " TEXT NOT NULL, "
+                + COLUMN_POINTS + " BLOB NOT NULL, "
+                + COLUMN_LENGTH + " REAL NOT NULL, "
+                + COLUMN_BEST_TIME + " INTEGER NOT NULL DEFAULT 0)");
+
+        // an effort is recorded once even if the ride is matched again
+        db.execSQL("CREATE TABLE " + TABLE_EFFORTS + " ("
+                + COLUMN_SEGMENT_ID + " INTEGER NOT NULL, "
+                + COLUMN_RIDE_ID + " INTEGER NOT NULL, "
+                + COLUMN_START_TIME + " INTEGER NOT NULL, "
+                + COLUMN_ELAPSED_TIME + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_SEGMENT_ID + ", " + COLUMN_START_TIME + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+}
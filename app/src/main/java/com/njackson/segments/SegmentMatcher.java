@@ -0,0 +1,219 @@
+package com.njackson.segments;
+
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.utils.geo.Geohash;
+import com.njackson.utils.geo.LocalProjection;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches fixes against the segments, live or on a stored ride (matchRide).
+ *
+ * The start gates are in a grid (geohash cells of CELL_BITS, an open addressing table of cells to
+ * segment postings): a fix only looks at the segments starting in its cell, one table lookup
+ * whatever the number of segments. A fix in a start gate (re)starts an attempt, the attempt
+ * follows the polyline edge by edge while the fixes stay within CORRIDOR metres of one of the next
+ * LOOKAHEAD edges, and is an effort when it reaches the end gate from the last edges.
+ *
+ * The polylines are projected once, in metres from their first point. Not thread safe.
+ */
+public class SegmentMatcher {
+
+    private static final String TAG = "PB-SegmentMatcher";
+
+    public interface IEffortListener {
+        // startTime: last fix in the start gate, elapsedTime: to the first fix in the end gate (ms)
+        void onEffort(Segment segment, long startTime, long elapsedTime);
+    }
+
+    static final double GATE_RADIUS = 25; // m
+    static final double CORRIDOR = 40; // m
+    static final int LOOKAHEAD = 8; // edges
+    // ~75 x 100 m
+    static final int CELL_BITS = 36;
+
+    private final IEffortListener _listener;
+    private final Segment[] _segments;
+    private final LocalProjection[] _projections;
+    private final double[][] _x;
+    private final double[][] _y;
+    // m along the polyline, from each point to the end
+    private final double[][] _remaining;
+
+    // grid: cell -> first posting, postings linked by _postingNext
+    private final long[] _cells;
+    private final int[] _cellFirst;
+    private int[] _postingSegment = new int[16];
+    private int[] _postingNext = new int[16];
+    private int _nbPostings = 0;
+
+    // attempts
+    private final boolean[] _active;
+    private final long[] _startTime;
+    private final int[] _progress;
+    private final int[] _activeList;
+    private int _nbActive = 0;
+
+    public SegmentMatcher(List<Segment> segments, IEffortListener listener) {
+        _listener = listener;
+        int n = segments.size();
+        _segments = segments.toArray(new Segment[n]);
+        _projections = new LocalProjection[n];
+        _x = new double[n][];
+        _y = new double[n][];
+        _remaining = new double[n][];
+        _active = new boolean[n];
+        _startTime = new long[n];
+        _progress = new int[n];
+        _activeList = new int[n];
+
+        int capacity = 16;
+        while (capacity < 8 * n) {
+            capacity *= 2;
+        }
+        _cells = new long[capacity];
+        _cellFirst = new int[capacity];
+        Arrays.fill(_cells, -1);
+
+        long[] cells = new long[16];
+        for (int s = 0; s < n; s++) {
+            Segment segment = _segments[s];
+            LocalProjection projection = new LocalProjection();
+            projection.setOrigin(segment.getLatitude(0), segment.getLongitude(0));
+            _projections[s] = projection;
+            _x[s] = new double[segment.getNbPoints()];
+            _y[s] = new double[segment.getNbPoints()];
+            for (int i = 0; i < segment.getNbPoints(); i++) {
+                _x[s][i] = projection.getX(segment.getLatitude(i), segment.getLongitude(i));
+                _y[s][i] = projection.getY(segment.getLatitude(i), segment.getLongitude(i));
+            }
+            _remaining[s] = new double[segment.getNbPoints()];
+            for (int i = segment.getNbPoints() - 2; i >= 0; i--) {
+                _remaining[s][i] = _remaining[s][i + 1] + Math.hypot(_x[s][i + 1] - _x[s][i], _y[s][i + 1] - _y[s][i]);
+            }
+
+            // cells of the start gate
+            double dLat = projection.getLatitude(0, GATE_RADIUS) - segment.getLatitude(0);
+            double dLon = projection.getLongitude(GATE_RADIUS, 0) - segment.getLongitude(0);
+            int nbCells = Geohash.cover(segment.getLatitude(0) - dLat, segment.getLatitude(0) + dLat,
+                    segment.getLongitude(0) - dLon, segment.getLongitude(0) + dLon, CELL_BITS, cells);
+            for (int c = 0; c < nbCells; c++) {
+                addPosting(cells[c], s);
+            }
+        }
+    }
+
+    public int getNbActive() {
+        return _nbActive;
+    }
+
+    public void onLocation(long time, double latitude, double longitude) {
+        int n = 0;
+        for (int k = 0; k < _nbActive; k++) {
+            int s = _activeList[k];
+            if (advance(s, time, latitude, longitude)) {
+                _activeList[n++] = s;
+            } else {
+                _active[s] = false;
+            }
+        }
+        _nbActive = n;
+
+        int slot = find(Geohash.encode(latitude, longitude, CELL_BITS));
+        if (_cells[slot] < 0) {
+            return;
+        }
+        for (int p = _cellFirst[slot]; p >= 0; p = _postingNext[p]) {
+            int s = _postingSegment[p];
+            double x = _projections[s].getX(latitude, longitude);
+            double y = _projections[s].getY(latitude, longitude);
+            if (x * x + y * y <= GATE_RADIUS * GATE_RADIUS) {
+                // the last fix in the start gate
+                _startTime[s] = time;
+                _progress[s] = 0;
+                if (!_active[s]) {
+                    _active[s] = true;
+                    _activeList[_nbActive++] = s;
+                }
+            }
+        }
+    }
+
+    // drops the attempts (new ride)
+    public void reset() {
+        for (int k = 0; k < _nbActive; k++) {
+            _active[_activeList[k]] = false;
+        }
+        _nbActive = 0;
+    }
+
+    // batch mode: the efforts of a stored ride
+    public void matchRide(RidePointIterator points) {
+        reset();
+        RidePoint point = new RidePoint();
+        while (points.next(point)) {
+            onLocation(point.getTime(), point.getLatitude(), point.getLongitude());
+        }
+        reset();
+    }
+
+    // false if the attempt is over (off the segment, or effort)
+    private boolean advance(int s, long time, double latitude, double longitude) {
+        double x = _projections[s].getX(latitude, longitude);
+        double y = _projections[s].getY(latitude, longitude);
+        double[] xs = _x[s];
+        double[] ys = _y[s];
+        int lastEdge = xs.length - 2;
+        // the first edge in the corridor: the attempt cannot skip a part of the segment
+        for (int e = _progress[s]; e <= Math.min(_progress[s] + LOOKAHEAD, lastEdge); e++) {
+            double dx = xs[e + 1] - xs[e];
+            double dy = ys[e + 1] - ys[e];
+            double length2 = dx * dx + dy * dy;
+            double t = length2 > 0 ? ((x - xs[e]) * dx + (y - ys[e]) * dy) / length2 : 0;
+            t = Math.max(0, Math.min(1, t));
+            double ex = x - xs[e] - t * dx;
+            double ey = y - ys[e] - t * dy;
+            if (ex * ex + ey * ey > CORRIDOR * CORRIDOR) {
+                continue;
+            }
+            _progress[s] = e;
+            double endX = x - xs[lastEdge + 1];
+            double endY = y - ys[lastEdge + 1];
+            double remaining = _remaining[s][e + 1] + (1 - t) * Math.sqrt(length2);
+            if (endX * endX + endY * endY <= GATE_RADIUS * GATE_RADIUS && remaining <= 2 * GATE_RADIUS) {
+                _listener.onEffort(_segments[s], _startTime[s], time - _startTime[s]);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // slot of cell, or the empty slot where it would be
+    private int find(long cell) {
+        int mask = _cells.length - 1;
+        int slot = (int) (cell ^ (cell >>> 29)) * 0x9E3779B9 & mask;
+        while (_cells[slot] >= 0 && _cells[slot] != cell) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void addPosting(long cell, int segment) {
+        int slot = find(cell);
+        if (_cells[slot] < 0) {
+            _cells[slot] = cell;
+            _cellFirst[slot] = -1;
+        }
+        if (_nbPostings == _postingSegment.length) {
+            _postingSegment = Arrays.copyOf(_postingSegment, 2 * _nbPostings);
+            _postingNext = Arrays.copyOf(_postingNext, 2 * _nbPostings);
+        }
+        _postingSegment[_nbPostings] = segment;
+        _postingNext[_nbPostings] = _cellFirst[slot];
+        _cellFirst[slot] = _nbPostings;
+        _nbPostings++;
+    }
+}
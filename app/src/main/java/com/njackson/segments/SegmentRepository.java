@@ -0,0 +1,161 @@
+package com.njackson.segments;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.njackson.rides.RidePoint;
+import com.njackson.utils.export.TrackDistance;
+import com.njackson.utils.geo.TrackSimplifier;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite segments (see SegmentDatabase). Methods writing efforts are synchronized: live efforts
+ * come from the main thread, batch matching from a background thread.
+ */
+public class SegmentRepository implements ISegmentRepository {
+
+    private static final String TAG = "PB-SegmentRepository";
+
+    // m, the matcher corridor is much wider
+    static final double SIMPLIFY_TOLERANCE = 5;
+    static final double COORDINATE_SCALE = 1e7;
+
+    private final SQLiteOpenHelper _helper;
+
+    public SegmentRepository(SQLiteOpenHelper helper) {
+        _helper = helper;
+    }
+
+    @Override
+    public long addSegment(String name, double[] latitudes, double[] longitudes) {
+        if (latitudes.length < 2) {
+            return -1;
+        }
+        TrackSimplifier simplifier = new TrackSimplifier(SIMPLIFY_TOLERANCE);
+        TrackDistance distance = new TrackDistance();
+        ByteBuffer points = ByteBuffer.allocate(8 * latitudes.length);
+        points.order(ByteOrder.LITTLE_ENDIAN);
+        RidePoint point = new RidePoint();
+        RidePoint kept = new RidePoint();
+        for (int i = 0; i <= latitudes.length; i++) {
+            boolean keep;
+            if (i < latitudes.length) {
+                point.set(0, latitudes[i], longitudes[i], 0, 0, 0, 0);
+                keep = simplifier.add(point, kept);
+            } else {
+                keep = simplifier.finish(kept);
+            }
+            if (keep) {
+                points.putInt((int) Math.round(kept.getLatitude() * COORDINATE_SCALE));
+                points.putInt((int) Math.round(kept.getLongitude() * COORDINATE_SCALE));
+            }
+            if (i < latitudes.length) {
+                distance.add(latitudes[i], longitudes[i]);
+            }
+        }
+        byte[] blob = new byte[points.position()];
+        System.arraycopy(points.array(), 0, blob, 0, blob.length);
+
+        ContentValues values = new ContentValues();
+        values.put(SegmentDatabase.COLUMN_NAME, name);
+        values.put(SegmentDatabase.COLUMN_POINTS, blob);
+        values.put(SegmentDatabase.COLUMN_LENGTH, distance.getDistance());
+        long id = _helper.getWritableDatabase().insert(SegmentDatabase.TABLE_SEGMENTS, null, values);
+        Log.d(TAG, "addSegment " + name + ": " + latitudes.length + " points -> " + (blob.length / 8));
+        return id;
+    }
+
+    @Override
+    public List<Segment> getSegments() {
+        List<Segment> segments = new ArrayList<Segment>();
+        Cursor cursor = _helper.getReadableDatabase().query(SegmentDatabase.TABLE_SEGMENTS,
+                new String[] {SegmentDatabase.COLUMN_ID, SegmentDatabase.COLUMN_NAME, SegmentDatabase.COLUMN_POINTS,
+                        SegmentDatabase.COLUMN_LENGTH, SegmentDatabase.COLUMN_BEST_TIME},
+                null, null, null, null, SegmentDatabase.COLUMN_ID);
+        try {
+            while (cursor.moveToNext()) {
+                ByteBuffer points = ByteBuffer.wrap(cursor.getBlob(2));
+                points.order(ByteOrder.LITTLE_ENDIAN);
+                int n = points.remaining() / 8;
+                double[] latitudes = new double[n];
+                double[] longitudes = new double[n];
+                for (int i = 0; i < n; i++) {
+                    latitudes[i] = points.getInt() / COORDINATE_SCALE;
+                    longitudes[i] = points.getInt() / COORDINATE_SCALE;
+                }
+                segments.add(new Segment(cursor.getLong(0), cursor.getString(1), latitudes, longitudes,
+                        cursor.getFloat(3), cursor.getLong(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return segments;
+    }
+
+    @Override
+    public synchronized void deleteSegment(long segmentId) {
+        SQLiteDatabase db = _helper.getWritableDatabase();
+        String[] args = {String.valueOf(segmentId)};
+        db.beginTransaction();
+        try {
+            db.delete(SegmentDatabase.TABLE_EFFORTS, SegmentDatabase.COLUMN_SEGMENT_ID + "=?", args);
+            db.delete(SegmentDatabase.TABLE_SEGMENTS, SegmentDatabase.COLUMN_ID + "=?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized boolean addEffort(long segmentId, long rideId, long startTime, long elapsedTime) {
+        SQLiteDatabase db = _helper.getWritableDatabase();
+        Cursor cursor = db.query(SegmentDatabase.TABLE_EFFORTS, new String[] {SegmentDatabase.COLUMN_RIDE_ID},
+                SegmentDatabase.COLUMN_SEGMENT_ID + "=? AND " + SegmentDatabase.COLUMN_START_TIME + "=?",
+                new String[] {String.valueOf(segmentId), String.valueOf(startTime)}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                // already recorded (ride matched again)
+                return false;
+            }
+        } finally {
+            cursor.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(SegmentDatabase.COLUMN_SEGMENT_ID, segmentId);
+        values.put(SegmentDatabase.COLUMN_RIDE_ID, rideId);
+        values.put(SegmentDatabase.COLUMN_START_TIME, startTime);
+        values.put(SegmentDatabase.COLUMN_ELAPSED_TIME, elapsedTime);
+        if (db.insert(SegmentDatabase.TABLE_EFFORTS, null, values) < 0) {
+            return false;
+        }
+        values = new ContentValues();
+        values.put(SegmentDatabase.COLUMN_BEST_TIME, elapsedTime);
+        int updated = db.update(SegmentDatabase.TABLE_SEGMENTS, values, SegmentDatabase.COLUMN_ID + "=? AND ("
+                + SegmentDatabase.COLUMN_BEST_TIME + "=0 OR " + SegmentDatabase.COLUMN_BEST_TIME + ">?)",
+                new String[] {String.valueOf(segmentId), String.valueOf(elapsedTime)});
+        return updated > 0;
+    }
+
+    @Override
+    public long[] getEffortTimes(long segmentId) {
+        Cursor cursor = _helper.getReadableDatabase().query(SegmentDatabase.TABLE_EFFORTS,
+                new String[] {SegmentDatabase.COLUMN_ELAPSED_TIME}, SegmentDatabase.COLUMN_SEGMENT_ID + "=?",
+                new String[] {String.valueOf(segmentId)}, null, null, SegmentDatabase.COLUMN_ELAPSED_TIME);
+        try {
+            long[] times = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                times[i] = cursor.getLong(0);
+            }
+            return times;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.njackson.segments;
+
+import android.util.Log;
+
+import com.njackson.application.IInjectionContainer;
+import com.njackson.events.GPSServiceCommand.NewLocation;
+import com.njackson.events.GPSServiceCommand.ResetGPSState;
+import com.njackson.events.SegmentServiceCommand.SegmentEffort;
+import com.njackson.events.SegmentServiceCommand.SegmentsChanged;
+import com.njackson.events.base.BaseStatus;
+import com.njackson.rides.IRideRepository;
+import com.njackson.service.IServiceCommand;
+import com.squareup.otto.Bus;
+import com.squareup.otto.Subscribe;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+
+/**
+ * Live segment matching: subscribes to the NewLocation events, so the matching runs after
+ * GPSServiceCommand has broadcast the fix, never on its processing thread.
+ * The segments are loaded, matched and the efforts saved on a single background thread:
+ * no SQLite access on the main thread.
+ */
+public class SegmentServiceCommand implements IServiceCommand, SegmentMatcher.IEffortListener {
+
+    private final String TAG = "PB-SegmentServiceCommand";
+
+    @Inject Bus _bus;
+    @Inject ISegmentRepository _segmentRepository;
+    @Inject IRideRepository _rideRepository;
+
+    // only used on _executor
+    private SegmentMatcher _matcher = null;
+    private ExecutorService _executor = null;
+    private BaseStatus.Status _currentStatus = BaseStatus.Status.NOT_INITIALIZED;
+
+    @Subscribe
+    public void onNewLocationEvent(NewLocation newLocation) {
+        if (newLocation.getTime() > 0) {
+            // the event is pooled: copy the fix before leaving the main thread
+            final long time = newLocation.getTime();
+            final double latitude = newLocation.getLatitude();
+            final double longitude = newLocation.getLongitude();
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    _matcher.onLocation(time, latitude, longitude);
+                }
+            });
+        }
+    }
+
+    @Subscribe
+    public void onResetGPSStateEvent(ResetGPSState event) {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                _matcher.reset();
+            }
+        });
+    }
+
+    @Subscribe
+    public void onSegmentsChangedEvent(SegmentsChanged event) {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the attempts in progress are dropped, a segment added mid-ride is matched from its next start
+                _matcher = new SegmentMatcher(_segmentRepository.getSegments(), SegmentServiceCommand.this);
+            }
+        });
+    }
+
+    // on _executor, from the matcher
+    @Override
+    public void onEffort(Segment segment, long startTime, long elapsedTime) {
+        boolean best = _segmentRepository.addEffort(segment.getId(), _rideRepository.getCurrentRideId(), startTime, elapsedTime);
+        if (best) {
+            segment.setBestTime(elapsedTime);
+        }
+        Log.d(TAG, "onEffort " + segment.getName() + " " + elapsedTime + "ms" + (best ? " PR" : ""));
+        _bus.post(new SegmentEffort(segment.getId(), segment.getName(), elapsedTime, best));
+    }
+
+    @Override
+    public void execute(IInjectionContainer container) {
+        container.inject(this);
+        if (_executor == null) {
+            _executor = Executors.newSingleThreadExecutor();
+            // created once, so an effort in progress survives a new execute(),
+            // and queued before any location
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    _matcher = new SegmentMatcher(_segmentRepository.getSegments(), SegmentServiceCommand.this);
+                }
+            });
+        }
+        _bus.register(this);
+        _currentStatus = BaseStatus.Status.INITIALIZED;
+    }
+
+    @Override
+    public void dispose() {
+        _bus.unregister(this);
+        if (_executor != null) {
+            _executor.shutdown();
+            _executor = null;
+        }
+    }
+
+    @Override
+    public BaseStatus.Status getStatus() {
+        return _currentStatus;
+    }
+}
@@ -7,15 +7,68 @@ import android.util.Log;
 import com.njackson.Constants;
 import com.njackson.R;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by njackson on 30/01/15.
+ *
+ * Without executor, commit() writes all the values synchronously.
+ * With an executor (write-behind), setters track the values that changed and commit() only
+ * schedules a write of these values on the executor; commits requested before the write starts
+ * are coalesced. flushSync() waits for the pending writes.
+ *
+ * The values are set on the GPS processing thread and read on the main thread: getters and setters
+ * are synchronized (no torn long values on 32 bit devices).
+ *
+ * With a snapshot file, the ride state is read from and written to the snapshot (see StateSnapshot)
+ * and the preferences only keep the settings. The first start with a snapshot reads the values of
+ * the preferences and removes them once the snapshot is written.
+ * The units stay in the preferences: they are a setting, written by the settings screen. So do the
+ * texts of the speed fragment, read there by SpeedFragment.
  */
 public class GPSDataStore implements IGPSDataStore {
 
     private static final String TAG = "PB-GPSDataStore";
 
+    private static final int DIRTY_UNITS = 1;
+    private static final int DIRTY_START_TIME = 1 << 1;
+    private static final int DIRTY_DISTANCE = 1 << 2;
+    private static final int DIRTY_ELAPSED_TIME = 1 << 3;
+    private static final int DIRTY_ASCENT = 1 << 4;
+    private static final int DIRTY_NB_ASCENT = 1 << 5;
+    private static final int DIRTY_MAX_SPEED = 1 << 6;
+    private static final int DIRTY_ALTITUDE_CALIBRATION = 1 << 7;
+    private static final int DIRTY_GEOID = 1 << 8;
+    private static final int DIRTY_LATTITUDE = 1 << 9;
+    private static final int DIRTY_LONGITUDE = 1 << 10;
+    private static final int DIRTY_ALL = ~0;
+
+    // ride state keys of the preferences, before the snapshot
+    private static final String[] STATE_KEYS = {"GPS_LAST_START", "GPS_DISTANCE", "GPS_ELAPSEDTIME", "GPS_ASCENT",
+            "GPS_NB_ASCENT", "GPS_MAX_SPEED", "ALTITUDE_CALIBRATION_DELTA", "ALTITUDE_CALIBRATION_DELTA_TIME",
+            "GEOID_HEIGHT", "GPS_FIRST_LOCATION_LAT", "GPS_FIRST_LOCATION_LON"};
+
+    private static final long FLUSH_TIMEOUT = 5000; // ms
+
     SharedPreferences _sharedPreferences;
     Context _context;
+    private ExecutorService _executor = null;
+    private File _snapshotFile = null;
+    private final StateSnapshot _snapshot = new StateSnapshot();
+    private boolean _removeStateKeys = false;
+
+    private int _dirty = 0;
+    private boolean _writeScheduled = false;
+    private final Runnable _writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writeDirtyValues();
+        }
+    };
 
     long _startTime = 0;
     long _prevStartTime = 0;
@@ -33,14 +86,26 @@ public class GPSDataStore implements IGPSDataStore {
 
 
     public GPSDataStore(SharedPreferences preferences, Context context) {
+        this(preferences, context, null, null);
+    }
+
+    // write-behind: values are written on the executor (single thread)
+    public GPSDataStore(SharedPreferences preferences, Context context, ExecutorService executor) {
+        this(preferences, context, executor, null);
+    }
+
+    // ride state in snapshotFile instead of the preferences, executor can be null
+    public GPSDataStore(SharedPreferences preferences, Context context, ExecutorService executor, File snapshotFile) {
 
         _sharedPreferences = preferences;
         _context = context;
+        _executor = executor;
+        _snapshotFile = snapshotFile;
         loadSavedData();
 
     }
 
-    public void reloadPreferencesFromSettings() {
+    public synchronized void reloadPreferencesFromSettings() {
         try {
             _units = Integer.valueOf(_sharedPreferences.getString("UNITS_OF_MEASURE", "" + Constants.METRIC));
         } catch (Exception ex) {
@@ -50,6 +115,26 @@ public class GPSDataStore implements IGPSDataStore {
     private void loadSavedData() {
         reloadPreferencesFromSettings();
 
+        if (_snapshotFile != null) {
+            if (_snapshot.read(_snapshotFile)) {
+                _startTime = _snapshot._startTime;
+                _distance = _snapshot._distance;
+                _elapsedTime = _snapshot._elapsedTime;
+                _ascent = _snapshot._ascent;
+                _nbascent = _snapshot._nbAscent;
+                _maxSpeed = _snapshot._maxSpeed;
+                _altitudeCalibrationDelta = _snapshot._altitudeCalibrationDelta;
+                _altitudeCalibrationDeltaTime = _snapshot._altitudeCalibrationDeltaTime;
+                _geoid = _snapshot._geoid;
+                _lattitude = _snapshot._latitude;
+                _longitude = _snapshot._longitude;
+                return;
+            }
+            // no snapshot yet: values of the preferences, moved to the snapshot at the next commit
+            _removeStateKeys = true;
+            _dirty = DIRTY_ALL;
+        }
+
         _startTime = _sharedPreferences.getLong("GPS_LAST_START",0);
         _distance = _sharedPreferences.getFloat("GPS_DISTANCE", 0);
         _elapsedTime = _sharedPreferences.getLong("GPS_ELAPSEDTIME",0);
@@ -64,82 +149,101 @@ public class GPSDataStore implements IGPSDataStore {
     }
 
     @Override
-    public int getMeasurementUnits() {
+    public synchronized int getMeasurementUnits() {
         return _units;
     }
 
     @Override
-    public void setMeasurementUnits(int value) {
-        _units = value;
+    public synchronized void setMeasurementUnits(int value) {
+        if (value != _units) {
+            _units = value;
+            _dirty |= DIRTY_UNITS;
+        }
     }
 
     @Override
-    public long getStartTime() {
+    public synchronized long getStartTime() {
         return _startTime;
     }
     @Override
-    public long getPrevStartTime() {
+    public synchronized long getPrevStartTime() {
         return _prevStartTime;
     }
 
     @Override
-    public void setStartTime(long value) {
+    public synchronized void setStartTime(long value) {
         _prevStartTime = _startTime;
         _startTime = value;
+        _dirty |= DIRTY_START_TIME;
     }
 
     @Override
-    public float getDistance() {
+    public synchronized float getDistance() {
         return _distance;
     }
 
     @Override
-    public void setDistance(float value) {
-        _distance = value;
+    public synchronized void setDistance(float value) {
+        if (value != _distance) {
+            _distance = value;
+            _dirty |= DIRTY_DISTANCE;
+        }
     }
 
     @Override
-    public long getElapsedTime() {
+    public synchronized long getElapsedTime() {
         return _elapsedTime;
     }
 
     @Override
-    public void setElapsedTime(long value) {
-        _elapsedTime = value;
+    public synchronized void setElapsedTime(long value) {
+        if (value != _elapsedTime) {
+            _elapsedTime = value;
+            _dirty |= DIRTY_ELAPSED_TIME;
+        }
     }
 
     @Override
-    public float getAscent() {
+    public synchronized float getAscent() {
         return _ascent;
     }
 
     @Override
-    public void setAscent(float value) {
-        _ascent = value;
+    public synchronized void setAscent(float value) {
+        if (value != _ascent) {
+            _ascent = value;
+            _dirty |= DIRTY_ASCENT;
+        }
     }
 
     @Override
-    public int getNbAscent() {
+    public synchronized int getNbAscent() {
         return _nbascent;
     }
 
     @Override
-    public void setNbAscent(int value) {
-        _nbascent = value;
+    public synchronized void setNbAscent(int value) {
+        if (value != _nbascent) {
+            _nbascent = value;
+            _dirty |= DIRTY_NB_ASCENT;
+        }
     }
 
     @Override
-    public float getMaxSpeed() {
+    public synchronized float getMaxSpeed() {
         return _maxSpeed;
     }
 
     @Override
-    public void setMaxSpeed(float value) {
-        _maxSpeed = value;
+    public synchronized void setMaxSpeed(float value) {
+        if (value != _maxSpeed) {
+            _maxSpeed = value;
+            _dirty |= DIRTY_MAX_SPEED;
+        }
     }
 
     @Override
-    public float getAltitudeCalibrationDelta(long time) {
+    public synchronized float getAltitudeCalibrationDelta(long time) {
         if (time - _altitudeCalibrationDeltaTime < 1000 * 3600) {
             // last saved value is not older than X seconds
             return _altitudeCalibrationDelta;
@@ -149,50 +253,60 @@ public class GPSDataStore implements IGPSDataStore {
     }
 
     @Override
-    public void setAltitudeCalibrationDelta(float value, long time)
+    public synchronized void setAltitudeCalibrationDelta(float value, long time)
     {
         _altitudeCalibrationDelta = value;
         _altitudeCalibrationDeltaTime = time;
+        _dirty |= DIRTY_ALTITUDE_CALIBRATION;
     }
 
     @Override
-    public float getGEOIDHeight() {
+    public synchronized float getGEOIDHeight() {
         return _geoid;
     }
 
     @Override
-    public void setGEOIDHeight(float value) {
-        _geoid = value;
+    public synchronized void setGEOIDHeight(float value) {
+        if (value != _geoid) {
+            _geoid = value;
+            _dirty |= DIRTY_GEOID;
+        }
     }
 
     @Override
-    public float getFirstLocationLattitude() {
+    public synchronized float getFirstLocationLattitude() {
         return _lattitude;
     }
 
     @Override
-    public void setFirstLocationLattitude(float value) {
-        _lattitude = value;
+    public synchronized void setFirstLocationLattitude(float value) {
+        if (value != _lattitude) {
+            _lattitude = value;
+            _dirty |= DIRTY_LATTITUDE;
+        }
     }
 
     @Override
-    public float getFirstLocationLongitude() {
+    public synchronized float getFirstLocationLongitude() {
         return _longitude;
     }
 
     @Override
-    public void setFirstLocationLongitude(float value) {
-        _longitude = value;
+    public synchronized void setFirstLocationLongitude(float value) {
+        if (value != _longitude) {
+            _longitude = value;
+            _dirty |= DIRTY_LONGITUDE;
+        }
     }
 
     @Override
     public void resetAllValues() {
         //_startTime = 0; // no reset needed, it's for orxumaps auto-start
-        _distance = 0;
-        _elapsedTime = 0;
-        _ascent = 0;
-        _nbascent = 0;
-        _maxSpeed = 0;
+        setDistance(0);
+        setElapsedTime(0);
+        setAscent(0);
+        setNbAscent(0);
+        setMaxSpeed(0);
         //_altitudeCalibrationDelta = 0; // no reset needed, it's for altitude correction
         //_geoid = 0; // no reset needed, it's for altitude correction
         //_lattitude = 0; // no reset needed, it's for map origin (latitude => xpos conversion)
@@ -207,27 +321,139 @@ public class GPSDataStore implements IGPSDataStore {
         editor.putString("SPEEDFRAGMENT_DISTANCE", _context.getString(R.string.speedfragment_distance_value));
         editor.putString("SPEEDFRAGMENT_TIME", _context.getString(R.string.speedfragment_time_value));
 
-        editor.commit();
+        if (_executor != null) {
+            // same executor, written before the next commit()
+            final SharedPreferences.Editor pendingEditor = editor;
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    pendingEditor.commit();
+                }
+            });
+        } else {
+            editor.commit();
+        }
     }
 
     @Override
     public void commit() {
-        SharedPreferences.Editor editor = _sharedPreferences.edit();
+        if (_executor != null) {
+            synchronized (this) {
+                if (_dirty == 0 || _writeScheduled) {
+                    return;
+                }
+                _writeScheduled = true;
+            }
+            _executor.execute(_writeTask);
+            return;
+        }
 
-        editor.putString("UNITS_OF_MEASURE", "" +  _units);
-        editor.putLong("GPS_LAST_START",_startTime);
-        editor.putFloat("GPS_DISTANCE",_distance);
-        editor.putLong("GPS_ELAPSEDTIME", _elapsedTime);
-        editor.putFloat("GPS_ASCENT", _ascent);
-        editor.putInt("GPS_NB_ASCENT", _nbascent);
-        editor.putFloat("GPS_MAX_SPEED", _maxSpeed);
-        editor.putFloat("ALTITUDE_CALIBRATION_DELTA", _altitudeCalibrationDelta);
-        editor.putLong("ALTITUDE_CALIBRATION_DELTA_TIME", _altitudeCalibrationDeltaTime);
-        editor.putFloat("GEOID_HEIGHT", _geoid);
-        editor.putFloat("GPS_FIRST_LOCATION_LAT", _lattitude);
-        editor.putFloat("GPS_FIRST_LOCATION_LON", _longitude);
+        writeValues(DIRTY_ALL);
+    }
 
+    @Override
+    public void flushSync() {
+        if (_executor == null) {
+            commit();
+            return;
+        }
+        Future<?> future = _executor.submit(_writeTask);
+        try {
+            future.get(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.e(TAG, "flushSync", e);
+        }
+    }
+
+    // on the executor: only the values changed since the last write
+    private void writeDirtyValues() {
+        synchronized (this) {
+            _writeScheduled = false;
+        }
+        writeValues(0);
+    }
+
+    // the values changed since the last write, and the forced ones
+    private void writeValues(int force) {
+        if (_snapshotFile != null) {
+            writeSnapshot(force);
+            return;
+        }
+        SharedPreferences.Editor editor;
+        synchronized (this) {
+            int dirty = _dirty | force;
+            if (dirty == 0) {
+                return;
+            }
+            editor = _sharedPreferences.edit();
+            if ((dirty & DIRTY_UNITS) != 0) editor.putString("UNITS_OF_MEASURE", "" +  _units);
+            if ((dirty & DIRTY_START_TIME) != 0) editor.putLong("GPS_LAST_START",_startTime);
+            if ((dirty & DIRTY_DISTANCE) != 0) editor.putFloat("GPS_DISTANCE",_distance);
+            if ((dirty & DIRTY_ELAPSED_TIME) != 0) editor.putLong("GPS_ELAPSEDTIME", _elapsedTime);
+            if ((dirty & DIRTY_ASCENT) != 0) editor.putFloat("GPS_ASCENT", _ascent);
+            if ((dirty & DIRTY_NB_ASCENT) != 0) editor.putInt("GPS_NB_ASCENT", _nbascent);
+            if ((dirty & DIRTY_MAX_SPEED) != 0) editor.putFloat("GPS_MAX_SPEED", _maxSpeed);
+            if ((dirty & DIRTY_ALTITUDE_CALIBRATION) != 0) {
+                editor.putFloat("ALTITUDE_CALIBRATION_DELTA", _altitudeCalibrationDelta);
+                editor.putLong("ALTITUDE_CALIBRATION_DELTA_TIME", _altitudeCalibrationDeltaTime);
+            }
+            if ((dirty & DIRTY_GEOID) != 0) editor.putFloat("GEOID_HEIGHT", _geoid);
+            if ((dirty & DIRTY_LATTITUDE) != 0) editor.putFloat("GPS_FIRST_LOCATION_LAT", _lattitude);
+            if ((dirty & DIRTY_LONGITUDE) != 0) editor.putFloat("GPS_FIRST_LOCATION_LON", _longitude);
+            _dirty = 0;
+        }
         editor.commit();
     }
 
+    // the whole snapshot (a few bytes), the units in the preferences
+    private void writeSnapshot(int force) {
+        synchronized (_snapshot) {
+            boolean units;
+            boolean removeStateKeys;
+            synchronized (this) {
+                int dirty = _dirty | force;
+                if (dirty == 0) {
+                    return;
+                }
+                units = (dirty & DIRTY_UNITS) != 0;
+                removeStateKeys = _removeStateKeys;
+                _snapshot._startTime = _startTime;
+                _snapshot._distance = _distance;
+                _snapshot._elapsedTime = _elapsedTime;
+                _snapshot._ascent = _ascent;
+                _snapshot._nbAscent = _nbascent;
+                _snapshot._maxSpeed = _maxSpeed;
+                _snapshot._altitudeCalibrationDelta = _altitudeCalibrationDelta;
+                _snapshot._altitudeCalibrationDeltaTime = _altitudeCalibrationDeltaTime;
+                _snapshot._geoid = _geoid;
+                _snapshot._latitude = _lattitude;
+                _snapshot._longitude = _longitude;
+                _dirty = 0;
+            }
+            try {
+                _snapshot.write(_snapshotFile);
+            } catch (IOException e) {
+                // the values stay in the preferences until a write succeeds
+                Log.e(TAG, "writeSnapshot", e);
+                removeStateKeys = false;
+                synchronized (this) {
+                    _dirty = DIRTY_ALL;
+                }
+            }
+            if (units || removeStateKeys) {
+                SharedPreferences.Editor editor = _sharedPreferences.edit();
+                if (units) editor.putString("UNITS_OF_MEASURE", "" + _units);
+                if (removeStateKeys) {
+                    for (String key : STATE_KEYS) {
+                        editor.remove(key);
+                    }
+                    synchronized (this) {
+                        _removeStateKeys = false;
+                    }
+                }
+                editor.commit();
+            }
+        }
+    }
+
 }
@@ -48,4 +48,7 @@ public interface IGPSDataStore {
     /* Commits changes and saves */
     void commit();
 
+    /* Writes pending changes before returning, for shutdown paths */
+    void flushSync();
+
 }
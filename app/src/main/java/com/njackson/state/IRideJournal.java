@@ -0,0 +1,30 @@
+package com.njackson.state;
+
+/**
+ * Append-only journal of the ride totals, written for every fix.
+ *
+ * GPSDataStore is only committed on start/stop, the journal keeps the state of a ride
+ * interrupted by a crash or when the service is killed.
+ */
+public interface IRideJournal {
+
+    // opens the journal for appending, after recover()
+    void open();
+
+    // state after a new fix, only the changes are written
+    void append(float distance, long elapsedTime, float ascent, int nbAscent, float maxSpeed);
+
+    /* Reads the journal, returns false if there is nothing to recover */
+    boolean recover();
+
+    float getDistance();
+    long getElapsedTime();
+    float getAscent();
+    int getNbAscent();
+    float getMaxSpeed();
+
+    /* Empties the journal, the state is saved elsewhere */
+    void clear();
+
+    void close();
+}
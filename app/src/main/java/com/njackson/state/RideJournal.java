@@ -0,0 +1,316 @@
+package com.njackson.state;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed size binary records (RECORD_SIZE bytes):
+ * - type (TOTALS or DELTA), 3 bytes padding
+ * - distance (float), elapsed time (long), ascent (float), nb ascent (int): totals or changes since the previous record
+ * - max speed (float): always the absolute value
+ * - CRC32 of the previous bytes
+ *
+ * A TOTALS record is written every TOTALS_INTERVAL records, the file is compacted (rewritten with
+ * a single TOTALS record) after COMPACT_RECORDS records. Recovery stops at the first truncated or
+ * corrupted record.
+ *
+ * Each record is written directly to the file (no buffering), so it survives a crash of the app.
+ * The file is synced every SYNC_INTERVAL records to survive a power loss.
+ */
+public class RideJournal implements IRideJournal {
+
+    private static final String TAG = "PB-RideJournal";
+
+    public static final int RECORD_SIZE = 32;
+    static final byte TYPE_TOTALS = 1;
+    static final byte TYPE_DELTA = 2;
+    static final int TOTALS_INTERVAL = 60;
+    static final int SYNC_INTERVAL = 5;
+    static final int COMPACT_RECORDS = 3600;
+
+    private final File _file;
+    private FileOutputStream _out = null;
+
+    private final byte[] _record = new byte[RECORD_SIZE];
+    private final ByteBuffer _buffer = ByteBuffer.wrap(_record);
+    private final CRC32 _crc = new CRC32();
+
+    private int _nbRecords = 0;
+    private int _nbRecordsSinceTotals = 0;
+    private int _nbRecordsSinceSync = 0;
+
+    // state at the last record
+    private float _distance = 0;
+    private long _elapsedTime = 0;
+    private float _ascent = 0;
+    private int _nbAscent = 0;
+    private float _maxSpeed = 0;
+
+    public RideJournal(File file) {
+        _file = file;
+    }
+
+    public int getNbRecords() {
+        return _nbRecords;
+    }
+
+    @Override
+    public float getDistance() {
+        return _distance;
+    }
+
+    @Override
+    public long getElapsedTime() {
+        return _elapsedTime;
+    }
+
+    @Override
+    public float getAscent() {
+        return _ascent;
+    }
+
+    @Override
+    public int getNbAscent() {
+        return _nbAscent;
+    }
+
+    @Override
+    public float getMaxSpeed() {
+        return _maxSpeed;
+    }
+
+    @Override
+    public void open() {
+        if (_out != null) {
+            return;
+        }
+        try {
+            // append after recover(), otherwise start a new journal
+            _out = new FileOutputStream(_file, _nbRecords > 0);
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "open", e);
+        }
+    }
+
+    @Override
+    public void append(float distance, long elapsedTime, float ascent, int nbAscent, float maxSpeed) {
+        if (_out == null) {
+            return;
+        }
+        if (_nbRecords >= COMPACT_RECORDS) {
+            compact(distance, elapsedTime, ascent, nbAscent, maxSpeed);
+            return;
+        }
+
+        try {
+            if (_nbRecords == 0 || _nbRecordsSinceTotals >= TOTALS_INTERVAL) {
+                encode(TYPE_TOTALS, distance, elapsedTime, ascent, nbAscent, maxSpeed);
+                _nbRecordsSinceTotals = 0;
+            } else {
+                encode(TYPE_DELTA, distance - _distance, elapsedTime - _elapsedTime, ascent - _ascent, nbAscent - _nbAscent, maxSpeed);
+            }
+            _out.write(_record);
+            _nbRecords++;
+            _nbRecordsSinceTotals++;
+            _nbRecordsSinceSync++;
+            if (_nbRecordsSinceSync >= SYNC_INTERVAL) {
+                _out.getFD().sync();
+                _nbRecordsSinceSync = 0;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "append", e);
+            return;
+        }
+
+        _distance = distance;
+        _elapsedTime = elapsedTime;
+        _ascent = ascent;
+        _nbAscent = nbAscent;
+        _maxSpeed = maxSpeed;
+    }
+
+    @Override
+    public boolean recover() {
+        close();
+        resetState();
+        if (!_file.exists() || _file.length() < RECORD_SIZE) {
+            return false;
+        }
+
+        int nbRecords = 0;
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(_file));
+            while (readRecord(in)) {
+                if (!decode()) {
+                    Log.d(TAG, "corrupted record " + nbRecords);
+                    break;
+                }
+                nbRecords++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "recover", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        Log.d(TAG, "recovered " + nbRecords + " records distance:" + _distance + " elapsedTime:" + _elapsedTime);
+
+        if (nbRecords == 0) {
+            return false;
+        }
+        // drop the deltas and a possibly torn tail
+        compact(_distance, _elapsedTime, _ascent, _nbAscent, _maxSpeed);
+        close();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        close();
+        resetState();
+        if (_file.exists() && !_file.delete()) {
+            Log.e(TAG, "cannot delete " + _file);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (_out == null) {
+            return;
+        }
+        try {
+            _out.getFD().sync();
+            _out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close", e);
+        }
+        _out = null;
+    }
+
+    // rewrites the journal as a single TOTALS record, replaces the file atomically
+    private void compact(float distance, long elapsedTime, float ascent, int nbAscent, float maxSpeed) {
+        boolean wasOpen = _out != null;
+        close();
+
+        File tmp = new File(_file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            encode(TYPE_TOTALS, distance, elapsedTime, ascent, nbAscent, maxSpeed);
+            out.write(_record);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(_file)) {
+                throw new IOException("cannot rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "compact", e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e1) {
+                }
+            }
+        }
+
+        _distance = distance;
+        _elapsedTime = elapsedTime;
+        _ascent = ascent;
+        _nbAscent = nbAscent;
+        _maxSpeed = maxSpeed;
+        _nbRecords = 1;
+        _nbRecordsSinceTotals = 1;
+        _nbRecordsSinceSync = 0;
+
+        if (wasOpen) {
+            open();
+        }
+    }
+
+    private void resetState() {
+        _distance = 0;
+        _elapsedTime = 0;
+        _ascent = 0;
+        _nbAscent = 0;
+        _maxSpeed = 0;
+        _nbRecords = 0;
+        _nbRecordsSinceTotals = 0;
+        _nbRecordsSinceSync = 0;
+    }
+
+    private void encode(byte type, float distance, long elapsedTime, float ascent, int nbAscent, float maxSpeed) {
+        _buffer.clear();
+        _buffer.put(type);
+        _buffer.put((byte) 0);
+        _buffer.put((byte) 0);
+        _buffer.put((byte) 0);
+        _buffer.putFloat(distance);
+        _buffer.putLong(elapsedTime);
+        _buffer.putFloat(ascent);
+        _buffer.putInt(nbAscent);
+        _buffer.putFloat(maxSpeed);
+        _crc.reset();
+        _crc.update(_record, 0, RECORD_SIZE - 4);
+        _buffer.putInt((int) _crc.getValue());
+    }
+
+    // applies the record in _record, false if it is corrupted
+    private boolean decode() {
+        _crc.reset();
+        _crc.update(_record, 0, RECORD_SIZE - 4);
+        _buffer.clear();
+        if (_buffer.getInt(RECORD_SIZE - 4) != (int) _crc.getValue()) {
+            return false;
+        }
+
+        byte type = _buffer.get(0);
+        float distance = _buffer.getFloat(4);
+        long elapsedTime = _buffer.getLong(8);
+        float ascent = _buffer.getFloat(16);
+        int nbAscent = _buffer.getInt(20);
+        float maxSpeed = _buffer.getFloat(24);
+        if (type == TYPE_TOTALS) {
+            _distance = distance;
+            _elapsedTime = elapsedTime;
+            _ascent = ascent;
+            _nbAscent = nbAscent;
+        } else if (type == TYPE_DELTA) {
+            _distance += distance;
+            _elapsedTime += elapsedTime;
+            _ascent += ascent;
+            _nbAscent += nbAscent;
+        } else {
+            return false;
+        }
+        _maxSpeed = maxSpeed;
+        return true;
+    }
+
+    // false at the end of the file (or on a truncated record)
+    private boolean readRecord(InputStream in) throws IOException {
+        int offset = 0;
+        while (offset < RECORD_SIZE) {
+            int n = in.read(_record, offset, RECORD_SIZE - offset);
+            if (n < 0) {
+                return false;
+            }
+            offset += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package com.njackson.state;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Ride state of GPSDataStore in a fixed layout file (SIZE bytes, little endian):
+ * - magic, version
+ * - start time (long), distance (float), elapsed time (long), ascent (float), nb ascent (int), max speed (float)
+ * - altitude calibration delta (float) and its time (long), geoid height (float)
+ * - first location latitude, longitude (float)
+ * - CRC32 of the previous bytes
+ *
+ * Read with a single read at start-up, instead of the values of the preferences XML. Written to a
+ * temporary file renamed over the snapshot: a crash during a write leaves the previous snapshot.
+ */
+public class StateSnapshot {
+
+    private static final String TAG = "PB-StateSnapshot";
+
+    static final int MAGIC = 0x53534250; // "PBSS"
+    static final int VERSION = 1;
+    public static final int SIZE = 68;
+
+    long _startTime = 0;
+    float _distance = 0;
+    long _elapsedTime = 0;
+    float _ascent = 0;
+    int _nbAscent = 0;
+    float _maxSpeed = 0;
+    float _altitudeCalibrationDelta = 0;
+    long _altitudeCalibrationDeltaTime = 0;
+    float _geoid = 0;
+    float _latitude = 0;
+    float _longitude = 0;
+
+    private final byte[] _bytes = new byte[SIZE];
+    private final ByteBuffer _buffer = ByteBuffer.wrap(_bytes).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 _crc = new CRC32();
+
+    // false if there is no valid snapshot (missing, truncated, other version, corrupted)
+    public boolean read(File file) {
+        int n = 0;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int count;
+                while (n < SIZE && (count = in.read(_bytes, n, SIZE - n)) > 0) {
+                    n += count;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if (n < SIZE) {
+            return false;
+        }
+        _crc.reset();
+        _crc.update(_bytes, 0, SIZE - 4);
+        _buffer.clear();
+        if (_buffer.getInt() != MAGIC || _buffer.getInt() != VERSION || _buffer.getInt(SIZE - 4) != (int) _crc.getValue()) {
+            Log.w(TAG, "invalid snapshot " + file);
+            return false;
+        }
+        _startTime = _buffer.getLong();
+        _distance = _buffer.getFloat();
+        _elapsedTime = _buffer.getLong();
+        _ascent = _buffer.getFloat();
+        _nbAscent = _buffer.getInt();
+        _maxSpeed = _buffer.getFloat();
+        _altitudeCalibrationDelta = _buffer.getFloat();
+        _altitudeCalibrationDeltaTime = _buffer.getLong();
+        _geoid = _buffer.getFloat();
+        _latitude = _buffer.getFloat();
+        _longitude = _buffer.getFloat();
+        return true;
+    }
+
+    public void write(File file) throws IOException {
+        _buffer.clear();
+        _buffer.putInt(MAGIC);
+        _buffer.putInt(VERSION);
+        _buffer.putLong(_startTime);
+        _buffer.putFloat(_distance);
+        _buffer.putLong(_elapsedTime);
+        _buffer.putFloat(_ascent);
+        _buffer.putInt(_nbAscent);
+        _buffer.putFloat(_maxSpeed);
+        _buffer.putFloat(_altitudeCalibrationDelta);
+        _buffer.putLong(_altitudeCalibrationDeltaTime);
+        _buffer.putFloat(_geoid);
+        _buffer.putFloat(_latitude);
+        _buffer.putFloat(_longitude);
+        _crc.reset();
+        _crc.update(_bytes, 0, SIZE - 4);
+        _buffer.putInt((int) _crc.getValue());
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(_bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename " + tmp + " failed");
+        }
+    }
+}
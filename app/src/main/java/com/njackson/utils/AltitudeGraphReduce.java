@@ -3,6 +3,7 @@ package com.njackson.utils;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Created with IntelliJ IDEA.
@@ -15,11 +16,22 @@ public class AltitudeGraphReduce {
     
     private static final String TAG = "PB-AltitudeGraphReduce";
 
-    private ArrayList<Integer> _altitudeBins = new ArrayList<Integer>();
+    public static final int NB_BARS = 14;
+
+    // bins: average altitude of _altitudeBinSizeMs of elapsed time
+    private int[] _bins = new int[64];
+    private int _nbBins = 0;
     private long _lastAltitudeBinChange = -1;
     private int _altitudeBinSizeMs = 120000;
+    // altitudes in the last bin
+    private long _lastBinSum = 0;
     private int _numberAltitudesInBin = 0;
 
+    // bars: _binsPerBar consecutive bins (a power of two), sums of the bin averages
+    private final long[] _barSums = new long[NB_BARS];
+    private final int[] _barBins = new int[NB_BARS];
+    private int _binsPerBar = 1;
+
     private int _altitudeMax = 0;
     private int _altitudeMin = 99999;
 
@@ -41,26 +53,32 @@ public class AltitudeGraphReduce {
         _altitudeMin = value;
     }
 
+    // copy of the bins
     public ArrayList<Integer> getCache() {
-        return _altitudeBins;
+        ArrayList<Integer> bins = new ArrayList<Integer>(_nbBins);
+        for (int i = 0; i < _nbBins; i++) {
+            bins.add(_bins[i]);
+        }
+        return bins;
     }
 
     public void setCache(ArrayList<Integer> value) {
-         _altitudeBins = value;
+        clearBins();
+        for (Integer bin : value) {
+            addBin(bin);
+        }
+        _numberAltitudesInBin = _nbBins > 0 ? 1 : 0;
+        _lastBinSum = _nbBins > 0 ? _bins[_nbBins - 1] : 0;
     }
 
     public AltitudeGraphReduce() {
 
     }
 
+    // O(1): updates the last bin and its bar, the bars are merged when the bins don't fit anymore
     public void addAltitude(int altitude, long time, float distance) {
         //Log.d(TAG, "addAltitude(" + altitude + "," +  time +  "," + distance + ")");
         // time: elapsed time, in millisecond, and not current time
-        if(_lastAltitudeBinChange == -1) {
-            _altitudeBins.add(altitude); // initialise the first bin
-            _lastAltitudeBinChange = time;
-        }
-
         if (altitude > _altitudeMax) {
             _altitudeMax = altitude;
         }
@@ -68,54 +86,95 @@ public class AltitudeGraphReduce {
             _altitudeMin = altitude;
         }
 
-        if (_lastAltitudeBinChange + _altitudeBinSizeMs > time) {
-            _altitudeBins.set(
-                    _altitudeBins.size()-1,
-                    (_altitudeBins.get(_altitudeBins.size()-1) * _numberAltitudesInBin + altitude) / (_numberAltitudesInBin + 1)
-            ); // set the current altitude into the bin and average
+        if (_lastAltitudeBinChange != -1 && _lastAltitudeBinChange + _altitudeBinSizeMs > time) {
+            // set the current altitude into the bin and average
+            _lastBinSum += altitude;
             _numberAltitudesInBin++;
+            int average = (int) (_lastBinSum / _numberAltitudesInBin);
+            _barSums[(_nbBins - 1) / _binsPerBar] += average - _bins[_nbBins - 1];
+            _bins[_nbBins - 1] = average;
         } else {
+            // create a new bin and add the altitude
+            _lastBinSum = altitude;
             _numberAltitudesInBin = 1;
-            _altitudeBins.add(altitude); // create a new bin and add the altitude
+            addBin(altitude);
             _lastAltitudeBinChange = time;
         }
+    }
 
+    private void addBin(int altitude) {
+        if (_nbBins == _bins.length) {
+            _bins = Arrays.copyOf(_bins, 2 * _nbBins);
+        }
+        if (_nbBins == NB_BARS * _binsPerBar) {
+            // bars of twice as many bins
+            for (int i = 0; i < NB_BARS / 2; i++) {
+                _barSums[i] = _barSums[2 * i] + _barSums[2 * i + 1];
+                _barBins[i] = _barBins[2 * i] + _barBins[2 * i + 1];
+            }
+            for (int i = NB_BARS / 2; i < NB_BARS; i++) {
+                _barSums[i] = 0;
+                _barBins[i] = 0;
+            }
+            _binsPerBar *= 2;
+        }
+        _bins[_nbBins] = altitude;
+        int bar = _nbBins / _binsPerBar;
+        _barSums[bar] += altitude;
+        _barBins[bar]++;
+        _nbBins++;
     }
 
     public int[] getGraphData() {
-        // calculate our graph based upon the stored data
-        double binsPerBar = 14.0 / (double)_altitudeBins.size();
-        int[] graphData = new int[14];
-        double binCount = binsPerBar;
-
-        if(binsPerBar > 1) {
-            binsPerBar = 1;
-            binCount = 0;
-        }
+        int[] graphData = new int[NB_BARS];
+        getGraphData(graphData);
+        return graphData;
+    }
 
-        int currentBinCount =0;
-        int currentBinItems =0;
-        int lastBin = 0;
-
-        for(int n=0; n < _altitudeBins.size();n++)
-        {
-            currentBinCount += _altitudeBins.get(n);
-            currentBinItems ++;
-            binCount += binsPerBar;
-
-            if((int)binCount == lastBin + 1) {
-                graphData[lastBin] = (currentBinCount / currentBinItems);
-                lastBin ++;
-                currentBinCount = 0;
-                currentBinItems = 0;
+    // same as getGraphData() but fills the given 14 values array, to avoid an allocation per call
+    public void getGraphData(int[] graphData) {
+        if (_binsPerBar == 1) {
+            // one bar per bin, 0 for the bars without bins yet
+            for (int i = 0; i < NB_BARS; i++) {
+                graphData[i] = _barBins[i] > 0 ? (int) (_barSums[i] / _barBins[i]) : 0;
             }
+            return;
         }
+        // 7 to 14 bars are filled: stretched over the 14 bars, O(14).
+        // Each graph bar covers _nbBins / 14 bins, averages of the bars it overlaps, weighted by the overlap
+        double binsPerGraphBar = (double) _nbBins / NB_BARS;
+        int bar = 0;
+        double barEnd = _barBins[0];
+        double start = 0;
+        for (int i = 0; i < NB_BARS; i++) {
+            double end = i == NB_BARS - 1 ? _nbBins : (i + 1) * binsPerGraphBar;
+            double from = start;
+            double sum = 0;
+            while (true) {
+                sum += (Math.min(end, barEnd) - from) * _barSums[bar] / _barBins[bar];
+                if (barEnd >= end || bar == NB_BARS - 1 || _barBins[bar + 1] == 0) {
+                    break;
+                }
+                from = barEnd;
+                bar++;
+                barEnd += _barBins[bar];
+            }
+            graphData[i] = (int) Math.round(sum / (end - start));
+            start = end;
+        }
+    }
 
-        return graphData;
+    private void clearBins() {
+        _nbBins = 0;
+        _binsPerBar = 1;
+        _lastBinSum = 0;
+        _numberAltitudesInBin = 0;
+        Arrays.fill(_barSums, 0);
+        Arrays.fill(_barBins, 0);
     }
 
     public void resetData() {
-        _altitudeBins = new ArrayList<Integer>();
+        clearBins();
         _lastAltitudeBinChange = -1;
         _altitudeMax =0;
         _altitudeMin=99999;
@@ -0,0 +1,196 @@
+package com.njackson.utils;
+
+import java.util.Arrays;
+
+/**
+ * Elevation profile of the ride at every zoom level.
+ *
+ * Level 0 holds the altitudes as they arrive, a node of level l the min, max and sum of 2^l
+ * consecutive altitudes. add() updates one node per level (O(log n)). A profile of N columns reads
+ * at most 3 nodes per column at the level where a node is at most a column wide: O(N) whatever the
+ * length of the ride. The columns are widened to the node boundaries, by less than a node.
+ *
+ * The elapsed time and the distance of each altitude map time or distance windows (last 10 min,
+ * last 5 km) to altitude indexes. Not thread safe.
+ */
+public class ElevationPyramid {
+
+    private static final String TAG = "PB-ElevationPyramid";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] _times = new long[INITIAL_CAPACITY];
+    private float[] _distances = new float[INITIAL_CAPACITY];
+    private int _size = 0;
+
+    // [level][node]
+    private float[][] _min = new float[1][];
+    private float[][] _max = new float[1][];
+    private double[][] _sum = new double[1][];
+    private int _nbLevels = 0;
+
+    public ElevationPyramid() {
+        addLevel();
+    }
+
+    // time: elapsed time (ms), distance: m, both non decreasing
+    public void add(long time, float distance, float altitude) {
+        if (_size == _times.length) {
+            _times = Arrays.copyOf(_times, 2 * _size);
+            _distances = Arrays.copyOf(_distances, 2 * _size);
+        }
+        _times[_size] = time;
+        _distances[_size] = distance;
+
+        int i = _size;
+        for (int level = 0; level < _nbLevels; level++, i >>= 1) {
+            if (i == _min[level].length) {
+                _min[level] = Arrays.copyOf(_min[level], 2 * i);
+                _max[level] = Arrays.copyOf(_max[level], 2 * i);
+                _sum[level] = Arrays.copyOf(_sum[level], 2 * i);
+            }
+            if ((_size & ((1 << level) - 1)) == 0) {
+                // first altitude of the node
+                _min[level][i] = altitude;
+                _max[level][i] = altitude;
+                _sum[level][i] = altitude;
+            } else {
+                _min[level][i] = Math.min(_min[level][i], altitude);
+                _max[level][i] = Math.max(_max[level][i], altitude);
+                _sum[level][i] += altitude;
+            }
+        }
+        _size++;
+        if (_size > 1 << (_nbLevels - 1)) {
+            // the top level has 2 nodes
+            addLevel();
+        }
+    }
+
+    private void addLevel() {
+        int level = _nbLevels;
+        if (level == _min.length) {
+            _min = Arrays.copyOf(_min, 2 * level);
+            _max = Arrays.copyOf(_max, 2 * level);
+            _sum = Arrays.copyOf(_sum, 2 * level);
+        }
+        int capacity = Math.max(4, (_times.length >> level) + 1);
+        _min[level] = new float[capacity];
+        _max[level] = new float[capacity];
+        _sum[level] = new double[capacity];
+        if (level > 0) {
+            // from the level below: at most 2 nodes
+            for (int i = 0; 2 * i < nbNodes(level - 1); i++) {
+                int left = 2 * i;
+                boolean right = left + 1 < nbNodes(level - 1);
+                _min[level][i] = right ? Math.min(_min[level - 1][left], _min[level - 1][left + 1]) : _min[level - 1][left];
+                _max[level][i] = right ? Math.max(_max[level - 1][left], _max[level - 1][left + 1]) : _max[level - 1][left];
+                _sum[level][i] = _sum[level - 1][left] + (right ? _sum[level - 1][left + 1] : 0);
+            }
+        }
+        _nbLevels++;
+    }
+
+    private int nbNodes(int level) {
+        return (_size + (1 << level) - 1) >> level;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public void clear() {
+        _size = 0;
+    }
+
+    public long getTime(int i) {
+        return _times[i];
+    }
+
+    public float getDistance(int i) {
+        return _distances[i];
+    }
+
+    // first altitude at or after time, size() if none
+    public int indexOfTime(long time) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (_times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // first altitude at or after distance, size() if none
+    public int indexOfDistance(float distance) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (_distances[middle] < distance) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Profile of the altitudes [from, to) in min.length columns (fewer if there are fewer altitudes).
+     * Returns the number of columns filled in min, max and mean.
+     */
+    public int getProfile(int from, int to, float[] min, float[] max, float[] mean) {
+        from = Math.max(0, from);
+        to = Math.min(_size, to);
+        int count = to - from;
+        if (count <= 0) {
+            return 0;
+        }
+        int nbColumns = Math.min(min.length, count);
+
+        // the highest level with nodes not wider than a column
+        int level = 0;
+        while (level + 1 < _nbLevels && 2l << level <= (long) count / nbColumns) {
+            level++;
+        }
+        float[] levelMin = _min[level];
+        float[] levelMax = _max[level];
+        double[] levelSum = _sum[level];
+        for (int c = 0; c < nbColumns; c++) {
+            int start = from + (int) ((long) count * c / nbColumns);
+            int end = from + (int) ((long) count * (c + 1) / nbColumns);
+            int firstNode = start >> level;
+            int lastNode = (end - 1) >> level;
+            float columnMin = levelMin[firstNode];
+            float columnMax = levelMax[firstNode];
+            double sum = 0;
+            for (int node = firstNode; node <= lastNode; node++) {
+                columnMin = Math.min(columnMin, levelMin[node]);
+                columnMax = Math.max(columnMax, levelMax[node]);
+                sum += levelSum[node];
+            }
+            min[c] = columnMin;
+            max[c] = columnMax;
+            int nodeStart = firstNode << level;
+            int nodeEnd = Math.min(_size, (lastNode + 1) << level);
+            mean[c] = (float) (sum / (nodeEnd - nodeStart));
+        }
+        return nbColumns;
+    }
+
+    // profile of fromTime <= time < toTime
+    public int getProfileByTime(long fromTime, long toTime, float[] min, float[] max, float[] mean) {
+        return getProfile(indexOfTime(fromTime), indexOfTime(toTime), min, max, mean);
+    }
+
+    // profile of fromDistance <= distance < toDistance
+    public int getProfileByDistance(float fromDistance, float toDistance, float[] min, float[] max, float[] mean) {
+        return getProfile(indexOfDistance(fromDistance), indexOfDistance(toDistance), min, max, mean);
+    }
+}
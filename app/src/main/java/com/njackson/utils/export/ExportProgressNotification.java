@@ -0,0 +1,43 @@
+package com.njackson.utils.export;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.support.v4.app.NotificationCompat;
+
+import com.njackson.R;
+
+/**
+ * Progress bar notification while a file is exported, updated at most once per percent.
+ */
+public class ExportProgressNotification implements IExportListener {
+
+    private static final int NOTIFICATION_ID = 1001;
+
+    private final NotificationManager _notificationManager;
+    private final NotificationCompat.Builder _builder;
+    private int _percent = -1;
+
+    public ExportProgressNotification(Context context, String title) {
+        _notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        _builder = new NotificationCompat.Builder(context)
+                .setContentTitle(title)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setOngoing(true)
+                .setProgress(100, 0, true);
+    }
+
+    @Override
+    public void onProgress(int nbPoints, int total) {
+        int percent = total > 0 ? Math.min(100, 100 * nbPoints / total) : 0;
+        if (percent == _percent) {
+            return;
+        }
+        _percent = percent;
+        _builder.setProgress(100, percent, total <= 0);
+        _notificationManager.notify(NOTIFICATION_ID, _builder.build());
+    }
+
+    public void done() {
+        _notificationManager.cancel(NOTIFICATION_ID);
+    }
+}
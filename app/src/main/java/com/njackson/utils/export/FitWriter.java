@@ -0,0 +1,319 @@
+package com.njackson.utils.export;
+
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.rides.RideSummary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming FIT activity encoder (file_id, records, lap, session, activity).
+ *
+ * All messages have a fixed size, so the data size of the header is known from the number of
+ * points of the ride: the file is written in one pass through a BUFFER_SIZE buffer, the CRC is
+ * computed on the way. Values of 0 (unknown) for heart rate, cadence and temperature are written
+ * as FIT invalid values.
+ */
+public class FitWriter {
+
+    private static final String TAG = "PB-FitWriter";
+
+    static final int BUFFER_SIZE = 8 * 1024;
+    static final int HEADER_SIZE = 14;
+    static final int PROTOCOL_VERSION = 0x10; // 1.0
+    static final int PROFILE_VERSION = 1600; // 16.00
+    static final long FIT_EPOCH = 631065600; // s, 1989-12-31T00:00:00Z
+    static final double SEMICIRCLES_PER_DEGREE = 2147483648.0 / 180;
+    // progress is reported every PROGRESS_INTERVAL points
+    static final int PROGRESS_INTERVAL = 500;
+
+    // base types
+    private static final int ENUM = 0x00;
+    private static final int SINT8 = 0x01;
+    private static final int UINT8 = 0x02;
+    private static final int UINT16 = 0x84;
+    private static final int SINT32 = 0x85;
+    private static final int UINT32 = 0x86;
+
+    // global message numbers
+    static final int MESG_FILE_ID = 0;
+    static final int MESG_SESSION = 18;
+    static final int MESG_LAP = 19;
+    static final int MESG_RECORD = 20;
+    static final int MESG_ACTIVITY = 34;
+
+    // local message types
+    private static final int LOCAL_FILE_ID = 0;
+    private static final int LOCAL_RECORD = 1;
+    private static final int LOCAL_LAP = 2;
+    private static final int LOCAL_SESSION = 3;
+    private static final int LOCAL_ACTIVITY = 4;
+
+    private static final int FIELD_TIMESTAMP = 253;
+
+    // field definitions: field number, size, base type
+    private static final int[] FILE_ID_FIELDS = {
+            0, 1, ENUM,             // type
+            1, 2, UINT16,           // manufacturer
+            2, 2, UINT16,           // product
+            4, 4, UINT32            // time_created
+    };
+    private static final int[] RECORD_FIELDS = {
+            FIELD_TIMESTAMP, 4, UINT32,
+            0, 4, SINT32,           // position_lat, semicircles
+            1, 4, SINT32,           // position_long, semicircles
+            2, 2, UINT16,           // altitude, 5 * (m + 500)
+            3, 1, UINT8,            // heart_rate, bpm
+            4, 1, UINT8,            // cadence, rpm
+            5, 4, UINT32,           // distance, cm
+            13, 1, SINT8            // temperature, C
+    };
+    private static final int[] LAP_FIELDS = {
+            FIELD_TIMESTAMP, 4, UINT32,
+            2, 4, UINT32,           // start_time
+            7, 4, UINT32,           // total_elapsed_time, ms
+            8, 4, UINT32,           // total_timer_time, ms
+            9, 4, UINT32,           // total_distance, cm
+            0, 1, ENUM,             // event
+            1, 1, ENUM              // event_type
+    };
+    private static final int[] SESSION_FIELDS = {
+            FIELD_TIMESTAMP, 4, UINT32,
+            2, 4, UINT32,           // start_time
+            7, 4, UINT32,           // total_elapsed_time, ms
+            8, 4, UINT32,           // total_timer_time, ms
+            9, 4, UINT32,           // total_distance, cm
+            22, 2, UINT16,          // total_ascent, m
+            15, 2, UINT16,          // max_speed, mm/s
+            5, 1, ENUM,             // sport
+            6, 1, ENUM,             // sub_sport
+            0, 1, ENUM,             // event
+            1, 1, ENUM,             // event_type
+            25, 2, UINT16,          // first_lap_index
+            26, 2, UINT16           // num_laps
+    };
+    private static final int[] ACTIVITY_FIELDS = {
+            FIELD_TIMESTAMP, 4, UINT32,
+            0, 4, UINT32,           // total_timer_time, ms
+            1, 2, UINT16,           // num_sessions
+            2, 1, ENUM,             // type
+            3, 1, ENUM,             // event
+            4, 1, ENUM              // event_type
+    };
+
+    private static final int FILE_ACTIVITY = 4;
+    private static final int MANUFACTURER_DEVELOPMENT = 255;
+    private static final int SPORT_CYCLING = 2;
+    private static final int EVENT_SESSION = 8;
+    private static final int EVENT_LAP = 9;
+    private static final int EVENT_ACTIVITY = 26;
+    private static final int EVENT_TYPE_STOP = 1;
+    private static final int ACTIVITY_MANUAL = 0;
+
+    private static final int INVALID_UINT8 = 0xFF;
+    private static final int INVALID_SINT8 = 0x7F;
+    private static final int INVALID_UINT16 = 0xFFFF;
+
+    private static final int[] CRC_TABLE = {
+            0x0000, 0xCC01, 0xD801, 0x1400, 0xF001, 0x3C00, 0x2800, 0xE401,
+            0xA001, 0x6C00, 0x7800, 0xB401, 0x5000, 0x9C01, 0x8801, 0x4400
+    };
+
+    private final OutputStream _out;
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+    private int _position = 0;
+    private int _crc = 0;
+    private int _nbPoints = 0;
+    private final TrackDistance _distance = new TrackDistance();
+
+    public FitWriter(OutputStream out) {
+        _out = out;
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    // writes the whole file and closes the stream, listener may be null
+    public void writeRide(RideSummary ride, RidePointIterator points, IExportListener listener) throws IOException {
+        try {
+            int nbPoints = points.getNbPoints();
+            long dataSize = definitionSize(FILE_ID_FIELDS) + messageSize(FILE_ID_FIELDS)
+                    + definitionSize(RECORD_FIELDS) + (long) nbPoints * messageSize(RECORD_FIELDS)
+                    + definitionSize(LAP_FIELDS) + messageSize(LAP_FIELDS)
+                    + definitionSize(SESSION_FIELDS) + messageSize(SESSION_FIELDS)
+                    + definitionSize(ACTIVITY_FIELDS) + messageSize(ACTIVITY_FIELDS);
+            writeFileHeader(dataSize);
+
+            long startTime = fitTime(ride.getStartTime());
+            writeDefinition(LOCAL_FILE_ID, MESG_FILE_ID, FILE_ID_FIELDS);
+            writeByte(LOCAL_FILE_ID);
+            writeByte(FILE_ACTIVITY);
+            writeShort(MANUFACTURER_DEVELOPMENT);
+            writeShort(0);
+            writeInt(startTime);
+
+            writeDefinition(LOCAL_RECORD, MESG_RECORD, RECORD_FIELDS);
+            RidePoint point = new RidePoint();
+            long endTime = ride.getEndTime();
+            for (int i = 0; i < nbPoints; i++) {
+                if (!points.next(point)) {
+                    throw new IOException("ride has less points than its summary");
+                }
+                writeRecord(point);
+                endTime = point.getTime();
+                if (listener != null && _nbPoints % PROGRESS_INTERVAL == 0) {
+                    listener.onProgress(_nbPoints, nbPoints);
+                }
+            }
+
+            long end = fitTime(endTime);
+            long elapsedTime = Math.max(0, endTime - ride.getStartTime());
+            long distance = Math.round(ride.getDistance() * 100.0);
+
+            writeDefinition(LOCAL_LAP, MESG_LAP, LAP_FIELDS);
+            writeByte(LOCAL_LAP);
+            writeInt(end);
+            writeInt(startTime);
+            writeInt(elapsedTime);
+            writeInt(ride.getElapsedTime());
+            writeInt(distance);
+            writeByte(EVENT_LAP);
+            writeByte(EVENT_TYPE_STOP);
+
+            writeDefinition(LOCAL_SESSION, MESG_SESSION, SESSION_FIELDS);
+            writeByte(LOCAL_SESSION);
+            writeInt(end);
+            writeInt(startTime);
+            writeInt(elapsedTime);
+            writeInt(ride.getElapsedTime());
+            writeInt(distance);
+            writeShort(clamp(Math.round(ride.getAscent()), 0, INVALID_UINT16 - 1));
+            writeShort(clamp(Math.round(ride.getMaxSpeed() * 1000.0), 0, INVALID_UINT16 - 1));
+            writeByte(SPORT_CYCLING);
+            writeByte(0);
+            writeByte(EVENT_SESSION);
+            writeByte(EVENT_TYPE_STOP);
+            writeShort(0);
+            writeShort(1);
+
+            writeDefinition(LOCAL_ACTIVITY, MESG_ACTIVITY, ACTIVITY_FIELDS);
+            writeByte(LOCAL_ACTIVITY);
+            writeInt(end);
+            writeInt(ride.getElapsedTime());
+            writeShort(1);
+            writeByte(ACTIVITY_MANUAL);
+            writeByte(EVENT_ACTIVITY);
+            writeByte(EVENT_TYPE_STOP);
+
+            flushBuffer();
+            // file CRC, not included in the CRC
+            int crc = _crc;
+            _out.write(crc & 0xFF);
+            _out.write((crc >> 8) & 0xFF);
+
+            if (listener != null) {
+                listener.onProgress(_nbPoints, nbPoints);
+            }
+        } finally {
+            _out.close();
+        }
+    }
+
+    private void writeRecord(RidePoint point) throws IOException {
+        writeByte(LOCAL_RECORD);
+        writeInt(fitTime(point.getTime()));
+        writeInt(Math.round(point.getLatitude() * SEMICIRCLES_PER_DEGREE));
+        writeInt(Math.round(point.getLongitude() * SEMICIRCLES_PER_DEGREE));
+        writeShort(clamp(Math.round((point.getAltitude() + 500) * 5), 0, INVALID_UINT16 - 1));
+        writeByte(point.getHeartRate() > 0 ? clamp(point.getHeartRate(), 0, INVALID_UINT8 - 1) : INVALID_UINT8);
+        writeByte(point.getCadence() > 0 ? clamp(point.getCadence(), 0, INVALID_UINT8 - 1) : INVALID_UINT8);
+        writeInt(Math.round(_distance.add(point.getLatitude(), point.getLongitude()) * 100));
+        writeByte(point.getTemperature() != 0 ? clamp(Math.round(point.getTemperature()), -127, 126) : INVALID_SINT8);
+        _nbPoints++;
+    }
+
+    private void writeFileHeader(long dataSize) throws IOException {
+        writeByte(HEADER_SIZE);
+        writeByte(PROTOCOL_VERSION);
+        writeShort(PROFILE_VERSION);
+        writeInt(dataSize);
+        writeByte('.');
+        writeByte('F');
+        writeByte('I');
+        writeByte('T');
+        int crc = 0;
+        for (int i = 0; i < 12; i++) {
+            crc = crc(crc, _buffer[i]);
+        }
+        writeShort(crc);
+    }
+
+    private void writeDefinition(int localType, int globalNumber, int[] fields) throws IOException {
+        writeByte(0x40 | localType);
+        writeByte(0); // reserved
+        writeByte(0); // little endian
+        writeShort(globalNumber);
+        writeByte(fields.length / 3);
+        for (int i = 0; i < fields.length; i++) {
+            writeByte(fields[i]);
+        }
+    }
+
+    private static int definitionSize(int[] fields) {
+        return 6 + fields.length;
+    }
+
+    private static int messageSize(int[] fields) {
+        int size = 1;
+        for (int i = 1; i < fields.length; i += 3) {
+            size += fields[i];
+        }
+        return size;
+    }
+
+    private static long fitTime(long time) {
+        return time / 1000 - FIT_EPOCH;
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (_position == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        _buffer[_position++] = (byte) value;
+    }
+
+    private void writeShort(int value) throws IOException {
+        writeByte(value);
+        writeByte(value >> 8);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeByte((int) value);
+        writeByte((int) (value >> 8));
+        writeByte((int) (value >> 16));
+        writeByte((int) (value >> 24));
+    }
+
+    private void flushBuffer() throws IOException {
+        for (int i = 0; i < _position; i++) {
+            _crc = crc(_crc, _buffer[i]);
+        }
+        _out.write(_buffer, 0, _position);
+        _position = 0;
+    }
+
+    static int crc(int crc, byte b) {
+        int tmp = CRC_TABLE[crc & 0xF];
+        crc = (crc >> 4) & 0x0FFF;
+        crc = crc ^ tmp ^ CRC_TABLE[b & 0xF];
+        tmp = CRC_TABLE[crc & 0xF];
+        crc = (crc >> 4) & 0x0FFF;
+        return crc ^ tmp ^ CRC_TABLE[(b >> 4) & 0xF];
+    }
+}
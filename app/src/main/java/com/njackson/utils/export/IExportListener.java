@@ -0,0 +1,10 @@
+package com.njackson.utils.export;
+
+/**
+ * Progress of an export, called from the export thread.
+ */
+public interface IExportListener {
+
+    // nbPoints written so far out of total (0 if unknown)
+    void onProgress(int nbPoints, int total);
+}
@@ -0,0 +1,112 @@
+package com.njackson.utils.export;
+
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.rides.RideSummary;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streaming TCX (Training Center Database v2) encoder: one activity with one lap, the lap totals
+ * come from the ride summary so the points are written in one pass, through a buffered UTF-8
+ * writer. TCX has no temperature.
+ */
+public class TcxWriter {
+
+    private static final String TAG = "PB-TcxWriter";
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    // progress is reported every PROGRESS_INTERVAL points
+    static final int PROGRESS_INTERVAL = 500;
+
+    private final Writer _writer;
+    private final char[] _chars = new char[TextFormat.MAX_NUMBER_LENGTH + TextFormat.MAX_TIME_LENGTH];
+    private final TrackDistance _distance = new TrackDistance();
+    private int _nbPoints = 0;
+
+    public TcxWriter(OutputStream out) throws IOException {
+        _writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    // writes the whole file and closes the stream, listener may be null
+    public void writeRide(RideSummary ride, RidePointIterator points, IExportListener listener) throws IOException {
+        try {
+            _writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            _writer.write("<TrainingCenterDatabase xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\"\n");
+            _writer.write(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n");
+            _writer.write(" xsi:schemaLocation=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2 http://www.garmin.com/xmlschemas/TrainingCenterDatabasev2.xsd\">\n");
+            _writer.write("<Activities><Activity Sport=\"Biking\">\n<Id>");
+            writeTime(ride.getStartTime());
+            _writer.write("</Id>\n<Lap StartTime=\"");
+            writeTime(ride.getStartTime());
+            _writer.write("\"><TotalTimeSeconds>");
+            writeDecimal(ride.getElapsedTime() / 1000.0, 1);
+            _writer.write("</TotalTimeSeconds><DistanceMeters>");
+            writeDecimal(ride.getDistance(), 1);
+            _writer.write("</DistanceMeters><MaximumSpeed>");
+            writeDecimal(ride.getMaxSpeed(), 2);
+            _writer.write("</MaximumSpeed><Calories>0</Calories><Intensity>Active</Intensity><TriggerMethod>Manual</TriggerMethod>\n<Track>\n");
+
+            RidePoint point = new RidePoint();
+            while (points.next(point)) {
+                writePoint(point);
+                if (listener != null && _nbPoints % PROGRESS_INTERVAL == 0) {
+                    listener.onProgress(_nbPoints, points.getNbPoints());
+                }
+            }
+
+            _writer.write("</Track>\n</Lap>\n</Activity></Activities>\n</TrainingCenterDatabase>\n");
+            if (listener != null) {
+                listener.onProgress(_nbPoints, points.getNbPoints());
+            }
+        } finally {
+            _writer.close();
+        }
+    }
+
+    private void writePoint(RidePoint point) throws IOException {
+        _writer.write("<Trackpoint><Time>");
+        writeTime(point.getTime());
+        _writer.write("</Time><Position><LatitudeDegrees>");
+        writeDecimal(point.getLatitude(), 7);
+        _writer.write("</LatitudeDegrees><LongitudeDegrees>");
+        writeDecimal(point.getLongitude(), 7);
+        _writer.write("</LongitudeDegrees></Position><AltitudeMeters>");
+        writeDecimal(point.getAltitude(), 1);
+        _writer.write("</AltitudeMeters><DistanceMeters>");
+        writeDecimal(_distance.add(point.getLatitude(), point.getLongitude()), 1);
+        _writer.write("</DistanceMeters>");
+        if (point.getHeartRate() > 0) {
+            _writer.write("<HeartRateBpm><Value>");
+            writeLong(point.getHeartRate());
+            _writer.write("</Value></HeartRateBpm>");
+        }
+        if (point.getCadence() > 0) {
+            _writer.write("<Cadence>");
+            writeLong(Math.min(point.getCadence(), 254));
+            _writer.write("</Cadence>");
+        }
+        _writer.write("</Trackpoint>\n");
+        _nbPoints++;
+    }
+
+    private void writeDecimal(double value, int decimals) throws IOException {
+        _writer.write(_chars, 0, TextFormat.appendDecimal(_chars, 0, value, decimals));
+    }
+
+    private void writeLong(long value) throws IOException {
+        _writer.write(_chars, 0, TextFormat.appendLong(_chars, 0, value));
+    }
+
+    private void writeTime(long time) throws IOException {
+        _writer.write(_chars, 0, TextFormat.appendIsoTime(_chars, 0, time));
+    }
+}
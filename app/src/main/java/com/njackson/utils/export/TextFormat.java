@@ -0,0 +1,114 @@
+package com.njackson.utils.export;
+
+/**
+ * Number and time formatting into a char buffer, for the text exports (GPX, TCX).
+ *
+ * String.format, DecimalFormat and SimpleDateFormat allocate for every value and are slow,
+ * these write the characters in place and return the new position in the buffer.
+ */
+public class TextFormat {
+
+    private static final long[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    // worst case for appendDecimal/appendLong
+    public static final int MAX_NUMBER_LENGTH = 24;
+    // yyyy-MM-ddTHH:mm:ss.SSSZ
+    public static final int MAX_TIME_LENGTH = 24;
+
+    public static int appendLong(char[] buffer, int position, long value) {
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        if (value == 0) {
+            buffer[position++] = '0';
+            return position;
+        }
+        int start = position;
+        while (value > 0) {
+            buffer[position++] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        reverse(buffer, start, position - 1);
+        return position;
+    }
+
+    // value rounded to decimals (0..9) decimals, trailing zeros are kept
+    public static int appendDecimal(char[] buffer, int position, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            buffer[position++] = '0';
+            return position;
+        }
+        long scaled = Math.round(Math.abs(value) * POW10[decimals]);
+        if (value < 0 && scaled != 0) {
+            buffer[position++] = '-';
+        }
+        position = appendLong(buffer, position, scaled / POW10[decimals]);
+        if (decimals > 0) {
+            buffer[position++] = '.';
+            long fraction = scaled % POW10[decimals];
+            for (int i = decimals - 1; i >= 0; i--) {
+                buffer[position + i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            position += decimals;
+        }
+        return position;
+    }
+
+    // ISO 8601 UTC, 2015-10-16T09:27:50Z, milliseconds only when not 0
+    public static int appendIsoTime(char[] buffer, int position, long time) {
+        long days = floorDiv(time, 86400000l);
+        int ms = (int) (time - days * 86400000l);
+
+        // civil date from days since 1970-01-01 (proleptic gregorian)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        position = appendPadded(buffer, position, (int) year, 4);
+        buffer[position++] = '-';
+        position = appendPadded(buffer, position, month, 2);
+        buffer[position++] = '-';
+        position = appendPadded(buffer, position, day, 2);
+        buffer[position++] = 'T';
+        position = appendPadded(buffer, position, ms / 3600000, 2);
+        buffer[position++] = ':';
+        position = appendPadded(buffer, position, ms / 60000 % 60, 2);
+        buffer[position++] = ':';
+        position = appendPadded(buffer, position, ms / 1000 % 60, 2);
+        if (ms % 1000 != 0) {
+            buffer[position++] = '.';
+            position = appendPadded(buffer, position, ms % 1000, 3);
+        }
+        buffer[position++] = 'Z';
+        return position;
+    }
+
+    private static int appendPadded(char[] buffer, int position, int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            buffer[position + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + width;
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+    }
+
+    private static void reverse(char[] buffer, int from, int to) {
+        while (from < to) {
+            char c = buffer[from];
+            buffer[from++] = buffer[to];
+            buffer[to--] = c;
+        }
+    }
+}
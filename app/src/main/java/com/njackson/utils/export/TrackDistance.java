@@ -0,0 +1,32 @@
+package com.njackson.utils.export;
+
+/**
+ * Cumulative distance along the exported points, for the formats with a distance per point (FIT, TCX).
+ *
+ * Equirectangular approximation between consecutive points: the error is negligible at a few
+ * meters between points.
+ */
+public class TrackDistance {
+
+    private static final double EARTH_RADIUS = 6371008.8; // m, mean radius
+
+    private double _distance = 0;
+    private double _latitude = Double.NaN;
+    private double _longitude = Double.NaN;
+
+    // returns the distance from the first point (m)
+    public double add(double latitude, double longitude) {
+        if (!Double.isNaN(_latitude)) {
+            double x = Math.toRadians(longitude - _longitude) * Math.cos(Math.toRadians((latitude + _latitude) / 2));
+            double y = Math.toRadians(latitude - _latitude);
+            _distance += EARTH_RADIUS * Math.sqrt(x * x + y * y);
+        }
+        _latitude = latitude;
+        _longitude = longitude;
+        return _distance;
+    }
+
+    public double getDistance() {
+        return _distance;
+    }
+}
@@ -0,0 +1,93 @@
+package com.njackson.utils.geo;
+
+import java.util.Arrays;
+
+/**
+ * Integer geohash: the latitude and longitude cell indexes interleaved, longitude first, as in the
+ * geohash strings (5 bits per character). A cell of b bits contains the cells of b + 2k bits
+ * whose hashes start with its hash: a contiguous range of hashes.
+ */
+public class Geohash {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private static final double METERS_PER_DEGREE_LAT = 111132.0;
+    private static final double METERS_PER_DEGREE_LON = 111320.0;
+
+    // bits: even, at most 62
+    public static long encode(double latitude, double longitude, int bits) {
+        int n = bits / 2;
+        return interleave(index(latitude, 90, n), index(longitude, 180, n), n);
+    }
+
+    // base32 string, bits multiple of 5 (30 bits: 6 characters, ~1.2 x 0.6 km)
+    public static String toString(long hash, int bits) {
+        char[] chars = new char[bits / 5];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = BASE32.charAt((int) (hash >> (bits - 5 * (i + 1))) & 0x1F);
+        }
+        return new String(chars);
+    }
+
+    // cells of bits covering the box (longitude not wrapped at +-180), in out; -1 if more than out.length
+    public static int cover(double latMin, double latMax, double lonMin, double lonMax, int bits, long[] out) {
+        int n = bits / 2;
+        long latFrom = index(latMin, 90, n);
+        long latTo = index(latMax, 90, n);
+        long lonFrom = index(lonMin, 180, n);
+        long lonTo = index(lonMax, 180, n);
+        if ((latTo - latFrom + 1) * (lonTo - lonFrom + 1) > out.length) {
+            return -1;
+        }
+        int count = 0;
+        for (long lat = latFrom; lat <= latTo; lat++) {
+            for (long lon = lonFrom; lon <= lonTo; lon++) {
+                out[count++] = interleave(lat, lon, n);
+            }
+        }
+        return count;
+    }
+
+    // ranges [ranges[2i], ranges[2i + 1]] of cells of bits within radius metres of a point, with
+    // at most maxCells coarser cells: returns the number of ranges, sorted and merged
+    public static int coverRadius(double latitude, double longitude, double radius, int bits, int maxCells, long[] ranges) {
+        double dLat = radius / METERS_PER_DEGREE_LAT;
+        double dLon = radius / (METERS_PER_DEGREE_LON * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+        long[] cells = new long[maxCells];
+        int level = bits;
+        int count;
+        while ((count = cover(latitude - dLat, latitude + dLat, longitude - dLon, longitude + dLon, level, cells)) < 0) {
+            level -= 2;
+        }
+        Arrays.sort(cells, 0, count);
+        int shift = bits - level;
+        int nbRanges = 0;
+        for (int i = 0; i < count; i++) {
+            long from = cells[i] << shift;
+            long to = ((cells[i] + 1) << shift) - 1;
+            if (nbRanges > 0 && ranges[2 * nbRanges - 1] + 1 == from) {
+                // adjacent in Z order
+                ranges[2 * nbRanges - 1] = to;
+            } else {
+                ranges[2 * nbRanges] = from;
+                ranges[2 * nbRanges + 1] = to;
+                nbRanges++;
+            }
+        }
+        return nbRanges;
+    }
+
+    private static long index(double value, double range, int n) {
+        long cells = 1l << n;
+        long index = (long) Math.floor((value + range) / (2 * range) * cells);
+        return Math.min(Math.max(index, 0), cells - 1);
+    }
+
+    private static long interleave(long lat, long lon, int n) {
+        long hash = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            hash = (hash << 2) | (((lon >> i) & 1) << 1) | ((lat >> i) & 1);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,137 @@
+package com.njackson.utils.geo;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Geoid heights from a global grid of big endian shorts (cm), memory mapped.
+ *
+ * rows x 2 * (rows - 1) samples: rows from 90 N to 90 S, columns from 0 E eastwards, the last
+ * column wraps to the first. EGM96 at 15' (egm96-15.bin) is 721 x 1440 samples, 2 MB. The height
+ * is the bilinear interpolation of the 4 samples around, no allocation.
+ *
+ * The grid ships as an asset, converted once by generateGeoidGrid (app/build.gradle), and is
+ * copied once to a file that can be mapped (assets are compressed). Without the asset, NaN.
+ * The copy and the mapping are done on the first lookup, not in the constructor.
+ */
+public class GeoidGrid implements IGeoidModel {
+
+    private static final String TAG = "PB-GeoidGrid";
+
+    private final AssetManager _assets;
+    private final String _assetName;
+    private final File _file;
+
+    private boolean _loaded = false;
+    private ShortBuffer _grid = null;
+    private int _nbRows;
+    private int _nbColumns;
+    private double _resolution; // degrees
+
+    // file already installed (tests)
+    public GeoidGrid(File file) {
+        this(null, null, file);
+    }
+
+    public GeoidGrid(AssetManager assets, String assetName, File file) {
+        _assets = assets;
+        _assetName = assetName;
+        _file = file;
+    }
+
+    @Override
+    public synchronized double getGeoidHeight(double latitude, double longitude) {
+        if (!_loaded) {
+            load();
+        }
+        if (_grid == null || !(latitude >= -90 && latitude <= 90) || Double.isInfinite(longitude) || Double.isNaN(longitude)) {
+            return Double.NaN;
+        }
+        double lon = longitude % 360;
+        if (lon < 0) {
+            lon += 360;
+        }
+        double y = (90 - latitude) / _resolution;
+        double x = lon / _resolution;
+        int row = Math.min((int) y, _nbRows - 2);
+        int column = Math.min((int) x, _nbColumns - 1);
+        double fy = y - row;
+        double fx = x - column;
+        int i = row * _nbColumns;
+        int column1 = column + 1 == _nbColumns ? 0 : column + 1;
+        double h0 = (1 - fx) * _grid.get(i + column) + fx * _grid.get(i + column1);
+        double h1 = (1 - fx) * _grid.get(i + _nbColumns + column) + fx * _grid.get(i + _nbColumns + column1);
+        return ((1 - fy) * h0 + fy * h1) / 100;
+    }
+
+    private void load() {
+        _loaded = true;
+        if (!_file.exists() && (_assets == null || !install())) {
+            Log.d(TAG, "no geoid grid " + _file);
+            return;
+        }
+        long length = _file.length();
+        // length = 2 * rows * 2 * (rows - 1)
+        int rows = (int) Math.round((1 + Math.sqrt(1 + length)) / 2);
+        if (rows < 2 || 4l * rows * (rows - 1) != length) {
+            Log.e(TAG, "not a geoid grid: " + _file + " " + length + " bytes");
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(_file, "r");
+            try {
+                // the mapping stays valid after close
+                _grid = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length)
+                        .order(ByteOrder.BIG_ENDIAN).asShortBuffer();
+            } finally {
+                raf.close();
+            }
+            _nbRows = rows;
+            _nbColumns = 2 * (rows - 1);
+            _resolution = 180.0 / (rows - 1);
+            Log.d(TAG, "mapped " + _file + " " + _nbRows + "x" + _nbColumns);
+        } catch (IOException e) {
+            Log.e(TAG, "load " + _file, e);
+        }
+    }
+
+    // copies the asset, renamed when complete
+    private boolean install() {
+        File tmp = new File(_file.getPath() + ".tmp");
+        try {
+            InputStream in = _assets.open(_assetName);
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    byte[] buffer = new byte[16384];
+                    int count;
+                    while ((count = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (!tmp.renameTo(_file)) {
+                throw new IOException("rename " + tmp + " failed");
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "install " + _assetName, e);
+            tmp.delete();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.njackson.utils.geo;
+
+/**
+ * Ground elevation from a terrain model.
+ */
+public interface IElevationModel {
+
+    // m above the geoid (mean sea level), NaN where the model has no data
+    double getElevation(double latitude, double longitude);
+}
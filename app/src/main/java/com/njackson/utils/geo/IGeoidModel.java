@@ -0,0 +1,10 @@
+package com.njackson.utils.geo;
+
+/**
+ * Height of the geoid (mean sea level) above the WGS84 ellipsoid.
+ */
+public interface IGeoidModel {
+
+    // m, NaN if the model is not available
+    double getGeoidHeight(double latitude, double longitude);
+}
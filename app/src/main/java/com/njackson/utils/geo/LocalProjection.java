@@ -0,0 +1,112 @@
+package com.njackson.utils.geo;
+
+/**
+ * Local tangent plane projection anchored on the first location of the ride, used for the
+ * watch map (xpos/ypos).
+ *
+ * Replaces firstLocation.distanceTo(location) / bearingTo(location) (two ellipsoid solves per point)
+ * by a second order expansion of the azimuthal equidistant projection: the metres per degree
+ * factors are computed once in setOrigin(), then each point costs a few multiplications.
+ *
+ * Difference with distanceTo/bearingTo (worst case, all bearings):
+ * - 10 km from the origin: < 0.1 m
+ * - 50 km: < 2.5 m up to 60 degrees of latitude
+ * - 100 km: < 10 m up to 45 degrees, < 20 m at 60 degrees
+ * The watch map unit is 10 m.
+ */
+public class LocalProjection {
+
+    private static final String TAG = "PB-LocalProjection";
+
+    private boolean _hasOrigin = false;
+    private double _originLatitude;
+    private double _originLongitude;
+
+    // WGS84 metres per degree at the origin latitude
+    private double _metersPerDegreeLat;
+    private double _metersPerDegreeLon;
+    // d(metres per degree of longitude) / d(latitude in degrees)
+    private double _metersPerDegreeLonSlope;
+    // meridian convergence term: y offset of a point on the origin parallel, per squared degree of longitude
+    private double _convergence;
+
+    public boolean hasOrigin() {
+        return _hasOrigin;
+    }
+
+    public double getOriginLatitude() {
+        return _originLatitude;
+    }
+
+    public double getOriginLongitude() {
+        return _originLongitude;
+    }
+
+    public void setOrigin(double latitude, double longitude) {
+        if (_hasOrigin && latitude == _originLatitude && longitude == _originLongitude) {
+            return;
+        }
+        _originLatitude = latitude;
+        _originLongitude = longitude;
+
+        double phi = Math.toRadians(latitude);
+        _metersPerDegreeLat = 111132.92 - 559.82 * Math.cos(2 * phi) + 1.175 * Math.cos(4 * phi) - 0.0023 * Math.cos(6 * phi);
+        _metersPerDegreeLon = 111412.84 * Math.cos(phi) - 93.5 * Math.cos(3 * phi) + 0.118 * Math.cos(5 * phi);
+        _metersPerDegreeLonSlope = Math.toRadians(-111412.84 * Math.sin(phi) + 3 * 93.5 * Math.sin(3 * phi) - 5 * 0.118 * Math.sin(5 * phi));
+        _convergence = _metersPerDegreeLon * Math.sin(phi) * Math.PI / 360;
+        _hasOrigin = true;
+    }
+
+    public void reset() {
+        _hasOrigin = false;
+    }
+
+    // east-west distance from the origin, in metres (positive to the east)
+    public double getX(double latitude, double longitude) {
+        double dLon = deltaLongitude(longitude);
+        double dLat = latitude - _originLatitude;
+        return dLon * (_metersPerDegreeLon + _metersPerDegreeLonSlope * dLat);
+    }
+
+    // north-south distance from the origin, in metres (positive to the north)
+    public double getY(double latitude, double longitude) {
+        double dLon = deltaLongitude(longitude);
+        double dLat = latitude - _originLatitude;
+        return dLat * _metersPerDegreeLat + dLon * dLon * _convergence;
+    }
+
+    // inverse of getX/getY (fixed point iteration, the second order terms are small)
+    public double getLatitude(double x, double y) {
+        return _originLatitude + inverseDeltaLatitude(x, y);
+    }
+
+    public double getLongitude(double x, double y) {
+        double dLat = inverseDeltaLatitude(x, y);
+        double longitude = _originLongitude + x / (_metersPerDegreeLon + _metersPerDegreeLonSlope * dLat);
+        if (longitude > 180) {
+            longitude -= 360;
+        } else if (longitude < -180) {
+            longitude += 360;
+        }
+        return longitude;
+    }
+
+    private double inverseDeltaLatitude(double x, double y) {
+        double dLon = x / _metersPerDegreeLon;
+        double dLat = (y - dLon * dLon * _convergence) / _metersPerDegreeLat;
+        dLon = x / (_metersPerDegreeLon + _metersPerDegreeLonSlope * dLat);
+        dLat = (y - dLon * dLon * _convergence) / _metersPerDegreeLat;
+        dLon = x / (_metersPerDegreeLon + _metersPerDegreeLonSlope * dLat);
+        return (y - dLon * dLon * _convergence) / _metersPerDegreeLat;
+    }
+
+    private double deltaLongitude(double longitude) {
+        double dLon = longitude - _originLongitude;
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        return dLon;
+    }
+}
@@ -0,0 +1,156 @@
+package com.njackson.utils.geo;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Elevations from SRTM .hgt tiles installed by the user in a directory (N45E005.hgt: 1 x 1 degree
+ * from its south west corner). A tile is n x n big endian shorts (m), rows from north to south,
+ * n = 3601 (SRTM1), 1201 (SRTM3) or any other size; -32768 marks a void.
+ *
+ * The tiles are memory mapped, MAX_TILES at most (LRU, missing tiles included so a missing file is
+ * looked up once). A lookup in the tile of the previous one is a key comparison and 4 reads,
+ * without allocation; the elevation is the bilinear interpolation of the samples around, voids
+ * ignored.
+ */
+public class SrtmElevationModel implements IElevationModel {
+
+    private static final String TAG = "PB-SrtmElevationModel";
+
+    static final int MAX_TILES = 9;
+    static final short VOID = -32768;
+
+    private final File _directory;
+
+    // LRU slots: tile key, mapped samples (null: no tile), samples per side, last use
+    private final int[] _keys = new int[MAX_TILES];
+    private final ShortBuffer[] _tiles = new ShortBuffer[MAX_TILES];
+    private final int[] _sizes = new int[MAX_TILES];
+    private final long[] _lastUse = new long[MAX_TILES];
+    private long _clock = 0;
+    private int _lastSlot = -1;
+
+    public SrtmElevationModel(File directory) {
+        _directory = directory;
+        clear();
+    }
+
+    // forgets the tiles (new tiles installed)
+    public synchronized void clear() {
+        for (int i = 0; i < MAX_TILES; i++) {
+            _keys[i] = -1;
+            _tiles[i] = null;
+        }
+        _lastSlot = -1;
+    }
+
+    @Override
+    public synchronized double getElevation(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude < 90 && longitude >= -180 && longitude < 180)) {
+            return Double.NaN;
+        }
+        int south = (int) Math.floor(latitude);
+        int west = (int) Math.floor(longitude);
+        int key = (south + 90) * 360 + west + 180;
+        int slot = _lastSlot >= 0 && _keys[_lastSlot] == key ? _lastSlot : slot(key, south, west);
+        _lastSlot = slot;
+        _lastUse[slot] = ++_clock;
+        ShortBuffer tile = _tiles[slot];
+        if (tile == null) {
+            return Double.NaN;
+        }
+
+        int n = _sizes[slot];
+        double y = (south + 1 - latitude) * (n - 1);
+        double x = (longitude - west) * (n - 1);
+        int row = Math.min((int) y, n - 2);
+        int column = Math.min((int) x, n - 2);
+        double fy = y - row;
+        double fx = x - column;
+        int i = row * n + column;
+        short h00 = tile.get(i);
+        short h01 = tile.get(i + 1);
+        short h10 = tile.get(i + n);
+        short h11 = tile.get(i + n + 1);
+        double w00 = (1 - fx) * (1 - fy);
+        double w01 = fx * (1 - fy);
+        double w10 = (1 - fx) * fy;
+        double w11 = fx * fy;
+
+        double sum = 0;
+        double weight = 0;
+        if (h00 != VOID) {
+            sum += w00 * h00;
+            weight += w00;
+        }
+        if (h01 != VOID) {
+            sum += w01 * h01;
+            weight += w01;
+        }
+        if (h10 != VOID) {
+            sum += w10 * h10;
+            weight += w10;
+        }
+        if (h11 != VOID) {
+            sum += w11 * h11;
+            weight += w11;
+        }
+        return weight > 0 ? sum / weight : Double.NaN;
+    }
+
+    // slot of the tile, loaded in the least recently used slot if needed
+    private int slot(int key, int south, int west) {
+        int lru = 0;
+        for (int i = 0; i < MAX_TILES; i++) {
+            if (_keys[i] == key) {
+                return i;
+            }
+            if (_keys[i] < 0 || (_keys[lru] >= 0 && _lastUse[i] < _lastUse[lru])) {
+                lru = i;
+            }
+        }
+        _keys[lru] = key;
+        _tiles[lru] = null;
+        File file = new File(_directory, tileName(south, west));
+        if (file.exists()) {
+            load(lru, file);
+        }
+        return lru;
+    }
+
+    private void load(int slot, File file) {
+        long length = file.length();
+        int n = (int) Math.round(Math.sqrt(length / 2.0));
+        if (n < 2 || 2l * n * n != length) {
+            Log.e(TAG, "not a tile: " + file + " " + length + " bytes");
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // the mapping stays valid after close
+                _tiles[slot] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length)
+                        .order(ByteOrder.BIG_ENDIAN).asShortBuffer();
+                _sizes[slot] = n;
+            } finally {
+                raf.close();
+            }
+            Log.d(TAG, "mapped " + file + " " + n + "x" + n);
+        } catch (IOException e) {
+            Log.e(TAG, "load " + file, e);
+        }
+    }
+
+    // N45E005.hgt
+    public static String tileName(int south, int west) {
+        return String.format(Locale.US, "%s%02d%s%03d.hgt", south >= 0 ? "N" : "S", Math.abs(south),
+                west >= 0 ? "E" : "W", Math.abs(west));
+    }
+}
@@ -0,0 +1,163 @@
+package com.njackson.utils.geo;
+
+import com.njackson.rides.RidePoint;
+
+/**
+ * Streaming track simplification (opening window Douglas-Peucker): points are dropped while they
+ * all stay within tolerance metres of the segment from the last kept point (the anchor) to the
+ * current point. When a point does not fit, or the window is full, the previous point is kept and
+ * becomes the anchor.
+ *
+ * Every dropped point is within tolerance of the segment between the kept points around it. Memory
+ * is bounded by the window (2 doubles per point), a kept point is known at most window points
+ * later, and a point costs at most window distance checks.
+ *
+ * Point in, point out: a stage in front of any writer (see GpxWriter.writePoints) or uploader
+ * (LiveTracking). The max and rms distances of the dropped points to the simplified track are
+ * kept, they come from the distance checks.
+ */
+public class TrackSimplifier {
+
+    private static final String TAG = "PB-TrackSimplifier";
+
+    // ~2 minutes at 1Hz
+    public static final int DEFAULT_WINDOW = 128;
+
+    private final double _tolerance2;
+    private final int _window;
+    // points after the anchor, metres from the anchor
+    private final double[] _x;
+    private final double[] _y;
+    private int _nbBuffered = 0;
+    private boolean _hasAnchor = false;
+    private final LocalProjection _projection = new LocalProjection();
+    private final RidePoint _previous = new RidePoint();
+    private int _nbPointsIn = 0;
+    private int _nbPointsOut = 0;
+
+    // squared distances of the points dropped between the anchor and _previous (last successful fits)
+    private double _fitMax2 = 0;
+    private double _fitSum2 = 0;
+    private double _segmentMax2 = 0;
+    private double _segmentSum2 = 0;
+    private int _segmentNbDropped = 0;
+    // all the dropped points
+    private double _max2 = 0;
+    private double _sum2 = 0;
+    private int _nbDropped = 0;
+
+    // tolerance in metres
+    public TrackSimplifier(double tolerance) {
+        this(tolerance, DEFAULT_WINDOW);
+    }
+
+    public TrackSimplifier(double tolerance, int window) {
+        _tolerance2 = tolerance * tolerance;
+        _window = window;
+        _x = new double[window];
+        _y = new double[window];
+    }
+
+    public int getNbPointsIn() {
+        return _nbPointsIn;
+    }
+
+    public int getNbPointsOut() {
+        return _nbPointsOut;
+    }
+
+    // m, distance of the dropped points to the simplified track, 0 if none
+    public double getMaxError() {
+        return Math.sqrt(_max2);
+    }
+
+    public double getRmsError() {
+        return _nbDropped > 0 ? Math.sqrt(_sum2 / _nbDropped) : 0;
+    }
+
+    // returns true if a point is kept, it is copied to out (point and out can be reused by the caller)
+    public boolean add(RidePoint point, RidePoint out) {
+        _nbPointsIn++;
+        if (!_hasAnchor) {
+            setAnchor(point);
+            return keep(point, out);
+        }
+        double x = _projection.getX(point.getLatitude(), point.getLongitude());
+        double y = _projection.getY(point.getLatitude(), point.getLongitude());
+        if (_nbBuffered < _window && fits(x, y)) {
+            _segmentMax2 = _fitMax2;
+            _segmentSum2 = _fitSum2;
+            _segmentNbDropped = _nbBuffered;
+            _x[_nbBuffered] = x;
+            _y[_nbBuffered] = y;
+            _nbBuffered++;
+            _previous.set(point);
+            return false;
+        }
+        keep(_previous, out);
+        endSegment();
+        setAnchor(_previous);
+        _x[0] = _projection.getX(point.getLatitude(), point.getLongitude());
+        _y[0] = _projection.getY(point.getLatitude(), point.getLongitude());
+        _nbBuffered = 1;
+        _previous.set(point);
+        return true;
+    }
+
+    // end of the track: returns true if the last point has to be kept, then the simplifier can be reused
+    public boolean finish(RidePoint out) {
+        boolean kept = _nbBuffered > 0 && keep(_previous, out);
+        endSegment();
+        _hasAnchor = false;
+        _nbBuffered = 0;
+        return kept;
+    }
+
+    private boolean keep(RidePoint point, RidePoint out) {
+        out.set(point);
+        _nbPointsOut++;
+        return true;
+    }
+
+    // the points dropped between the anchor and the kept point
+    private void endSegment() {
+        _max2 = Math.max(_max2, _segmentMax2);
+        _sum2 += _segmentSum2;
+        _nbDropped += _segmentNbDropped;
+        _segmentMax2 = 0;
+        _segmentSum2 = 0;
+        _segmentNbDropped = 0;
+    }
+
+    private void setAnchor(RidePoint point) {
+        _projection.setOrigin(point.getLatitude(), point.getLongitude());
+        _hasAnchor = true;
+        _nbBuffered = 0;
+    }
+
+    // true if all the buffered points are within tolerance of the segment from the anchor to (x, y)
+    private boolean fits(double x, double y) {
+        double length2 = x * x + y * y;
+        double max2 = 0;
+        double sum2 = 0;
+        for (int i = 0; i < _nbBuffered; i++) {
+            double t = length2 > 0 ? (_x[i] * x + _y[i] * y) / length2 : 0;
+            if (t < 0) {
+                t = 0;
+            } else if (t > 1) {
+                t = 1;
+            }
+            double dx = _x[i] - t * x;
+            double dy = _y[i] - t * y;
+            double d2 = dx * dx + dy * dy;
+            if (d2 > _tolerance2) {
+                return false;
+            }
+            max2 = Math.max(max2, d2);
+            sum2 += d2;
+        }
+        _fitMax2 = max2;
+        _fitSum2 = sum2;
+        return true;
+    }
+}
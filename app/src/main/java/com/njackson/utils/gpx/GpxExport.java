@@ -3,12 +3,26 @@ package com.njackson.utils.gpx;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.njackson.rides.IRideRepository;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.rides.RideSummary;
+import com.njackson.utils.export.ExportProgressNotification;
+import com.njackson.utils.export.FitWriter;
+import com.njackson.utils.export.TcxWriter;
+import com.njackson.utils.geo.IElevationModel;
+import com.njackson.utils.geo.TrackSimplifier;
+
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
 
 import fr.jayps.android.AdvancedLocation;
 
@@ -18,20 +32,60 @@ public class GpxExport {
 
     private static final String TAG = "PB-GpxExport";
 
-    public static void export(Context context, boolean extended_gpx) {
+    // m, SIMPLIFY_GPX preference
+    static final double SIMPLIFY_TOLERANCE = 2;
+
+    // format: "gpx", "fit" or "tcx" (EXPORT_FORMAT preference), simplify_gpx: GPX of the ride history only
+    // elevationModel: corrects the altitudes of the ride history (DEM_ALTITUDE preference), null to keep them
+    public static void export(Context context, IRideRepository rideRepository, String format, boolean extended_gpx, boolean simplify_gpx,
+                              IElevationModel elevationModel) {
         Toast.makeText(context, "Please wait while generating the file", Toast.LENGTH_LONG).show();
         final Context _context = context;
+        final IRideRepository _rideRepository = rideRepository;
+        final String _format = format;
         final boolean _extended_gpx = extended_gpx;
+        final boolean _simplify_gpx = simplify_gpx;
+        final IElevationModel _elevationModel = elevationModel;
         new Thread(new Runnable() {
             public void run() {
-                AdvancedLocation advancedLocation = new AdvancedLocation(_context);
-                String gpx = advancedLocation.getGPX(_extended_gpx);
-
                 try {
-                    File newFile = new File(_context.getCacheDir(), "track.gpx");
-                    FileWriter fileWriter = new FileWriter(newFile);
-                    fileWriter.write(gpx);
-                    fileWriter.close();
+                    File newFile;
+                    String type;
+                    List<RideSummary> rides = _rideRepository.getRides();
+                    if (rides.size() == 0 && ("fit".equals(_format) || "tcx".equals(_format))) {
+                        // the track saved before the ride history can only be exported as GPX
+                        showMessage(_context, _format.toUpperCase(Locale.US) + " export needs a recorded ride: check \"Enable tracks\" and start the GPS");
+                        return;
+                    }
+                    RidePointIterator points = null;
+                    RideSummary ride = null;
+                    if (rides.size() > 0) {
+                        // most recent ride
+                        points = points(_rideRepository, rides.get(0), _elevationModel);
+                        // getPoints() flushed the ride in progress: the totals of the exported points
+                        ride = _rideRepository.getRide(rides.get(0).getId());
+                        if (ride == null) {
+                            ride = rides.get(0);
+                        }
+                    }
+                    if ("fit".equals(_format)) {
+                        newFile = new File(_context.getCacheDir(), "track.fit");
+                        type = "application/vnd.ant.fit";
+                        writeFit(_context, points, ride, newFile);
+                    } else if ("tcx".equals(_format)) {
+                        newFile = new File(_context.getCacheDir(), "track.tcx");
+                        type = "application/vnd.garmin.tcx+xml";
+                        writeTcx(_context, points, ride, newFile);
+                    } else {
+                        newFile = new File(_context.getCacheDir(), "track.gpx");
+                        type = "application/gpx+xml";
+                        if (ride != null) {
+                            writeGpx(_context, points, ride, _extended_gpx, _simplify_gpx, newFile);
+                        } else {
+                            // track saved before the ride history
+                            writeLegacyGpx(_context, _extended_gpx, newFile);
+                        }
+                    }
                     Uri contentUri = getUriForFile(_context, "com.njackson.fileprovider", newFile);
 
                     //Log.d(TAG, contentUri.toString());
@@ -41,15 +95,80 @@ public class GpxExport {
                     sendIntent.setAction(Intent.ACTION_SEND);
                     sendIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
                     sendIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                    sendIntent.setType("application/gpx+xml");
+                    sendIntent.setType(type);
                     //sendIntent.putExtra(Intent.EXTRA_SUBJECT, "[Subject]");
                     sendIntent.putExtra(Intent.EXTRA_TEXT, "GPS track generated by http://www.pebblebike.com");
 
                     _context.startActivity(sendIntent);
                 } catch (IOException e) {
-                    Log.d(TAG, "Error while creating file");
+                    Log.e(TAG, "Error while creating file", e);
+                    showMessage(_context, "Export failed: " + e.getMessage());
                 }
             }
         }).start();
     }
+
+    // from the export thread
+    private static void showMessage(final Context context, final String message) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    private static RidePointIterator points(IRideRepository rideRepository, RideSummary ride, IElevationModel elevationModel) {
+        RidePointIterator points = rideRepository.getPoints(ride.getId());
+        points.setElevationModel(elevationModel);
+        return points;
+    }
+
+    // streams the points from the ride history, memory does not depend on the length of the ride
+    private static void writeGpx(Context context, RidePointIterator points, RideSummary ride, boolean extended, boolean simplify, File file) throws IOException {
+        ExportProgressNotification progress = new ExportProgressNotification(context, "Exporting GPX");
+        long start = System.currentTimeMillis();
+        GpxWriter writer = new GpxWriter(new FileOutputStream(file), extended);
+        TrackSimplifier simplifier = simplify ? new TrackSimplifier(SIMPLIFY_TOLERANCE) : null;
+        try {
+            writer.writeHeader("Ventoo", ride.getStartTime());
+            writer.writePoints(points, simplifier, progress);
+        } finally {
+            writer.close();
+            progress.done();
+        }
+        Log.d(TAG, "writeGpx: " + writer.getNbPoints() + " points in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void writeFit(Context context, RidePointIterator points, RideSummary ride, File file) throws IOException {
+        ExportProgressNotification progress = new ExportProgressNotification(context, "Exporting FIT");
+        long start = System.currentTimeMillis();
+        try {
+            new FitWriter(new FileOutputStream(file)).writeRide(ride, points, progress);
+        } finally {
+            progress.done();
+        }
+        Log.d(TAG, "writeFit: " + file.length() + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void writeTcx(Context context, RidePointIterator points, RideSummary ride, File file) throws IOException {
+        ExportProgressNotification progress = new ExportProgressNotification(context, "Exporting TCX");
+        long start = System.currentTimeMillis();
+        TcxWriter writer = new TcxWriter(new FileOutputStream(file));
+        try {
+            writer.writeRide(ride, points, progress);
+        } finally {
+            progress.done();
+        }
+        Log.d(TAG, "writeTcx: " + writer.getNbPoints() + " points in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void writeLegacyGpx(Context context, boolean extended, File file) throws IOException {
+        AdvancedLocation advancedLocation = new AdvancedLocation(context);
+        String gpx = advancedLocation.getGPX(extended);
+
+        FileWriter fileWriter = new FileWriter(file);
+        fileWriter.write(gpx);
+        fileWriter.close();
+    }
 }
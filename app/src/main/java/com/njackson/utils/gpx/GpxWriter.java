@@ -0,0 +1,151 @@
+package com.njackson.utils.gpx;
+
+import com.njackson.rides.RidePoint;
+import com.njackson.rides.RidePointIterator;
+import com.njackson.utils.export.IExportListener;
+import com.njackson.utils.export.TextFormat;
+import com.njackson.utils.geo.TrackSimplifier;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streaming GPX 1.1 writer: points are written as they are read, through a buffered UTF-8 writer,
+ * memory does not depend on the length of the track.
+ *
+ * Numbers and times are formatted in a reused char buffer (TextFormat). With extended, heart rate
+ * and cadence are written as Garmin TrackPointExtension.
+ */
+public class GpxWriter {
+
+    private static final String TAG = "PB-GpxWriter";
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    // progress is reported every PROGRESS_INTERVAL points
+    static final int PROGRESS_INTERVAL = 500;
+
+    private final Writer _writer;
+    private final boolean _extended;
+    private final char[] _chars = new char[TextFormat.MAX_NUMBER_LENGTH + TextFormat.MAX_TIME_LENGTH];
+    private int _nbPoints = 0;
+
+    public GpxWriter(OutputStream out, boolean extended) throws IOException {
+        _writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+        _extended = extended;
+    }
+
+    public int getNbPoints() {
+        return _nbPoints;
+    }
+
+    public void writeHeader(String name, long time) throws IOException {
+        _writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        _writer.write("<gpx version=\"1.1\" creator=\"Ventoo http://www.pebblebike.com\"\n");
+        _writer.write(" xmlns=\"http://www.topografix.com/GPX/1/1\"\n");
+        if (_extended) {
+            _writer.write(" xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v1\"\n");
+        }
+        _writer.write(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n");
+        _writer.write(" xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">\n");
+        _writer.write("<metadata><time>");
+        writeTime(time);
+        _writer.write("</time></metadata>\n");
+        _writer.write("<trk><name>");
+        writeEscaped(name);
+        _writer.write("</name><trkseg>\n");
+    }
+
+    public void writePoint(RidePoint point) throws IOException {
+        _writer.write("<trkpt lat=\"");
+        writeDecimal(point.getLatitude(), 7);
+        _writer.write("\" lon=\"");
+        writeDecimal(point.getLongitude(), 7);
+        _writer.write("\"><ele>");
+        writeDecimal(point.getAltitude(), 1);
+        _writer.write("</ele><time>");
+        writeTime(point.getTime());
+        _writer.write("</time>");
+        if (_extended && (point.getHeartRate() > 0 || point.getCadence() > 0)) {
+            _writer.write("<extensions><gpxtpx:TrackPointExtension>");
+            if (point.getHeartRate() > 0) {
+                _writer.write("<gpxtpx:hr>");
+                writeLong(point.getHeartRate());
+                _writer.write("</gpxtpx:hr>");
+            }
+            if (point.getCadence() > 0) {
+                _writer.write("<gpxtpx:cad>");
+                writeLong(point.getCadence());
+                _writer.write("</gpxtpx:cad>");
+            }
+            _writer.write("</gpxtpx:TrackPointExtension></extensions>");
+        }
+        _writer.write("</trkpt>\n");
+        _nbPoints++;
+    }
+
+    // all the points of the iterator, listener may be null
+    public void writePoints(RidePointIterator iterator, IExportListener listener) throws IOException {
+        writePoints(iterator, null, listener);
+    }
+
+    // the points kept by simplifier (all the points if null), progress is in points read
+    public void writePoints(RidePointIterator iterator, TrackSimplifier simplifier, IExportListener listener) throws IOException {
+        RidePoint point = new RidePoint();
+        RidePoint kept = new RidePoint();
+        int nbRead = 0;
+        while (iterator.next(point)) {
+            nbRead++;
+            if (simplifier == null) {
+                writePoint(point);
+            } else if (simplifier.add(point, kept)) {
+                writePoint(kept);
+            }
+            if (listener != null && nbRead % PROGRESS_INTERVAL == 0) {
+                listener.onProgress(nbRead, iterator.getNbPoints());
+            }
+        }
+        if (simplifier != null && simplifier.finish(kept)) {
+            writePoint(kept);
+        }
+        if (listener != null) {
+            listener.onProgress(nbRead, iterator.getNbPoints());
+        }
+    }
+
+    // writes the end of the document and closes the stream
+    public void close() throws IOException {
+        try {
+            _writer.write("</trkseg></trk>\n</gpx>\n");
+        } finally {
+            _writer.close();
+        }
+    }
+
+    private void writeDecimal(double value, int decimals) throws IOException {
+        _writer.write(_chars, 0, TextFormat.appendDecimal(_chars, 0, value, decimals));
+    }
+
+    private void writeLong(long value) throws IOException {
+        _writer.write(_chars, 0, TextFormat.appendLong(_chars, 0, value));
+    }
+
+    private void writeTime(long time) throws IOException {
+        _writer.write(_chars, 0, TextFormat.appendIsoTime(_chars, 0, time));
+    }
+
+    private void writeEscaped(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': _writer.write("&lt;"); break;
+                case '>': _writer.write("&gt;"); break;
+                case '&': _writer.write("&amp;"); break;
+                case '"': _writer.write("&quot;"); break;
+                default: _writer.write(c);
+            }
+        }
+    }
+}